@@ -29,6 +29,7 @@ import eu.openanalytics.containerproxy.service.hearbeat.IHeartbeatProcessor;
 import eu.openanalytics.containerproxy.spec.IProxySpecProvider;
 import eu.openanalytics.containerproxy.util.LoggingConfigurer;
 import eu.openanalytics.containerproxy.util.ProxyMappingManager;
+import eu.openanalytics.containerproxy.util.ProxyRouteFastPath;
 import io.undertow.Handlers;
 import io.undertow.server.handlers.SameSiteCookieHandler;
 import io.undertow.servlet.api.ServletSessionConfig;
@@ -106,6 +107,8 @@ public class ContainerProxyApplication {
     @Inject
     private ProxyMappingManager mappingManager;
     @Inject
+    private ProxyRouteFastPath proxyRouteFastPath;
+    @Inject
     private DefaultCookieSerializer defaultCookieSerializer;
     @Autowired(required = false)
     private SessionManagerFactory sessionManagerFactory;
@@ -172,8 +175,9 @@ public class ContainerProxyApplication {
         // enable prometheus endpoint by default (but not the exporter)
         properties.put("management.endpoint.prometheus.enabled", "true");
         properties.put("management.endpoint.recyclable.enabled", "true");
+        properties.put("management.endpoint.proxyactions.enabled", "true");
         // include prometheus and health endpoint in exposure
-        properties.put("management.endpoints.web.exposure.include", "health,prometheus,recyclable");
+        properties.put("management.endpoints.web.exposure.include", "health,prometheus,recyclable,proxyactions");
 
         // ====================
 
@@ -275,6 +279,7 @@ public class ContainerProxyApplication {
         UndertowServletWebServerFactory factory = new UndertowServletWebServerFactory();
         factory.addDeploymentInfoCustomizers(info -> {
             info.setPreservePathOnForward(false); // required for the /api/route/{id}/ endpoint to work properly
+            info.addOuterHandlerChainWrapper(defaultHandler -> proxyRouteFastPath.createHttpHandler(defaultHandler));
             if (Boolean.parseBoolean(environment.getProperty("logging.requestdump", "false"))) {
                 info.addOuterHandlerChainWrapper(Handlers::requestDump);
             }
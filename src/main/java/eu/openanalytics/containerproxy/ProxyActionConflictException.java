@@ -0,0 +1,35 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy;
+
+/**
+ * Thrown when an action (e.g. pause) is requested for a proxy, while a conflicting action (e.g. resume) is still in
+ * progress for that proxy.
+ */
+public class ProxyActionConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = -3851243867920418529L;
+
+    public ProxyActionConflictException(String message) {
+        super(message);
+    }
+
+}
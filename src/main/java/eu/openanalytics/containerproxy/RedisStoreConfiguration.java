@@ -31,19 +31,24 @@ import eu.openanalytics.containerproxy.model.store.IHeartbeatStore;
 import eu.openanalytics.containerproxy.model.store.IProxyStore;
 import eu.openanalytics.containerproxy.model.store.redis.RedisHeartbeatStore;
 import eu.openanalytics.containerproxy.model.store.redis.RedisProxyStore;
+import eu.openanalytics.containerproxy.model.store.redis.RedisValueSerializer;
 import eu.openanalytics.containerproxy.service.IdentifierService;
 import eu.openanalytics.containerproxy.service.RedisEventBridge;
+import eu.openanalytics.containerproxy.service.RedisStreamEventBridge;
 import eu.openanalytics.containerproxy.service.leader.GlobalEventLoopService;
 import eu.openanalytics.containerproxy.service.leader.ILeaderService;
 import eu.openanalytics.containerproxy.service.leader.redis.RedisCheckLatestConfigService;
 import eu.openanalytics.containerproxy.service.leader.redis.RedisLeaderService;
 import eu.openanalytics.containerproxy.service.portallocator.redis.RedisPortAllocator;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.core.env.Environment;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.listener.ChannelTopic;
@@ -74,6 +79,9 @@ public class RedisStoreConfiguration {
 
     @Inject
     private ApplicationEventPublisher applicationEventPublisher;
+
+    @Inject
+    private Environment environment;
     private RedisLockRegistry redisLockRegistry;
 
     // Store beans
@@ -125,21 +133,8 @@ public class RedisStoreConfiguration {
 
     @Bean
     public RedisTemplate<String, Proxy> proxyRedisTemplate(RedisConnectionFactory connectionFactory) {
-        RedisTemplate<String, Proxy> template = new RedisTemplate<>();
-        template.setConnectionFactory(connectionFactory);
-
-        Jackson2JsonRedisSerializer<Proxy> jackson2JsonRedisSerializer = new Jackson2JsonRedisSerializer<>(Proxy.class);
-        ObjectMapper om = new ObjectMapper();
-
-        om.setConfig(om.getSerializationConfig().withView(Views.Internal.class));
-
-        jackson2JsonRedisSerializer.setObjectMapper(om);
-        template.setKeySerializer(new StringRedisSerializer());
-        template.setHashKeySerializer(new StringRedisSerializer());
-        template.setValueSerializer(jackson2JsonRedisSerializer);
-        template.setHashValueSerializer(jackson2JsonRedisSerializer);
-
-        return template;
+        return createRedisTemplate(connectionFactory, new RedisValueSerializer<>(Proxy.class, getValueFormat(),
+            om -> om.setConfig(om.getSerializationConfig().withView(Views.Internal.class))));
     }
 
     @Bean
@@ -173,6 +168,7 @@ public class RedisStoreConfiguration {
     }
 
     @Bean
+    @ConditionalOnProperty(name = "proxy.redis-event-transport", havingValue = "PubSub", matchIfMissing = true)
     public RedisEventBridge redisEventBridge(RedisTemplate<String, BridgeableEvent> eventRedisTemplate) {
         return new RedisEventBridge(
             eventRedisTemplate,
@@ -181,6 +177,7 @@ public class RedisStoreConfiguration {
     }
 
     @Bean
+    @ConditionalOnProperty(name = "proxy.redis-event-transport", havingValue = "PubSub", matchIfMissing = true)
     public RedisMessageListenerContainer redisContainer(RedisEventBridge redisEventBridge) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
@@ -188,6 +185,20 @@ public class RedisStoreConfiguration {
         return container;
     }
 
+    @Bean
+    @ConditionalOnProperty(name = "proxy.redis-event-transport", havingValue = "Stream")
+    public RedisStreamEventBridge redisStreamEventBridge(AbstractApplicationContext applicationContext, MeterRegistry meterRegistry) {
+        return new RedisStreamEventBridge(
+            connectionFactory,
+            "shinyproxy_" + identifierService.realmId + "__event_stream",
+            applicationEventPublisher,
+            applicationContext,
+            meterRegistry,
+            environment.getProperty("proxy.redis-event-stream.queue-size", Integer.class, 10_000),
+            environment.getProperty("proxy.redis-event-stream.batch-size", Integer.class, 100),
+            environment.getProperty("proxy.redis-event-stream.max-length", Long.class, 10_000L));
+    }
+
     @Bean
     public RedisTemplate<String, RedisPortAllocator.PortList> portRedisTemplate(RedisConnectionFactory connectionFactory) {
         return createRedisTemplate(connectionFactory, RedisPortAllocator.PortList.class);
@@ -202,12 +213,33 @@ public class RedisStoreConfiguration {
 
     @Bean
     public RedisTemplate<String, Seat> seatsTemplate(RedisConnectionFactory connectionFactory) {
-        return createRedisTemplate(connectionFactory, Seat.class);
+        return createRedisTemplate(connectionFactory, new RedisValueSerializer<>(Seat.class, getValueFormat(),
+            om -> om.registerModule(new JavaTimeModule())));
     }
 
     @Bean
     public RedisTemplate<String, DelegateProxy> delegateProxyTemplate(RedisConnectionFactory connectionFactory) {
-        return createRedisTemplate(connectionFactory, DelegateProxy.class);
+        return createRedisTemplate(connectionFactory, new RedisValueSerializer<>(DelegateProxy.class, getValueFormat(),
+            om -> om.registerModule(new JavaTimeModule())));
+    }
+
+    /**
+     * @return the format used to store proxies, delegate proxies and seats, see {@link RedisValueSerializer}
+     */
+    private RedisValueSerializer.Format getValueFormat() {
+        return environment.getProperty("proxy.redis-value-format", RedisValueSerializer.Format.class, RedisValueSerializer.Format.Json);
+    }
+
+    private <K, V> RedisTemplate<K, V> createRedisTemplate(RedisConnectionFactory connectionFactory, RedisValueSerializer<V> serializer) {
+        RedisTemplate<K, V> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setHashKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(serializer);
+        template.setHashValueSerializer(serializer);
+
+        return template;
     }
 
     private <K, V> RedisTemplate<K, V> createRedisTemplate(RedisConnectionFactory connectionFactory, Class<V> clazz) {
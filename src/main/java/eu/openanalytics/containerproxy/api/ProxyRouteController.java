@@ -26,6 +26,7 @@ import eu.openanalytics.containerproxy.service.UserAndTargetIdProxyIndex;
 import eu.openanalytics.containerproxy.service.UserService;
 import eu.openanalytics.containerproxy.util.ContextPathHelper;
 import eu.openanalytics.containerproxy.util.ProxyMappingManager;
+import eu.openanalytics.containerproxy.util.ProxyRouteFastPath;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.stereotype.Controller;
@@ -41,12 +42,16 @@ public class ProxyRouteController extends BaseController {
 
     private final UserService userService;
 
+    private final ProxyRouteFastPath proxyRouteFastPath;
+
     private final int baseUrlLength;
 
-    public ProxyRouteController(ContextPathHelper contextPathHelper, ProxyMappingManager mappingManager, UserAndTargetIdProxyIndex userAndTargetIdProxyIndex, UserService userService) {
+    public ProxyRouteController(ContextPathHelper contextPathHelper, ProxyMappingManager mappingManager, UserAndTargetIdProxyIndex userAndTargetIdProxyIndex, UserService userService,
+                                ProxyRouteFastPath proxyRouteFastPath) {
         this.mappingManager = mappingManager;
         this.userAndTargetIdProxyIndex = userAndTargetIdProxyIndex;
         this.userService = userService;
+        this.proxyRouteFastPath = proxyRouteFastPath;
         String baseURL = contextPathHelper.withEndingSlash() + "api/route/";
         baseUrlLength = baseURL.length() + DefaultTargetMappingStrategy.TARGET_ID_LENGTH + 1;
     }
@@ -64,6 +69,7 @@ public class ProxyRouteController extends BaseController {
             Proxy proxy = userAndTargetIdProxyIndex.getProxy(userService.getCurrentUserId(), targetId);
 
             if (proxy != null) {
+                proxyRouteFastPath.authorized(request, targetId, proxy);
                 mappingManager.dispatchAsync(proxy, mapping, request, response);
             } else {
                 response.setStatus(403);
@@ -21,6 +21,7 @@
 package eu.openanalytics.containerproxy.api;
 
 import com.fasterxml.jackson.annotation.JsonView;
+import eu.openanalytics.containerproxy.ProxyActionConflictException;
 import eu.openanalytics.containerproxy.api.dto.ApiResponse;
 import eu.openanalytics.containerproxy.api.dto.ChangeProxyStatusDto;
 import eu.openanalytics.containerproxy.api.dto.SwaggerDto;
@@ -157,6 +158,8 @@ public class ProxyStatusController {
             }
         } catch (AccessDeniedException ex) {
             return ApiResponse.failForbidden();
+        } catch (ProxyActionConflictException ex) {
+            return ApiResponse.fail(ex.getMessage());
         }
 
         return ApiResponse.success();
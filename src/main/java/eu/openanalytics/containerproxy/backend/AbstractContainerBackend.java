@@ -36,6 +36,8 @@ import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 import eu.openanalytics.containerproxy.service.AppRecoveryService;
 import eu.openanalytics.containerproxy.service.IdentifierService;
 import eu.openanalytics.containerproxy.service.StructuredLogger;
+import eu.openanalytics.containerproxy.util.BoundedExecutor;
+import eu.openanalytics.containerproxy.util.ExecutorServiceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Lazy;
@@ -50,9 +52,18 @@ import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -65,6 +76,8 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
     protected static final String PROPERTY_CONTAINER_PROTOCOL = "container-protocol";
     protected static final String PROPERTY_PRIVILEGED = "privileged";
     protected static final String DEFAULT_TARGET_PROTOCOL = "http";
+    protected static final String PROPERTY_PARALLEL_CONTAINER_STARTUP = "proxy.parallel-container-startup.enabled";
+    protected static final String PROPERTY_PARALLEL_CONTAINER_STARTUP_MAX_PER_PROXY = "proxy.parallel-container-startup.max-containers-per-proxy";
     protected final Logger log = LoggerFactory.getLogger(getClass());
     protected final StructuredLogger slog = new StructuredLogger(log);
     @Inject
@@ -84,6 +97,9 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
     private boolean useInternalNetwork;
     private boolean privileged;
     private String defaultTargetProtocol;
+    private ExecutorService containerStartupExecutor;
+    private ExecutorService containerStopExecutor;
+    private int maxParallelContainersPerProxy;
 
     /**
      * Computes the correct targetPath to use, to make the configuration of the targetPath easier.
@@ -116,10 +132,23 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
         useInternalNetwork = getProperty(PROPERTY_INTERNAL_NETWORKING, false);
         privileged = getProperty(PROPERTY_PRIVILEGED, false);
         defaultTargetProtocol = getProperty(PROPERTY_CONTAINER_PROTOCOL, DEFAULT_TARGET_PROTOCOL);
+        if (containerStartupExecutor == null && environment.getProperty(PROPERTY_PARALLEL_CONTAINER_STARTUP, Boolean.class, false)) {
+            maxParallelContainersPerProxy = environment.getProperty(PROPERTY_PARALLEL_CONTAINER_STARTUP_MAX_PER_PROXY, Integer.class, 4);
+            if (maxParallelContainersPerProxy < 1) {
+                throw new IllegalStateException(String.format("Invalid configuration: %s must be at least 1", PROPERTY_PARALLEL_CONTAINER_STARTUP_MAX_PER_PROXY));
+            }
+            // the parallelism is bounded per proxy (see BoundedExecutor), such that a proxy with many containers cannot
+            // delay the startup of other proxies. Stopping uses a separate executor, such that cleanup is never blocked by startups.
+            containerStartupExecutor = ExecutorServiceFactory.create("ContainerStartup");
+            containerStopExecutor = ExecutorServiceFactory.create("ContainerStop");
+        }
     }
 
     @Override
     public Proxy startProxy(Authentication user, Proxy proxy, ProxySpec proxySpec, ProxyStartupLog.ProxyStartupLogBuilder proxyStartupLogBuilder) throws ProxyFailedToStartException {
+        if (containerStartupExecutor != null && proxySpec.getContainerSpecs().size() > 1) {
+            return startContainersConcurrently(user, proxy, proxySpec, proxyStartupLogBuilder);
+        }
         for (ContainerSpec spec : proxySpec.getContainerSpecs()) {
             try {
                 Container container = proxy.getContainer(spec.getIndex());
@@ -135,6 +164,66 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
         return proxy;
     }
 
+    /**
+     * Starts the containers of the proxy on the container executor. A container is started as soon as all containers
+     * listed in its dependsOn are started, containers without dependencies are started immediately.
+     * Always waits until every container either started or failed, such that the returned (or failed) proxy contains
+     * all created containers and can be cleaned up.
+     */
+    private Proxy startContainersConcurrently(Authentication user, Proxy proxy, ProxySpec proxySpec, ProxyStartupLog.ProxyStartupLogBuilder proxyStartupLogBuilder) throws ProxyFailedToStartException {
+        Executor executor = new BoundedExecutor(containerStartupExecutor, maxParallelContainersPerProxy);
+        Map<Integer, CompletableFuture<Proxy>> results = new HashMap<>();
+        for (ContainerSpec spec : proxySpec.getContainerSpecs()) {
+            // dependencies always have a lower index, see ProxySpec#setContainerIndex
+            Map<Integer, CompletableFuture<Proxy>> dependencies = new HashMap<>();
+            for (Integer dependency : spec.getDependsOn()) {
+                dependencies.put(dependency, results.get(dependency));
+            }
+            Proxy initialProxy = proxy;
+            results.put(spec.getIndex(), CompletableFuture.allOf(dependencies.values().toArray(new CompletableFuture[0])).thenApplyAsync(v -> {
+                // start from the proxy including the started dependencies, just like the sequential startup
+                Proxy.ProxyBuilder inputProxy = initialProxy.toBuilder();
+                dependencies.forEach((dependency, dependencyResult) -> mergeContainer(inputProxy, dependencyResult.join(), dependency));
+                try {
+                    Proxy result = startContainer(user, initialProxy.getContainer(spec.getIndex()), spec, inputProxy.build(), proxySpec, proxyStartupLogBuilder);
+                    if (spec.getIndex() == 0) {
+                        proxyStartupLogBuilder.startingApplication();
+                    }
+                    return result;
+                } catch (ContainerFailedToStartException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+
+        Proxy.ProxyBuilder resultProxy = proxy.toBuilder();
+        Integer failedIndex = null;
+        Throwable failure = null;
+        for (ContainerSpec spec : proxySpec.getContainerSpecs()) {
+            try {
+                mergeContainer(resultProxy, results.get(spec.getIndex()).join(), spec.getIndex());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof ContainerFailedToStartException containerFailedToStartException) {
+                    resultProxy.updateContainer(containerFailedToStartException.getContainer());
+                }
+                // the failure with the lowest index cannot be caused by a failed dependency
+                if (failure == null) {
+                    failedIndex = spec.getIndex();
+                    failure = cause;
+                }
+            }
+        }
+        if (failure != null) {
+            throw new ProxyFailedToStartException(String.format("Container with index %s failed to start", failedIndex), failure, resultProxy.build());
+        }
+        return resultProxy.build();
+    }
+
+    private void mergeContainer(Proxy.ProxyBuilder proxyBuilder, Proxy result, Integer containerIndex) {
+        proxyBuilder.addTargets(result.getTargets()).updateContainer(result.getContainer(containerIndex));
+    }
+
     public abstract Proxy startContainer(Authentication user, Container Container, ContainerSpec spec, Proxy proxy, ProxySpec proxySpec, ProxyStartupLog.ProxyStartupLogBuilder proxyStartupLogBuilder) throws ContainerFailedToStartException;
 
     @Override
@@ -148,6 +237,47 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
 
     protected abstract void doStopProxy(Proxy proxy) throws Exception;
 
+    /**
+     * Applies the action to every container of the proxy. When parallel container startup is enabled, the containers
+     * are processed concurrently (on the stop executor), so that removing a proxy with multiple containers does not take
+     * the sum of all removals.
+     * All containers are processed, even if the action fails for one of them.
+     */
+    protected void forEachContainer(Proxy proxy, ContainerAction action) throws Exception {
+        if (containerStopExecutor == null || proxy.getContainers().size() <= 1) {
+            for (Container container : proxy.getContainers()) {
+                action.apply(container);
+            }
+            return;
+        }
+        Executor executor = new BoundedExecutor(containerStopExecutor, maxParallelContainersPerProxy);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Container container : proxy.getContainers()) {
+            FutureTask<Void> future = new FutureTask<>(() -> {
+                action.apply(container);
+                return null;
+            });
+            executor.execute(future);
+            futures.add(future);
+        }
+        Exception failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Exception cause = e.getCause() instanceof Exception ex ? ex : e;
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
     @Override
     public BiConsumer<OutputStream, OutputStream> getOutputAttacher(Proxy proxy) {
         // Default: do not support output attaching.
@@ -224,6 +354,11 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
         return defaultTargetProtocol;
     }
 
+    @FunctionalInterface
+    protected interface ContainerAction {
+        void apply(Container container) throws Exception;
+    }
+
     abstract protected URI calculateTarget(Container container, PortMappings.PortMappingEntry portMapping, Integer hostPort) throws Exception;
 
     public Map<String, URI> setupPortMappingExistingProxy(Proxy proxy, Container container, Map<Integer, Integer> portBindings) throws Exception {
@@ -42,7 +42,6 @@ import eu.openanalytics.containerproxy.model.runtime.runtimevalues.TargetIdKey;
 import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 import eu.openanalytics.containerproxy.model.store.IProxyStore;
 import eu.openanalytics.containerproxy.service.StructuredLogger;
-import eu.openanalytics.containerproxy.util.MathUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -69,6 +68,8 @@ import static net.logstash.logback.argument.StructuredArguments.kv;
 public class ProxySharingDispatcher implements IProxyDispatcher {
 
     private static final String PROPERTY_SEAT_WAIT_TIME = "proxy.seat-wait-time";
+    // seats are handed off using a SeatAvailableEvent, the proxy store and seat store are only checked at this interval in case an event was missed
+    private static final long SEAT_WAIT_CHECK_INTERVAL = 30_000L;
 
     static {
         RuntimeValueKeyRegistry.addRuntimeValueKey(SeatIdKey.inst);
@@ -80,8 +81,8 @@ public class ProxySharingDispatcher implements IProxyDispatcher {
     private final ISeatStore seatStore;
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final StructuredLogger slogger = new StructuredLogger(logger);
-    private Cache<String, CompletableFuture<Void>> pendingDelegatingProxies;
-    private Long seatWaitIterations;
+    private Cache<String, CompletableFuture<String>> pendingDelegatingProxies;
+    private long seatWaitTime;
     @Inject
     private ApplicationEventPublisher applicationEventPublisher;
     @Inject
@@ -103,15 +104,13 @@ public class ProxySharingDispatcher implements IProxyDispatcher {
 
     @PostConstruct
     public void init() {
-        long seatWaitTime = environment.getProperty(PROPERTY_SEAT_WAIT_TIME, Long.class, 300000L);
+        seatWaitTime = environment.getProperty(PROPERTY_SEAT_WAIT_TIME, Long.class, 300000L);
         if (seatWaitTime < 3000) {
             throw new IllegalStateException("Invalid configuration: proxy.seat-wait-time must be larger than 3000 (3 seconds).");
         }
-        seatWaitIterations = MathUtil.divideAndCeil(seatWaitTime, 3000);
         pendingDelegatingProxies = Caffeine
             .newBuilder()
-            // use iterations to compute the expire time, since this may be larger than the requested time
-            .expireAfterWrite(seatWaitIterations * 3000L * 2, TimeUnit.MILLISECONDS)
+            .expireAfterWrite(seatWaitTime * 2, TimeUnit.MILLISECONDS)
             .build();
     }
 
@@ -124,34 +123,44 @@ public class ProxySharingDispatcher implements IProxyDispatcher {
         proxyStartupLogBuilder.startingApplication();
         LocalDateTime startTime = LocalDateTime.now();
         Seat seat = claimSeat(proxy.getId());
+        if (proxySharingMicrometer != null) {
+            proxySharingMicrometer.registerSeatClaimResult(spec.getId(), seat != null);
+        }
         if (seat == null) {
             slogger.info(proxy, "Seat not immediately available");
-            CompletableFuture<Void> future = new CompletableFuture<>();
+            CompletableFuture<String> future = new CompletableFuture<>();
             pendingDelegatingProxies.put(proxy.getId(), future);
 
-            // trigger scale-up in scaler (possibly on different replica)
+            // add proxy to the wait queue of the scaler (possibly on different replica), this triggers a scale-up
+            // the scaler hands off the first available seat to the proxy that is waiting the longest
             applicationEventPublisher.publishEvent(new PendingProxyEvent(proxySpec.getId(), proxy.getId()));
 
-            // no seat available, wait until one becomes available
-            for (int i = 0; i < seatWaitIterations; i++) {
+            long deadline = System.currentTimeMillis() + seatWaitTime;
+            while (seat == null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
                 try {
-                    future.get(3, TimeUnit.SECONDS);
+                    String seatId = future.get(Math.min(remaining, SEAT_WAIT_CHECK_INTERVAL), TimeUnit.MILLISECONDS);
+                    seat = seatStore.getSeat(seatId);
+                    if (seat == null || !Objects.equals(seat.getDelegatingProxyId(), proxy.getId())) {
+                        throw new ProxyFailedToStartException("Seat handed off to proxy was not claimed by this proxy", null, proxy);
+                    }
                 } catch (InterruptedException | ExecutionException e) {
                     throw new RuntimeException(e);
                 } catch (CancellationException e) {
                     // proxy was stopped, do not claim a seat, just return existing object
                     return proxy;
                 } catch (TimeoutException e) {
-                    // timeout reached, try to claim anyway in case some event was missed
-                }
-                if (proxyWasStopped(proxy)) {
-                    // proxy was stopped, do not claim a seat, just return existing object
-                    return proxy;
-                }
-                seat = claimSeat(proxy.getId());
-                if (seat != null) {
-                    slogger.info(proxy, "Seat available attempt: " + i);
-                    break;
+                    // no seat handed off yet, check whether the proxy was stopped on another replica
+                    if (proxyWasStopped(proxy)) {
+                        // proxy was stopped, do not claim a seat, just return existing object
+                        cancelPendingDelegateProxy(proxy.getId());
+                        return proxy;
+                    }
+                    // announce the proxy again, in case an event was missed or the leader changed
+                    applicationEventPublisher.publishEvent(new PendingProxyEvent(proxySpec.getId(), proxy.getId()));
                 }
             }
             if (seat == null) {
@@ -225,13 +234,21 @@ public class ProxySharingDispatcher implements IProxyDispatcher {
             // only handle events for this spec
             return;
         }
-        slogger.info(null, String.format("Received SeatAvailableEvent: %s %s", event.getIntendedProxyId(), event.getSpecId()));
-        CompletableFuture<Void> future = pendingDelegatingProxies.getIfPresent(event.getIntendedProxyId());
+        CompletableFuture<String> future = pendingDelegatingProxies.getIfPresent(event.getIntendedProxyId());
         if (future == null) {
+            // proxy is waiting on another replica
             return;
         }
+        slogger.info(null, String.format("Received SeatAvailableEvent: %s %s %s", event.getIntendedProxyId(), event.getSpecId(), event.getSeatId()));
         pendingDelegatingProxies.invalidate(event.getIntendedProxyId());
-        future.complete(null);
+        if (proxySharingMicrometer != null) {
+            proxySharingMicrometer.registerSeatHandOffLatency(proxySpec.getId(), Duration.ofMillis(Math.max(0, System.currentTimeMillis() - event.getHandOffTime())));
+        }
+        future.complete(event.getSeatId());
+    }
+
+    public long getNumWaitingProxies() {
+        return pendingDelegatingProxies.estimatedSize();
     }
 
     public ProxySpec getSpec() {
@@ -244,7 +261,7 @@ public class ProxySharingDispatcher implements IProxyDispatcher {
 
     private boolean proxyWasStopped(Proxy startingProxy) {
         // fetch proxy from proxyStore in order to check if it was stopped
-        Proxy proxy = proxyStore.getProxy(startingProxy.getId());
+        Proxy proxy = proxyStore.getLatestProxy(startingProxy.getId());
         return proxy == null || proxy.getStatus().equals(ProxyStatus.Stopped)
             || proxy.getStatus().equals(ProxyStatus.Stopping);
     }
@@ -253,7 +270,7 @@ public class ProxySharingDispatcher implements IProxyDispatcher {
         if (proxyId == null) {
             return;
         }
-        CompletableFuture<Void> future = pendingDelegatingProxies.getIfPresent(proxyId);
+        CompletableFuture<String> future = pendingDelegatingProxies.getIfPresent(proxyId);
         if (future == null) {
             return;
         }
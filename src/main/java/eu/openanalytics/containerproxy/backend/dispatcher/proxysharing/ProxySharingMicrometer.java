@@ -23,6 +23,7 @@ package eu.openanalytics.containerproxy.backend.dispatcher.proxysharing;
 import eu.openanalytics.containerproxy.stat.IStatCollector;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.annotation.PostConstruct;
@@ -63,18 +64,41 @@ public class ProxySharingMicrometer implements IStatCollector {
     public void init() {
         for (ProxySharingDispatcher dispatcher : proxySharingDispatchers) {
             String specId = dispatcher.getSpec().getId();
-            registry.timer("seats_wait_time", "spec.id", specId);
+            seatWaitTimer(specId);
+            registry.counter("seats_claim_result", "spec.id", specId, "result", "hit");
+            registry.counter("seats_claim_result", "spec.id", specId, "result", "miss");
+            registry.timer("seats_handoff_latency", "spec.id", specId);
+            registry.gauge("seats_waiting_local", Tags.of("spec.id", specId), dispatcher, ProxySharingDispatcher::getNumWaitingProxies);
         }
         for (ProxySharingScaler scaler : proxySharingScalers) {
             String specId = scaler.getSpec().getId();
             registry.gauge("seats_unclaimed", Tags.of("spec.id", specId), scaler, wrapHandleNull(ProxySharingScaler::getNumUnclaimedSeats));
             registry.gauge("seats_claimed", Tags.of("spec.id", specId), scaler, wrapHandleNull(ProxySharingScaler::getNumClaimedSeats));
             registry.gauge("seats_creating", Tags.of("spec.id", specId), scaler, wrapHandleNull(ProxySharingScaler::getNumPendingSeats));
+            registry.gauge("seats_waiting", Tags.of("spec.id", specId), scaler, wrapHandleNull(ProxySharingScaler::getNumWaitingProxies));
         }
     }
 
     public void registerSeatWaitTime(String specId, Duration time) {
-        registry.timer("seats_wait_time", "spec.id", specId).record(time);
+        seatWaitTimer(specId).record(time);
+    }
+
+    /**
+     * Registers whether a seat was immediately available (hit) or the proxy had to wait for one (miss).
+     */
+    public void registerSeatClaimResult(String specId, boolean immediatelyAvailable) {
+        registry.counter("seats_claim_result", "spec.id", specId, "result", immediatelyAvailable ? "hit" : "miss").increment();
+    }
+
+    private Timer seatWaitTimer(String specId) {
+        return Timer.builder("seats_wait_time")
+            .tag("spec.id", specId)
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+
+    public void registerSeatHandOffLatency(String specId, Duration time) {
+        registry.timer("seats_handoff_latency", "spec.id", specId).record(time);
     }
 
     @FunctionalInterface
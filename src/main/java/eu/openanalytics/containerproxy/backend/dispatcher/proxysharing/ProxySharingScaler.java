@@ -73,6 +73,7 @@ import org.springframework.scheduling.annotation.Scheduled;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -80,8 +81,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -96,6 +99,9 @@ public class ProxySharingScaler implements AutoCloseable {
     protected final ISeatStore seatStore;
     protected final ProxySharingSpecExtension specExtension;
     protected final List<String> pendingDelegatingProxies = Collections.synchronizedList(new ArrayList<>());
+    // timestamps of recently claimed seats, used for demand-driven sizing
+    private final Queue<Long> recentClaims = new ConcurrentLinkedQueue<>();
+    private Clock clock = Clock.systemUTC();
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final ProxySpec proxySpec;
     private final String proxySpecHash;
@@ -135,6 +141,12 @@ public class ProxySharingScaler implements AutoCloseable {
         if (!specExtension.allowContainerReUse && specExtension.seatsPerContainer != 1) {
             throw new IllegalStateException(String.format("Spec %s is invalid: when allow-container-re-use is disabled, seatsPerContainer must be exactly 1", proxySpec.getId()));
         }
+        if (specExtension.maximumSeatsAvailable != null && specExtension.maximumSeatsAvailable < specExtension.minimumSeatsAvailable) {
+            throw new IllegalStateException(String.format("Spec %s is invalid: maximum-seats-available must be greater than or equal to minimum-seats-available", proxySpec.getId()));
+        }
+        if (specExtension.demandWindow <= 0) {
+            throw new IllegalStateException(String.format("Spec %s is invalid: demand-window must be positive", proxySpec.getId()));
+        }
     }
 
     @PostConstruct
@@ -148,12 +160,12 @@ public class ProxySharingScaler implements AutoCloseable {
 
     @Scheduled(fixedDelay = 20, timeUnit = TimeUnit.SECONDS)
     public void scheduleCleanup() {
-        globalEventLoop.schedule(this::cleanup);
+        globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "cleanup", this::cleanup);
     }
 
     @Scheduled(fixedDelay = 10, timeUnit = TimeUnit.SECONDS)
     public void scheduleReconcile() {
-        globalEventLoop.schedule(this::reconcile);
+        globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "reconcile", this::reconcile);
     }
 
     @EventListener
@@ -162,8 +174,23 @@ public class ProxySharingScaler implements AutoCloseable {
             // only handle events for this spec
             return;
         }
-        pendingDelegatingProxies.add(pendingProxyEvent.getProxyId());
-        globalEventLoop.schedule(this::reconcile);
+        String proxyId = pendingProxyEvent.getProxyId();
+        // seats claimed on behalf of a pending proxy, which the proxy did not yet confirm (using a SeatClaimedEvent), are
+        // kept in the seat store, such that they are known after a leader change
+        String handedOffSeatId = seatStore.getHandedOffSeat(proxyId);
+        if (handedOffSeatId != null) {
+            // proxy is announced again, but it already received a seat -> the SeatAvailableEvent was missed
+            applicationEventPublisher.publishEvent(new SeatAvailableEvent(proxySpec.getId(), proxyId, handedOffSeatId));
+            return;
+        }
+        synchronized (pendingDelegatingProxies) {
+            if (!pendingDelegatingProxies.contains(proxyId)) {
+                pendingDelegatingProxies.add(proxyId);
+            }
+        }
+        // a seat may have become available after the proxy tried to claim one
+        globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "handOffSeats", this::handOffSeats);
+        globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "reconcile", this::reconcile);
     }
 
     @EventListener
@@ -172,9 +199,13 @@ public class ProxySharingScaler implements AutoCloseable {
             // only handle events for this spec
             return;
         }
-        globalEventLoop.schedule(this::reconcile);
+        if (specExtension.maximumSeatsAvailable != null) {
+            recentClaims.add(clock.millis());
+        }
+        globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "reconcile", this::reconcile);
         // if the seat was claimed by a pending proxy we need to remove it from the pendingDelegatingProxies
         pendingDelegatingProxies.remove(seatClaimedEvent.getClaimingProxyId());
+        seatStore.removeHandedOffSeat(seatClaimedEvent.getClaimingProxyId());
     }
 
     @EventListener
@@ -183,7 +214,7 @@ public class ProxySharingScaler implements AutoCloseable {
             // only handle events for this spec
             return;
         }
-        globalEventLoop.schedule(() -> processReleasedSeat(seatReleasedEvent));
+        globalEventLoop.schedule(proxySpec.getId(), () -> processReleasedSeat(seatReleasedEvent));
     }
 
     @EventListener
@@ -195,6 +226,7 @@ public class ProxySharingScaler implements AutoCloseable {
         // remove pending proxy if any
         // this can happen if the proxy was stopped (by a user) before a seat was claimed
         pendingDelegatingProxies.remove(proxyStopEvent.getProxyId());
+        returnHandedOffSeat(proxyStopEvent.getProxyId());
     }
 
     @EventListener
@@ -206,6 +238,7 @@ public class ProxySharingScaler implements AutoCloseable {
         // remove pending proxy if any
         // this can happen if the proxy was unable to claim a seat within the waiting time
         pendingDelegatingProxies.remove(proxyStartFailedEvent.getProxyId());
+        returnHandedOffSeat(proxyStartFailedEvent.getProxyId());
     }
 
     @EventListener
@@ -220,11 +253,11 @@ public class ProxySharingScaler implements AutoCloseable {
         if (event.getId() != null) {
             // remove single proxy
             logger.info("[{} {}] Received external request to remove DelegateProxy", kv("specId", proxySpec.getId()), kv("delegateProxyId", event.getId()));
-            globalEventLoop.schedule(() -> markDelegateProxyForRemoval(event.getId()));
+            globalEventLoop.schedule(proxySpec.getId(), () -> markDelegateProxyForRemoval(event.getId()));
         } else {
             // remove all proxies
             logger.info("[{}] Received external request to remove all DelegateProxies", kv("specId", proxySpec.getId()));
-            globalEventLoop.schedule(this::markAllDelegateProxiesForRemoval);
+            globalEventLoop.schedule(proxySpec.getId(), this::markAllDelegateProxiesForRemoval);
         }
     }
 
@@ -260,15 +293,16 @@ public class ProxySharingScaler implements AutoCloseable {
             log(delegateProxy, "DelegateProxy crashed, marking for removal");
             removeSeat(delegateProxy, seatId);
             markDelegateProxyForRemoval(delegateProxy.getProxy().getId());
-            globalEventLoop.schedule(this::reconcile);
+            globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "reconcile", this::reconcile);
         } else if (!specExtension.allowContainerReUse) {
             // container cannot be re-used -> mark delegateProxy as ToRemove
             log(delegateProxy, "DelegateProxy cannot be re-used, marking for removal");
             removeSeat(delegateProxy, seatId);
             markDelegateProxyForRemoval(delegateProxy.getProxy().getId());
-            globalEventLoop.schedule(this::reconcile);
+            globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "reconcile", this::reconcile);
         } else if (delegateProxy.getDelegateProxyStatus().equals(DelegateProxyStatus.Available)) {
             seatStore.addToUnclaimedSeats(seatId);
+            handOffSeats();
         } else if (delegateProxy.getDelegateProxyStatus().equals(DelegateProxyStatus.ToRemove)) {
             // seat no longer needed, remove it
             removeSeat(delegateProxy, seatId);
@@ -276,6 +310,65 @@ public class ProxySharingScaler implements AutoCloseable {
 
     }
 
+    /**
+     * Hands off unclaimed seats to the pending proxies, in the order in which the proxies started waiting.
+     * The seat is claimed on behalf of the pending proxy (before the proxy is notified), such that the seat cannot
+     * be claimed by another proxy. Should be run using the event loop.
+     */
+    private void handOffSeats() {
+        while (true) {
+            String intendedProxyId;
+            synchronized (pendingDelegatingProxies) {
+                if (pendingDelegatingProxies.isEmpty()) {
+                    return;
+                }
+                intendedProxyId = pendingDelegatingProxies.get(0);
+            }
+            Seat seat = seatStore.claimSeat(intendedProxyId).orElse(null);
+            if (seat == null) {
+                return;
+            }
+            seatStore.addHandedOffSeat(intendedProxyId, seat.getId());
+            if (!pendingDelegatingProxies.remove(intendedProxyId)) {
+                // proxy was stopped in the meantime, only return the seat if the event handler did not already do it
+                if (seatStore.removeHandedOffSeat(intendedProxyId, seat.getId())) {
+                    releaseHandedOffSeat(seat.getId());
+                }
+                continue;
+            }
+            log(seat, "Handed off seat to pending proxy " + intendedProxyId);
+            applicationEventPublisher.publishEvent(new SeatAvailableEvent(proxySpec.getId(), intendedProxyId, seat.getId()));
+        }
+    }
+
+    /**
+     * Returns the seat which was handed off to the given proxy, in case the proxy stopped (or failed to start)
+     * before it used the seat.
+     */
+    private void returnHandedOffSeat(String proxyId) {
+        String seatId = seatStore.removeHandedOffSeat(proxyId);
+        if (seatId != null) {
+            globalEventLoop.schedule(proxySpec.getId(), () -> releaseHandedOffSeat(seatId));
+        }
+    }
+
+    private void releaseHandedOffSeat(String seatId) {
+        Seat seat = seatStore.getSeat(seatId);
+        if (seat == null) {
+            return;
+        }
+        seatStore.releaseSeat(seatId);
+        DelegateProxy delegateProxy = delegateProxyStore.getDelegateProxy(seat.getDelegateProxyId());
+        if (delegateProxy != null && delegateProxy.getDelegateProxyStatus().equals(DelegateProxyStatus.ToRemove)) {
+            removeSeat(delegateProxy, seatId);
+            return;
+        }
+        // the seat was never used, therefore it can be re-used even if allowContainerReUse is disabled
+        log(seat, "Returned unused seat");
+        seatStore.addToUnclaimedSeats(seatId);
+        handOffSeats();
+    }
+
     private void markDelegateProxyForRemoval(String delegateProxyId) {
         // this delegateProxy will be (completely) removed by the cleanup function, not by scale-down
         DelegateProxy delegateProxy = delegateProxyStore.getDelegateProxy(delegateProxyId);
@@ -310,27 +403,30 @@ public class ProxySharingScaler implements AutoCloseable {
     }
 
     private void reconcile() {
+        // in case seats were added to the unclaimed seats without handing them off (e.g. after a leader change)
+        handOffSeats();
         long numPendingSeats = getNumPendingSeats();
         long num = seatStore.getNumUnclaimedSeats() + numPendingSeats - pendingDelegatingProxies.size();
-        debug(String.format("Status: %s, Unclaimed: %s + PendingDelegate: %s - PendingDelegating: %s = %s -> minimum: %s",
+        long target = getTargetSeatsAvailable();
+        debug(String.format("Status: %s, Unclaimed: %s + PendingDelegate: %s - PendingDelegating: %s = %s -> target: %s",
             lastReconcileStatus, seatStore.getNumUnclaimedSeats(), numPendingSeats,
-            pendingDelegatingProxies.size(), num, specExtension.minimumSeatsAvailable));
+            pendingDelegatingProxies.size(), num, target));
 
-        if (num < specExtension.minimumSeatsAvailable) {
+        if (num < target) {
             if (proxySpec.getMaxTotalInstances() > -1 && seatStore.getNumSeats() >= proxySpec.getMaxTotalInstances()) {
                 logWarn(String.format("Not scaling up: currently %s seats, scale up would create more than maximum number of instances: %s", seatStore.getNumSeats(), proxySpec.getMaxTotalInstances()));
                 return;
             }
             lastReconcileStatus = ReconcileStatus.ScaleUp;
-            long numToScaleUp = specExtension.minimumSeatsAvailable - num;
+            long numToScaleUp = target - num;
             scaleUp(MathUtil.divideAndCeil(numToScaleUp, specExtension.seatsPerContainer));
             lastScaleUp = Instant.now();
         } else if (numPendingSeats > 0) {
             // still scaling up
             lastReconcileStatus = ReconcileStatus.ScaleUp;
             lastScaleUp = Instant.now();
-        } else if ((num - specExtension.minimumSeatsAvailable) >= specExtension.seatsPerContainer) {
-            long numToScaleDown = (num - specExtension.minimumSeatsAvailable) / specExtension.seatsPerContainer;
+        } else if ((num - target) >= specExtension.seatsPerContainer) {
+            long numToScaleDown = (num - target) / specExtension.seatsPerContainer;
             if (numToScaleDown <= 0) {
                 return;
             }
@@ -349,6 +445,22 @@ public class ProxySharingScaler implements AutoCloseable {
         }
     }
 
+    /**
+     * Computes the number of seats that should be available. Without maximumSeatsAvailable this is simply
+     * minimumSeatsAvailable, otherwise the pool is sized to the number of seats claimed during the demand window.
+     */
+    private long getTargetSeatsAvailable() {
+        if (specExtension.maximumSeatsAvailable == null) {
+            return specExtension.minimumSeatsAvailable;
+        }
+        long windowStart = clock.millis() - specExtension.demandWindow * 1000L;
+        Long claimTime;
+        while ((claimTime = recentClaims.peek()) != null && claimTime < windowStart) {
+            recentClaims.poll();
+        }
+        return Math.max(specExtension.minimumSeatsAvailable, Math.min(specExtension.maximumSeatsAvailable, recentClaims.size()));
+    }
+
     private void scaleUp(long numToScaleUp) {
         log(String.format("Scale up required, trying to create %s DelegateProxies", numToScaleUp));
         for (int i = 0; i < numToScaleUp; i++) {
@@ -421,7 +533,7 @@ public class ProxySharingScaler implements AutoCloseable {
                         logWarn(delegateProxy, "Error while stopping failed DelegateProxy");
                     }
                     delegateProxyStore.removeDelegateProxy(id);
-                    globalEventLoop.schedule(this::reconcile);
+                    globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "reconcile", this::reconcile);
                     return;
                 }
 
@@ -454,15 +566,10 @@ public class ProxySharingScaler implements AutoCloseable {
                 logService.attachToOutput(proxy);
                 log(delegateProxy, "Started DelegateProxy");
 
-                for (int i = 0; i < specExtension.seatsPerContainer; i++) {
-                    if (!pendingDelegatingProxies.isEmpty()) {
-                        String intendedProxyId = pendingDelegatingProxies.remove(0);
-                        applicationEventPublisher.publishEvent(new SeatAvailableEvent(proxySpec.getId(), intendedProxyId));
-                    }
-                }
+                globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "handOffSeats", this::handOffSeats);
             } catch (SpelException ex) {
                 // remove seats and other data
-                globalEventLoop.schedule(() -> markDelegateProxyForRemoval(id));
+                globalEventLoop.schedule(proxySpec.getId(), () -> markDelegateProxyForRemoval(id));
                 logger.error("Failed to start DelegateProxy, problem while resolving SpEL expressions. You can only use the objects 'containerSpec', 'proxySpec' and 'proxy' when using pre-initialized containers. Cause: " + ex.getMessage());
             } catch (ProxyFailedToStartException t) {
                 logError(originalDelegateProxy, t, "Failed to start DelegateProxy");
@@ -475,8 +582,8 @@ public class ProxySharingScaler implements AutoCloseable {
                     logError(originalDelegateProxy, t, "Error while stopping failed DelegateProxy");
                 }
                 // remove seats and other data + trigger reconcile
-                globalEventLoop.schedule(() -> markDelegateProxyForRemoval(id));
-                globalEventLoop.schedule(this::reconcile);
+                globalEventLoop.schedule(proxySpec.getId(), () -> markDelegateProxyForRemoval(id));
+                globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "reconcile", this::reconcile);
             } catch (Throwable t) {
                 logError(originalDelegateProxy, t, "Failed to start DelegateProxy");
                 if (proxy != null) {
@@ -490,8 +597,8 @@ public class ProxySharingScaler implements AutoCloseable {
                     }
                 }
                 // remove seats and other data + trigger reconcile
-                globalEventLoop.schedule(() -> markDelegateProxyForRemoval(id));
-                globalEventLoop.schedule(this::reconcile);
+                globalEventLoop.schedule(proxySpec.getId(), () -> markDelegateProxyForRemoval(id));
+                globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "reconcile", this::reconcile);
             }
         };
     }
@@ -571,7 +678,7 @@ public class ProxySharingScaler implements AutoCloseable {
     @Async
     @EventListener
     public void onLeaderGranted(OnGrantedEvent event) {
-        globalEventLoop.schedule(this::processOnLeaderGranted);
+        globalEventLoop.schedule(proxySpec.getId(), this::processOnLeaderGranted);
     }
 
     @Async
@@ -603,7 +710,7 @@ public class ProxySharingScaler implements AutoCloseable {
             }
         }
         // note: onLeaderRevoked the streams are detached by the LogService
-        globalEventLoop.schedule(this::reconcile);
+        globalEventLoop.scheduleDeduplicated(proxySpec.getId(), "reconcile", this::reconcile);
     }
 
     public ProxySpec getSpec() {
@@ -621,6 +728,10 @@ public class ProxySharingScaler implements AutoCloseable {
         logger.info("[{} {} {}] Removed seat", kv("specId", proxySpec.getId()), kv("delegateProxyId", delegateProxy.getProxy().getId()), kv("seatId", seatId));
     }
 
+    public Long getNumWaitingProxies() {
+        return (long) pendingDelegatingProxies.size();
+    }
+
     public Long getNumPendingSeats() {
         return delegateProxyStore.getAllDelegateProxies()
             .stream()
@@ -43,6 +43,15 @@ public class ProxySharingSpecExtension extends AbstractSpecExtension {
 
     Integer minimumSeatsAvailable;
 
+    /**
+     * When set, the number of seats kept available scales with demand: it follows the number of seats claimed
+     * during the last {@link #demandWindow} seconds, bounded by minimumSeatsAvailable and this value.
+     */
+    Integer maximumSeatsAvailable;
+
+    @Builder.Default
+    int demandWindow = 300;
+
     @Builder.Default
     boolean allowContainerReUse = true;
 
@@ -46,4 +46,41 @@ public interface ISeatStore {
     Long getNumSeats();
 
     void removeSeatInfo(String seatId);
+
+    /**
+     * Records that the seat was claimed on behalf of the given (pending) proxy, but not yet confirmed by the proxy.
+     * Since this is stored together with the seats, the hand-off is known by the next leader.
+     * The default implementation does not keep track of hand-offs.
+     */
+    default void addHandedOffSeat(String proxyId, String seatId) {
+    }
+
+    /**
+     * @return the id of the seat handed off to the given proxy, or null if no seat was handed off (or it was
+     * already confirmed)
+     */
+    default String getHandedOffSeat(String proxyId) {
+        return null;
+    }
+
+    /**
+     * Removes the hand-off of the given proxy.
+     *
+     * @return the id of the seat which was handed off to the given proxy, or null if no seat was handed off
+     */
+    default String removeHandedOffSeat(String proxyId) {
+        return null;
+    }
+
+    /**
+     * Removes the hand-off of the given proxy, only if the given seat was handed off to the proxy.
+     * The default implementation (which does not keep track of hand-offs) always returns true, such that the caller
+     * keeps ownership of the seat.
+     *
+     * @return whether the hand-off was removed
+     */
+    default boolean removeHandedOffSeat(String proxyId, String seatId) {
+        return true;
+    }
+
 }
@@ -28,6 +28,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MemorySeatStore implements ISeatStore {
 
@@ -35,6 +36,8 @@ public class MemorySeatStore implements ISeatStore {
 
     private final Map<String, Seat> seats = new HashMap<>(); // seat id -> Seat
 
+    private final Map<String, String> handedOffSeats = new ConcurrentHashMap<>(); // proxy id -> seat id
+
     @Override
     public synchronized void addSeat(Seat seat) {
         if (seats.containsKey(seat.getId())) {
@@ -107,4 +110,24 @@ public class MemorySeatStore implements ISeatStore {
         seats.remove(seatId);
     }
 
+    @Override
+    public void addHandedOffSeat(String proxyId, String seatId) {
+        handedOffSeats.put(proxyId, seatId);
+    }
+
+    @Override
+    public String getHandedOffSeat(String proxyId) {
+        return handedOffSeats.get(proxyId);
+    }
+
+    @Override
+    public String removeHandedOffSeat(String proxyId) {
+        return handedOffSeats.remove(proxyId);
+    }
+
+    @Override
+    public boolean removeHandedOffSeat(String proxyId, String seatId) {
+        return handedOffSeats.remove(proxyId, seatId);
+    }
+
 }
@@ -55,7 +55,8 @@ public class RedisProxySharingFactory implements IProxySharingStoreFactory {
         return new RedisSeatStore(seatsTemplate.boundHashOps("shinyproxy_" + identifierService.realmId + "__seats_" + specId),
             unClaimSeatIdsTemplate.boundSetOps(unclaimedSeatIdsKey),
             unClaimSeatIdsTemplate,
-            unclaimedSeatIdsKey);
+            unclaimedSeatIdsKey,
+            unClaimSeatIdsTemplate.boundHashOps("shinyproxy_" + identifierService.realmId + "__handed_off_seats_" + specId));
     }
 
     @Override
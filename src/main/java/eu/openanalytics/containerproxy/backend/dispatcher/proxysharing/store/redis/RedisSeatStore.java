@@ -30,22 +30,42 @@ import org.springframework.data.redis.core.BoundSetOperations;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 
 import javax.annotation.Nonnull;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
 public class RedisSeatStore implements ISeatStore {
 
+    /**
+     * Removes the hand-off of the proxy (ARGV[1]) and returns the id of the seat. If ARGV[2] is not empty, the hand-off
+     * is only removed when it refers to that seat. Returns nil when nothing was removed, such that only one server
+     * (or thread) receives the seat.
+     */
+    private static final RedisScript<String> REMOVE_HANDED_OFF_SEAT_SCRIPT = new DefaultRedisScript<>("""
+        local seatId = redis.call('HGET', KEYS[1], ARGV[1])
+        if not seatId or (ARGV[2] ~= '' and seatId ~= ARGV[2]) then
+            return false
+        end
+        redis.call('HDEL', KEYS[1], ARGV[1])
+        return seatId
+        """, String.class);
+
     private final BoundHashOperations<String, String, Seat> seatsOperations; // seat id -> Seat
     private final BoundSetOperations<String, String> unClaimedSeatsIdsOperations; // list of seatIds
+    private final BoundHashOperations<String, String, String> handedOffSeatsOperations; // proxy id -> seat id
     private final RedisTemplate<String, String> unClaimedSeatsIdsTemplate;
     private final String key;
 
-    public RedisSeatStore(BoundHashOperations<String, String, Seat> seatsOperations, BoundSetOperations<String, String> unClaimedSeatsIdsOperations, RedisTemplate<String, String> unClaimedSeatsIdsTemplate, String key) {
+    public RedisSeatStore(BoundHashOperations<String, String, Seat> seatsOperations, BoundSetOperations<String, String> unClaimedSeatsIdsOperations, RedisTemplate<String, String> unClaimedSeatsIdsTemplate, String key,
+                          BoundHashOperations<String, String, String> handedOffSeatsOperations) {
         this.seatsOperations = seatsOperations;
         this.unClaimedSeatsIdsOperations = unClaimedSeatsIdsOperations;
+        this.handedOffSeatsOperations = handedOffSeatsOperations;
         this.unClaimedSeatsIdsTemplate = unClaimedSeatsIdsTemplate;
         this.key = key;
     }
@@ -110,6 +130,26 @@ public class RedisSeatStore implements ISeatStore {
         seatsOperations.delete(seatId);
     }
 
+    @Override
+    public void addHandedOffSeat(String proxyId, String seatId) {
+        handedOffSeatsOperations.put(proxyId, seatId);
+    }
+
+    @Override
+    public String getHandedOffSeat(String proxyId) {
+        return handedOffSeatsOperations.get(proxyId);
+    }
+
+    @Override
+    public String removeHandedOffSeat(String proxyId) {
+        return unClaimedSeatsIdsTemplate.execute(REMOVE_HANDED_OFF_SEAT_SCRIPT, List.of(handedOffSeatsOperations.getKey()), proxyId, "");
+    }
+
+    @Override
+    public boolean removeHandedOffSeat(String proxyId, String seatId) {
+        return seatId.equals(unClaimedSeatsIdsTemplate.execute(REMOVE_HANDED_OFF_SEAT_SCRIPT, List.of(handedOffSeatsOperations.getKey()), proxyId, seatId));
+    }
+
     @Override
     public Long getNumUnclaimedSeats() {
         return unClaimedSeatsIdsOperations.size();
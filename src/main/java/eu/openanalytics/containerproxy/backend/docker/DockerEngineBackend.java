@@ -225,9 +225,9 @@ public class DockerEngineBackend extends AbstractDockerBackend {
             // containers not yet created, do no perform cleanup, see #33102
             return;
         }
-        for (Container container : proxy.getContainers()) {
+        forEachContainer(proxy, container -> {
             if (container.getId() == null) {
-                continue;
+                return;
             }
             try {
                 ContainerInfo containerInfo = dockerClient.inspectContainer(container.getId());
@@ -250,7 +250,7 @@ public class DockerEngineBackend extends AbstractDockerBackend {
                 // ignore, container is currently being removed
                 // do not release port now
             }
-        }
+        });
     }
 
     @Override
@@ -293,7 +293,7 @@ public class DockerSwarmBackend extends AbstractDockerBackend {
 
     @Override
     protected void doStopProxy(Proxy proxy) throws Exception {
-        for (Container container : proxy.getContainers()) {
+        forEachContainer(proxy, container -> {
             String serviceId = container.getRuntimeObjectOrNull(BackendContainerNameKey.inst);
             if (serviceId != null) {
                 try {
@@ -302,7 +302,7 @@ public class DockerSwarmBackend extends AbstractDockerBackend {
                     // ignore, service is already removed
                 }
             }
-        }
+        });
         releasePort(proxy.getId());
     }
 
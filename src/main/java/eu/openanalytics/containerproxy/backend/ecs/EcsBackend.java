@@ -393,14 +393,14 @@ public class EcsBackend extends AbstractContainerBackend {
 
     @Override
     protected void doStopProxy(Proxy proxy) throws Exception {
-        for (Container container : proxy.getContainers()) {
+        forEachContainer(proxy, container -> {
             String taskArn = container.getRuntimeValue(BackendContainerNameKey.inst);
             ecsClient.stopTask(builder -> builder.cluster(cluster).task(taskArn));
 
             // delete is ignored if task definition does not exist, this is the case if the task definition was not created by shinyproxy
             ecsClient.deregisterTaskDefinition(builder -> builder.taskDefinition("sp-task-definition-" + proxy.getId() + ":1"));
             ecsClient.deleteTaskDefinitions(builder -> builder.taskDefinitions("sp-task-definition-" + proxy.getId() + ":1"));
-        }
+        });
 
         List<String> stoppingState = Arrays.asList("DEACTIVATING", "STOPPING", "DEPROVISIONING", "STOPPED", "DELETED");
 
@@ -93,6 +93,7 @@ import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.json.JsonPatch;
 import java.io.ByteArrayInputStream;
@@ -130,6 +131,7 @@ public class KubernetesBackend extends AbstractContainerBackend {
     private static final String PROPERTY_IMG_PULL_SECRETS = "image-pull-secrets";
     private static final String PROPERTY_IMG_PULL_SECRET = "image-pull-secret";
     private static final String PROPERTY_NODE_SELECTOR = "node-selector";
+    private static final String PROPERTY_USE_INFORMERS = "use-informers";
 
     private static final String DEFAULT_NAMESPACE = "default";
     private static final String DEFAULT_API_VERSION = "v1";
@@ -144,6 +146,8 @@ public class KubernetesBackend extends AbstractContainerBackend {
     private AccessControlEvaluationService accessControlEvaluationService;
     private KubernetesClient kubeClient;
     private KubernetesManifestsRemover kubernetesManifestsRemover;
+    private KubernetesResourceWatcher<Pod> podWatcher;
+    private KubernetesResourceWatcher<Service> serviceWatcher;
     private Boolean logManifests;
     private int totalWaitMs;
 
@@ -202,6 +206,30 @@ public class KubernetesBackend extends AbstractContainerBackend {
             imagePullSecrets.addAll(imagePullSecretsList.stream().map(LocalObjectReference::new).toList());
         }
         kubernetesManifestsRemover = new KubernetesManifestsRemover(kubeClient, appNamespaces, identifierService);
+
+        if (getProperty(PROPERTY_USE_INFORMERS, true)) {
+            // a single informer per namespace is used to wait for pods and services to become ready and to look up
+            // pods and services, instead of polling the API server for every app
+            String label = ProxiedAppKey.inst.getKeyAsLabel();
+            podWatcher = new KubernetesResourceWatcher<>("pods", appNamespaces,
+                (namespace, handler) -> kubeClient.pods().inNamespace(namespace).withLabel(label, "true").inform(handler, 0),
+                Readiness.getInstance()::isReady);
+            if (!isUseInternalNetwork()) {
+                serviceWatcher = new KubernetesResourceWatcher<>("services", appNamespaces,
+                    (namespace, handler) -> kubeClient.services().inNamespace(namespace).withLabel(label, "true").inform(handler, 0),
+                    this::isServiceReady);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (podWatcher != null) {
+            podWatcher.close();
+        }
+        if (serviceWatcher != null) {
+            serviceWatcher.close();
+        }
     }
 
     @Override
@@ -339,26 +367,13 @@ public class KubernetesBackend extends AbstractContainerBackend {
             // create and start the pod
             Pod startedPod = kubeClient.pods().inNamespace(effectiveKubeNamespace).create(patchedPod);
 
-            boolean podReady = Retrying.retry((currentAttempt, maxAttempts) -> {
-                if (!Readiness.getInstance().isReady(kubeClient.resource(startedPod).fromServer().get())) {
-                    if (currentAttempt > 10 && log != null) {
-                        slog.info(proxy, String.format("Kubernetes Pod not ready yet, trying again (%d/%d)", currentAttempt, maxAttempts));
-                    }
-                    return false;
-                }
-                return true;
-            }, totalWaitMs);
-
-            if (!podReady) {
-                // check a final time whether the pod is ready
-                if (!Readiness.getInstance().isReady(kubeClient.resource(startedPod).fromServer().get())) {
-                    logKubernetesWarnings(proxy, startedPod);
-                    throw new ContainerFailedToStartException("Kubernetes Pod did not start in time", null, rContainerBuilder.build());
-                }
+            Pod pod = waitUntilPodReady(proxy, startedPod);
+            if (pod == null) {
+                logKubernetesWarnings(proxy, startedPod);
+                throw new ContainerFailedToStartException("Kubernetes Pod did not start in time", null, rContainerBuilder.build());
             }
 
             proxyStartupLogBuilder.containerStarted(initialContainer.getIndex());
-            Pod pod = kubeClient.resource(startedPod).fromServer().get();
 
             parseKubernetesEvents(spec.getIndex(), pod, proxyStartupLogBuilder);
 
@@ -386,10 +401,7 @@ public class KubernetesBackend extends AbstractContainerBackend {
                         .endSpec()
                         .build());
 
-                // Workaround: waitUntilReady appears to be buggy.
-                Retrying.retry((currentAttempt, maxAttempts) -> isServiceReady(kubeClient.resource(startupService).fromServer().get()), 60_000);
-
-                service = kubeClient.resource(startupService).fromServer().get();
+                service = waitUntilServiceReady(startupService);
                 portBindings = service.getSpec().getPorts().stream()
                     .collect(Collectors.toMap(ServicePort::getPort, ServicePort::getNodePort));
             }
@@ -404,6 +416,52 @@ public class KubernetesBackend extends AbstractContainerBackend {
         }
     }
 
+    /**
+     * Waits until the pod is ready, using the informer if the namespace of the pod is watched, otherwise the pod is
+     * polled.
+     *
+     * @return the ready pod or null if the pod did not become ready in time
+     */
+    private Pod waitUntilPodReady(Proxy proxy, Pod startedPod) throws InterruptedException {
+        String namespace = startedPod.getMetadata().getNamespace();
+        if (podWatcher != null && podWatcher.isWatching(namespace)) {
+            Pod pod = podWatcher.waitUntilReady(namespace, startedPod.getMetadata().getName(), totalWaitMs);
+            if (pod != null) {
+                return pod;
+            }
+        } else {
+            Retrying.retry((currentAttempt, maxAttempts) -> {
+                if (!Readiness.getInstance().isReady(kubeClient.resource(startedPod).fromServer().get())) {
+                    if (currentAttempt > 10 && log != null) {
+                        slog.info(proxy, String.format("Kubernetes Pod not ready yet, trying again (%d/%d)", currentAttempt, maxAttempts));
+                    }
+                    return false;
+                }
+                return true;
+            }, totalWaitMs);
+        }
+        // check a final time whether the pod is ready
+        Pod pod = kubeClient.resource(startedPod).fromServer().get();
+        if (!Readiness.getInstance().isReady(pod)) {
+            return null;
+        }
+        return pod;
+    }
+
+    private Service waitUntilServiceReady(Service startupService) throws InterruptedException {
+        String namespace = startupService.getMetadata().getNamespace();
+        if (serviceWatcher != null && serviceWatcher.isWatching(namespace)) {
+            Service service = serviceWatcher.waitUntilReady(namespace, startupService.getMetadata().getName(), 60_000);
+            if (service != null) {
+                return service;
+            }
+        } else {
+            // Workaround: waitUntilReady appears to be buggy.
+            Retrying.retry((currentAttempt, maxAttempts) -> isServiceReady(kubeClient.resource(startupService).fromServer().get()), 60_000);
+        }
+        return kubeClient.resource(startupService).fromServer().get();
+    }
+
     private Pod applyPodPatches(Authentication auth, ProxySpec proxySpec, KubernetesSpecExtension specExtension, Proxy proxy, Pod startupPod, Container container) throws JsonProcessingException {
         Pod patchedPod = podPatcher.patchWithDebug(proxy, startupPod, readPatchFromSpec(specExtension.kubernetesPodPatches));
 
@@ -632,12 +690,12 @@ public class KubernetesBackend extends AbstractContainerBackend {
     }
 
     @Override
-    protected void doStopProxy(Proxy proxy) {
-        for (Container container : proxy.getContainers()) {
+    protected void doStopProxy(Proxy proxy) throws Exception {
+        forEachContainer(proxy, container -> {
             Optional<Pair<String, String>> podInfo = getPodInfo(container);
             if (podInfo.isEmpty()) {
                 // container was not yet fully created
-                continue;
+                return;
             }
 
             // specify gracePeriod 0, this was the default in previous version of the fabric8 k8s client
@@ -645,7 +703,7 @@ public class KubernetesBackend extends AbstractContainerBackend {
 
             if (!isUseInternalNetwork()) {
                 // delete service when not using internal network
-                Service service = kubeClient.services().inNamespace(podInfo.get().getFirst()).withName(getServiceName(proxy, container)).get();
+                Service service = getService(podInfo.get().getFirst(), getServiceName(proxy, container));
                 if (service != null) {
                     kubeClient.resource(service).withGracePeriod(0).delete();
                 }
@@ -653,7 +711,7 @@ public class KubernetesBackend extends AbstractContainerBackend {
 
             // delete additional manifests
             kubernetesManifestsRemover.deleteAdditionalManifests(proxy.getSpecId(), proxy.getUserId());
-        }
+        });
     }
 
     private boolean canAccessLogs(Proxy proxy, Pair<String, String> pod) {
@@ -707,9 +765,14 @@ public class KubernetesBackend extends AbstractContainerBackend {
         ArrayList<ExistingContainerInfo> containers = new ArrayList<>();
 
         for (String namespace : appNamespaces) {
-            List<Pod> pods = kubeClient.pods().inNamespace(namespace)
-                .withLabel(ProxiedAppKey.inst.getKeyAsLabel(), "true")
-                .list().getItems();
+            List<Pod> pods;
+            if (podWatcher != null && podWatcher.isWatching(namespace)) {
+                pods = podWatcher.list(namespace);
+            } else {
+                pods = kubeClient.pods().inNamespace(namespace)
+                    .withLabel(ProxiedAppKey.inst.getKeyAsLabel(), "true")
+                    .list().getItems();
+            }
 
             for (Pod pod : pods) {
                 Map<String, String> labels = pod.getMetadata().getLabels();
@@ -742,7 +805,7 @@ public class KubernetesBackend extends AbstractContainerBackend {
 
                 Map<Integer, Integer> portBindings = new HashMap<>();
                 if (!isUseInternalNetwork()) {
-                    Service service = kubeClient.services().inNamespace(namespace).withName("sp-service-" + proxyId + "-" + containerIndex).get();
+                    Service service = getService(namespace, "sp-service-" + proxyId + "-" + containerIndex);
                     if (service == null) {
                         log.warn("Ignoring container {} because it has no associated service", containerId);
                         continue;
@@ -803,7 +866,24 @@ public class KubernetesBackend extends AbstractContainerBackend {
     }
 
     private Optional<Pod> getPod(Pair<String, String> podInfo) {
+        if (podWatcher != null) {
+            Pod pod = podWatcher.get(podInfo.getFirst(), podInfo.getSecond());
+            if (pod != null) {
+                return Optional.of(pod);
+            }
+        }
+        // not (yet) in the cache of the informer
         return Optional.ofNullable(kubeClient.pods().inNamespace(podInfo.getFirst()).withName(podInfo.getSecond()).get());
     }
 
+    private Service getService(String namespace, String name) {
+        if (serviceWatcher != null) {
+            Service service = serviceWatcher.get(namespace, name);
+            if (service != null) {
+                return service;
+            }
+        }
+        return kubeClient.services().inNamespace(namespace).withName(name).get();
+    }
+
 }
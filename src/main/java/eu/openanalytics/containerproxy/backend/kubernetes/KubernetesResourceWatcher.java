@@ -0,0 +1,174 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.backend.kubernetes;
+
+import eu.openanalytics.containerproxy.ContainerProxyException;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import io.fabric8.kubernetes.client.informers.cache.Cache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+/**
+ * Keeps a local cache of Kubernetes resources (e.g. pods or services) of every namespace using a shared informer.
+ * This makes it possible to wait until a resource is ready, without polling the API server, and to get or list
+ * resources without doing a request to the API server.
+ * Namespaces for which the informer could not be started (e.g. because ShinyProxy is not allowed to watch the
+ * resources) are not watched, the caller must then fall back to querying the API server.
+ */
+public class KubernetesResourceWatcher<T extends HasMetadata> implements ResourceEventHandler<T> {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, SharedIndexInformer<T>> informers = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<T>> waiting = new ConcurrentHashMap<>();
+    private final Predicate<T> readiness;
+    private final String resourceType;
+
+    /**
+     * @param resourceType    name of the resource type, used for logging
+     * @param namespaces      namespaces to watch
+     * @param informerFactory creates and starts an informer for the given namespace, using the provided handler
+     * @param readiness       predicate which checks whether a resource is ready
+     */
+    public KubernetesResourceWatcher(String resourceType,
+                                     List<String> namespaces,
+                                     BiFunction<String, ResourceEventHandler<T>, SharedIndexInformer<T>> informerFactory,
+                                     Predicate<T> readiness) {
+        this.readiness = readiness;
+        this.resourceType = resourceType;
+        for (String namespace : namespaces) {
+            if (informers.containsKey(namespace)) {
+                continue;
+            }
+            try {
+                informers.put(namespace, informerFactory.apply(namespace, this));
+                logger.info("Watching Kubernetes {} in namespace {}", resourceType, namespace);
+            } catch (KubernetesClientException ex) {
+                logger.warn("Cannot watch Kubernetes {} in namespace {}, falling back to polling", resourceType, namespace, ex);
+            }
+        }
+    }
+
+    public boolean isWatching(String namespace) {
+        return informers.containsKey(namespace);
+    }
+
+    /**
+     * @return the resource from the cache or null if the resource is not in the cache (or the namespace is not watched)
+     */
+    public T get(String namespace, String name) {
+        SharedIndexInformer<T> informer = informers.get(namespace);
+        if (informer == null) {
+            return null;
+        }
+        return informer.getStore().getByKey(Cache.namespaceKeyFunc(namespace, name));
+    }
+
+    /**
+     * @return all resources of the namespace in the cache
+     */
+    public List<T> list(String namespace) {
+        SharedIndexInformer<T> informer = informers.get(namespace);
+        if (informer == null) {
+            return List.of();
+        }
+        return informer.getStore().list();
+    }
+
+    /**
+     * Waits until the resource is ready. The namespace must be watched (see {@link #isWatching(String)}).
+     *
+     * @return the ready resource or null if the resource did not become ready in time
+     * @throws ContainerProxyException if the resource was deleted while waiting
+     */
+    public T waitUntilReady(String namespace, String name, long timeoutMs) throws InterruptedException {
+        String key = Cache.namespaceKeyFunc(namespace, name);
+        CompletableFuture<T> future = waiting.computeIfAbsent(key, (k) -> new CompletableFuture<>());
+        try {
+            // check the cache after registering the future, such that no update can be missed
+            T current = get(namespace, name);
+            if (current != null && readiness.test(current)) {
+                return current;
+            }
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ContainerProxyException cause) {
+                throw cause;
+            }
+            return null;
+        } catch (TimeoutException | CancellationException e) {
+            return null;
+        } finally {
+            waiting.remove(key, future);
+        }
+    }
+
+    public void close() {
+        informers.values().forEach(SharedIndexInformer::close);
+        informers.clear();
+        waiting.values().forEach(f -> f.cancel(false));
+    }
+
+    @Override
+    public void onAdd(T resource) {
+        checkReadiness(resource);
+    }
+
+    @Override
+    public void onUpdate(T oldResource, T newResource) {
+        checkReadiness(newResource);
+    }
+
+    @Override
+    public void onDelete(T resource, boolean deletedFinalStateUnknown) {
+        // the resource will never become ready -> stop waiting immediately, instead of waiting until the timeout
+        String key = Cache.metaNamespaceKeyFunc(resource);
+        CompletableFuture<T> future = waiting.get(key);
+        if (future != null) {
+            future.completeExceptionally(new ContainerProxyException(String.format("Kubernetes %s %s was deleted while waiting for it to become ready", resourceType, key)));
+        }
+    }
+
+    private void checkReadiness(T resource) {
+        if (!readiness.test(resource)) {
+            return;
+        }
+        CompletableFuture<T> future = waiting.get(Cache.metaNamespaceKeyFunc(resource));
+        if (future != null) {
+            future.complete(resource);
+        }
+    }
+
+}
@@ -20,12 +20,16 @@
  */
 package eu.openanalytics.containerproxy.backend.strategy.impl;
 
+import eu.openanalytics.containerproxy.ProxyActionConflictException;
 import eu.openanalytics.containerproxy.backend.strategy.IProxyLogoutStrategy;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 import eu.openanalytics.containerproxy.service.AsyncProxyService;
 import eu.openanalytics.containerproxy.service.ProxyService;
+import eu.openanalytics.containerproxy.service.StructuredLogger;
 import eu.openanalytics.containerproxy.spec.IProxySpecProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
@@ -41,6 +45,9 @@ public class DefaultProxyLogoutStrategy implements IProxyLogoutStrategy {
 
     private static final String PROP_DEFAULT_STOP_PROXIES_ON_LOGOUT = "proxy.default-stop-proxy-on-logout";
 
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final StructuredLogger slog = new StructuredLogger(logger);
+
     @Inject
     @Lazy
     private ProxyService proxyService;
@@ -66,7 +73,12 @@ public class DefaultProxyLogoutStrategy implements IProxyLogoutStrategy {
     public void onLogout(String userId) {
         for (Proxy proxy : proxyService.getUserProxies(userId)) {
             if (shouldBeStopped(proxy)) {
-                asyncProxyService.stopProxy(proxy, true);
+                try {
+                    asyncProxyService.stopProxy(proxy, true);
+                } catch (ProxyActionConflictException ex) {
+                    // the proxy is already being stopped, continue with the other proxies of the user
+                    slog.debug(proxy, "Not stopping proxy on logout, since it is already being stopped");
+                }
             }
         }
     }
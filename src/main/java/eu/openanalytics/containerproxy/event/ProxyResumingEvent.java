@@ -0,0 +1,64 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+
+/**
+ * Published when a paused proxy starts resuming (i.e. its status changed to {@link eu.openanalytics.containerproxy.model.runtime.ProxyStatus#Resuming}).
+ * The {@link ProxyResumeEvent} is published once the proxy is resumed.
+ */
+@Value
+@EqualsAndHashCode(callSuper = true)
+@NoArgsConstructor(force = true, access = AccessLevel.PRIVATE) // Jackson deserialize compatibility
+public class ProxyResumingEvent extends BridgeableEvent {
+
+    String proxyId;
+    String userId;
+    String specId;
+
+    @JsonCreator
+    public ProxyResumingEvent(@JsonProperty("source") String source,
+                              @JsonProperty("proxyId") String proxyId,
+                              @JsonProperty("userId") String userId,
+                              @JsonProperty("specId") String specId) {
+        super(source);
+        this.proxyId = proxyId;
+        this.userId = userId;
+        this.specId = specId;
+    }
+
+    public ProxyResumingEvent(Proxy proxy) {
+        this(SOURCE_NOT_AVAILABLE, proxy.getId(), proxy.getUserId(), proxy.getSpecId());
+    }
+
+    @Override
+    public ProxyResumingEvent withSource(String source) {
+        return new ProxyResumingEvent(source, proxyId, userId, specId);
+    }
+
+}
@@ -0,0 +1,57 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+
+/**
+ * Event published when a proxy was added, updated or removed in the proxy store.
+ * Used by other replicas to invalidate their (local) cache of this proxy.
+ */
+@Value
+@EqualsAndHashCode(callSuper = true)
+@NoArgsConstructor(force = true, access = AccessLevel.PRIVATE) // Jackson deserialize compatibility
+public class ProxyStoreUpdatedEvent extends BridgeableEvent {
+
+    String proxyId;
+
+    @JsonCreator
+    public ProxyStoreUpdatedEvent(@JsonProperty("source") String source,
+                                  @JsonProperty("proxyId") String proxyId) {
+        super(source);
+        this.proxyId = proxyId;
+    }
+
+    public ProxyStoreUpdatedEvent(String proxyId) {
+        this(SOURCE_NOT_AVAILABLE, proxyId);
+    }
+
+    @Override
+    public ProxyStoreUpdatedEvent withSource(String source) {
+        return new ProxyStoreUpdatedEvent(source, proxyId);
+    }
+
+}
@@ -38,22 +38,36 @@ public class SeatAvailableEvent extends BridgeableEvent {
 
     String intendedProxyId;
 
+    /**
+     * Id of the seat which was claimed on behalf of the intended proxy.
+     */
+    String seatId;
+
+    /**
+     * Time (in ms) at which the seat was handed off to the intended proxy.
+     */
+    long handOffTime;
+
     @JsonCreator
     public SeatAvailableEvent(@JsonProperty("source") String source,
                               @JsonProperty("specId") String specId,
-                              @JsonProperty("claimingProxyId") String claimingProxyId) {
+                              @JsonProperty("intendedProxyId") String intendedProxyId,
+                              @JsonProperty("seatId") String seatId,
+                              @JsonProperty("handOffTime") long handOffTime) {
         super(source);
         this.specId = specId;
-        this.intendedProxyId = claimingProxyId;
+        this.intendedProxyId = intendedProxyId;
+        this.seatId = seatId;
+        this.handOffTime = handOffTime;
     }
 
-    public SeatAvailableEvent(String specId, String claimingProxyId) {
-        this(SOURCE_NOT_AVAILABLE, specId, claimingProxyId);
+    public SeatAvailableEvent(String specId, String intendedProxyId, String seatId) {
+        this(SOURCE_NOT_AVAILABLE, specId, intendedProxyId, seatId, System.currentTimeMillis());
     }
 
     @Override
     public SeatAvailableEvent withSource(String source) {
-        return new SeatAvailableEvent(source, specId, intendedProxyId);
+        return new SeatAvailableEvent(source, specId, intendedProxyId, seatId, handOffTime);
     }
 
 }
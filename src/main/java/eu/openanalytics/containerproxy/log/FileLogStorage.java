@@ -21,27 +21,312 @@
 package eu.openanalytics.containerproxy.log;
 
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Stores logs in files. Every stream buffers the logs in memory, a small pool of writer threads periodically writes
+ * the buffers to disk, instead of performing a (small) write for every log line.
+ * When the buffer of a stream is full, the thread producing the logs writes the buffer itself, which slows down the
+ * producer instead of dropping logs.
+ * Buffers are allocated on the first write and re-used afterwards, a stream only allocates a second buffer when logs
+ * are written while its buffer is being written to the file.
+ * Optionally, log files are rotated based on their size and/or age, rotated files can be compressed using gzip.
+ * Rotated files are stored next to the log file (as {@code <file>.<timestamp>_<n>}, with a {@code .gz} suffix when
+ * compressed) and are not included in the paths returned by {@link #getLogs(Proxy)}, which only refer to the current files.
+ */
 public class FileLogStorage extends AbstractLogStorage {
 
+    private final Logger log = LogManager.getLogger(FileLogStorage.class);
+    private final Set<BufferedLogStream> openStreams = ConcurrentHashMap.newKeySet();
+    @Inject
+    private MeterRegistry meterRegistry;
+    private ScheduledExecutorService writers;
+    private ExecutorService compressor;
+    private int bufferSize;
+    private long maxFileSize;
+    private long rotationInterval;
+    private boolean compressRotatedFiles;
+    private Counter writtenBytes;
+    private Counter bufferFull;
+
     @Override
     public void initialize() throws IOException {
         super.initialize();
         Files.createDirectories(Paths.get(containerLogPath));
+
+        bufferSize = environment.getProperty("proxy.container-log-buffer-size", Integer.class, 8 * 1024);
+        maxFileSize = environment.getProperty("proxy.container-log-max-file-size", Long.class, 0L);
+        rotationInterval = environment.getProperty("proxy.container-log-rotation-interval", Long.class, 0L);
+        compressRotatedFiles = environment.getProperty("proxy.container-log-compress-rotated-files", Boolean.class, false);
+        long flushInterval = environment.getProperty("proxy.container-log-flush-interval", Long.class, 1000L);
+        int writerThreads = environment.getProperty("proxy.container-log-writer-threads", Integer.class, 2);
+
+        writtenBytes = meterRegistry.counter("container_log_written_bytes");
+        bufferFull = meterRegistry.counter("container_log_buffer_full");
+        meterRegistry.gauge("container_log_streams", openStreams, Set::size);
+        meterRegistry.gauge("container_log_buffered_bytes", openStreams, streams -> streams.stream().mapToInt(BufferedLogStream::getBufferedBytes).sum());
+
+        writers = Executors.newScheduledThreadPool(writerThreads, new BasicThreadFactory.Builder()
+            .namingPattern("FileLogStorageWriter-%d")
+            .daemon(true)
+            .build());
+        writers.scheduleWithFixedDelay(this::flushAllStreams, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        // compressing can take a while, use a separate thread such that it does not delay the writes
+        compressor = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+            .namingPattern("FileLogStorageCompressor-%d")
+            .daemon(true)
+            .build());
+    }
+
+    /**
+     * Writes the buffers of all open streams and waits for the pending compressions.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (writers == null) {
+            return;
+        }
+        writers.shutdown();
+        for (BufferedLogStream stream : openStreams) {
+            try {
+                stream.writeBuffer();
+            } catch (IOException e) {
+                log.error("Failed to write container log file " + stream.path, e);
+            }
+        }
+        compressor.shutdown();
+        try {
+            if (!compressor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Not all rotated container log files were compressed before shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
     public LogStreams createOutputStreams(Proxy proxy) throws IOException {
-        // TODO buffer
         LogPaths paths = getLogs(proxy);
         return new LogStreams(
-            Files.newOutputStream(paths.getStdout()),
-            Files.newOutputStream(paths.getStderr())
+            new BufferedLogStream(paths.getStdout()),
+            new BufferedLogStream(paths.getStderr())
         );
     }
 
+    /**
+     * Schedules a write of every stream that has buffered logs on the writer threads. Streams of which a write is
+     * already scheduled are skipped, such that the queue of the writers contains at most one task per stream.
+     */
+    private void flushAllStreams() {
+        for (BufferedLogStream stream : openStreams) {
+            if (stream.getBufferedBytes() == 0 || !stream.writeScheduled.compareAndSet(false, true)) {
+                continue;
+            }
+            writers.execute(() -> {
+                try {
+                    stream.writeBuffer();
+                } catch (IOException e) {
+                    log.error("Failed to write container log file " + stream.path, e);
+                } finally {
+                    stream.writeScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    private void compress(Path path) {
+        Path target = path.resolveSibling(path.getFileName() + ".gz");
+        try (InputStream in = Files.newInputStream(path); OutputStream out = new GZIPOutputStream(Files.newOutputStream(target))) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            log.error("Failed to compress container log file " + path, e);
+            return;
+        }
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            log.error("Failed to delete compressed container log file " + path, e);
+        }
+    }
+
+    private class BufferedLogStream extends OutputStream {
+
+        private final Path path;
+        // protects buffer, spareBuffer, count and closed
+        private final Object bufferLock = new Object();
+        // protects the file, ensures a single thread writes to the file at a time
+        private final Object fileLock = new Object();
+        // whether a write of this stream is scheduled on the writer threads
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        // both buffers are allocated lazily
+        private byte[] buffer;
+        private byte[] spareBuffer;
+        private int count = 0;
+        private boolean closed = false;
+        private OutputStream file;
+        private long fileSize;
+        private long segmentStart;
+        private int rotations = 0;
+
+        private BufferedLogStream(Path path) throws IOException {
+            this.path = path;
+            openFile();
+            openStreams.add(this);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                synchronized (bufferLock) {
+                    if (closed) {
+                        throw new IOException("Stream closed");
+                    }
+                    if (buffer == null) {
+                        // use the spare buffer, unless it's being written to the file
+                        buffer = spareBuffer != null ? spareBuffer : new byte[bufferSize];
+                        spareBuffer = null;
+                    }
+                    int toCopy = Math.min(len, buffer.length - count);
+                    System.arraycopy(b, off, buffer, count, toCopy);
+                    count += toCopy;
+                    off += toCopy;
+                    len -= toCopy;
+                    if (len == 0) {
+                        return;
+                    }
+                }
+                // the buffer is full, write it from this thread
+                bufferFull.increment();
+                writeBuffer();
+            }
+        }
+
+        @Override
+        public void flush() {
+            // ignore external flush requests, some container backends flush after every write
+            // the buffer is written by the writer threads
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (bufferLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            openStreams.remove(this);
+            try {
+                writeBuffer();
+            } finally {
+                synchronized (fileLock) {
+                    file.close();
+                }
+            }
+        }
+
+        private int getBufferedBytes() {
+            synchronized (bufferLock) {
+                return count;
+            }
+        }
+
+        /**
+         * Writes the content of the buffer to the file. While the file is being written, new logs are buffered in the
+         * spare buffer (allocated when needed). Afterwards, the written buffer becomes the spare buffer.
+         */
+        private void writeBuffer() throws IOException {
+            synchronized (fileLock) {
+                byte[] data;
+                int length;
+                synchronized (bufferLock) {
+                    if (count == 0) {
+                        return;
+                    }
+                    data = buffer;
+                    length = count;
+                    buffer = null;
+                    count = 0;
+                }
+                if (shouldRotate(length)) {
+                    try {
+                        rotate();
+                    } catch (IOException e) {
+                        log.error("Failed to rotate container log file " + path, e);
+                    }
+                }
+                file.write(data, 0, length);
+                fileSize += length;
+                writtenBytes.increment(length);
+                synchronized (bufferLock) {
+                    spareBuffer = data;
+                }
+            }
+        }
+
+        private boolean shouldRotate(int length) {
+            if (fileSize == 0) {
+                return false;
+            }
+            if (maxFileSize > 0 && fileSize + length > maxFileSize) {
+                return true;
+            }
+            return rotationInterval > 0 && System.currentTimeMillis() - segmentStart >= rotationInterval;
+        }
+
+        private void rotate() throws IOException {
+            file.close();
+            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date());
+            // include a sequence number, since multiple rotations can happen within the same millisecond
+            Path rotated = path.resolveSibling(String.format("%s.%s_%d", path.getFileName(), timestamp, ++rotations));
+            try {
+                Files.move(path, rotated);
+            } finally {
+                // when the move failed, keep appending to the existing file
+                file = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                fileSize = Files.size(path);
+                segmentStart = System.currentTimeMillis();
+            }
+            if (compressRotatedFiles && !compressor.isShutdown()) {
+                compressor.execute(() -> compress(rotated));
+            }
+        }
+
+        private void openFile() throws IOException {
+            file = Files.newOutputStream(path);
+            fileSize = 0;
+            segmentStart = System.currentTimeMillis();
+        }
+
+    }
+
 }
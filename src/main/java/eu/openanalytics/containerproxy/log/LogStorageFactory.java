@@ -60,4 +60,12 @@ public class LogStorageFactory extends AbstractFactoryBean<ILogStorage> {
         return storage;
     }
 
+    @Override
+    protected void destroyInstance(ILogStorage instance) {
+        // the storage is not a bean itself, therefore its @PreDestroy method is called here
+        if (instance instanceof FileLogStorage fileLogStorage) {
+            fileLogStorage.shutdown();
+        }
+    }
+
 }
@@ -24,7 +24,6 @@ import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.util.ProxyHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.bouncycastle.util.Arrays;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.ResponseBytes;
@@ -39,9 +38,12 @@ import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.ServerSideEncryption;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
@@ -49,6 +51,10 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * Stores logs in S3. Because S3 requests come with a cost and in order to reduce CPU usage, this class buffers the logs
  * and only write the logs to S3 either every 10 seconds or when the buffer reaches 1MB.
+ * S3 does not support appending to an object, therefore every flush writes the new bytes to a new (numbered) segment
+ * object, e.g. {@code <log>.000001}, {@code <log>.000002} ... Afterwards, the manifest object {@code <log>.manifest}
+ * is updated with the number of segments. Hence, a flush only uploads the new bytes, independent of the size of the log.
+ * Use {@link #readLog(Path)} to read the complete log, which concatenates the segments listed in the manifest.
  */
 public class S3LogStorage extends AbstractLogStorage {
 
@@ -136,16 +142,64 @@ public class S3LogStorage extends AbstractLogStorage {
         proxyStreams = ProxyHashMap.create();
     }
 
-    private void doUpload(String key, byte[] bytes) throws IOException {
-        byte[] bytesToUpload = bytes;
+    /**
+     * Reads the complete log (written by this class) by concatenating its segments.
+     *
+     * @param logPath the path of the log, as returned by {@link #getLogs(Proxy)}
+     * @return the content of the log, empty if the log does not exist
+     */
+    public byte[] readLog(Path logPath) throws IOException {
+        String key = bucketPath + logPath.getFileName().toString();
+        try {
+            byte[] manifest = getContent(getManifestKey(key));
+            if (manifest == null) {
+                // log written as a single object (i.e. before segments were used)
+                byte[] content = getContent(key);
+                return content == null ? new byte[0] : content;
+            }
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            int numSegments = parseManifest(manifest);
+            for (int segment = 1; segment <= numSegments; segment++) {
+                byte[] content = getContent(getSegmentKey(key, segment));
+                if (content != null) {
+                    result.writeBytes(content);
+                }
+            }
+            return result.toByteArray();
+        } catch (S3Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String getSegmentKey(String key, int segment) {
+        return String.format("%s.%06d", key, segment);
+    }
+
+    private static String getManifestKey(String key) {
+        return key + ".manifest";
+    }
+
+    private static int parseManifest(byte[] manifest) {
+        return Integer.parseInt(new String(manifest, StandardCharsets.UTF_8).trim());
+    }
 
-        byte[] originalBytes = getContent(key);
-        if (originalBytes != null) {
-            bytesToUpload = Arrays.copyOf(originalBytes, originalBytes.length + bytes.length);
-            System.arraycopy(bytes, 0, bytesToUpload, originalBytes.length, bytes.length);
+    /**
+     * @return the number of segments of the log with the given key
+     */
+    private int getNumSegments(String key) throws IOException {
+        try {
+            byte[] manifest = getContent(getManifestKey(key));
+            if (manifest == null) {
+                return 0;
+            }
+            return parseManifest(manifest);
+        } catch (S3Exception e) {
+            throw new IOException(e);
         }
+    }
 
-        if (log.isDebugEnabled()) log.debug(String.format("Writing log file to S3 [size: %d] [path: %s]", bytesToUpload.length, key));
+    private void putObject(String key, byte[] bytes) {
+        if (log.isDebugEnabled()) log.debug(String.format("Writing log file to S3 [size: %d] [path: %s]", bytes.length, key));
 
         PutObjectRequest.Builder builder = PutObjectRequest.builder()
             .bucket(bucketName)
@@ -155,11 +209,7 @@ public class S3LogStorage extends AbstractLogStorage {
             builder.serverSideEncryption(ServerSideEncryption.AES256);
         }
 
-        try {
-            s3Client.putObject(builder.build(), RequestBody.fromBytes(bytesToUpload));
-        } catch (S3Exception e) {
-            throw new IOException(e);
-        }
+        s3Client.putObject(builder.build(), RequestBody.fromBytes(bytes));
     }
 
     private byte[] getContent(String key) {
@@ -227,6 +277,9 @@ public class S3LogStorage extends AbstractLogStorage {
 
         private final String s3Key;
 
+        // number of segments in S3, null if not yet known
+        private Integer numSegments;
+
         public S3OutputStream(String s3Key) {
             this.s3Key = s3Key;
         }
@@ -242,7 +295,21 @@ public class S3LogStorage extends AbstractLogStorage {
         public void write(byte[] b, int off, int len) throws IOException {
             byte[] bytesToCopy = new byte[len];
             System.arraycopy(b, off, bytesToCopy, 0, len);
-            doUpload(s3Key, bytesToCopy);
+            if (numSegments == null) {
+                // the log may already exist, e.g. when the app was resumed
+                numSegments = getNumSegments(s3Key);
+            }
+            int segment = numSegments + 1;
+            try {
+                // first write the segment, such that the manifest never refers to a missing segment
+                putObject(getSegmentKey(s3Key, segment), bytesToCopy);
+                putObject(getManifestKey(s3Key), String.valueOf(segment).getBytes(StandardCharsets.UTF_8));
+            } catch (S3Exception e) {
+                // the state of the manifest is unknown, re-read it on the next write
+                numSegments = null;
+                throw new IOException(e);
+            }
+            numSegments = segment;
         }
     }
 }
@@ -20,6 +20,8 @@
  */
 package eu.openanalytics.containerproxy.model.runtime;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -32,19 +34,66 @@ public class AllowedParametersForUser {
     private final Map<String, List<String>> values;
 
     /**
-     * List of all allowed combinations of the parameters for this specific user.
+     * Compact representation of the allowed combinations: for every value-set the user has access to, the (sorted)
+     * indexes of the allowed values of every parameter. A combination is allowed when a single value-set allows all
+     * of its values.
      */
-    private final HashSet<List<Integer>> allowedCombinations;
+    private final List<int[][]> allowedValueSets;
 
     private final List<Integer> defaultValue;
 
-    public AllowedParametersForUser(Map<String, List<String>> values, HashSet<List<Integer>> allowedCombinations, List<Integer> defaultValue) {
+    private HashSet<List<Integer>> allowedCombinations;
+
+    public AllowedParametersForUser(Map<String, List<String>> values, List<int[][]> allowedValueSets, List<Integer> defaultValue) {
         this.values = values;
-        this.allowedCombinations = allowedCombinations;
+        this.allowedValueSets = allowedValueSets;
         this.defaultValue = defaultValue;
     }
 
+    public static boolean containsCombination(int[][] valueSet, List<Integer> combination) {
+        if (valueSet.length != combination.size()) {
+            return false;
+        }
+        for (int i = 0; i < valueSet.length; i++) {
+            if (Arrays.binarySearch(valueSet[i], combination.get(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<int[][]> getAllowedValueSets() {
+        return allowedValueSets;
+    }
+
+    /**
+     * Expands the allowed value-sets into every allowed combination of the parameters for this specific user.
+     * This can be a very large set, therefore it is only computed on request (e.g. when serializing to JSON).
+     * The combinations are still included in the JSON representation for compatibility with existing clients, new
+     * clients should use {@link #getAllowedValueSets()}.
+     */
     public HashSet<List<Integer>> getAllowedCombinations() {
+        if (allowedCombinations == null) {
+            HashSet<List<Integer>> result = new HashSet<>();
+            for (int[][] valueSet : allowedValueSets) {
+                // start with an empty combination and extend it with every allowed value of each parameter
+                List<List<Integer>> combinations = new ArrayList<>();
+                combinations.add(new ArrayList<>());
+                for (int[] parameterValues : valueSet) {
+                    List<List<Integer>> newCombinations = new ArrayList<>();
+                    for (int value : parameterValues) {
+                        for (List<Integer> combination : combinations) {
+                            List<Integer> newCombination = new ArrayList<>(combination);
+                            newCombination.add(value);
+                            newCombinations.add(newCombination);
+                        }
+                    }
+                    combinations = newCombinations;
+                }
+                result.addAll(combinations);
+            }
+            allowedCombinations = result;
+        }
         return allowedCombinations;
     }
 
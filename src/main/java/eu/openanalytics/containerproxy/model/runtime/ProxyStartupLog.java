@@ -83,6 +83,9 @@ public class ProxyStartupLog {
         return res.toString();
     }
 
+    /**
+     * Thread-safe, since containers of a proxy may be started concurrently.
+     */
     public static class ProxyStartupLogBuilder {
 
         private final Map<Integer, StartupStep> pullImage = new HashMap<>();
@@ -91,7 +94,7 @@ public class ProxyStartupLog {
         private StartupStep createProxy = new StartupStep();
         private StartupStep startApplication = null;
 
-        public void pullingImage(Integer containerIdx) {
+        public synchronized void pullingImage(Integer containerIdx) {
             if (pullImage.containsKey(containerIdx)) {
                 throw new IllegalStateException(String.format("StartupLog already contains an entry for container %s and action pullingImage", containerIdx));
             }
@@ -99,7 +102,7 @@ public class ProxyStartupLog {
             pullImage.put(containerIdx, step);
         }
 
-        public void imagePulled(Integer containerIdx) {
+        public synchronized void imagePulled(Integer containerIdx) {
             if (!pullImage.containsKey(containerIdx)) {
                 throw new IllegalStateException(String.format("StartupLog does not have an entry for container %s and action imagePulled", containerIdx));
             }
@@ -107,21 +110,21 @@ public class ProxyStartupLog {
             pullImage.put(containerIdx, new StartupStep(old.startTime, LocalDateTime.now()));
         }
 
-        public void imagePulled(int containerIdx, LocalDateTime start, LocalDateTime end) {
+        public synchronized void imagePulled(int containerIdx, LocalDateTime start, LocalDateTime end) {
             if (pullImage.containsKey(containerIdx)) {
                 throw new IllegalStateException(String.format("StartupLog already contains an entry for container %s and action imagePulled", containerIdx));
             }
             pullImage.put(containerIdx, new StartupStep(start, end));
         }
 
-        public void containerScheduled(int containerIdx, LocalDateTime start, LocalDateTime end) {
+        public synchronized void containerScheduled(int containerIdx, LocalDateTime start, LocalDateTime end) {
             if (scheduleContainer.containsKey(containerIdx)) {
                 throw new IllegalStateException(String.format("StartupLog already contains an entry for container %s and action containerScheduled", containerIdx));
             }
             scheduleContainer.put(containerIdx, new StartupStep(start, end));
         }
 
-        public void startingContainer(Integer containerIdx) {
+        public synchronized void startingContainer(Integer containerIdx) {
             if (startContainer.containsKey(containerIdx)) {
                 throw new IllegalStateException(String.format("StartupLog does not have an entry for container %s and action startingContainer", containerIdx));
             }
@@ -129,7 +132,7 @@ public class ProxyStartupLog {
             startContainer.put(containerIdx, step);
         }
 
-        public void containerStarted(Integer containerIdx) {
+        public synchronized void containerStarted(Integer containerIdx) {
             if (!startContainer.containsKey(containerIdx)) {
                 throw new IllegalStateException(String.format("StartupLog does not have an entry for container %s and action containerStarted", containerIdx));
             }
@@ -137,21 +140,21 @@ public class ProxyStartupLog {
             startContainer.put(containerIdx, new StartupStep(old.startTime, LocalDateTime.now()));
         }
 
-        public void startingApplication() {
+        public synchronized void startingApplication() {
             if (startApplication != null) {
                 throw new IllegalStateException("StartupLog already contains an entry for action startingApplication");
             }
             startApplication = new StartupStep();
         }
 
-        public void applicationStarted() {
+        public synchronized void applicationStarted() {
             if (startApplication == null) {
                 throw new IllegalStateException("StartupLog does not have an entry for action startingApplication");
             }
             startApplication = new StartupStep(startApplication.startTime, LocalDateTime.now());
         }
 
-        public ProxyStartupLog succeeded() {
+        public synchronized ProxyStartupLog succeeded() {
             createProxy = new StartupStep(createProxy.startTime, LocalDateTime.now());
             return new ProxyStartupLog(createProxy, pullImage, scheduleContainer, startContainer, startApplication);
         }
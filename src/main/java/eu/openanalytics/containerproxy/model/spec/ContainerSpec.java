@@ -93,6 +93,13 @@ public class ContainerSpec {
     @Builder.Default
     private SpelField.String resourceName = new SpelField.String();
 
+    /**
+     * Indexes of the containers that must be started before this container, only used when parallel container startup
+     * is enabled (otherwise containers are always started in order).
+     */
+    @Builder.Default
+    private List<Integer> dependsOn = new ArrayList<>();
+
     public void setCmd(List<String> cmd) {
         this.cmd = new SpelField.StringList(cmd);
     }
@@ -94,6 +94,13 @@ public class ParameterDefinition {
         return valueNames.containsKey(value);
     }
 
+    /**
+     * @return whether the other definition maps the same backend values to the same human friendly names
+     */
+    public boolean hasSameValueNames(ParameterDefinition other) {
+        return valueNames.equals(other.valueNames);
+    }
+
     /**
      * Given the (human friendly name), return the backend value
      *
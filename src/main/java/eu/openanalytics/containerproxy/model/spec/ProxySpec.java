@@ -104,9 +104,13 @@ public class ProxySpec {
     public void setContainerIndex() {
         if (this.containerSpecs != null) {
             for (int i = 0; i < this.containerSpecs.size(); i++) {
-                this.containerSpecs
-                    .get(i)
-                    .setIndex(i);
+                ContainerSpec containerSpec = this.containerSpecs.get(i);
+                containerSpec.setIndex(i);
+                for (Integer dependency : containerSpec.getDependsOn()) {
+                    if (dependency == null || dependency < 0 || dependency >= i) {
+                        throw new IllegalStateException(String.format("Spec %s is invalid: container %s can only depend on containers with a lower index", id, i));
+                    }
+                }
             }
         }
     }
@@ -20,10 +20,22 @@
  */
 package eu.openanalytics.containerproxy.model.store;
 
+import java.util.Map;
+
 public interface IHeartbeatStore {
 
     void update(String proxyId, Long currentTimeMillis);
 
+    /**
+     * Updates the heartbeats of multiple proxies at once. Stores that can do this in a single operation (e.g. Redis)
+     * should override this method.
+     *
+     * @param heartbeats the latest heartbeat timestamp for every proxyId
+     */
+    default void update(Map<String, Long> heartbeats) {
+        heartbeats.forEach(this::update);
+    }
+
     Long get(String proxyId);
 
 }
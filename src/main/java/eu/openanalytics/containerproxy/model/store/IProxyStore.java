@@ -21,6 +21,7 @@
 package eu.openanalytics.containerproxy.model.store;
 
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
 
 import java.util.Collection;
 import java.util.List;
@@ -40,5 +41,39 @@ public interface IProxyStore {
 
     Proxy getProxy(String proxyId);
 
+    /**
+     * Returns the latest version of the proxy, bypassing any (local) cache of the store.
+     * Should be used for checks that depend on the current status of the proxy (e.g. whether the proxy was stopped).
+     */
+    default Proxy getLatestProxy(String proxyId) {
+        return getProxy(proxyId);
+    }
+
     List<Proxy> getUserProxies(String userId);
+
+    // the methods below are backed by secondary indexes in the stores of ContainerProxy, which are maintained by the store
+    // when proxies are added, updated or removed. The default implementations scan the proxies.
+
+    /**
+     * @return the proxy of the given user with the given targetId, or null
+     */
+    default Proxy getUserProxyByTargetId(String userId, String targetId) {
+        return getUserProxies(userId).stream()
+            .filter(p -> targetId.equals(p.getTargetId()))
+            .findFirst()
+            .orElse(null);
+    }
+
+    default List<Proxy> getUserProxiesBySpecId(String userId, String specId) {
+        return getUserProxies(userId).stream().filter(p -> p.getSpecId().equals(specId)).toList();
+    }
+
+    default long getNumberOfProxiesBySpecId(String specId) {
+        return getAllProxies().stream().filter(p -> p.getSpecId().equals(specId)).count();
+    }
+
+    default List<Proxy> getProxiesByStatus(ProxyStatus status) {
+        return getAllProxies().stream().filter(p -> p.getStatus() == status).toList();
+    }
+
 }
@@ -24,18 +24,25 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimaps;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
 import eu.openanalytics.containerproxy.model.store.IProxyStore;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class MemoryProxyStore implements IProxyStore {
 
     private final ConcurrentHashMap<String, Proxy> activeProxies = new ConcurrentHashMap<>();
     private final ListMultimap<String, String> userProxies = Multimaps.synchronizedListMultimap(ArrayListMultimap.create());
+    // secondary indexes, only modified while holding the lock of this store, read without locking
+    private final ConcurrentHashMap<UserAndTargetId, String> userAndTargetIdIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> specIdIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ProxyStatus, Set<String>> statusIndex = new ConcurrentHashMap<>();
 
     @Override
     public Collection<Proxy> getAllProxies() {
@@ -43,20 +50,23 @@ public class MemoryProxyStore implements IProxyStore {
     }
 
     @Override
-    public void addProxy(Proxy proxy) {
-        activeProxies.put(proxy.getId(), proxy);
+    public synchronized void addProxy(Proxy proxy) {
+        Proxy previous = activeProxies.put(proxy.getId(), proxy);
         userProxies.put(proxy.getUserId(), proxy.getId());
+        updateIndexes(previous, proxy);
     }
 
     @Override
-    public void removeProxy(Proxy proxy) {
-        activeProxies.remove(proxy.getId());
+    public synchronized void removeProxy(Proxy proxy) {
+        Proxy previous = activeProxies.remove(proxy.getId());
         userProxies.remove(proxy.getUserId(), proxy.getId());
+        updateIndexes(previous, null);
     }
 
     @Override
-    public void updateProxy(Proxy proxy) {
-        activeProxies.put(proxy.getId(), proxy);
+    public synchronized void updateProxy(Proxy proxy) {
+        Proxy previous = activeProxies.put(proxy.getId(), proxy);
+        updateIndexes(previous, proxy);
     }
 
     @Override
@@ -67,7 +77,10 @@ public class MemoryProxyStore implements IProxyStore {
     @Override
     public List<Proxy> getUserProxies(String userId) {
         List<Proxy> result = new ArrayList<>();
-        List<String> ids = userProxies.get(userId);
+        List<String> ids;
+        synchronized (userProxies) {
+            ids = new ArrayList<>(userProxies.get(userId));
+        }
         for (String proxyId : ids) {
             Proxy proxy = activeProxies.get(proxyId);
             if (proxy != null && proxy.getUserId().equalsIgnoreCase(userId)) {
@@ -77,4 +90,85 @@ public class MemoryProxyStore implements IProxyStore {
         return result;
     }
 
+    @Override
+    public Proxy getUserProxyByTargetId(String userId, String targetId) {
+        String proxyId = userAndTargetIdIndex.get(new UserAndTargetId(userId, targetId));
+        if (proxyId == null) {
+            return null;
+        }
+        return activeProxies.get(proxyId);
+    }
+
+    @Override
+    public List<Proxy> getUserProxiesBySpecId(String userId, String specId) {
+        return getUserProxies(userId).stream().filter(p -> p.getSpecId().equals(specId)).toList();
+    }
+
+    @Override
+    public long getNumberOfProxiesBySpecId(String specId) {
+        Set<String> ids = specIdIndex.get(specId);
+        if (ids == null) {
+            return 0;
+        }
+        return ids.size();
+    }
+
+    @Override
+    public List<Proxy> getProxiesByStatus(ProxyStatus status) {
+        Set<String> ids = statusIndex.get(status);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<Proxy> result = new ArrayList<>();
+        for (String proxyId : ids) {
+            Proxy proxy = activeProxies.get(proxyId);
+            if (proxy != null && proxy.getStatus() == status) {
+                result.add(proxy);
+            }
+        }
+        return result;
+    }
+
+    private void updateIndexes(Proxy previous, Proxy proxy) {
+        if (previous != null) {
+            if (previous.getTargetId() != null) {
+                userAndTargetIdIndex.remove(new UserAndTargetId(previous.getUserId(), previous.getTargetId()), previous.getId());
+            }
+            removeFromIndex(specIdIndex, previous.getSpecId(), previous.getId());
+            removeFromIndex(statusIndex, previous.getStatus(), previous.getId());
+        }
+        if (proxy != null) {
+            if (proxy.getTargetId() != null) {
+                userAndTargetIdIndex.put(new UserAndTargetId(proxy.getUserId(), proxy.getTargetId()), proxy.getId());
+            }
+            addToIndex(specIdIndex, proxy.getSpecId(), proxy.getId());
+            addToIndex(statusIndex, proxy.getStatus(), proxy.getId());
+        }
+    }
+
+    private static <K> void addToIndex(ConcurrentHashMap<K, Set<String>> index, K key, String proxyId) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(proxyId);
+    }
+
+    private static <K> void removeFromIndex(ConcurrentHashMap<K, Set<String>> index, K key, String proxyId) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(proxyId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private record UserAndTargetId(String userId, String targetId) {
+
+        private UserAndTargetId {
+            Objects.requireNonNull(targetId);
+        }
+
+    }
+
 }
@@ -28,6 +28,7 @@ import org.springframework.data.redis.core.RedisTemplate;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import java.util.Map;
 
 public class RedisHeartbeatStore implements IHeartbeatStore, ICleanupStoppedProxies {
 
@@ -52,6 +53,15 @@ public class RedisHeartbeatStore implements IHeartbeatStore, ICleanupStoppedProx
         ops.put(redisKey, proxyId, currentTimeMillis);
     }
 
+    @Override
+    public void update(Map<String, Long> heartbeats) {
+        if (heartbeats.isEmpty()) {
+            return;
+        }
+        // single HSET containing all fields, i.e. one round-trip
+        ops.putAll(redisKey, heartbeats);
+    }
+
     @Override
     public Long get(String proxyId) {
         return ops.get(redisKey, proxyId);
@@ -20,29 +20,70 @@
  */
 package eu.openanalytics.containerproxy.model.store.redis;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import eu.openanalytics.containerproxy.event.ProxyStopEvent;
+import eu.openanalytics.containerproxy.event.ProxyStoreUpdatedEvent;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
 import eu.openanalytics.containerproxy.model.store.IProxyStore;
 import eu.openanalytics.containerproxy.service.IdentifierService;
-import eu.openanalytics.containerproxy.util.ProxyHashMap;
+import eu.openanalytics.containerproxy.service.leader.ILeaderService;
 import eu.openanalytics.containerproxy.util.ProxyMappingManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Proxy store backed by Redis.
+ * Proxies are cached locally (near-cache), the cache is kept consistent with the other replicas by publishing a
+ * {@link ProxyStoreUpdatedEvent} on every change. Since these events are delivered using Redis pub/sub (see
+ * {@link eu.openanalytics.containerproxy.service.RedisEventBridge}), the cache entries also expire after a (short) TTL.
+ *
+ * Next to the hash containing all proxies, the store maintains the following secondary indexes in Redis:
+ * - a hash per user: targetId -> proxyId
+ * - a set per specId, containing the proxyIds of that spec
+ * - a set per {@link ProxyStatus}, containing the proxyIds with that status
+ * These are updated on every add, update and remove (in the same MULTI/EXEC transaction as the proxy itself), such that
+ * lookups don't require to read all proxies. Index entries of proxies that no longer exist are pruned when they are
+ * encountered and the leader periodically repairs the indexes (e.g. proxies written by a replica running an older version).
+ */
 public class RedisProxyStore implements IProxyStore {
 
+    public static final String PROP_CACHE_TTL = "proxy.store-cache.ttl";
+    public static final Long DEFAULT_CACHE_TTL = 10_000L;
+    public static final String PROP_CACHE_MAX_SIZE = "proxy.store-cache.max-size";
+    public static final Long DEFAULT_CACHE_MAX_SIZE = 10_000L;
+    public static final String PROP_INDEX_REPAIR_INTERVAL = "proxy.store-index-repair-interval";
+    public static final String DEFAULT_INDEX_REPAIR_INTERVAL = "600000";
+    private static final int MAX_WATCH_ATTEMPTS = 10;
+
     private final Logger logger = LogManager.getLogger(RedisProxyStore.class);
+    // incremented on every invalidation, used to prevent that a value read before an invalidation is stored in the cache
+    private final AtomicLong generation = new AtomicLong();
     @Inject
     private RedisTemplate<String, Proxy> redisTemplate;
     @Inject
@@ -51,12 +92,25 @@ public class RedisProxyStore implements IProxyStore {
     private ProxyMappingManager mappingManager;
     @Inject
     private IdentifierService identifierService;
+    @Inject
+    private Environment environment;
+    @Inject
+    private ApplicationEventPublisher applicationEventPublisher;
+    @Inject
+    private MeterRegistry meterRegistry;
+    @Inject
+    private ILeaderService leaderService;
     private String redisKey;
     private HashOperations<String, String, Proxy> ops; // TODO refactor to bound?
     private SetOperations<String, String> userProxyOps;
 
-    private final ConcurrentHashMap<String, Proxy> cache = ProxyHashMap.create();
+    private Cache<String, Proxy> cache;
+    private long cacheTtl;
+    private volatile AllProxiesSnapshot allProxiesSnapshot;
     private String userProxyRedisKey;
+    private String userTargetIndexRedisKey;
+    private String specIndexRedisKey;
+    private String statusIndexRedisKey;
 
     @PostConstruct
     public void init() {
@@ -64,42 +118,133 @@ public class RedisProxyStore implements IProxyStore {
         ops = redisTemplate.opsForHash();
         userProxyRedisKey = "shinyproxy_" + identifierService.realmId + "_user_proxies_";
         userProxyOps = userProxyTemplate.opsForSet();
+        userTargetIndexRedisKey = "shinyproxy_" + identifierService.realmId + "__user_target_index_";
+        specIndexRedisKey = "shinyproxy_" + identifierService.realmId + "__spec_proxies_";
+        statusIndexRedisKey = "shinyproxy_" + identifierService.realmId + "__status_proxies_";
+
+        cacheTtl = environment.getProperty(PROP_CACHE_TTL, Long.class, DEFAULT_CACHE_TTL);
+        if (cacheTtl > 0) {
+            cache = Caffeine.newBuilder()
+                .expireAfterWrite(cacheTtl, TimeUnit.MILLISECONDS)
+                .maximumSize(environment.getProperty(PROP_CACHE_MAX_SIZE, Long.class, DEFAULT_CACHE_MAX_SIZE))
+                .recordStats()
+                .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "proxy_store_cache");
+        }
+
+        String indexVersionKey = "shinyproxy_" + identifierService.realmId + "__proxy_indexes_version";
+        if (userProxyTemplate.opsForValue().get(indexVersionKey) == null) {
+            // first server using the indexes (e.g. after an upgrade) -> index the existing proxies
+            // the marker is only set once all proxies are indexed, such that an interrupted backfill is retried
+            repairIndexes();
+            userProxyTemplate.opsForValue().set(indexVersionKey, "1");
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${" + PROP_INDEX_REPAIR_INTERVAL + ":" + DEFAULT_INDEX_REPAIR_INTERVAL + "}",
+        initialDelayString = "${" + PROP_INDEX_REPAIR_INTERVAL + ":" + DEFAULT_INDEX_REPAIR_INTERVAL + "}")
+    public void scheduleRepairIndexes() {
+        if (!leaderService.isLeader()) {
+            return;
+        }
+        try {
+            repairIndexes();
+        } catch (Exception ex) {
+            logger.warn("Error while repairing proxy indexes", ex);
+        }
+    }
+
+    /**
+     * Adds all proxies to the indexes and removes index entries of proxies that no longer exist.
+     * Index entries of a proxy with a different status or targetId are not removed, since these can be the result of
+     * a concurrent update, lookups always verify the proxy itself.
+     */
+    public void repairIndexes() {
+        List<Proxy> proxies = ops.values(redisKey);
+        Set<String> proxyIds = new HashSet<>();
+        Set<String> specIds = new HashSet<>();
+        for (Proxy proxy : proxies) {
+            proxyIds.add(proxy.getId());
+            specIds.add(proxy.getSpecId());
+            writeProxy(proxy.getId(), proxy.getUserId(), null, proxy, false);
+        }
+        for (String specId : specIds) {
+            pruneIndex(specIndexRedisKey + specId, proxyIds);
+        }
+        for (ProxyStatus status : ProxyStatus.values()) {
+            pruneIndex(statusIndexRedisKey + status, proxyIds);
+        }
+        logger.debug("Repaired indexes of {} proxies", proxies.size());
     }
 
     @Override
     public List<Proxy> getAllProxies() {
+        AllProxiesSnapshot snapshot = allProxiesSnapshot;
+        if (snapshot != null && snapshot.isValid()) {
+            logger.debug("Redis: serving all proxies from cache");
+            snapshot.proxies.forEach(proxy -> updateMappings(proxy.getId(), proxy));
+            return new ArrayList<>(snapshot.proxies);
+        }
+        long currentGeneration = generation.get();
         List<Proxy> res = ops.values(redisKey);
-        res.forEach(proxy -> updateMappings(proxy.getId(), proxy));
+        res.forEach(proxy -> {
+            cacheProxy(currentGeneration, proxy);
+            updateMappings(proxy.getId(), proxy);
+        });
+        if (cache != null) {
+            allProxiesSnapshot = new AllProxiesSnapshot(currentGeneration, System.currentTimeMillis(), List.copyOf(res));
+        }
         return res;
     }
 
     @Override
     public void addProxy(Proxy proxy) {
         logger.debug("Add proxy {}", proxy.getId());
-        ops.put(redisKey, proxy.getId(), proxy);
+        writeProxy(proxy.getId(), proxy.getUserId(), null, proxy, true);
         updateMappings(proxy.getId(), proxy);
-        userProxyOps.add(userProxyRedisKey + proxy.getUserId(), proxy.getId());
+        proxyChanged(proxy.getId());
     }
 
     @Override
     public void removeProxy(Proxy proxy) {
         logger.debug("Remove proxy {}", proxy.getId());
-        ops.delete(redisKey, proxy.getId());
+        replaceProxy(proxy, true);
         updateMappings(proxy.getId(), proxy);
-        userProxyOps.remove(userProxyRedisKey + proxy.getUserId(), proxy.getId());
+        proxyChanged(proxy.getId());
     }
 
     @Override
     public void updateProxy(Proxy proxy) {
         logger.debug("Update proxy {}", proxy.getId());
-        ops.put(redisKey, proxy.getId(), proxy);
+        replaceProxy(proxy, false);
         updateMappings(proxy.getId(), proxy);
+        proxyChanged(proxy.getId());
     }
 
     @Override
     public Proxy getProxy(String proxyId) {
-        // TODO maybe use a cache for this (only for Up Proxies), first check how much this is used
+        Proxy proxy = null;
+        if (cache != null) {
+            proxy = cache.getIfPresent(proxyId);
+        }
+        if (proxy == null) {
+            long currentGeneration = generation.get();
+            proxy = ops.get(redisKey, proxyId);
+            cacheProxy(currentGeneration, proxy);
+        }
+        updateMappings(proxyId, proxy);
+        return proxy;
+    }
+
+    @Override
+    public Proxy getLatestProxy(String proxyId) {
+        long currentGeneration = generation.get();
         Proxy proxy = ops.get(redisKey, proxyId);
+        if (proxy == null) {
+            invalidate(proxyId);
+        } else {
+            cacheProxy(currentGeneration, proxy);
+        }
         updateMappings(proxyId, proxy);
         return proxy;
     }
@@ -111,7 +256,7 @@ public class RedisProxyStore implements IProxyStore {
         if (ids == null) {
             return result;
         }
-        List<Proxy> proxies = ops.multiGet(redisKey, ids);
+        Collection<Proxy> proxies = getProxies(ids).values();
         for (Proxy proxy : proxies) {
             if (proxy != null && proxy.getUserId().equalsIgnoreCase(userId)) {
                 result.add(proxy);
@@ -120,10 +265,250 @@ public class RedisProxyStore implements IProxyStore {
         return result;
     }
 
+    @Override
+    public Proxy getUserProxyByTargetId(String userId, String targetId) {
+        String proxyId = userProxyTemplate.<String, String>opsForHash().get(userTargetIndexRedisKey + userId, targetId);
+        if (proxyId == null) {
+            return null;
+        }
+        return getProxy(proxyId);
+    }
+
+    @Override
+    public List<Proxy> getUserProxiesBySpecId(String userId, String specId) {
+        return getUserProxies(userId).stream().filter(p -> p.getSpecId().equals(specId)).toList();
+    }
+
+    @Override
+    public long getNumberOfProxiesBySpecId(String specId) {
+        // this count is used to enforce limits, therefore read the proxies (bypassing the cache) to skip dangling ids
+        String key = specIndexRedisKey + specId;
+        Set<String> ids = userProxyOps.members(key);
+        if (ids == null || ids.isEmpty()) {
+            return 0;
+        }
+        List<String> idList = new ArrayList<>(ids);
+        List<Proxy> proxies = ops.multiGet(redisKey, idList);
+        long count = 0;
+        List<String> dangling = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            if (proxies.get(i) != null) {
+                count++;
+            } else {
+                dangling.add(idList.get(i));
+            }
+        }
+        removeDanglingIds(key, dangling);
+        return count;
+    }
+
+    @Override
+    public List<Proxy> getProxiesByStatus(ProxyStatus status) {
+        String key = statusIndexRedisKey + status;
+        Set<String> ids = userProxyOps.members(key);
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        Map<String, Proxy> proxies = getProxies(ids);
+        removeDanglingIds(key, ids.stream().filter(id -> !proxies.containsKey(id)).toList());
+        return proxies.values().stream().filter(p -> p.getStatus() == status).toList();
+    }
+
     @EventListener
     public void onProxyStopped(ProxyStopEvent event) {
         logger.debug("Redis: remove mappings (event) {}", event.getProxyId());
         mappingManager.removeMappings(event.getProxyId());
+        invalidate(event.getProxyId());
+    }
+
+    @EventListener
+    public void onProxyStoreUpdated(ProxyStoreUpdatedEvent event) {
+        if (event.isLocalEvent()) {
+            // cache of this replica is already invalidated
+            return;
+        }
+        logger.debug("Redis: invalidate cache (event) {}", event.getProxyId());
+        invalidate(event.getProxyId());
+    }
+
+    /**
+     * @return the proxies with the given ids, ids of proxies that don't exist (anymore) are not part of the result
+     */
+    private Map<String, Proxy> getProxies(Set<String> ids) {
+        Map<String, Proxy> res = new HashMap<>();
+        List<String> missingIds = new ArrayList<>();
+        for (String id : ids) {
+            Proxy proxy = cache != null ? cache.getIfPresent(id) : null;
+            if (proxy != null) {
+                res.put(id, proxy);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            long currentGeneration = generation.get();
+            List<Proxy> proxies = ops.multiGet(redisKey, missingIds);
+            for (Proxy proxy : proxies) {
+                if (proxy != null) {
+                    cacheProxy(currentGeneration, proxy);
+                    res.put(proxy.getId(), proxy);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Writes the proxy (or removes it when proxy is null) and updates the indexes in a single MULTI/EXEC transaction,
+     * such that the indexes cannot get out of sync with the proxies (e.g. when this server crashes).
+     *
+     * @param previous    the previous version of the proxy, used to remove outdated index entries
+     * @param proxy       the new version of the proxy or null when the proxy is removed
+     * @param writeProxy  whether to write the proxy itself, or only the indexes
+     */
+    private void writeProxy(String proxyId, String userId, Proxy previous, Proxy proxy, boolean writeProxy) {
+        userProxyTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.multi();
+            queueWrite(connection, proxyId, userId, previous, proxy, writeProxy);
+            connection.exec();
+            return null;
+        });
+    }
+
+    /**
+     * Updates (or removes) the proxy and its index entries. The previous version of the proxy is read after WATCHing
+     * the hash containing the proxies, such that the transaction is aborted (and retried) when the proxy was changed
+     * by another server in between. Otherwise, the index entries of that change could be left behind.
+     * Since individual hash fields cannot be watched, a change to any other proxy aborts the transaction as well,
+     * therefore the proxy is written without WATCH after {@link #MAX_WATCH_ATTEMPTS} attempts (the leader repairs the
+     * indexes periodically).
+     */
+    private void replaceProxy(Proxy proxy, boolean remove) {
+        RedisSerializer<String> serializer = RedisSerializer.string();
+        byte[] rawRedisKey = serializer.serialize(redisKey);
+        byte[] rawProxyId = serializer.serialize(proxy.getId());
+        for (int attempt = 1; ; attempt++) {
+            boolean watch = attempt <= MAX_WATCH_ATTEMPTS;
+            Boolean committed = userProxyTemplate.execute((RedisCallback<Boolean>) connection -> {
+                if (watch) {
+                    connection.watch(rawRedisKey);
+                }
+                byte[] rawPrevious = connection.hashCommands().hGet(rawRedisKey, rawProxyId);
+                Proxy previous = rawPrevious != null ? proxySerializer().deserialize(rawPrevious) : null;
+                connection.multi();
+                if (remove) {
+                    queueWrite(connection, proxy.getId(), proxy.getUserId(), previous != null ? previous : proxy, null, true);
+                } else {
+                    queueWrite(connection, proxy.getId(), proxy.getUserId(), previous, proxy, true);
+                }
+                // the result is empty (or null) when the transaction was aborted because of the WATCH
+                List<Object> res = connection.exec();
+                return res != null && !res.isEmpty();
+            });
+            if (!watch) {
+                logger.warn("Proxy {} was written without WATCH after {} aborted transactions", proxy.getId(), MAX_WATCH_ATTEMPTS);
+                return;
+            }
+            if (Boolean.TRUE.equals(committed)) {
+                return;
+            }
+            logger.debug("Transaction for proxy {} aborted because of a concurrent change, retrying", proxy.getId());
+        }
+    }
+
+    private void queueWrite(RedisConnection connection, String proxyId, String userId, Proxy previous, Proxy proxy, boolean writeProxy) {
+        RedisSerializer<String> serializer = RedisSerializer.string();
+        byte[] rawProxyId = serializer.serialize(proxyId);
+        if (writeProxy) {
+            if (proxy != null) {
+                connection.hashCommands().hSet(serializer.serialize(redisKey), rawProxyId, proxySerializer().serialize(proxy));
+                connection.setCommands().sAdd(serializer.serialize(userProxyRedisKey + userId), rawProxyId);
+            } else {
+                connection.hashCommands().hDel(serializer.serialize(redisKey), rawProxyId);
+                connection.setCommands().sRem(serializer.serialize(userProxyRedisKey + userId), rawProxyId);
+            }
+        }
+        if (previous != null) {
+            if (previous.getTargetId() != null && (proxy == null || !previous.getTargetId().equals(proxy.getTargetId()))) {
+                connection.hashCommands().hDel(serializer.serialize(userTargetIndexRedisKey + previous.getUserId()), serializer.serialize(previous.getTargetId()));
+            }
+            if (proxy == null || !previous.getSpecId().equals(proxy.getSpecId())) {
+                connection.setCommands().sRem(serializer.serialize(specIndexRedisKey + previous.getSpecId()), rawProxyId);
+            }
+            if (proxy == null || previous.getStatus() != proxy.getStatus()) {
+                connection.setCommands().sRem(serializer.serialize(statusIndexRedisKey + previous.getStatus()), rawProxyId);
+            }
+        }
+        if (proxy != null) {
+            if (proxy.getTargetId() != null) {
+                connection.hashCommands().hSet(serializer.serialize(userTargetIndexRedisKey + proxy.getUserId()), serializer.serialize(proxy.getTargetId()), rawProxyId);
+            }
+            connection.setCommands().sAdd(serializer.serialize(specIndexRedisKey + proxy.getSpecId()), rawProxyId);
+            connection.setCommands().sAdd(serializer.serialize(statusIndexRedisKey + proxy.getStatus()), rawProxyId);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<Proxy> proxySerializer() {
+        return (RedisSerializer<Proxy>) redisTemplate.getHashValueSerializer();
+    }
+
+    private void pruneIndex(String key, Set<String> existingProxyIds) {
+        Set<String> ids = userProxyOps.members(key);
+        if (ids == null) {
+            return;
+        }
+        List<String> candidates = ids.stream().filter(id -> !existingProxyIds.contains(id)).toList();
+        if (candidates.isEmpty()) {
+            return;
+        }
+        // the proxy may have been added after reading all proxies -> check again before removing
+        List<Proxy> proxies = ops.multiGet(redisKey, candidates);
+        List<String> dangling = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (proxies.get(i) == null) {
+                dangling.add(candidates.get(i));
+            }
+        }
+        removeDanglingIds(key, dangling);
+    }
+
+    /**
+     * Removes ids of proxies that no longer exist from the given index.
+     * Since a proxy is written in the same transaction as its index entries, a proxy that does not exist cannot be
+     * added to the index later on (proxy ids are never re-used).
+     */
+    private void removeDanglingIds(String key, List<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        logger.debug("Removing {} dangling proxy ids from index {}", ids.size(), key);
+        userProxyOps.remove(key, ids.toArray());
+    }
+
+    private void cacheProxy(long readGeneration, Proxy proxy) {
+        if (cache == null || proxy == null) {
+            return;
+        }
+        cache.put(proxy.getId(), proxy);
+        if (generation.get() != readGeneration) {
+            // the cache was invalidated while reading the proxy -> the value may be outdated
+            cache.invalidate(proxy.getId());
+        }
+    }
+
+    private void proxyChanged(String proxyId) {
+        invalidate(proxyId);
+        applicationEventPublisher.publishEvent(new ProxyStoreUpdatedEvent(proxyId));
+    }
+
+    private void invalidate(String proxyId) {
+        if (cache == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        cache.invalidate(proxyId);
+        allProxiesSnapshot = null;
     }
 
     private void updateMappings(String proxyId, Proxy proxy) {
@@ -135,4 +520,22 @@ public class RedisProxyStore implements IProxyStore {
         mappingManager.addMappings(proxy);
     }
 
+    private class AllProxiesSnapshot {
+
+        private final long generation;
+        private final long timestamp;
+        private final List<Proxy> proxies;
+
+        private AllProxiesSnapshot(long generation, long timestamp, List<Proxy> proxies) {
+            this.generation = generation;
+            this.timestamp = timestamp;
+            this.proxies = proxies;
+        }
+
+        private boolean isValid() {
+            return generation == RedisProxyStore.this.generation.get() && System.currentTimeMillis() - timestamp < cacheTtl;
+        }
+
+    }
+
 }
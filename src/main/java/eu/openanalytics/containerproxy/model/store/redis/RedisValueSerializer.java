@@ -0,0 +1,114 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.model.store.redis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Serializer for values stored in Redis (e.g. proxies, delegate proxies and seats), supporting two formats:
+ * <ul>
+ *     <li>{@link Format#Json}: plain JSON (the original format)</li>
+ *     <li>{@link Format#Smile}: binary JSON (see <a href="https://github.com/FasterXML/smile-format-specification">Smile</a>),
+ *     field names and short string values (e.g. the keys of the runtime values) are written only once per value and
+ *     referenced afterward. Since it uses the same Jackson annotations, the (de-)serialized objects are identical.</li>
+ * </ul>
+ * Values are always written in the configured format, but both formats can be read: Smile values start with a header
+ * (which includes the version of the format), any other value is parsed as JSON. Therefore, existing (JSON) values
+ * remain readable after switching the format and are re-written in the new format the next time they are updated.
+ * Note: all servers must be able to read the configured format, i.e. only enable Smile once all servers run a version
+ * supporting it.
+ */
+public class RedisValueSerializer<T> implements RedisSerializer<T> {
+
+    private static final byte[] EMPTY_ARRAY = new byte[0];
+
+    private final Class<T> clazz;
+    private final Format format;
+    private final ObjectMapper jsonMapper;
+    private final ObjectMapper smileMapper;
+
+    /**
+     * @param clazz      the type of the values
+     * @param format     the format used to write values
+     * @param configurer configures both the JSON and Smile {@link ObjectMapper} (e.g. modules and views)
+     */
+    public RedisValueSerializer(Class<T> clazz, Format format, Consumer<ObjectMapper> configurer) {
+        this.clazz = clazz;
+        this.format = format;
+        jsonMapper = new ObjectMapper();
+        configurer.accept(jsonMapper);
+        SmileFactory smileFactory = SmileFactory.builder()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            .build();
+        smileMapper = new ObjectMapper(smileFactory);
+        configurer.accept(smileMapper);
+    }
+
+    public static boolean isSmile(byte[] bytes) {
+        // every Smile document starts with ":)\n"
+        return bytes.length >= 3 && bytes[0] == SmileConstants.HEADER_BYTE_1 && bytes[1] == SmileConstants.HEADER_BYTE_2
+            && bytes[2] == SmileConstants.HEADER_BYTE_3;
+    }
+
+    @Override
+    public byte[] serialize(T value) throws SerializationException {
+        if (value == null) {
+            return EMPTY_ARRAY;
+        }
+        try {
+            if (format == Format.Smile) {
+                return smileMapper.writeValueAsBytes(value);
+            }
+            return jsonMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new SerializationException("Could not write value: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            if (isSmile(bytes)) {
+                return smileMapper.readValue(bytes, clazz);
+            }
+            return jsonMapper.readValue(bytes, clazz);
+        } catch (IOException e) {
+            throw new SerializationException("Could not read value: " + e.getMessage(), e);
+        }
+    }
+
+    public enum Format {
+        Json,
+        Smile
+    }
+
+}
@@ -33,6 +33,7 @@ import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.store.IProxyStore;
 import eu.openanalytics.containerproxy.service.leader.ILeaderService;
 import eu.openanalytics.containerproxy.util.ProxyHashMap;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.context.event.EventListener;
@@ -164,7 +165,12 @@ public class LogService {
     private synchronized void startService() {
         if (!isLoggingEnabled()) return;
         if (executor == null) {
-            executor = Executors.newCachedThreadPool();
+            // the output attachers of the backends are blocking, therefore every attached container needs its own thread
+            // these threads only copy the output into the (buffered) streams of the log storage
+            executor = Executors.newCachedThreadPool(new BasicThreadFactory.Builder()
+                .namingPattern("LogAttacher-%d")
+                .daemon(true)
+                .build());
         }
         log.info("Container logging enabled. Log files will be saved to " + logStorage.getStorageLocation());
         // attach existing proxies
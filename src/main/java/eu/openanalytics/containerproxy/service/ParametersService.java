@@ -21,6 +21,8 @@
 package eu.openanalytics.containerproxy.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import eu.openanalytics.containerproxy.model.runtime.AllowedParametersForUser;
 import eu.openanalytics.containerproxy.model.runtime.ParameterNames;
 import eu.openanalytics.containerproxy.model.runtime.ParameterValues;
@@ -35,6 +37,8 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -43,6 +47,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 @Service
@@ -51,6 +56,7 @@ public class ParametersService {
     private static final Pattern PARAMETER_ID_PATTERN = Pattern.compile("[a-zA-Z\\d_-]*");
     private final IProxySpecProvider baseSpecProvider;
     private final AccessControlEvaluationService accessControlEvaluationService;
+    private final Map<String, CompiledParameters> compiledParameters = new ConcurrentHashMap<>();
 
     public ParametersService(IProxySpecProvider baseSpecProvider, AccessControlEvaluationService accessControlEvaluationService, ObjectMapper objectMapper) {
         this.baseSpecProvider = baseSpecProvider;
@@ -61,6 +67,9 @@ public class ParametersService {
     public void init() {
         for (ProxySpec spec : baseSpecProvider.getSpecs()) {
             validateSpec(spec);
+            if (spec.getParameters() != null) {
+                getCompiledParameters(spec);
+            }
         }
     }
 
@@ -176,36 +185,38 @@ public class ParametersService {
             }
         }
 
-        // check if the combination of values is allowed
-        for (Parameters.ValueSet valueSet : parameters.getValueSets()) {
-            if (!accessControlEvaluationService.checkAccess(auth, spec, valueSet.getAccessControl())) {
-                continue;
-            }
-            Optional<Pair<ParameterNames, ParameterValues>> res = convertParametersIfAllowed(parameters.getDefinitions(), valueSet, providedParameters);
-            if (res.isPresent()) {
-                return res; // parameters are allowed, return the converted values
-            }
+        // convert the provided values to backend values
+        List<String> backendValues = convertParameters(parameters.getDefinitions(), providedParameters);
+        if (backendValues == null) {
+            throw new InvalidParametersException("Provided parameter values are not allowed");
         }
 
-        throw new InvalidParametersException("Provided parameter values are not allowed");
+        // check if the combination of values is allowed, using the first value-set (that the user can access) containing the combination
+        Parameters.ValueSet valueSet = getCompiledParameters(spec).findValueSets(backendValues).stream()
+            .mapToObj(i -> parameters.getValueSets().get(i))
+            .filter(v -> accessControlEvaluationService.checkAccess(auth, spec, v.getAccessControl()))
+            .findFirst()
+            .orElseThrow(() -> new InvalidParametersException("Provided parameter values are not allowed"));
+
+        Map<String, String> backendValuesById = new HashMap<>();
+        for (int i = 0; i < parameters.getDefinitions().size(); i++) {
+            backendValuesById.put(parameters.getDefinitions().get(i).getId(), backendValues.get(i));
+        }
+        ParameterNames parameterNames = new ParameterNames(getParameterNames(parameters.getDefinitions(), providedParameters));
+        ParameterValues parameterValues = new ParameterValues(backendValuesById, valueSet.getName());
+        return Optional.of(Pair.of(parameterNames, parameterValues));
     }
 
     /**
-     * Checks whether the provided parameters are allowed by the given valueSet.
-     * Returns the converted backend values if (and only if) the provided human-friendly values are allowed by this
-     * valueSet.
+     * Converts the provided (human-friendly) values into backend values.
      *
-     * @param parameters         the parameter defintiions
-     * @param valueSet           the valueSet to check
+     * @param parameters         the parameter definitions
      * @param providedParameters the parameters as provided by the user (using human friendly names)
-     * @return the converted values (i.e. using backend values) if allowed otherwise nothing
+     * @return the backend values (in the order of the definitions) or null if a value cannot be used
      */
-    private Optional<Pair<ParameterNames, ParameterValues>> convertParametersIfAllowed(List<ParameterDefinition> parameters, Parameters.ValueSet valueSet, Map<String, String> providedParameters) {
-        Map<String, String> backendValues = new HashMap<>();
+    private List<String> convertParameters(List<ParameterDefinition> parameters, Map<String, String> providedParameters) {
+        List<String> backendValues = new ArrayList<>();
         for (ParameterDefinition parameter : parameters) {
-            if (!providedParameters.containsKey(parameter.getId())) {
-                throw new IllegalStateException("Could not find value for parameter with id" + parameter.getId());
-            }
             String providedValue = providedParameters.get(parameter.getId());
             String backendValue = parameter.getValueForName(providedValue);
             if (backendValue == null) {
@@ -213,21 +224,13 @@ public class ParametersService {
                 // check that no mapping exists for this backend value.
                 // The backend value can only be used if a mapping does not exist.
                 if (parameter.hasNameForValue(providedValue)) {
-                    return Optional.empty();
-                } else {
-                    backendValue = providedValue;
+                    return null;
                 }
+                backendValue = providedValue;
             }
-            // check whether the backendValue is in the list of allowed values of this valueSet
-            if (!valueSet.getParameterValues(parameter.getId()).contains(backendValue)) {
-                return Optional.empty();
-            }
-            backendValues.put(parameter.getId(), backendValue);
+            backendValues.add(backendValue);
         }
-        // providedParameters contains an allowed value for every parameter
-        ParameterNames parameterNames = new ParameterNames(getParameterNames(parameters, providedParameters));
-        ParameterValues parameterValues = new ParameterValues(backendValues, valueSet.getName());
-        return Optional.of(Pair.of(parameterNames, parameterValues));
+        return backendValues;
     }
 
     /**
@@ -249,84 +252,32 @@ public class ParametersService {
     public AllowedParametersForUser calculateAllowedParametersForUser(Authentication auth, ProxySpec proxySpec, ParameterValues previousParameters) {
         Parameters parameters = proxySpec.getParameters();
         if (parameters == null) {
-            return new AllowedParametersForUser(new HashMap<>(), new HashSet<>(), null);
+            return new AllowedParametersForUser(new HashMap<>(), new ArrayList<>(), null);
         }
-        List<String> parameterIds = parameters.getIds();
 
         // 1. check which ValueSets are allowed for this user
-        List<Parameters.ValueSet> allowedValueSets = parameters.getValueSets().stream()
-            .filter(v -> accessControlEvaluationService.checkAccess(auth, proxySpec, v.getAccessControl()))
-            .toList();
-
-        // 2. compute a unique (per parameter id) index for every value
-        // mapping of parameter id to a mapping of an allowed value and its index
-        Map<String, Map<String, Integer>> valuesToIndex = new HashMap<>();
-        Map<String, List<String>> values = new HashMap<>();
-        // for every set of allowed values
-        for (Parameters.ValueSet valueSet : allowedValueSets) {
-            // for every parameter in this set
-            for (ParameterDefinition parameter : parameters.getDefinitions()) {
-                valuesToIndex.computeIfAbsent(parameter.getId(), (k) -> new HashMap<>());
-                values.computeIfAbsent(parameter.getId(), (k) -> new ArrayList<>());
-                // for every value of this parameter
-                for (String value : valueSet.getParameterValues(parameter.getId())) {
-                    if (!valuesToIndex.get(parameter.getId()).containsKey(value)) {
-                        // add it to allValues if it does not yet exist
-                        Integer newIndex = values.get(parameter.getId()).size() + 1;
-                        valuesToIndex.get(parameter.getId()).put(value, newIndex);
-                        values.get(parameter.getId()).add(parameter.getNameOfValue(value));
-                    }
-                }
+        BitSet allowedValueSets = new BitSet();
+        for (int i = 0; i < parameters.getValueSets().size(); i++) {
+            if (accessControlEvaluationService.checkAccess(auth, proxySpec, parameters.getValueSets().get(i).getAccessControl())) {
+                allowedValueSets.set(i);
             }
         }
 
-        // 3. compute the set of allowed values for every value-set
-        HashSet<List<Integer>> allowedCombinations = new HashSet<>();
-
-        for (Parameters.ValueSet valueSet : allowedValueSets) {
-            allowedCombinations.addAll(getAllowedCombinationsForSingleValueSet(parameterIds, valueSet, valuesToIndex));
-        }
-
-        // 4. compute default value
-        List<Integer> defaultValue = getDefaultValue(parameters.getDefinitions(), allowedCombinations, valuesToIndex, previousParameters);
-
-        return new AllowedParametersForUser(values, allowedCombinations, defaultValue);
+        // 2. get the values and combinations of these value-sets, shared by all users with access to the same value-sets
+        AllowedValues allowedValues = getCompiledParameters(proxySpec).getAllowedValues(allowedValueSets);
 
-    }
+        // 3. compute default value
+        List<Integer> defaultValue = getDefaultValue(parameters.getDefinitions(), allowedValues, previousParameters);
 
-    private List<List<Integer>> getAllowedCombinationsForSingleValueSet(List<String> parameterIds,
-                                                                        Parameters.ValueSet valueSet,
-                                                                        Map<String, Map<String, Integer>> valuesToIndex
-    ) {
-        // start with an empty combination
-        List<List<Integer>> newAllowedCombinations = new ArrayList<>();
-        newAllowedCombinations.add(new ArrayList<>());
-
-        // for each parameter
-        for (String parameterId : parameterIds) {
-            // copy the combinations calculated during the previous iteration
-            List<List<Integer>> previousAllowedCombinations = new ArrayList<>(newAllowedCombinations);
-            newAllowedCombinations = new ArrayList<>();
-            // for every allowed value of this parameter
-            for (String allowedValue : valueSet.getParameterValues(parameterId)) {
-                // and for every combination of the previous iteration
-                for (List<Integer> combination : previousAllowedCombinations) {
-                    // create a new combination with the additional value
-                    combination = new ArrayList<>(combination); // copy the previous combination so that we can extend it
-                    Integer index = valuesToIndex.get(parameterId).get(allowedValue);
-                    combination.add(index);
-                    newAllowedCombinations.add(combination);
-                }
-            }
-        }
-        return newAllowedCombinations;
+        // the (immutable) values are shared with other users, the arrays of the value-sets are copied
+        return new AllowedParametersForUser(allowedValues.values(), allowedValues.copyValueSets(), defaultValue);
     }
 
-    private List<Integer> getDefaultValue(List<ParameterDefinition> definitions, HashSet<List<Integer>> allowedCombinations, Map<String, Map<String, Integer>> valuesToIndex, ParameterValues previousParameters) {
+    private List<Integer> getDefaultValue(List<ParameterDefinition> definitions, AllowedValues allowedValues, ParameterValues previousParameters) {
         List<Integer> noDefault = new ArrayList<>(Collections.nCopies(definitions.size(), 0));
         List<Integer> result = new ArrayList<>();
 
-        List<Integer> previouslyUsedParameters = getPreviouslyUsedParameters(definitions, allowedCombinations, valuesToIndex, previousParameters);
+        List<Integer> previouslyUsedParameters = getPreviouslyUsedParameters(definitions, allowedValues, previousParameters);
         if (previouslyUsedParameters != null) {
             return previouslyUsedParameters;
         }
@@ -335,37 +286,217 @@ public class ParametersService {
             return noDefault; // no default values defined
         }
         for (ParameterDefinition definition : definitions) {
-            Integer valueIndex = valuesToIndex.get(definition.getId()).get(definition.getDefaultValue());
+            Integer valueIndex = allowedValues.valuesToIndex().get(definition.getId()).get(definition.getDefaultValue());
             if (valueIndex == null) {
                 return noDefault; // default value cannot be used by this user
             }
             result.add(valueIndex);
         }
-        if (allowedCombinations.contains(result)) {
+        if (allowedValues.isAllowed(result)) {
             return result;
         }
         return noDefault; // this combination cannot be used by the user
     }
 
-    private List<Integer> getPreviouslyUsedParameters(List<ParameterDefinition> definitions, HashSet<List<Integer>> allowedCombinations, Map<String, Map<String, Integer>> valuesToIndex, ParameterValues previousParameters) {
+    private List<Integer> getPreviouslyUsedParameters(List<ParameterDefinition> definitions, AllowedValues allowedValues, ParameterValues previousParameters) {
         if (previousParameters == null || previousParameters.getBackendValues() == null) {
             return null;
         }
 
         List<Integer> result = new ArrayList<>();
         for (ParameterDefinition definition : definitions) {
-            Integer valueIndex = valuesToIndex.get(definition.getId()).get(previousParameters.getBackendValues().get(definition.getId()));
+            Integer valueIndex = allowedValues.valuesToIndex().get(definition.getId()).get(previousParameters.getBackendValues().get(definition.getId()));
             if (valueIndex == null) {
                 return null; // default value cannot be used by this user
             }
             result.add(valueIndex);
         }
 
-        if (allowedCombinations.contains(result)) {
+        if (allowedValues.isAllowed(result)) {
             return result;
         }
 
         return null;
     }
 
+    private CompiledParameters getCompiledParameters(ProxySpec spec) {
+        CompiledParameters compiled = compiledParameters.get(spec.getId());
+        if (compiled == null || !compiled.isCompiledFrom(spec.getParameters())) {
+            // not yet compiled or the parameters of the spec changed (a copy of the spec, e.g. a spec created for a
+            // specific user, with the same parameters re-uses the compiled parameters)
+            compiled = new CompiledParameters(spec.getParameters());
+            compiledParameters.put(spec.getId(), compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Index of the parameters of a spec, computed once per spec.
+     * Instead of expanding every value-set into all its combinations, every value-set is kept as the set of allowed
+     * values per parameter, a combination is allowed if all its values are allowed by a single value-set.
+     */
+    private static class CompiledParameters {
+
+        private final Parameters parameters;
+        // per parameter (in order of the definitions): mapping of a backend value to an index, unique within the spec
+        private final List<Map<String, Integer>> valueIndexes = new ArrayList<>();
+        // per parameter and value index: the indexes of the value-sets containing this value
+        private final List<List<BitSet>> valueSetsContainingValue = new ArrayList<>();
+        // keyed by the indexes of the value-sets a user can access
+        private final Cache<BitSet, AllowedValues> allowedValues = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .build();
+
+        private CompiledParameters(Parameters parameters) {
+            this.parameters = parameters;
+            for (String parameterId : parameters.getIds()) {
+                Map<String, Integer> indexes = new HashMap<>();
+                List<BitSet> valueSets = new ArrayList<>();
+                for (int i = 0; i < parameters.getValueSets().size(); i++) {
+                    for (String value : parameters.getValueSets().get(i).getParameterValues(parameterId)) {
+                        Integer index = indexes.get(value);
+                        if (index == null) {
+                            index = valueSets.size();
+                            indexes.put(value, index);
+                            valueSets.add(new BitSet());
+                        }
+                        valueSets.get(index).set(i);
+                    }
+                }
+                valueIndexes.add(indexes);
+                valueSetsContainingValue.add(valueSets);
+            }
+        }
+
+        /**
+         * @return whether these compiled parameters can be used for the given parameters, i.e. whether the parameters
+         * have the same definitions and value-sets (access control is not part of the compiled parameters)
+         */
+        private boolean isCompiledFrom(Parameters other) {
+            if (parameters == other) {
+                return true;
+            }
+            List<ParameterDefinition> definitions = parameters.getDefinitions();
+            List<Parameters.ValueSet> valueSets = parameters.getValueSets();
+            if (definitions.size() != other.getDefinitions().size() || valueSets.size() != other.getValueSets().size()) {
+                return false;
+            }
+            for (int i = 0; i < definitions.size(); i++) {
+                ParameterDefinition definition = definitions.get(i);
+                ParameterDefinition otherDefinition = other.getDefinitions().get(i);
+                if (definition != otherDefinition && (!Objects.equals(definition.getId(), otherDefinition.getId())
+                    || !definition.hasSameValueNames(otherDefinition))) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < valueSets.size(); i++) {
+                Parameters.ValueSet valueSet = valueSets.get(i);
+                Parameters.ValueSet otherValueSet = other.getValueSets().get(i);
+                if (valueSet == otherValueSet) {
+                    continue;
+                }
+                for (ParameterDefinition definition : definitions) {
+                    if (!Objects.equals(valueSet.getParameterValues(definition.getId()), otherValueSet.getParameterValues(definition.getId()))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @param backendValues the backend value of every parameter (in order of the definitions)
+         * @return the indexes of the value-sets that contain this combination, regardless of access control
+         */
+        private BitSet findValueSets(List<String> backendValues) {
+            BitSet result = new BitSet();
+            result.set(0, parameters.getValueSets().size());
+            for (int i = 0; i < valueIndexes.size(); i++) {
+                Integer index = valueIndexes.get(i).get(backendValues.get(i));
+                if (index == null) {
+                    return new BitSet();
+                }
+                result.and(valueSetsContainingValue.get(i).get(index));
+            }
+            return result;
+        }
+
+        private AllowedValues getAllowedValues(BitSet allowedValueSets) {
+            return allowedValues.get(allowedValueSets, this::computeAllowedValues);
+        }
+
+        private AllowedValues computeAllowedValues(BitSet allowedValueSets) {
+            List<ParameterDefinition> definitions = parameters.getDefinitions();
+
+            // compute a unique (per parameter id) index for every value, 0 means no value is selected
+            // mapping of parameter id to a mapping of an allowed value and its index
+            Map<String, Map<String, Integer>> valuesToIndex = new HashMap<>();
+            Map<String, List<String>> values = new HashMap<>();
+            for (ParameterDefinition parameter : definitions) {
+                valuesToIndex.put(parameter.getId(), new HashMap<>());
+                values.put(parameter.getId(), new ArrayList<>());
+            }
+            List<int[][]> valueSets = new ArrayList<>();
+            allowedValueSets.stream().forEach(valueSetIndex -> {
+                Parameters.ValueSet valueSet = parameters.getValueSets().get(valueSetIndex);
+                int[][] allowedIndexes = new int[definitions.size()][];
+                for (int i = 0; i < definitions.size(); i++) {
+                    ParameterDefinition parameter = definitions.get(i);
+                    List<String> parameterValues = valueSet.getParameterValues(parameter.getId());
+                    allowedIndexes[i] = new int[parameterValues.size()];
+                    for (int j = 0; j < parameterValues.size(); j++) {
+                        String value = parameterValues.get(j);
+                        Integer index = valuesToIndex.get(parameter.getId()).get(value);
+                        if (index == null) {
+                            // add it to values if it does not yet exist
+                            index = values.get(parameter.getId()).size() + 1;
+                            valuesToIndex.get(parameter.getId()).put(value, index);
+                            values.get(parameter.getId()).add(parameter.getNameOfValue(value));
+                        }
+                        allowedIndexes[i][j] = index;
+                    }
+                    Arrays.sort(allowedIndexes[i]);
+                }
+                valueSets.add(allowedIndexes);
+            });
+            // the result is cached and shared by multiple users, therefore it may not be modified
+            Map<String, List<String>> immutableValues = new HashMap<>();
+            values.forEach((parameterId, parameterValues) -> immutableValues.put(parameterId, Collections.unmodifiableList(parameterValues)));
+            Map<String, Map<String, Integer>> immutableValuesToIndex = new HashMap<>();
+            valuesToIndex.forEach((parameterId, indexes) -> immutableValuesToIndex.put(parameterId, Collections.unmodifiableMap(indexes)));
+            return new AllowedValues(Collections.unmodifiableMap(immutableValues), Collections.unmodifiableMap(immutableValuesToIndex), Collections.unmodifiableList(valueSets));
+        }
+
+    }
+
+    /**
+     * The values and value-sets available to a user, using the indexes of {@link AllowedParametersForUser}.
+     */
+    private record AllowedValues(Map<String, List<String>> values,
+                                 Map<String, Map<String, Integer>> valuesToIndex,
+                                 List<int[][]> valueSets) {
+
+        private List<int[][]> copyValueSets() {
+            List<int[][]> result = new ArrayList<>(valueSets.size());
+            for (int[][] valueSet : valueSets) {
+                int[][] copy = new int[valueSet.length][];
+                for (int i = 0; i < valueSet.length; i++) {
+                    copy[i] = valueSet[i].clone();
+                }
+                result.add(copy);
+            }
+            return result;
+        }
+
+        private boolean isAllowed(List<Integer> combination) {
+            for (int[][] valueSet : valueSets) {
+                if (AllowedParametersForUser.containsCombination(valueSet, combination)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
 }
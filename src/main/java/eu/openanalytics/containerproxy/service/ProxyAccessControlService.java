@@ -23,14 +23,25 @@ package eu.openanalytics.containerproxy.service;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Scheduler;
+import eu.openanalytics.containerproxy.model.spec.AccessControl;
 import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 import eu.openanalytics.containerproxy.spec.IProxySpecProvider;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.event.AuthenticationSuccessEvent;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.web.access.intercept.RequestAuthorizationContext;
 import org.springframework.stereotype.Service;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
@@ -54,6 +65,8 @@ public class ProxyAccessControlService {
      */
     private final Cache<SessionIdAndSpecId, Boolean> authorizationCache;
 
+    private volatile SpecAccessIndex specAccessIndex;
+
     public ProxyAccessControlService(ProxyService proxyService, IProxySpecProvider specProvider, AccessControlEvaluationService accessControlEvaluationService) {
         this.proxyService = proxyService;
         this.specProvider = specProvider;
@@ -102,6 +115,47 @@ public class ProxyAccessControlService {
             (k) -> checkAccess(auth, spec));
     }
 
+    /**
+     * Finds all specs the user can access. Access granted by groups, usernames or the absence of access control is
+     * resolved using the {@link SpecAccessIndex}, only specs using an access-expression are checked one by one
+     * (and cached per session).
+     *
+     * @param auth the current user
+     * @return the specs the user can access, in the order of the spec provider
+     */
+    public List<ProxySpec> getAccessibleSpecs(Authentication auth) {
+        List<ProxySpec> specs = specProvider.getSpecs();
+        if (auth == null || auth instanceof AnonymousAuthenticationToken) {
+            return specs.stream().filter(spec -> canAccess(auth, spec)).toList();
+        }
+        SpecAccessIndex index = getSpecAccessIndex(specs);
+        BitSet granted = index.getGrantedSpecs(auth);
+        List<ProxySpec> result = new ArrayList<>();
+        for (int i = 0; i < specs.size(); i++) {
+            if (granted.get(i) || (index.withExpression.get(i) && canAccess(auth, specs.get(i)))) {
+                result.add(specs.get(i));
+            }
+        }
+        return result;
+    }
+
+    @EventListener
+    public void onAuthenticationSuccessEvent(AuthenticationSuccessEvent event) {
+        // the user re-authenticated in an existing session, the groups or attributes of the user may have changed
+        getSessionId().ifPresent(sessionId -> authorizationCache.asMap().keySet().removeIf(k -> k.userId().equals(sessionId)));
+    }
+
+    private SpecAccessIndex getSpecAccessIndex(List<ProxySpec> specs) {
+        SpecAccessIndex index = specAccessIndex;
+        if (index == null || !index.isIndexOf(specs)) {
+            // the specs were (re-)loaded, previous decisions may no longer be valid
+            index = new SpecAccessIndex(specs);
+            specAccessIndex = index;
+            authorizationCache.invalidateAll();
+        }
+        return index;
+    }
+
     /**
      * @return the sessionId if the RequestContext is present
      */
@@ -118,4 +172,111 @@ public class ProxyAccessControlService {
     private record SessionIdAndSpecId(String userId, String specId) {
     }
 
+    /**
+     * Copy of the access control of a spec, as used to build the {@link SpecAccessIndex}.
+     */
+    private record SpecAccess(String specId, List<String> groups, List<String> users, String expression) {
+
+        private static SpecAccess of(ProxySpec spec) {
+            AccessControl accessControl = spec.getAccessControl();
+            if (accessControl == null) {
+                return new SpecAccess(spec.getId(), null, null, null);
+            }
+            return new SpecAccess(spec.getId(), copy(accessControl.getGroups()), copy(accessControl.getUsers()), accessControl.getExpression());
+        }
+
+        private static List<String> copy(String[] values) {
+            return values == null ? null : Arrays.asList(values.clone());
+        }
+
+        private boolean matches(ProxySpec spec) {
+            if (!Objects.equals(specId, spec.getId())) {
+                return false;
+            }
+            AccessControl accessControl = spec.getAccessControl();
+            if (accessControl == null) {
+                return groups == null && users == null && expression == null;
+            }
+            return Objects.equals(groups, asList(accessControl.getGroups()))
+                && Objects.equals(users, asList(accessControl.getUsers()))
+                && Objects.equals(expression, accessControl.getExpression());
+        }
+
+        private static List<String> asList(String[] values) {
+            return values == null ? null : Arrays.asList(values);
+        }
+
+    }
+
+    /**
+     * Precomputed mapping of groups and usernames to the (indexes of the) specs they grant access to.
+     */
+    private class SpecAccessIndex {
+
+        private final List<SpecAccess> specs;
+        private final BitSet unrestricted = new BitSet();
+        private final BitSet withExpression = new BitSet();
+        private final Map<String, BitSet> byGroup = new HashMap<>();
+        private final Map<String, BitSet> byUser = new HashMap<>();
+
+        private SpecAccessIndex(List<ProxySpec> specs) {
+            this.specs = specs.stream().map(SpecAccess::of).toList();
+            for (int i = 0; i < specs.size(); i++) {
+                AccessControl accessControl = specs.get(i).getAccessControl();
+                if (accessControlEvaluationService.hasAccessControl(accessControl)) {
+                    unrestricted.set(i);
+                    continue;
+                }
+                if (accessControl.hasGroupAccess()) {
+                    for (String group : accessControl.getGroups()) {
+                        if (group != null) {
+                            // groups of the user are upper case, see UserService#getGroups
+                            byGroup.computeIfAbsent(group.toUpperCase(), k -> new BitSet()).set(i);
+                        }
+                    }
+                }
+                if (accessControl.hasUserAccess()) {
+                    for (String user : accessControl.getUsers()) {
+                        byUser.computeIfAbsent(user, k -> new BitSet()).set(i);
+                    }
+                }
+                if (accessControl.hasExpressionAccess()) {
+                    withExpression.set(i);
+                }
+            }
+        }
+
+        /**
+         * Compares by spec id and access control (instead of by identity), since the spec provider may return
+         * copies of the specs.
+         */
+        private boolean isIndexOf(List<ProxySpec> other) {
+            if (specs.size() != other.size()) {
+                return false;
+            }
+            for (int i = 0; i < specs.size(); i++) {
+                if (!specs.get(i).matches(other.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private BitSet getGrantedSpecs(Authentication auth) {
+            BitSet result = (BitSet) unrestricted.clone();
+            for (String group : UserService.getGroups(auth)) {
+                BitSet specsOfGroup = byGroup.get(group);
+                if (specsOfGroup != null) {
+                    result.or(specsOfGroup);
+                }
+            }
+            BitSet specsOfUser = byUser.get(auth.getName());
+            if (specsOfUser != null) {
+                result.or(specsOfUser);
+            }
+            return result;
+        }
+
+    }
+
 }
@@ -0,0 +1,227 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.service;
+
+import eu.openanalytics.containerproxy.ProxyActionConflictException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the (long during) actions that are in progress for every proxy.
+ *
+ * An action consists of two phases: a blocking phase (executed by the caller, e.g. changing the status of the proxy)
+ * and an async phase (executed by {@link AsyncProxyService}). Between both phases the action is queued.
+ *
+ * Only a single action can be in progress for a proxy, except that a proxy can always be stopped while it's being
+ * started, paused or resumed. Registering a conflicting action fails with {@link ProxyActionConflictException}.
+ * The mutual exclusion is handled per proxy by the {@link ConcurrentHashMap}, therefore actions of different proxies
+ * do not contend on a single lock.
+ */
+@Service
+public class ProxyActionRegistry {
+
+    private final ConcurrentHashMap<String, List<Action>> actions = new ConcurrentHashMap<>();
+    private final AtomicInteger actionsInProgress = new AtomicInteger();
+    private final Map<ActionType, Timer> queueTimers = new EnumMap<>(ActionType.class);
+    private final Map<ActionType, Timer> successTimers = new EnumMap<>(ActionType.class);
+    private final Map<ActionType, Timer> failureTimers = new EnumMap<>(ActionType.class);
+    private final Map<ActionType, Counter> rejectedCounters = new EnumMap<>(ActionType.class);
+    private volatile Instant lastActionFinished = null;
+
+    public ProxyActionRegistry(MeterRegistry meterRegistry) {
+        for (ActionType type : ActionType.values()) {
+            queueTimers.put(type, Timer.builder("proxy_action_queue_time")
+                .description("Time between the blocking and async phase of a proxy action")
+                .tag("action", type.name())
+                .register(meterRegistry));
+            successTimers.put(type, actionTimer(meterRegistry, type, "success"));
+            failureTimers.put(type, actionTimer(meterRegistry, type, "failure"));
+            rejectedCounters.put(type, Counter.builder("proxy_action_rejected")
+                .description("Number of proxy actions rejected because of a conflicting action")
+                .tag("action", type.name())
+                .register(meterRegistry));
+        }
+        Gauge.builder("proxy_actions_in_progress", actionsInProgress, AtomicInteger::get)
+            .description("Number of proxy actions in progress")
+            .register(meterRegistry);
+    }
+
+    private static Timer actionTimer(MeterRegistry meterRegistry, ActionType type, String result) {
+        return Timer.builder("proxy_action_duration")
+            .description("Duration of proxy actions")
+            .tag("action", type.name())
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+
+    /**
+     * Registers a new action for the given proxy.
+     *
+     * @return the action, which must be passed to {@link #finished(Action, boolean)}
+     * @throws ProxyActionConflictException when a conflicting action is in progress for the proxy
+     */
+    public Action started(String proxyId, ActionType type) {
+        Action action = new Action(proxyId, type);
+        actions.compute(proxyId, (id, current) -> {
+            if (current == null) {
+                return List.of(action);
+            }
+            for (Action other : current) {
+                if (type != ActionType.Stop || other.type == ActionType.Stop) {
+                    rejectedCounters.get(type).increment();
+                    throw new ProxyActionConflictException(String.format("Cannot %s proxy %s: action %s is in progress",
+                        type.name().toLowerCase(), proxyId, other.type.name().toLowerCase()));
+                }
+            }
+            List<Action> result = new ArrayList<>(current);
+            result.add(action);
+            return Collections.unmodifiableList(result);
+        });
+        actionsInProgress.incrementAndGet();
+        return action;
+    }
+
+    /**
+     * Unregisters the action.
+     *
+     * @param success whether the action succeeded, used for metrics
+     */
+    public void finished(Action action, boolean success) {
+        actions.computeIfPresent(action.proxyId, (id, current) -> {
+            if (!current.contains(action)) {
+                return current;
+            }
+            if (current.size() == 1) {
+                return null;
+            }
+            List<Action> result = new ArrayList<>(current);
+            result.remove(action);
+            return Collections.unmodifiableList(result);
+        });
+        actionsInProgress.decrementAndGet();
+        lastActionFinished = Instant.now();
+        (success ? successTimers : failureTimers).get(action.type).record(System.nanoTime() - action.startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return whether any action is in progress or an action finished less than a minute ago.
+     */
+    public boolean isBusy() {
+        if (!actions.isEmpty()) {
+            return true;
+        }
+        Instant last = lastActionFinished;
+        return last != null && Duration.between(last, Instant.now()).toMinutes() <= 1;
+    }
+
+    /**
+     * @return a snapshot of all actions in progress.
+     */
+    public List<Action> getActions() {
+        List<Action> result = new ArrayList<>();
+        for (List<Action> proxyActions : actions.values()) {
+            result.addAll(proxyActions);
+        }
+        return result;
+    }
+
+    public List<Action> getActions(String proxyId) {
+        return actions.getOrDefault(proxyId, List.of());
+    }
+
+    public enum ActionType {
+        Start,
+        Stop,
+        Pause,
+        Resume
+    }
+
+    public enum Phase {
+        Blocking,
+        Queued,
+        Async
+    }
+
+    public class Action {
+
+        private final String proxyId;
+        private final ActionType type;
+        private final Instant startTime = Instant.now();
+        private final long startNanos = System.nanoTime();
+        private volatile long queuedNanos;
+        private volatile Phase phase = Phase.Blocking;
+
+        private Action(String proxyId, ActionType type) {
+            this.proxyId = proxyId;
+            this.type = type;
+        }
+
+        /**
+         * Called when the blocking phase of the action completed.
+         */
+        public void queued() {
+            queuedNanos = System.nanoTime();
+            phase = Phase.Queued;
+        }
+
+        /**
+         * Called when the async phase of the action starts.
+         */
+        public void running() {
+            if (phase == Phase.Queued) {
+                queueTimers.get(type).record(System.nanoTime() - queuedNanos, TimeUnit.NANOSECONDS);
+            }
+            phase = Phase.Async;
+        }
+
+        public String getProxyId() {
+            return proxyId;
+        }
+
+        public ActionType getType() {
+            return type;
+        }
+
+        public Instant getStartTime() {
+            return startTime;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+    }
+
+}
@@ -20,15 +20,20 @@
  */
 package eu.openanalytics.containerproxy.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.runtime.runtimevalues.CacheHeadersMode;
 import eu.openanalytics.containerproxy.model.runtime.runtimevalues.CacheHeadersModeKey;
+import io.undertow.server.ConduitWrapper;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
 import org.springframework.data.util.Pair;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.xnio.conduits.StreamSinkConduit;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -57,6 +62,27 @@ public class ProxyCacheHeadersService {
     private static final List<MediaType> ASSET_MIME_TYPES = List.of(APPLICATION_JS, TEXT_JS, TEXT_CSS,
         APPLICATION_FONT_WOFF, APPLICATION_FONT_WOFF2, APPLICATION_FONT_SFNT, APPLICATION_FONT_TDPR);
 
+    // apps only use a small number of distinct Content-Type values, therefore the result of parsing them is cached
+    private final Cache<String, Boolean> isAssetContentType = Caffeine.newBuilder()
+        .maximumSize(1000)
+        .build();
+
+    private final ConduitWrapper<StreamSinkConduit> enforceNoCacheWrapper = (factory, exchange) -> {
+        writeNoCacheHeaders(exchange);
+        return factory.create();
+    };
+
+    private final ConduitWrapper<StreamSinkConduit> enforceCacheAssetsWrapper = (factory, exchange) -> {
+        if (isAsset(exchange)) {
+            // it as an asset -> enforce cache
+            writeCacheHeaders(exchange);
+        } else {
+            // otherwise, enforce no-cache
+            writeNoCacheHeaders(exchange);
+        }
+        return factory.create();
+    };
+
     private static List<Pair<HttpString, String>> createNoCacheHeaders() {
         List<Pair<HttpString, String>> headers = new ArrayList<>(3);
         headers.add(Pair.of(new HttpString(CACHE_CONTROL), "no-cache, no-store, max-age=0, must-revalidate"));
@@ -76,8 +102,6 @@ public class ProxyCacheHeadersService {
         if (mode.equals(CacheHeadersMode.EnforceNoCache)) {
             // enforce no-cache on all assets
             writeNoCacheHeaders(exchange);
-        } else if (mode.equals(CacheHeadersMode.Passthrough)) {
-            // trust any cache headers added by the app, do nothing
         } else if (mode.equals(CacheHeadersMode.EnforceCacheAssets)) {
             if (isAsset(exchange)) {
                 // it as an asset -> enforce cache
@@ -87,27 +111,46 @@ public class ProxyCacheHeadersService {
                 writeNoCacheHeaders(exchange);
             }
         }
+        // Passthrough: trust any cache headers added by the app, do nothing
+    }
+
+    /**
+     * Gets the response wrapper that adds the cache headers of the app, based on the {@link CacheHeadersMode} of the proxy.
+     * The wrappers are shared between all proxies, such that no allocation is needed per request.
+     *
+     * @param proxy the proxy
+     * @return the response wrapper or null if the cache headers of the app are passed through
+     */
+    public ConduitWrapper<StreamSinkConduit> getResponseWrapper(Proxy proxy) {
+        CacheHeadersMode mode = proxy.getRuntimeObject(CacheHeadersModeKey.inst);
+        if (mode.equals(CacheHeadersMode.EnforceNoCache)) {
+            return enforceNoCacheWrapper;
+        } else if (mode.equals(CacheHeadersMode.EnforceCacheAssets)) {
+            return enforceCacheAssetsWrapper;
+        }
+        return null;
     }
 
     private boolean isAsset(HttpServerExchange exchange) {
         if (!exchange.getRequestMethod().equals(Methods.GET)) {
             return false;
         }
+        String contentType = exchange.getResponseHeaders().getFirst(Headers.CONTENT_TYPE);
+        if (contentType == null) {
+            return false;
+        }
+        return isAssetContentType.get(contentType, ProxyCacheHeadersService::isAssetContentType);
+    }
+
+    private static boolean isAssetContentType(String contentType) {
         try {
-            String contentType = exchange.getResponseHeaders().get("Content-Type", 0);
-            if (contentType == null) {
-                return false;
-            }
             MediaType mediaType = MediaType.parseMediaType(contentType);
             // use equalsTypeAndSubtype to ignore e.g. charset
-            if (mediaType.getType().equals("font")
-                || ASSET_MIME_TYPES.stream().anyMatch(m -> m.equalsTypeAndSubtype(mediaType))) {
-                return true;
-            }
+            return mediaType.getType().equals("font")
+                || ASSET_MIME_TYPES.stream().anyMatch(m -> m.equalsTypeAndSubtype(mediaType));
         } catch (IndexOutOfBoundsException ex) {
             return false;
         }
-        return false;
     }
 
     private void writeNoCacheHeaders(HttpServerExchange exchange) {
@@ -31,6 +31,13 @@ import org.slf4j.LoggerFactory;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Index which finds a proxy using a full scan of the proxy store, caching the resulting proxyId.
+ *
+ * @deprecated use the index-backed lookups of {@link IProxyStore} (e.g. {@link IProxyStore#getUserProxyByTargetId(String, String)}),
+ * which don't require scanning all proxies.
+ */
+@Deprecated
 public abstract class ProxyIdIndex<T> {
 
     private final LoadingCache<T, String> cache;
@@ -20,30 +20,49 @@
  */
 package eu.openanalytics.containerproxy.service;
 
+import eu.openanalytics.containerproxy.ProxyActionConflictException;
+import eu.openanalytics.containerproxy.event.ProxyResumeEvent;
+import eu.openanalytics.containerproxy.event.ProxyStartEvent;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
 import eu.openanalytics.containerproxy.model.runtime.runtimevalues.MaxLifetimeKey;
 import eu.openanalytics.containerproxy.service.leader.GlobalEventLoopService;
+import eu.openanalytics.containerproxy.util.ICleanupStoppedProxies;
+import eu.openanalytics.containerproxy.util.ProxyDeadlineIndex;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.concurrent.TimeUnit;
 
 /**
  * This service releases proxies which reached their max-lifetime.
+ * The proxies are indexed by the time they reach their max-lifetime (see {@link ProxyDeadlineIndex}), such that every
+ * cleanup only processes the proxies that are due. The index is periodically rebuilt from all proxies
+ * ({@code proxy.max-lifetime-full-scan-interval}), in order to pick up proxies of which the events were missed.
+ * Since a cleanup only processes the due proxies, it runs every minute (instead of every five minutes), such that
+ * proxies are released closer to their max-lifetime.
+ * Proxies which cannot be checked (e.g. because they are not running or another action is in progress) are checked again
+ * during the next cleanup.
  */
 @Service
-public class ProxyMaxLifetimeService {
+public class ProxyMaxLifetimeService implements ICleanupStoppedProxies {
+
+    private static final long RECHECK_DELAY = TimeUnit.MINUTES.toMillis(1);
 
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final StructuredLogger slog = new StructuredLogger(log);
 
+    private final ProxyDeadlineIndex maxLifetimeIndex = new ProxyDeadlineIndex();
+    private long fullScanInterval;
+    private long nextFullScan = 0;
+
     @Inject
     private ProxyService proxyService;
 
@@ -53,38 +72,92 @@ public class ProxyMaxLifetimeService {
     @Inject
     private GlobalEventLoopService globalEventLoop;
 
-    @Scheduled(fixedDelay = 5, timeUnit = TimeUnit.MINUTES)
+    @Inject
+    private Environment environment;
+
+    @PostConstruct
+    public void init() {
+        fullScanInterval = environment.getProperty("proxy.max-lifetime-full-scan-interval", Long.class, 600_000L);
+    }
+
+    // runs every minute, a cleanup is cheap since only the proxies that are due are processed
+    @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
     public void scheduleCleanup() {
-        globalEventLoop.schedule(this::performCleanup);
+        globalEventLoop.scheduleDeduplicated("ProxyMaxLifetimeService", "cleanup", this::performCleanup);
+    }
+
+    @EventListener
+    public void onProxyStartEvent(ProxyStartEvent event) {
+        // the proxy is checked (and added with its real deadline) during the next cleanup
+        maxLifetimeIndex.update(event.getProxyId(), System.currentTimeMillis());
+    }
+
+    @EventListener
+    public void onProxyResumeEvent(ProxyResumeEvent event) {
+        maxLifetimeIndex.update(event.getProxyId(), System.currentTimeMillis());
+    }
+
+    @Override
+    public void cleanupProxy(String proxyId) {
+        maxLifetimeIndex.remove(proxyId);
     }
 
     private void performCleanup() {
-        for (Proxy proxy : proxyService.getAllProxies()) {
-            if (mustBeReleased(proxy)) {
-                String uptime = DurationFormatUtils.formatDurationWords(
-                    System.currentTimeMillis() - proxy.getStartupTimestamp(),
-                    true, false);
-                slog.info(proxy, String.format("Forcefully releasing proxy because it reached the max lifetime [uptime: %s]", uptime));
-                releaseStrategy.releaseProxy(proxy);
+        long currentTimestamp = System.currentTimeMillis();
+        if (currentTimestamp >= nextFullScan) {
+            nextFullScan = currentTimestamp + fullScanInterval;
+            maxLifetimeIndex.clear();
+            for (Proxy proxy : proxyService.getAllProxies()) {
+                checkProxy(currentTimestamp, proxy);
             }
+            return;
         }
+        for (String proxyId : maxLifetimeIndex.pollExpired(currentTimestamp)) {
+            Proxy proxy = proxyService.getProxy(proxyId);
+            if (proxy != null) {
+                checkProxy(currentTimestamp, proxy);
+            }
+        }
+    }
 
+    private void checkProxy(long currentTimestamp, Proxy proxy) {
+        // the proxy is already removed from the index, therefore it must be re-added when it cannot be checked now
+        try {
+            checkAndReleaseProxy(currentTimestamp, proxy);
+        } catch (ProxyActionConflictException ex) {
+            slog.debug(proxy, "Cannot release proxy which reached the max lifetime yet, since another action is in progress");
+            maxLifetimeIndex.update(proxy.getId(), currentTimestamp + RECHECK_DELAY);
+        } catch (Exception ex) {
+            slog.warn(proxy, ex, "Error while checking max lifetime of proxy");
+            maxLifetimeIndex.update(proxy.getId(), currentTimestamp + RECHECK_DELAY);
+        }
     }
 
-    private Boolean mustBeReleased(Proxy proxy) {
+    private void checkAndReleaseProxy(long currentTimestamp, Proxy proxy) {
         if (proxy.getStatus() != ProxyStatus.Up) {
-            return false;
+            // e.g. the proxy is starting, pausing or resuming: check again during the next cleanup (a stopped proxy
+            // is removed from the index by cleanupProxy)
+            maxLifetimeIndex.update(proxy.getId(), currentTimestamp + RECHECK_DELAY);
+            return;
         }
 
         Long maxLifeTime = proxy.getRuntimeObject(MaxLifetimeKey.inst);
-
-        if (maxLifeTime > 0) {
-            Instant notBeforeTime = Instant.now().minus(maxLifeTime, ChronoUnit.MINUTES);
-
-            return Instant.ofEpochMilli(proxy.getStartupTimestamp()).isBefore(notBeforeTime);
+        if (maxLifeTime <= 0) {
+            return;
         }
 
-        return false;
+        long deadline = proxy.getStartupTimestamp() + TimeUnit.MINUTES.toMillis(maxLifeTime);
+        if (deadline < currentTimestamp) {
+            String uptime = DurationFormatUtils.formatDurationWords(
+                currentTimestamp - proxy.getStartupTimestamp(),
+                true, false);
+            slog.info(proxy, String.format("Forcefully releasing proxy because it reached the max lifetime [uptime: %s]", uptime));
+            releaseStrategy.releaseProxy(proxy);
+            // check again in case the proxy is not stopped (the ProxyStopEvent removes it from the index)
+            maxLifetimeIndex.update(proxy.getId(), currentTimestamp + TimeUnit.MINUTES.toMillis(5));
+        } else {
+            maxLifetimeIndex.update(proxy.getId(), deadline);
+        }
     }
 
 }
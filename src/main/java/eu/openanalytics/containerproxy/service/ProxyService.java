@@ -26,9 +26,12 @@ import eu.openanalytics.containerproxy.ProxyStartValidationException;
 import eu.openanalytics.containerproxy.backend.dispatcher.ProxyDispatcherService;
 import eu.openanalytics.containerproxy.backend.strategy.IProxyTestStrategy;
 import eu.openanalytics.containerproxy.event.ProxyPauseEvent;
+import eu.openanalytics.containerproxy.event.ProxyRecoveredEvent;
 import eu.openanalytics.containerproxy.event.ProxyResumeEvent;
+import eu.openanalytics.containerproxy.event.ProxyResumingEvent;
 import eu.openanalytics.containerproxy.event.ProxyStartEvent;
 import eu.openanalytics.containerproxy.event.ProxyStartFailedEvent;
+import eu.openanalytics.containerproxy.event.ProxyStartingEvent;
 import eu.openanalytics.containerproxy.event.ProxyStopEvent;
 import eu.openanalytics.containerproxy.model.runtime.Container;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
@@ -55,13 +58,9 @@ import org.springframework.stereotype.Service;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
-import java.time.Duration;
-import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Stream;
 
@@ -83,7 +82,6 @@ public class ProxyService {
     public static final String PROPERTY_STOP_PROXIES_ON_SHUTDOWN = "proxy.stop-proxies-on-shutdown";
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final StructuredLogger slog = new StructuredLogger(log);
-    private final Set<String> actionsInProgress = new HashSet<>();
     @Inject
     protected IProxyTestStrategy testStrategy;
     protected Integer maxTotalInstances;
@@ -105,8 +103,9 @@ public class ProxyService {
     private RuntimeValueService runtimeValueService;
     @Inject
     private SpecExpressionResolver expressionResolver;
+    @Inject
+    private ProxyActionRegistry proxyActionRegistry;
     private boolean stopAppsOnShutdown;
-    private Pair<String, Instant> lastStop = null;
 
     @PostConstruct
     public void init() {
@@ -150,9 +149,7 @@ public class ProxyService {
      * @return A List of matching ProxySpecs, may be empty.
      */
     public List<ProxySpec> getUserSpecs() {
-        return baseSpecProvider.getSpecs().stream()
-            .filter(spec -> userService.canAccess(spec))
-            .toList();
+        return userService.getAccessibleSpecs();
     }
 
     /**
@@ -186,7 +183,11 @@ public class ProxyService {
      * @return A List of matching proxies, may be empty.
      */
     public Stream<Proxy> getUserProxiesBySpecId(String specId) {
-        return proxyStore.getAllProxies().stream().filter(p -> userService.isOwner(p) && p.getSpecId().equals(specId));
+        Authentication auth = userService.getCurrentAuth();
+        if (auth == null) {
+            return Stream.empty();
+        }
+        return proxyStore.getUserProxiesBySpecId(auth.getName(), specId).stream().filter(p -> userService.isOwner(auth, p));
     }
 
     /**
@@ -213,7 +214,7 @@ public class ProxyService {
      * @return number of running proxies for the given specId.
      */
     public long getNumberOfProxiesBySpecId(String specId) {
-        return proxyStore.getAllProxies().stream().filter(p -> p.getSpecId().equals(specId)).count();
+        return proxyStore.getNumberOfProxiesBySpecId(specId);
     }
 
 
@@ -232,7 +233,7 @@ public class ProxyService {
      * @return A List of all Up proxies.
      */
     public List<Proxy> getAllUpProxies() {
-        return proxyStore.getAllProxies().stream().filter(p -> p.getStatus().equals(ProxyStatus.Up)).toList();
+        return proxyStore.getProxiesByStatus(ProxyStatus.Up);
     }
 
     /**
@@ -259,7 +260,7 @@ public class ProxyService {
      * @return The newly launched proxy.
      */
     public Command startProxy(Authentication user, ProxySpec spec, List<RuntimeValue> runtimeValues, String proxyId, Map<String, String> parameters) {
-        return action(proxyId, () -> {
+        return action(proxyId, ProxyActionRegistry.ActionType.Start, () -> {
             if (!userService.canAccess(user, spec)) {
                 throw new AccessDeniedException(String.format("Cannot start proxy %s: access denied", spec.getId()));
             }
@@ -287,6 +288,7 @@ public class ProxyService {
 
             Proxy currentProxy = runtimeValueService.processParameters(user, spec, parameters, proxyBuilder.build());
             proxyStore.addProxy(currentProxy);
+            applicationEventPublisher.publishEvent(new ProxyStartingEvent(currentProxy));
             return currentProxy;
         }, (currentProxy) -> {
             ProxyStartupLog.ProxyStartupLogBuilder proxyStartupLog = new ProxyStartupLog.ProxyStartupLogBuilder();
@@ -322,7 +324,7 @@ public class ProxyService {
      * @param proxyStopReason     The reason to stop this proxy.
      */
     public Command stopProxy(Authentication user, Proxy proxy, boolean ignoreAccessControl, ProxyStopReason proxyStopReason) {
-        return action(proxy.getId(), () -> {
+        return action(proxy.getId(), ProxyActionRegistry.ActionType.Stop, () -> {
             if (!ignoreAccessControl && !userService.isAdmin(user) && !userService.isOwner(user, proxy)) {
                 throw new AccessDeniedException(String.format("Cannot stop proxy %s: access denied", proxy.getId()));
             }
@@ -355,7 +357,7 @@ public class ProxyService {
     }
 
     public Command pauseProxy(Authentication user, Proxy proxy, boolean ignoreAccessControl) {
-        return action(proxy.getId(), () -> {
+        return action(proxy.getId(), ProxyActionRegistry.ActionType.Pause, () -> {
             if (!ignoreAccessControl && !userService.isAdmin(user) && !userService.isOwner(user, proxy)) {
                 throw new AccessDeniedException(String.format("Cannot pause proxy %s: access denied", proxy.getId()));
             }
@@ -389,7 +391,7 @@ public class ProxyService {
     }
 
     public Command resumeProxy(Authentication user, Proxy proxy, Map<String, String> parameters) {
-        return action(proxy.getId(), () -> {
+        return action(proxy.getId(), ProxyActionRegistry.ActionType.Resume, () -> {
             if (!userService.isOwner(user, proxy)) {
                 throw new AccessDeniedException(String.format("Cannot resume proxy %s: access denied", proxy.getId()));
             }
@@ -402,6 +404,7 @@ public class ProxyService {
             Proxy resumingProxy = proxy.withStatus(ProxyStatus.Resuming);
             Proxy parameterizedProxy = runtimeValueService.processParameters(user, getUserSpec(proxy.getSpecId()), parameters, resumingProxy);
             proxyStore.updateProxy(parameterizedProxy);
+            applicationEventPublisher.publishEvent(new ProxyResumingEvent(parameterizedProxy));
             return parameterizedProxy;
         }, (parameterizedProxy) -> {
             // TODO proxystartuplog?
@@ -533,8 +536,8 @@ public class ProxyService {
     }
 
     private boolean cleanupIfPendingAppWasStopped(Proxy startingProxy) {
-        // fetch proxy from proxyStore in order to check if it was stopped
-        Proxy proxy = getProxy(startingProxy.getId());
+        // fetch proxy from proxyStore (bypassing the cache) in order to check if it was stopped
+        Proxy proxy = proxyStore.getLatestProxy(startingProxy.getId());
         if (proxy == null || proxy.getStatus().equals(ProxyStatus.Stopped)
             || proxy.getStatus().equals(ProxyStatus.Stopping)) {
             proxyDispatcherService.getDispatcher(startingProxy.getSpecId()).stopProxy(startingProxy);
@@ -556,6 +559,7 @@ public class ProxyService {
         setupProxy(proxy);
 
         slog.info(proxy, "Existing Proxy re-activated");
+        applicationEventPublisher.publishEvent(new ProxyRecoveredEvent(proxy));
     }
 
     /**
@@ -568,34 +572,8 @@ public class ProxyService {
     /**
      * @return whether any long during proxy actions are being executed.
      */
-    public synchronized boolean isBusy() {
-        if (!actionsInProgress.isEmpty()) {
-            // action in progress -> service is busy
-            return true;
-        }
-        // if last stop was less than 1 minute ago -> service is busy
-        return lastStop != null && Duration.between(lastStop.getSecond(), Instant.now()).toMinutes() <= 1;
-    }
-
-    /**
-     * Called before a (long during) proxy action is executed.
-     * Required in order to check whether such an action is in progress.
-     *
-     * @param proxyId the proxyId for which the action is performed.
-     */
-    private synchronized void actionStarted(String proxyId) {
-        actionsInProgress.add(proxyId);
-    }
-
-    /**
-     * Called after a (long during) proxy action has finished.
-     * Required in order to check whether such an action is in progress.
-     *
-     * @param proxyId the proxyId for which the action has been performed.
-     */
-    private synchronized void actionFinished(String proxyId) {
-        actionsInProgress.remove(proxyId);
-        lastStop = Pair.of(proxyId, Instant.now());
+    public boolean isBusy() {
+        return proxyActionRegistry.isBusy();
     }
 
     /**
@@ -629,19 +607,27 @@ public class ProxyService {
         return currentAmountOfInstances < maxTotalInstances;
     }
 
-    private Command action(String proxyId, BlockingAction blocking, AsyncAction async) {
+    /**
+     * Registers the action in the {@link ProxyActionRegistry} (rejecting conflicting actions on the same proxy), runs
+     * the blocking part and returns a command to run the async part.
+     */
+    private Command action(String proxyId, ProxyActionRegistry.ActionType type, BlockingAction blocking, AsyncAction async) {
+        ProxyActionRegistry.Action action = proxyActionRegistry.started(proxyId, type);
         try {
-            actionStarted(proxyId);
             Proxy proxy = blocking.run();
+            action.queued();
             return () -> {
+                boolean success = false;
                 try {
+                    action.running();
                     async.run(proxy);
+                    success = true;
                 } finally {
-                    actionFinished(proxyId);
+                    proxyActionRegistry.finished(action, success);
                 }
             };
         } catch (Throwable t) {
-            actionFinished(proxyId);
+            proxyActionRegistry.finished(action, false);
             throw t;
         }
     }
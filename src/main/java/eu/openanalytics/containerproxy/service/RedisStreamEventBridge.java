@@ -0,0 +1,333 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import eu.openanalytics.containerproxy.event.BridgeableEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ApplicationListenerMethodAdapter;
+import org.springframework.context.event.EventListener;
+import org.springframework.context.event.GenericApplicationListener;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.core.ResolvableType;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.stream.StreamMessageListenerContainer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bridges {@link BridgeableEvent}s between servers using a Redis Stream, as an alternative to the pub/sub based
+ * {@link RedisEventBridge} (see {@code proxy.redis-event-transport}).
+ * <ul>
+ *     <li>Outgoing events are buffered in memory and written by a single thread, using a pipelined XADD per batch.
+ *     The stream is trimmed (approximately) to {@code proxy.redis-event-stream.max-length} entries.</li>
+ *     <li>Every server reads the full stream (XREAD) starting from the last entry it processed. Therefore, events added
+ *     while the connection to Redis was lost, are processed once the connection is restored (instead of being dropped
+ *     by pub/sub). Consumer groups are not used, since every event must be delivered to every server.</li>
+ *     <li>Every entry contains the type and source of the event as separate fields, such that events produced by this
+ *     server, or of a type for which no listener exists on this server, are skipped without deserializing them.</li>
+ * </ul>
+ */
+public class RedisStreamEventBridge {
+
+    private static final String FIELD_TYPE = "type";
+    private static final String FIELD_SOURCE = "source";
+    private static final String FIELD_EVENT = "event";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final StringRedisTemplate redisTemplate;
+    private final RedisConnectionFactory connectionFactory;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final AbstractApplicationContext applicationContext;
+    private final String streamKey;
+    private final String source;
+    private final ObjectMapper objectMapper;
+    private final BlockingQueue<BridgeableEvent> outgoing;
+    // batch of the writer which was not yet written when the writer stopped, written by shutdown
+    private final ConcurrentLinkedQueue<BridgeableEvent> unwritten = new ConcurrentLinkedQueue<>();
+    private final int batchSize;
+    private final long maxLength;
+    private final Map<String, Boolean> hasListeners = new ConcurrentHashMap<>();
+    private final Counter publishedCounter;
+    private final Counter receivedCounter;
+    private final Counter skippedCounter;
+    private final Counter droppedCounter;
+    private final Timer lagTimer;
+    private volatile boolean listenersResolved = false;
+    private volatile boolean running = true;
+    private Thread writer;
+    private StreamMessageListenerContainer<String, MapRecord<String, String, String>> container;
+
+    public RedisStreamEventBridge(RedisConnectionFactory connectionFactory,
+                                  String streamKey,
+                                  ApplicationEventPublisher applicationEventPublisher,
+                                  AbstractApplicationContext applicationContext,
+                                  MeterRegistry meterRegistry,
+                                  int queueSize,
+                                  int batchSize,
+                                  long maxLength) {
+        this.connectionFactory = connectionFactory;
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.streamKey = streamKey;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.applicationContext = applicationContext;
+        this.batchSize = batchSize;
+        this.maxLength = maxLength;
+        outgoing = new ArrayBlockingQueue<>(queueSize);
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        source = "SHINYPROXY_REDIS_BRIDGE/" + UUID.randomUUID();
+
+        publishedCounter = meterRegistry.counter("event_bridge_published");
+        receivedCounter = meterRegistry.counter("event_bridge_received");
+        skippedCounter = meterRegistry.counter("event_bridge_skipped");
+        droppedCounter = meterRegistry.counter("event_bridge_dropped");
+        lagTimer = Timer.builder("event_bridge_lag")
+            .description("Time between adding an event to the stream and processing it on this server")
+            .register(meterRegistry);
+        meterRegistry.gauge("event_bridge_queue_depth", outgoing, BlockingQueue::size);
+    }
+
+    @PostConstruct
+    public void init() {
+        startWriter();
+        startReader();
+    }
+
+    private void startWriter() {
+        writer = new Thread(this::writeEvents, "RedisStreamEventBridge-Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void startReader() {
+        container = StreamMessageListenerContainer.create(connectionFactory,
+            StreamMessageListenerContainer.StreamMessageListenerContainerOptions.builder()
+                .pollTimeout(Duration.ofSeconds(2))
+                .batchSize(batchSize)
+                .build());
+        container.register(StreamMessageListenerContainer.StreamReadRequest
+                .builder(StreamOffset.create(streamKey, ReadOffset.from(getLastId())))
+                // keep reading (from the last processed entry) after a failure, e.g. when Redis is unreachable
+                .cancelOnError(t -> false)
+                .errorHandler(t -> log.warn("Error while reading events from Redis stream: {}", t.getMessage()))
+                .build(),
+            this::onRecord);
+        container.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (container != null) {
+            container.stop();
+        }
+        if (writer != null) {
+            writer.interrupt();
+            try {
+                writer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // write the remaining events (including the batch the writer was processing), since they may be required by
+        // other servers (e.g. a ProxyStopEvent)
+        List<BridgeableEvent> batch = new ArrayList<>(unwritten);
+        outgoing.drainTo(batch);
+        if (!batch.isEmpty()) {
+            try {
+                write(batch);
+            } catch (Exception ex) {
+                log.warn("Error while writing {} events to Redis stream during shutdown", batch.size(), ex);
+            }
+        }
+    }
+
+    @EventListener
+    public void onGenerateEvent(BridgeableEvent event) {
+        if (event.getSource().equals(source)) {
+            return;
+        }
+        if (!outgoing.offer(event.withSource(source))) {
+            droppedCounter.increment();
+            log.warn("Event queue of Redis stream is full, dropping event {}", event.getClass().getSimpleName());
+        }
+    }
+
+    @EventListener
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        // all listeners have been registered
+        hasListeners.clear();
+        listenersResolved = true;
+    }
+
+    private void writeEvents() {
+        List<BridgeableEvent> batch = new ArrayList<>(batchSize);
+        try {
+            while (running) {
+                try {
+                    if (batch.isEmpty()) {
+                        batch.add(outgoing.take());
+                    }
+                    outgoing.drainTo(batch, batchSize - batch.size());
+                    write(batch);
+                    batch.clear();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception ex) {
+                    // keep the batch and retry, while Redis is unreachable new events are buffered in the queue (until it's full)
+                    log.warn("Error while writing {} events to Redis stream, retrying", batch.size(), ex);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            // hand over the batch that was not written, such that it's written by shutdown
+            unwritten.addAll(batch);
+        }
+    }
+
+    private void write(List<BridgeableEvent> batch) throws IOException {
+        List<Map<String, String>> entries = new ArrayList<>(batch.size());
+        for (BridgeableEvent event : batch) {
+            entries.add(Map.of(
+                FIELD_TYPE, event.getClass().getName(),
+                FIELD_SOURCE, source,
+                FIELD_EVENT, objectMapper.writeValueAsString(event)));
+        }
+        RedisStreamCommands.XAddOptions options = RedisStreamCommands.XAddOptions.maxlen(maxLength).approximateTrimming(true);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Map<String, String> entry : entries) {
+                stringConnection.xAdd(StreamRecords.string(entry).withStreamKey(streamKey), options);
+            }
+            return null;
+        });
+        publishedCounter.increment(batch.size());
+    }
+
+    private void onRecord(MapRecord<String, String, String> record) {
+        Map<String, String> value = record.getValue();
+        Long timestamp = record.getId().getTimestamp();
+        if (timestamp != null) {
+            lagTimer.record(Math.max(0, System.currentTimeMillis() - timestamp), TimeUnit.MILLISECONDS);
+        }
+        if (source.equals(value.get(FIELD_SOURCE)) || !hasListeners(value.get(FIELD_TYPE))) {
+            skippedCounter.increment();
+            return;
+        }
+        try {
+            BridgeableEvent incomingEvent = objectMapper.readValue(value.get(FIELD_EVENT), BridgeableEvent.class);
+            receivedCounter.increment();
+            applicationEventPublisher.publishEvent(incomingEvent.withSource(source));
+        } catch (IOException e) {
+            log.error("Error while receiving Redis stream event", e);
+        }
+    }
+
+    /**
+     * @return the id of the last entry in the stream, or "0-0" if the stream is empty
+     */
+    private String getLastId() {
+        List<MapRecord<String, Object, Object>> last = redisTemplate.opsForStream().reverseRange(streamKey, Range.unbounded(), Limit.limit().count(1));
+        if (last == null || last.isEmpty()) {
+            return "0-0";
+        }
+        return last.get(0).getId().getValue();
+    }
+
+    private boolean hasListeners(String type) {
+        if (type == null) {
+            return true;
+        }
+        if (!listenersResolved) {
+            // not all listeners are registered yet
+            return true;
+        }
+        return hasListeners.computeIfAbsent(type, this::resolveHasListeners);
+    }
+
+    private boolean resolveHasListeners(String type) {
+        Class<?> eventClass;
+        try {
+            eventClass = Class.forName(type);
+        } catch (ClassNotFoundException e) {
+            // e.g. an event produced by a newer version
+            return false;
+        }
+        ResolvableType eventType = ResolvableType.forClass(eventClass);
+        Set<ApplicationListener<?>> listeners = new HashSet<>(applicationContext.getApplicationListeners());
+        for (ApplicationListener<?> listener : listeners) {
+            if (listener instanceof ApplicationListenerMethodAdapter adapter
+                && adapter.getListenerId().startsWith(RedisStreamEventBridge.class.getName() + ".")) {
+                // the listener of this bridge receives all events
+                continue;
+            }
+            if (listener instanceof GenericApplicationListener genericListener) {
+                if (genericListener.supportsEventType(eventType)) {
+                    return true;
+                }
+                continue;
+            }
+            ResolvableType listenerType = ResolvableType.forClass(listener.getClass()).as(ApplicationListener.class).getGeneric();
+            if (listenerType == ResolvableType.NONE || listenerType.isAssignableFrom(eventType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -22,23 +22,36 @@ package eu.openanalytics.containerproxy.service;
 
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.store.IProxyStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.util.Objects;
-
+/**
+ * Index to find the proxy of a user by targetId.
+ * The lookup is performed using the (userId, targetId) index maintained by the {@link IProxyStore}.
+ */
 @Component
-public class UserAndTargetIdProxyIndex extends ProxyIdIndex<UserAndTargetIdProxyIndex.UserAndTargetIdKey> {
+public class UserAndTargetIdProxyIndex {
+
+    private final IProxyStore proxyStore;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
 
     public UserAndTargetIdProxyIndex(IProxyStore proxyStore) {
-        super(proxyStore, (key, proxy) -> Objects.equals(proxy.getTargetId(), key.targetId) && Objects.equals(proxy.getUserId(), key.userId));
-        // use Objects.equals because some proxies might not yet be initialized
+        this.proxyStore = proxyStore;
     }
 
     public Proxy getProxy(String userId, String targetId) {
-        return getProxy(userId, new UserAndTargetIdKey(userId, targetId));
-    }
-
-    public record UserAndTargetIdKey(String userId, String targetId) {
+        Proxy proxy = proxyStore.getUserProxyByTargetId(userId, targetId);
+        if (proxy == null) {
+            return null;
+        }
+        // additional defense, but this should never happen, if this happens the index pointed to a wrong proxy
+        if (!userId.equals(proxy.getUserId()) || !targetId.equals(proxy.getTargetId())) {
+            logger.warn("Invalid proxy state for proxyId: {}, userId: {} and targetId: {} do not match expected: {} and {}",
+                proxy.getId(), proxy.getUserId(), proxy.getTargetId(), userId, targetId);
+            return null;
+        }
+        return proxy;
     }
 
 }
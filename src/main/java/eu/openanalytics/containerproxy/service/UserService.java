@@ -190,6 +190,10 @@ public class UserService {
         return accessControlService.canAccess(user, spec);
     }
 
+    public List<ProxySpec> getAccessibleSpecs() {
+        return accessControlService.getAccessibleSpecs(getCurrentAuth());
+    }
+
     public boolean isOwner(Proxy proxy) {
         return isOwner(getCurrentAuth(), proxy);
     }
@@ -201,8 +205,13 @@ public class UserService {
 
     public boolean isMember(Authentication auth, String groupName) {
         if (auth == null || auth instanceof AnonymousAuthenticationToken || groupName == null) return false;
-        for (String group : getGroups(auth)) {
-            if (group.equalsIgnoreCase(groupName)) return true;
+        // same logic as getGroups, but without creating the list of groups on every check
+        for (GrantedAuthority grantedAuth : auth.getAuthorities()) {
+            String authName = grantedAuth.getAuthority();
+            int offset = authName.regionMatches(true, 0, "ROLE_", 0, 5) ? 5 : 0;
+            if (authName.length() - offset == groupName.length() && authName.regionMatches(true, offset, groupName, 0, groupName.length())) {
+                return true;
+            }
         }
         return false;
     }
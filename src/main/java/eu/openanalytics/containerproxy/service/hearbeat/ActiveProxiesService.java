@@ -20,6 +20,9 @@
  */
 package eu.openanalytics.containerproxy.service.hearbeat;
 
+import eu.openanalytics.containerproxy.ProxyActionConflictException;
+import eu.openanalytics.containerproxy.event.ProxyResumeEvent;
+import eu.openanalytics.containerproxy.event.ProxyStartEvent;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
 import eu.openanalytics.containerproxy.model.runtime.runtimevalues.HeartbeatTimeoutKey;
@@ -28,28 +31,48 @@ import eu.openanalytics.containerproxy.service.IProxyReleaseStrategy;
 import eu.openanalytics.containerproxy.service.ProxyService;
 import eu.openanalytics.containerproxy.service.StructuredLogger;
 import eu.openanalytics.containerproxy.service.leader.GlobalEventLoopService;
+import eu.openanalytics.containerproxy.util.ICleanupStoppedProxies;
+import eu.openanalytics.containerproxy.util.ProxyDeadlineIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.env.Environment;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 
 /**
  * Service which 1) keeps track of active proxies by listening for heartbeats (created by {@link HeartbeatService})
  * and 2) kills proxies which where inactive for too long.
+ * Heartbeats are buffered in memory and written to the {@link IHeartbeatStore} once every heartbeat interval,
+ * such that only a single update is made per interval, independent of the number of requests.
+ * The cleanup only checks the proxies of which the (earliest possible) timeout passed, using a {@link ProxyDeadlineIndex}.
+ * Since heartbeats can only postpone the timeout, the index contains a lower bound of the timeout of every proxy:
+ * when a proxy is due, the last heartbeat is checked and the proxy is either released or re-added with its new deadline.
+ * The index is periodically rebuilt from all proxies ({@code proxy.heartbeat-full-scan-interval}), in order to pick up
+ * proxies of which the events were missed.
+ * Proxies which cannot be checked (e.g. because they are not running or another action is in progress) are checked again
+ * during the next cleanup.
  */
-public class ActiveProxiesService implements IHeartbeatProcessor {
+public class ActiveProxiesService implements IHeartbeatProcessor, ICleanupStoppedProxies {
 
     public static final String PROP_RATE = "proxy.heartbeat-rate";
     public static final Long DEFAULT_RATE = 10000L;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final StructuredLogger slog = new StructuredLogger(log);
+    private final HeartbeatBuffer heartbeatBuffer = new HeartbeatBuffer();
+    private final Timer timer = new Timer();
+    private final ProxyDeadlineIndex timeoutIndex = new ProxyDeadlineIndex();
+    private long fullScanInterval;
+    private long nextFullScan = 0;
+    private long cleanupInterval;
 
     @Inject
     protected IHeartbeatStore heartbeatStore;
@@ -68,13 +91,27 @@ public class ActiveProxiesService implements IHeartbeatProcessor {
 
     @PostConstruct
     public void init() {
-        long cleanupInterval = 2 * environment.getProperty(PROP_RATE, Long.class, DEFAULT_RATE);
-        new Timer().schedule(new TimerTask() {
+        long heartbeatRate = environment.getProperty(PROP_RATE, Long.class, DEFAULT_RATE);
+        cleanupInterval = 2 * heartbeatRate;
+        fullScanInterval = environment.getProperty("proxy.heartbeat-full-scan-interval", Long.class, 600_000L);
+        timer.schedule(new TimerTask() {
             @Override
             public void run() {
-                globalEventLoop.schedule(ActiveProxiesService.this::performCleanup);
+                globalEventLoop.scheduleDeduplicated("ActiveProxiesService", "cleanup", ActiveProxiesService.this::performCleanup);
             }
         }, cleanupInterval, cleanupInterval);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                flushHeartbeats();
+            }
+        }, heartbeatRate, heartbeatRate);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.cancel();
+        flushHeartbeats();
     }
 
     @Override
@@ -84,22 +121,95 @@ public class ActiveProxiesService implements IHeartbeatProcessor {
             // ignore heartbeat, since the associated proxyId is unreliable (#32088)
             return;
         }
-        heartbeatStore.update(proxy.getId(), System.currentTimeMillis());
+        heartbeatBuffer.add(proxy.getId(), System.currentTimeMillis());
     }
 
     public Long getLastHeartBeat(String proxyId) {
-        return heartbeatStore.get(proxyId);
+        Long buffered = heartbeatBuffer.get(proxyId);
+        Long stored = heartbeatStore.get(proxyId);
+        if (buffered == null) {
+            return stored;
+        }
+        if (stored == null) {
+            return buffered;
+        }
+        return Math.max(buffered, stored);
+    }
+
+    public HeartbeatBuffer getHeartbeatBuffer() {
+        return heartbeatBuffer;
+    }
+
+    @Override
+    public void cleanupProxy(String proxyId) {
+        heartbeatBuffer.remove(proxyId);
+        timeoutIndex.remove(proxyId);
+    }
+
+    @EventListener
+    public void onProxyStartEvent(ProxyStartEvent event) {
+        // the proxy is checked (and added with its real deadline) during the next cleanup
+        timeoutIndex.update(event.getProxyId(), System.currentTimeMillis());
+    }
+
+    @EventListener
+    public void onProxyResumeEvent(ProxyResumeEvent event) {
+        timeoutIndex.update(event.getProxyId(), System.currentTimeMillis());
+    }
+
+    private void flushHeartbeats() {
+        Map<String, Long> heartbeats = heartbeatBuffer.drain();
+        if (heartbeats.isEmpty()) {
+            return;
+        }
+        try {
+            heartbeatStore.update(heartbeats);
+            heartbeatBuffer.flushed(heartbeats.size());
+            if (log.isDebugEnabled()) log.debug("Flushed {} heartbeats", heartbeats.size());
+        } catch (Exception ex) {
+            // keep the heartbeats, so they are written during the next flush
+            heartbeatBuffer.restore(heartbeats);
+            log.warn("Error while flushing heartbeats", ex);
+        }
     }
 
     private void performCleanup() {
         long currentTimestamp = System.currentTimeMillis();
-        for (Proxy proxy : proxyService.getAllProxies()) {
+        if (currentTimestamp >= nextFullScan) {
+            // (re-)build the index, e.g. the first time this server is the leader
+            nextFullScan = currentTimestamp + fullScanInterval;
+            timeoutIndex.clear();
+            for (Proxy proxy : proxyService.getAllProxies()) {
+                checkProxy(currentTimestamp, proxy);
+            }
+            return;
+        }
+        for (String proxyId : timeoutIndex.pollExpired(currentTimestamp)) {
+            Proxy proxy = proxyService.getProxy(proxyId);
+            if (proxy != null) {
+                checkProxy(currentTimestamp, proxy);
+            }
+        }
+    }
+
+    private void checkProxy(long currentTimestamp, Proxy proxy) {
+        // the proxy is already removed from the index, therefore it must be re-added when it cannot be checked now
+        try {
             checkAndReleaseProxy(currentTimestamp, proxy);
+        } catch (ProxyActionConflictException ex) {
+            slog.debug(proxy, "Cannot release inactive proxy yet, since another action is in progress");
+            timeoutIndex.update(proxy.getId(), currentTimestamp + cleanupInterval);
+        } catch (Exception ex) {
+            slog.warn(proxy, ex, "Error while checking whether proxy is inactive");
+            timeoutIndex.update(proxy.getId(), currentTimestamp + cleanupInterval);
         }
     }
 
     private void checkAndReleaseProxy(long currentTimestamp, Proxy proxy) {
         if (proxy.getStatus() != ProxyStatus.Up) {
+            // e.g. the proxy is starting, pausing or resuming: check again during the next cleanup (a stopped proxy
+            // is removed from the index by cleanupProxy)
+            timeoutIndex.update(proxy.getId(), currentTimestamp + cleanupInterval);
             return;
         }
 
@@ -110,7 +220,7 @@ public class ActiveProxiesService implements IHeartbeatProcessor {
             return;
         }
 
-        Long lastHeartbeat = heartbeatStore.get(proxy.getId());
+        Long lastHeartbeat = getLastHeartBeat(proxy.getId());
         if (lastHeartbeat == null) {
             lastHeartbeat = proxy.getStartupTimestamp();
         }
@@ -119,6 +229,10 @@ public class ActiveProxiesService implements IHeartbeatProcessor {
         if (proxySilence > heartbeatTimeout) {
             slog.info(proxy, String.format("Releasing inactive proxy [silence: %dms]", proxySilence));
             releaseStrategy.releaseProxy(proxy);
+            // check again in case the proxy is not stopped (the ProxyStopEvent removes it from the index)
+            timeoutIndex.update(proxy.getId(), currentTimestamp + heartbeatTimeout);
+        } else {
+            timeoutIndex.update(proxy.getId(), lastHeartbeat + heartbeatTimeout + 1);
         }
     }
 
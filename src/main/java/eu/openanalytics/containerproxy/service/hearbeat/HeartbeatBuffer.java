@@ -0,0 +1,107 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.service.hearbeat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Buffer which coalesces heartbeats: only the latest timestamp of every key (e.g. a proxyId or sessionId) is kept
+ * until the buffer is drained. This makes it possible to process heartbeats once per interval, instead of once per
+ * HTTP request or websocket pong.
+ * The number of entries is bounded by the number of distinct keys (i.e. the number of proxies or sessions).
+ */
+public class HeartbeatBuffer {
+
+    private final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+
+    public void add(String key, long timestamp) {
+        pending.compute(key, (k, existing) -> {
+            if (existing == null) {
+                return timestamp;
+            }
+            coalesced.increment();
+            return Math.max(existing, timestamp);
+        });
+    }
+
+    /**
+     * @return the latest timestamp of the given key which was not yet drained from the buffer, or null
+     */
+    public Long get(String key) {
+        return pending.get(key);
+    }
+
+    /**
+     * Removes all pending heartbeats from the buffer.
+     * Heartbeats received while draining, are either part of the result or kept for the next drain.
+     * The caller must call {@link #flushed(int)} once the heartbeats are processed, or {@link #restore(Map)} on failure.
+     *
+     * @return the latest timestamp for every key
+     */
+    public Map<String, Long> drain() {
+        Map<String, Long> res = new HashMap<>();
+        for (String key : pending.keySet()) {
+            Long timestamp = pending.remove(key);
+            if (timestamp != null) {
+                res.put(key, timestamp);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Marks the given number of drained heartbeats as successfully processed.
+     */
+    public void flushed(int count) {
+        flushed.add(count);
+    }
+
+    /**
+     * Re-adds heartbeats which could not be processed (e.g. because of a failure), so they are part of the next drain.
+     */
+    public void restore(Map<String, Long> heartbeats) {
+        heartbeats.forEach((key, timestamp) -> pending.merge(key, timestamp, Math::max));
+    }
+
+    public void remove(String key) {
+        pending.remove(key);
+    }
+
+    /**
+     * @return the number of heartbeats that were merged into a pending heartbeat of the same key
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return the number of heartbeats that were drained from this buffer and successfully processed
+     */
+    public long getFlushedCount() {
+        return flushed.sum();
+    }
+
+}
@@ -29,15 +29,14 @@ import eu.openanalytics.containerproxy.service.session.ISessionService;
 import eu.openanalytics.containerproxy.util.ChannelActiveListener;
 import eu.openanalytics.containerproxy.util.DelegatingStreamSinkConduit;
 import eu.openanalytics.containerproxy.util.DelegatingStreamSourceConduit;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.protocol.http.HttpServerConnection;
-import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.env.Environment;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.security.web.session.HttpSessionDestroyedEvent;
 import org.xnio.StreamConnection;
 import org.xnio.conduits.ConduitStreamSinkChannel;
@@ -45,14 +44,12 @@ import org.xnio.conduits.ConduitStreamSourceChannel;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
 
 public class HeartbeatService {
 
@@ -62,23 +59,40 @@ public class HeartbeatService {
 
     private final Logger log = LogManager.getLogger(HeartbeatService.class);
 
-    private final ThreadFactory threadFactory = new BasicThreadFactory.Builder().namingPattern("HeartbeatService-%d").build();
-    private final ScheduledExecutorService heartbeatExecutor = Executors.newScheduledThreadPool(8, threadFactory);
     private final List<IHeartbeatProcessor> heartbeatProcessors;
     // keep track of the HeartbeatConnector for every SessionId so that the websocket connection can be closed
     // when the user logs out from that session. This is required for apps that keep running even if when the user signs out.
     private final ListMultimap<String, HeartbeatConnector> heartbeatConnectors = Multimaps.synchronizedListMultimap(ArrayListMultimap.create());
     private final ListMultimap<String, HeartbeatConnector> heartbeatConnectorsByProxyId = Multimaps.synchronizedListMultimap(ArrayListMultimap.create());
     private final Long heartbeatRate;
+    private final long timerWheelTick;
+    private final int timerWheelSize;
+    // all websocket pings (and the delayed wrapping of the channels) are scheduled on this wheel, the pings itself are
+    // written on the I/O thread of the connection
+    private HeartbeatTimerWheel timerWheel;
     @Inject
     private ISessionService sessionService;
     @Inject
+    private MeterRegistry meterRegistry;
+    @Inject
     @Lazy
     private HeartbeatService self;
 
     public HeartbeatService(List<IHeartbeatProcessor> heartbeatProcessors, Environment environment) {
         this.heartbeatProcessors = heartbeatProcessors;
         heartbeatRate = environment.getProperty(ActiveProxiesService.PROP_RATE, Long.class, ActiveProxiesService.DEFAULT_RATE);
+        timerWheelTick = environment.getProperty("proxy.heartbeat-timer-tick", Long.class, 100L);
+        timerWheelSize = environment.getProperty("proxy.heartbeat-timer-size", Integer.class, 512);
+    }
+
+    @PostConstruct
+    public void init() {
+        timerWheel = new HeartbeatTimerWheel("HeartbeatService-TimerWheel", timerWheelTick, timerWheelSize, meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timerWheel.stop();
     }
 
     public void attachHeartbeatChecker(HttpServerExchange exchange, Proxy proxy) {
@@ -86,9 +100,9 @@ public class HeartbeatService {
             // For websockets, attach a ping-pong listener to the underlying TCP channel.
             String sessionId = sessionService.extractSessionIdFromExchange(exchange);
             HttpServerConnection httpConn = (HttpServerConnection) exchange.getConnection();
-            HeartbeatConnector connector = new HeartbeatConnector(proxy, sessionId, httpConn.getChannel());
+            HeartbeatConnector connector = new HeartbeatConnector(proxy, sessionId, httpConn);
             // Delay the wrapping, because Undertow will make changes to the channel while the upgrade is being performed.
-            heartbeatExecutor.schedule(() -> connector.wrapChannels(httpConn.getChannel()), 3000, TimeUnit.MILLISECONDS);
+            timerWheel.schedule(connector, 3000);
             heartbeatConnectors.put(sessionId, connector);
             heartbeatConnectorsByProxyId.put(proxy.getId(), connector);
         } else {
@@ -98,14 +112,12 @@ public class HeartbeatService {
     }
 
     /**
-     * Indicates that a heartbeat was received. This method is made async because this method will be called for every
-     * HTTP request and every Websocket ping/pong. Both the {@link ActiveProxiesService} and {@link SessionReActivatorService}
-     * can make requests to the Redis backend (either for updating the session or for updating the timestamp of active session).
-     * By making this method async, we prevent that (proxied!) HTTP requests are blocked on calls to Redis.
-     * This method uses the taskExecutor bean defined in {@link eu.openanalytics.containerproxy.ContainerProxyApplication}
-     * in order to execute the tasks.
+     * Indicates that a heartbeat was received. This method will be called for every HTTP request and every Websocket ping/pong,
+     * therefore it is not async: the {@link IHeartbeatProcessor}s only record the heartbeat in memory (see {@link HeartbeatBuffer}).
+     * Both the {@link ActiveProxiesService} and {@link SessionReActivatorService} make requests to the Redis backend
+     * (either for updating the session or for updating the timestamp of active session) once per heartbeat interval.
+     * This prevents that (proxied!) HTTP requests are blocked on calls to Redis, without occupying the taskExecutor.
      */
-    @Async
     public void heartbeatReceived(@Nonnull HeartbeatService.HeartbeatSource heartbeatSource, @Nonnull Proxy proxy, @Nullable String sessionId) {
         for (IHeartbeatProcessor heartbeatProcessor : heartbeatProcessors) {
             heartbeatProcessor.heartbeatReceived(heartbeatSource, proxy, sessionId);
@@ -172,22 +184,46 @@ public class HeartbeatService {
         FALLBACK
     }
 
-    private class HeartbeatConnector {
+    private class HeartbeatConnector extends HeartbeatTimerWheel.Timeout {
 
         private final Proxy proxy;
 
         private final String sessionId;
 
-        private StreamConnection streamConnection;
+        private final ChannelActiveListener writeListener = new ChannelActiveListener();
+
+        // created once, such that (re-)scheduling a ping does not allocate
+        private final Runnable wrapChannelsTask = this::wrapChannels;
+
+        private final Runnable sendPingTask = this::sendPing;
+
+        private final HttpServerConnection httpConn;
 
-        private HeartbeatConnector(Proxy proxyId, String sessionId, StreamConnection streamConnection) {
+        private volatile StreamConnection streamConnection;
+
+        private volatile boolean wrapped = false;
+
+        private HeartbeatConnector(Proxy proxyId, String sessionId, HttpServerConnection httpConn) {
             this.proxy = proxyId;
             this.sessionId = sessionId;
-            this.streamConnection = streamConnection;
+            this.httpConn = httpConn;
+            this.streamConnection = httpConn.getChannel();
             streamConnection.setCloseListener((connection) -> onConnectionClosed(this));
         }
 
-        private void wrapChannels(StreamConnection streamConn) {
+        @Override
+        protected void expire() {
+            StreamConnection streamConn = streamConnection;
+            if (!streamConn.isOpen()) {
+                onConnectionClosed(this);
+                return;
+            }
+            // the wheel only dispatches, the channel is accessed from its own I/O thread
+            streamConn.getIoThread().execute(wrapped ? sendPingTask : wrapChannelsTask);
+        }
+
+        private void wrapChannels() {
+            StreamConnection streamConn = httpConn.getChannel();
             if (!streamConn.isOpen()) {
                 onConnectionClosed(this);
                 return;
@@ -195,7 +231,6 @@ public class HeartbeatService {
             this.streamConnection = streamConn; // save final streamConnection
 
             ConduitStreamSinkChannel sinkChannel = streamConn.getSinkChannel();
-            ChannelActiveListener writeListener = new ChannelActiveListener();
             DelegatingStreamSinkConduit conduitWrapper = new DelegatingStreamSinkConduit(sinkChannel.getConduit(), writeListener);
             sinkChannel.setConduit(conduitWrapper);
 
@@ -203,16 +238,18 @@ public class HeartbeatService {
             DelegatingStreamSourceConduit srcConduitWrapper = new DelegatingStreamSourceConduit(sourceChannel.getConduit(), this::checkPong);
             sourceChannel.setConduit(srcConduitWrapper);
 
-            heartbeatExecutor.schedule(() -> sendPing(writeListener, streamConn), getHeartbeatRate(), TimeUnit.MILLISECONDS);
+            wrapped = true;
+            timerWheel.schedule(this, getHeartbeatRate());
         }
 
-        private void sendPing(ChannelActiveListener writeListener, StreamConnection streamConn) {
+        private void sendPing() {
+            StreamConnection streamConn = streamConnection;
             if (writeListener.isActive(getHeartbeatRate())) {
                 // active means that data was written to the channel in the least heartbeat interval
                 // therefore we don't send a ping now to not cause collisions
 
                 // reschedule ping
-                heartbeatExecutor.schedule(() -> sendPing(writeListener, streamConn), getHeartbeatRate(), TimeUnit.MILLISECONDS);
+                timerWheel.schedule(this, getHeartbeatRate());
                 // mark as we received a heartbeat
                 self.heartbeatReceived(HeartbeatSource.WEBSOCKET_PONG, proxy, sessionId);
                 return;
@@ -229,7 +266,7 @@ public class HeartbeatService {
                 // Ignore failure, keep trying as long as the stream connection is valid.
             }
 
-            heartbeatExecutor.schedule(() -> sendPing(writeListener, streamConn), getHeartbeatRate(), TimeUnit.MILLISECONDS);
+            timerWheel.schedule(this, getHeartbeatRate());
         }
 
         private void checkPong(byte[] response) {
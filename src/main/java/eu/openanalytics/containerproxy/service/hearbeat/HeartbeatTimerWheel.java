@@ -0,0 +1,183 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.service.hearbeat;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel (similar to Netty's HashedWheelTimer) used to schedule the heartbeats of websocket connections.
+ * A single thread advances the wheel every tick and expires all timeouts of the current bucket in one batch.
+ * Compared to a {@link java.util.concurrent.ScheduledExecutorService}, scheduling a timeout is O(1) and does not
+ * allocate: a {@link Timeout} can be re-scheduled after it expired.
+ * <p>
+ * Timeouts should be short-running, since they are executed on the thread of the wheel, see {@link Timeout#expire()}.
+ */
+public class HeartbeatTimerWheel {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final long tickNanos;
+    private final long startTime;
+    // only accessed by the thread of the wheel
+    private final Queue<Timeout>[] buckets;
+    private final int mask;
+    // timeouts scheduled since the last tick, these are added to the buckets by the thread of the wheel
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private final Timer tickTimer;
+    private final DistributionSummary timeoutsPerTick;
+    private volatile boolean running = true;
+    private long tick = 0;
+
+    /**
+     * @param name          the name of the thread of the wheel
+     * @param tickMs        the duration of a tick (i.e. the precision of the timer)
+     * @param ticksPerWheel the number of buckets of the wheel (rounded up to a power of two)
+     * @param registry      registry used for the {@code heartbeat_wheel_tick} and {@code heartbeat_wheel_timeouts_per_tick} metrics
+     */
+    public HeartbeatTimerWheel(String name, long tickMs, int ticksPerWheel, MeterRegistry registry) {
+        if (tickMs <= 0) {
+            throw new IllegalArgumentException("tickMs must be greater than 0");
+        }
+        int size = Integer.highestOneBit(Math.max(ticksPerWheel, 1) - 1) << 1;
+        if (size <= 0) {
+            size = 1;
+        }
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        @SuppressWarnings("unchecked")
+        Queue<Timeout>[] wheel = (Queue<Timeout>[]) new Queue<?>[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        buckets = wheel;
+        mask = size - 1;
+        tickTimer = Timer.builder("heartbeat_wheel_tick")
+            .description("Time spent processing a single tick of the heartbeat timer wheel")
+            .register(registry);
+        timeoutsPerTick = DistributionSummary.builder("heartbeat_wheel_timeouts_per_tick")
+            .description("Number of websocket connectors processed in a single tick of the heartbeat timer wheel")
+            .register(registry);
+        startTime = System.nanoTime();
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Schedules the timeout. A timeout may only be scheduled once at a time, i.e. it may only be re-scheduled
+     * after (or while) it expired.
+     *
+     * @param timeout the timeout
+     * @param delayMs the delay after which the timeout expires
+     */
+    public void schedule(Timeout timeout, long delayMs) {
+        timeout.deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        pending.add(timeout);
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            if (!waitForNextTick()) {
+                return;
+            }
+            long start = System.nanoTime();
+            transferPending();
+            int expired = expireBucket(buckets[(int) (tick & mask)]);
+            tick++;
+            tickTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            timeoutsPerTick.record(expired);
+        }
+    }
+
+    private boolean waitForNextTick() {
+        long deadline = (tick + 1) * tickNanos;
+        while (true) {
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos <= 0) {
+                return true;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            long deadlineTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (deadlineTick - tick) / buckets.length;
+            // timeouts of which the deadline already passed, are expired in the current tick
+            buckets[(int) (Math.max(deadlineTick, tick) & mask)].add(timeout);
+        }
+    }
+
+    private int expireBucket(Queue<Timeout> bucket) {
+        int expired = 0;
+        for (int i = bucket.size(); i > 0; i--) {
+            Timeout timeout = bucket.poll();
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                bucket.add(timeout);
+                continue;
+            }
+            expired++;
+            try {
+                timeout.expire();
+            } catch (Throwable t) {
+                logger.warn("Error while expiring heartbeat timeout", t);
+            }
+        }
+        return expired;
+    }
+
+    public abstract static class Timeout {
+
+        // only accessed by the thread scheduling the timeout and (after the pending queue) by the thread of the wheel
+        private long deadline;
+        private long remainingRounds;
+
+        /**
+         * Called by the thread of the wheel when the timeout expired, must not block.
+         */
+        protected abstract void expire();
+
+    }
+
+}
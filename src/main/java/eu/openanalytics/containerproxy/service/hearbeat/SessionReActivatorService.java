@@ -22,28 +22,75 @@ package eu.openanalytics.containerproxy.service.hearbeat;
 
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.service.session.ISessionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * Service which updates the "last active time" of a Session when an Websocket heartbeat is received.
  * The idea is to extend the lifetime of these session whenever a websocket connection related to that session is active.
+ * Heartbeats are coalesced per session and processed once every heartbeat interval.
  */
 @Service
 public class SessionReActivatorService implements IHeartbeatProcessor {
 
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final HeartbeatBuffer heartbeatBuffer = new HeartbeatBuffer();
+    private final Timer timer = new Timer();
+
     @Inject
     private ISessionService sessionService;
 
+    @Inject
+    private Environment environment;
+
+    @PostConstruct
+    public void init() {
+        long heartbeatRate = environment.getProperty(ActiveProxiesService.PROP_RATE, Long.class, ActiveProxiesService.DEFAULT_RATE);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                flushHeartbeats();
+            }
+        }, heartbeatRate, heartbeatRate);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.cancel();
+        flushHeartbeats();
+    }
+
     @Override
     public void heartbeatReceived(@Nonnull HeartbeatService.HeartbeatSource heartbeatSource, @Nonnull Proxy proxy, @Nullable String sessionId) {
         if (heartbeatSource != HeartbeatService.HeartbeatSource.WEBSOCKET_PONG || sessionId == null) {
             return;
         }
 
-        sessionService.reActivateSession(sessionId);
+        heartbeatBuffer.add(sessionId, System.currentTimeMillis());
+    }
+
+    public HeartbeatBuffer getHeartbeatBuffer() {
+        return heartbeatBuffer;
+    }
+
+    private void flushHeartbeats() {
+        for (String sessionId : heartbeatBuffer.drain().keySet()) {
+            try {
+                sessionService.reActivateSession(sessionId);
+                heartbeatBuffer.flushed(1);
+            } catch (Exception ex) {
+                log.warn("Error while re-activating session", ex);
+            }
+        }
     }
 }
@@ -20,59 +20,242 @@
  */
 package eu.openanalytics.containerproxy.service.leader;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service used to run background processing on a single server, determined by the {@link ILeaderService}.
  * This implies that the processing always happens on a single server running the latest configuration.
  *
+ * Every task has a key (e.g. the id of a spec): tasks with the same key are executed one after the other (in the order
+ * they were scheduled), tasks with a different key are executed in parallel on a bounded pool of threads
+ * ({@code proxy.global-event-loop.threads}). Tasks scheduled without a key all use the same (global) key.
+ * The queue (and metrics) of a key only exist while tasks of that key are waiting or running.
+ *
  * This unrelated to events send within or between servers. This only acts as an eventloop.
  */
 @Service
 public class GlobalEventLoopService {
 
-    private final LinkedBlockingQueue<Callback> channel = new LinkedBlockingQueue<>();
+    public static final String GLOBAL_KEY = "global";
+    /**
+     * Key shared by the tasks that check and change whether this server takes part in the leader election.
+     */
+    public static final String LEADERSHIP_KEY = "leadership";
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final ILeaderService leaderService;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, KeyQueue> queues = new ConcurrentHashMap<>();
 
-    public GlobalEventLoopService(ILeaderService leaderService) {
-        Thread eventProcessor = new Thread(() -> {
-            while (true) {
-                try {
-                    Callback event = channel.take();
-                    try {
-                        logger.debug("Processing event");
-
-                        if (event.onlyIfLeader && !leaderService.isLeader()) {
-                            // not the leader -> ignore events send to this channel
-                            continue;
-                        }
-
-                        event.callback.run();
-                    } catch (Exception ex) {
-                        logger.error("Error while processing event in the GlobalEventLoop {}: ", event, ex);
-                    }
-                } catch (InterruptedException e) {
-                    break;
-                }
-            }
-        }, "GlobalEventLoop");
-        eventProcessor.setDaemon(true);
-        eventProcessor.start();
+    public GlobalEventLoopService(ILeaderService leaderService, MeterRegistry meterRegistry, Environment environment) {
+        this.leaderService = leaderService;
+        this.meterRegistry = meterRegistry;
+        int threads = environment.getProperty("proxy.global-event-loop.threads", Integer.class, 4);
+        executor = Executors.newFixedThreadPool(threads, new BasicThreadFactory.Builder()
+            .namingPattern("GlobalEventLoop-%d")
+            .daemon(true)
+            .build());
     }
 
     public void schedule(Runnable runnable) {
-        channel.add(new Callback(runnable, true));
+        schedule(GLOBAL_KEY, runnable, true);
     }
 
     public void schedule(Runnable runnable, boolean onlyIfLeader) {
-        channel.add(new Callback(runnable, onlyIfLeader));
+        schedule(GLOBAL_KEY, runnable, onlyIfLeader);
+    }
+
+    public void schedule(String key, Runnable runnable) {
+        schedule(key, runnable, true);
+    }
+
+    public void schedule(String key, Runnable runnable, boolean onlyIfLeader) {
+        add(key, new Callback(runnable, onlyIfLeader, null, System.nanoTime()));
+    }
+
+    /**
+     * Schedules a task (only executed if this server is the leader), unless a task with the same key and name is
+     * still waiting to be executed, in which case that task is moved to the end of the queue. Useful for tasks that
+     * (re-)compute the full state, e.g. a reconcile loop: scheduling it multiple times before it started has no
+     * additional effect.
+     * Note: a task that is already running, does not prevent the task from being scheduled again.
+     *
+     * @param key      the key of the task
+     * @param name     the name of the task, unique within the key
+     * @param runnable the task
+     */
+    public void scheduleDeduplicated(String key, String name, Runnable runnable) {
+        add(key, new Callback(runnable, true, name, System.nanoTime()));
+    }
+
+    /**
+     * Schedules a task (always executed, even if this server is not the leader) that runs once all tasks that are
+     * currently scheduled, using any key, have finished. Tasks scheduled after this call may run before the task.
+     * Useful to release the leadership only after the processing started as leader has finished.
+     *
+     * @param key      the key of the task
+     * @param runnable the task
+     */
+    public void scheduleAfterAll(String key, Runnable runnable) {
+        List<String> keys = List.copyOf(queues.keySet());
+        if (keys.isEmpty()) {
+            schedule(key, runnable, false);
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(keys.size());
+        for (String otherKey : keys) {
+            // tasks of a key are executed in order, therefore this marker runs after all tasks currently scheduled for the key
+            schedule(otherKey, () -> {
+                if (remaining.decrementAndGet() == 0) {
+                    schedule(key, runnable, false);
+                }
+            }, false);
+        }
+    }
+
+    private void add(String key, Callback callback) {
+        while (!queues.computeIfAbsent(key, KeyQueue::new).add(callback)) {
+            // the queue was removed after it drained, retry using a new queue
+        }
     }
 
-    private record Callback(Runnable callback, boolean onlyIfLeader) {
+    private record Callback(Runnable callback, boolean onlyIfLeader, String name, long scheduledAt) {
+
+    }
+
+    /**
+     * The tasks of a single key. At most one task of a key is submitted to the executor at any time, after a task
+     * finished, the next task of the key is submitted (such that keys are processed in a round-robin fashion).
+     */
+    private class KeyQueue {
+
+        private final String key;
+        private final ArrayDeque<Callback> tasks = new ArrayDeque<>();
+        // names of the deduplicated tasks that are waiting in the queue
+        private final Set<String> pendingNames = new HashSet<>();
+        private final Timer latencyTimer;
+        private final Gauge queueDepthGauge;
+        private boolean running = false;
+        private boolean removed = false;
+
+        private KeyQueue(String key) {
+            this.key = key;
+            latencyTimer = Timer.builder("global_event_loop_task_latency")
+                .description("Time between scheduling a task in the global event loop and the start of the task")
+                .tag("key", key)
+                .register(meterRegistry);
+            queueDepthGauge = Gauge.builder("global_event_loop_queue_depth", this, KeyQueue::size)
+                .description("Number of tasks waiting in the global event loop")
+                .tag("key", key)
+                .register(meterRegistry);
+        }
+
+        private synchronized int size() {
+            return tasks.size();
+        }
+
+        /**
+         * @return false if the queue was already removed, in which case the task was not added
+         */
+        private boolean add(Callback callback) {
+            synchronized (this) {
+                if (removed) {
+                    return false;
+                }
+                if (callback.name != null && !pendingNames.add(callback.name)) {
+                    // an identical task is still waiting: move it to the end of the queue, such that it still runs after
+                    // all tasks scheduled before this call
+                    Callback pending = removePending(callback.name);
+                    tasks.add(new Callback(callback.callback, callback.onlyIfLeader, callback.name, pending.scheduledAt));
+                    return true;
+                }
+                tasks.add(callback);
+                if (running) {
+                    return true;
+                }
+                running = true;
+            }
+            executor.execute(this::runNext);
+            return true;
+        }
+
+        /**
+         * Removes the queue and its meters, must be called while holding the lock and after the last task finished.
+         * The meters are removed before the queue, such that a new queue of the same key registers new meters.
+         */
+        private void remove() {
+            running = false;
+            removed = true;
+            meterRegistry.remove(latencyTimer);
+            meterRegistry.remove(queueDepthGauge);
+            queues.remove(key, this);
+        }
+
+        private Callback removePending(String name) {
+            Iterator<Callback> it = tasks.iterator();
+            while (it.hasNext()) {
+                Callback callback = it.next();
+                if (name.equals(callback.name)) {
+                    it.remove();
+                    return callback;
+                }
+            }
+            throw new IllegalStateException("Pending task not found in queue");
+        }
+
+        private void runNext() {
+            Callback callback;
+            synchronized (this) {
+                callback = tasks.poll();
+                if (callback == null) {
+                    remove();
+                    return;
+                }
+                if (callback.name != null) {
+                    pendingNames.remove(callback.name);
+                }
+            }
+            try {
+                latencyTimer.record(System.nanoTime() - callback.scheduledAt, TimeUnit.NANOSECONDS);
+                logger.debug("Processing event [key: {}]", key);
+                if (!callback.onlyIfLeader || leaderService.isLeader()) {
+                    // if not the leader -> ignore events send to this channel
+                    callback.callback.run();
+                }
+            } catch (Exception ex) {
+                logger.error("Error while processing event in the GlobalEventLoop {}: ", callback, ex);
+            } finally {
+                boolean hasNext;
+                synchronized (this) {
+                    hasNext = !tasks.isEmpty();
+                    if (!hasNext) {
+                        remove();
+                    }
+                }
+                if (hasNext) {
+                    executor.execute(this::runNext);
+                }
+            }
+        }
 
     }
 
@@ -42,8 +42,8 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * Checks whether this server is running the latest configuration, in order to determine whether to take part in the leader election.
- * The checks are scheduled on the {@link GlobalEventLoopService} such that all background processing has finished when this server
- * stops being the leader.
+ * The checks are scheduled on the {@link GlobalEventLoopService} using {@link GlobalEventLoopService#LEADERSHIP_KEY}. The leadership
+ * is only released once all background processing scheduled before (using any key, e.g. the ProxySharingScaler of a spec) has finished.
  */
 public class RedisCheckLatestConfigService {
 
@@ -90,7 +90,7 @@ public class RedisCheckLatestConfigService {
 
     @Scheduled(fixedDelay = 20, timeUnit = TimeUnit.SECONDS)
     public void schedule() {
-        globalEventLoop.schedule(this::check);
+        globalEventLoop.scheduleDeduplicated(GlobalEventLoopService.LEADERSHIP_KEY, "check", this::check);
     }
 
     public boolean check() {
@@ -125,14 +125,18 @@ public class RedisCheckLatestConfigService {
                     Thread.sleep(25_000);
                 } catch (InterruptedException ignored) {
                 }
-                lockRegistryLeaderInitiator.destroy();
+                releaseLeadership();
             });
             thread.start();
         } else {
-            lockRegistryLeaderInitiator.destroy();
+            releaseLeadership();
         }
     }
 
+    private void releaseLeadership() {
+        globalEventLoop.scheduleAfterAll(GlobalEventLoopService.LEADERSHIP_KEY, lockRegistryLeaderInitiator::destroy);
+    }
+
     private static class VersionChecker implements SessionCallback<Optional<Boolean>> {
 
         private final String key;
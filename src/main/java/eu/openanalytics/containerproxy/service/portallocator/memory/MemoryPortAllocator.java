@@ -23,38 +23,41 @@ package eu.openanalytics.containerproxy.service.portallocator.memory;
 import eu.openanalytics.containerproxy.ContainerProxyException;
 import eu.openanalytics.containerproxy.service.portallocator.IPortAllocator;
 
-import java.util.Collection;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public class MemoryPortAllocator implements IPortAllocator {
 
+    // owner -> allocated ports
     private final HashMap<String, HashSet<Integer>> ports = new HashMap<>();
+    // bit i is set if port i is allocated
+    private final BitSet allocated = new BitSet();
 
     @Override
     public synchronized Integer allocate(int rangeFrom, int rangeTo, String ownerId) {
-        Set<Integer> allocated = ports.values().stream().flatMap(Collection::stream).collect(Collectors.toSet());
-        int nextPort = rangeFrom;
-        while (allocated.contains(nextPort)) nextPort++;
+        int nextPort = allocated.nextClearBit(rangeFrom);
         if (rangeTo > 0 && nextPort > rangeTo) {
             throw new ContainerProxyException("Cannot create container: all allocated ports are currently in use. Please try again later or contact an administrator.");
         }
-        ports.putIfAbsent(ownerId, new HashSet<>());
-        ports.get(ownerId).add(nextPort);
+        allocated.set(nextPort);
+        ports.computeIfAbsent(ownerId, k -> new HashSet<>()).add(nextPort);
         return nextPort;
     }
 
     @Override
     public synchronized void addExistingPort(String ownerId, int port) {
-        ports.putIfAbsent(ownerId, new HashSet<>());
-        ports.get(ownerId).add(port);
+        allocated.set(port);
+        ports.computeIfAbsent(ownerId, k -> new HashSet<>()).add(port);
     }
 
     @Override
     public synchronized void release(String ownerId) {
-        ports.remove(ownerId);
+        HashSet<Integer> ownedPorts = ports.remove(ownerId);
+        if (ownedPorts != null) {
+            ownedPorts.forEach(allocated::clear);
+        }
     }
 
     @Override
@@ -23,67 +23,105 @@ package eu.openanalytics.containerproxy.service.portallocator.redis;
 import eu.openanalytics.containerproxy.ContainerProxyException;
 import eu.openanalytics.containerproxy.service.IdentifierService;
 import eu.openanalytics.containerproxy.service.portallocator.IPortAllocator;
-import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.core.HashOperations;
-import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 
-import javax.annotation.Nonnull;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+/**
+ * Port allocator which stores the allocated ports in Redis.
+ * The allocated ports are stored in a bitmap (one bit per port), next to a hash which maps the owner to its ports.
+ * Ports are allocated and released using Lua scripts, such that these operations are atomic without having to retry
+ * when another server allocates a port at the same time.
+ */
 public class RedisPortAllocator implements IPortAllocator {
 
+    /**
+     * Finds the first free port (i.e. clear bit) starting from ARGV[1], marks it as allocated and adds it to the ports
+     * of the owner (ARGV[3]). The bits of the first (partial) byte are checked one by one, since BITPOS only accepts
+     * a byte offset.
+     */
+    private static final RedisScript<Long> ALLOCATE_SCRIPT = new DefaultRedisScript<>("""
+        local from = tonumber(ARGV[1])
+        local to = tonumber(ARGV[2])
+        local pos = -1
+        local nextByte = math.floor(from / 8) + 1
+        for p = from, nextByte * 8 - 1 do
+            if redis.call('GETBIT', KEYS[1], p) == 0 then
+                pos = p
+                break
+            end
+        end
+        if pos == -1 then
+            pos = redis.call('BITPOS', KEYS[1], 0, nextByte)
+            if pos == -1 then
+                -- nextByte is beyond the end of the bitmap, therefore all ports from this byte are free
+                pos = nextByte * 8
+            end
+        end
+        if to > 0 and pos > to then
+            return -1
+        end
+        redis.call('SETBIT', KEYS[1], pos, 1)
+        local owned = redis.call('HGET', KEYS[2], ARGV[3])
+        if owned then
+            redis.call('HSET', KEYS[2], ARGV[3], owned .. ',' .. pos)
+        else
+            redis.call('HSET', KEYS[2], ARGV[3], tostring(pos))
+        end
+        return pos
+        """, Long.class);
+
+    /**
+     * Clears the bits of all ports of the owner (ARGV[1]) and removes the owner.
+     */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>("""
+        local owned = redis.call('HGET', KEYS[2], ARGV[1])
+        if not owned then
+            return 0
+        end
+        for port in string.gmatch(owned, '[^,]+') do
+            redis.call('SETBIT', KEYS[1], tonumber(port), 0)
+        end
+        redis.call('HDEL', KEYS[2], ARGV[1])
+        return 1
+        """, Long.class);
+
+    private final String legacyPortOwnersKey;
+    private final String portsBitmapKey;
     private final String portOwnersKey;
 
     private final RedisTemplate<String, PortList> portListRedisTemplate;
+    private final StringRedisTemplate redisTemplate;
 
     public RedisPortAllocator(RedisTemplate<String, PortList> portListRedisTemplate,
                               IdentifierService identifierService) {
         this.portListRedisTemplate = portListRedisTemplate;
-        portOwnersKey = "shinyproxy_" + identifierService.realmId + "__ports";
+        redisTemplate = new StringRedisTemplate(Objects.requireNonNull(portListRedisTemplate.getConnectionFactory()));
+        legacyPortOwnersKey = "shinyproxy_" + identifierService.realmId + "__ports";
+        portsBitmapKey = "shinyproxy_" + identifierService.realmId + "__ports_bitmap";
+        portOwnersKey = "shinyproxy_" + identifierService.realmId + "__ports_owners";
+        migrateLegacyPorts();
     }
 
     @Override
     public Integer allocate(int rangeFrom, int rangeTo, String ownerId) {
-        return portListRedisTemplate.execute(new SessionCallback<>() {
-            @SuppressWarnings({"unchecked", "rawtypes"})
-            @Override
-            public Integer execute(@Nonnull RedisOperations operations) throws DataAccessException {
-                int nextPort;
-                do {
-                    HashOperations ops = operations.opsForHash();
-
-                    operations.watch(portOwnersKey);
-
-                    // 1. get all currently allocated ports
-                    Map<String, PortList> entries = ops.entries(portOwnersKey);
-                    Set<Integer> allocated = entries.values().stream().flatMap(Collection::stream).collect(Collectors.toSet());
-
-                    // 2. find first available port
-                    nextPort = rangeFrom;
-                    while (allocated.contains(nextPort)) nextPort++;
-
-                    if (rangeTo > 0 && nextPort > rangeTo) {
-                        throw new ContainerProxyException("Cannot create container: all allocated ports are currently in use. Please try again later or contact an administrator.");
-                    }
-
-                    // 3. save this port under ownerId
-                    PortList ownedPorts = entries.getOrDefault(ownerId, new PortList());
-                    ownedPorts.add(nextPort);
-
-                    operations.multi();
-                    ops.put(portOwnersKey, ownerId, ownedPorts);
-                } while (operations.exec().isEmpty());
-                return nextPort;
-            }
-        });
+        Long port = redisTemplate.execute(ALLOCATE_SCRIPT, List.of(portsBitmapKey, portOwnersKey),
+            String.valueOf(rangeFrom), String.valueOf(rangeTo), ownerId);
+        if (port == null || port < 0) {
+            throw new ContainerProxyException("Cannot create container: all allocated ports are currently in use. Please try again later or contact an administrator.");
+        }
+        return port.intValue();
     }
 
     @Override
@@ -93,18 +131,36 @@ public class RedisPortAllocator implements IPortAllocator {
 
     @Override
     public void release(String ownerId) {
-        HashOperations<String, String, PortList> ops = portListRedisTemplate.opsForHash();
-        ops.delete(portOwnersKey, ownerId);
+        redisTemplate.execute(RELEASE_SCRIPT, List.of(portsBitmapKey, portOwnersKey), ownerId);
     }
 
     @Override
     public Set<Integer> getOwnedPorts(String ownerId) {
-        HashOperations<String, PortList, PortList> ops = portListRedisTemplate.opsForHash();
-        List<Integer> res = ops.get(portOwnersKey, ownerId);
+        HashOperations<String, String, String> ops = redisTemplate.opsForHash();
+        String res = ops.get(portOwnersKey, ownerId);
         if (res == null) {
             return new HashSet<>();
         }
-        return new HashSet<>(res);
+        return Arrays.stream(res.split(",")).map(Integer::valueOf).collect(Collectors.toSet());
+    }
+
+    /**
+     * Moves ports allocated by previous versions (stored as a hash of owner -> list of ports) to the bitmap.
+     */
+    private void migrateLegacyPorts() {
+        HashOperations<String, String, PortList> ops = portListRedisTemplate.opsForHash();
+        Map<String, PortList> entries = ops.entries(legacyPortOwnersKey);
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, PortList> entry : entries.entrySet()) {
+            for (Integer port : entry.getValue()) {
+                // allocating exactly this port is equivalent to adding it
+                redisTemplate.execute(ALLOCATE_SCRIPT, List.of(portsBitmapKey, portOwnersKey),
+                    String.valueOf(port), String.valueOf(port), entry.getKey());
+            }
+            ops.delete(legacyPortOwnersKey, entry.getKey());
+        }
     }
 
     public static class PortList extends ArrayList<Integer> {
@@ -55,4 +55,27 @@ public interface ISessionService {
      */
     String extractSessionIdFromExchange(HttpServerExchange exchange);
 
+    /**
+     * Finds the sessionId in the session cookie of the given exchange. In contrast to
+     * {@link #extractSessionIdFromExchange(HttpServerExchange)} this does not require the servlet request and can
+     * therefore be used before the request is handled by the servlet.
+     * The default implementation does not support this and always returns null.
+     *
+     * @param exchange the exchange to extract the sessionId from
+     * @return the sessionId or null if the exchange does not contain a session cookie
+     */
+    default String extractSessionIdFromCookie(HttpServerExchange exchange) {
+        return null;
+    }
+
+    /**
+     * The default implementation cannot check sessions and always returns false.
+     *
+     * @param sessionId the session to check
+     * @return whether the session exists (i.e. it has not been invalidated and has not expired)
+     */
+    default boolean isSessionValid(String sessionId) {
+        return false;
+    }
+
 }
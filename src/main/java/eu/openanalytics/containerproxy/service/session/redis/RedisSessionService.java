@@ -22,46 +22,104 @@ package eu.openanalytics.containerproxy.service.session.redis;
 
 import eu.openanalytics.containerproxy.RedisSessionConfig;
 import eu.openanalytics.containerproxy.auth.impl.NoAuthenticationBackend;
+import eu.openanalytics.containerproxy.event.UserLoginEvent;
+import eu.openanalytics.containerproxy.event.UserLogoutEvent;
+import eu.openanalytics.containerproxy.service.hearbeat.HeartbeatBuffer;
+import eu.openanalytics.containerproxy.service.leader.ILeaderService;
 import eu.openanalytics.containerproxy.service.session.AbstractSessionService;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.Cookie;
 import io.undertow.servlet.handlers.ServletRequestContext;
 import jakarta.servlet.http.HttpSession;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.zset.Tuple;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.session.Session;
 import org.springframework.session.data.redis.RedisIndexedSessionRepository;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.support.ServletRequestHandledEvent;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+/**
+ * Session service for sessions stored in Redis.
+ * In order to count the number of logged-in and active users, a sorted set (authName -> last access time) is
+ * maintained in Redis, such that the sessions do not have to be scanned. This set is updated on login, logout,
+ * HTTP requests and heartbeats. To limit the number of writes, access times are buffered in memory and written
+ * once every {@link #PRESENCE_FLUSH_INTERVAL}. Since every server flushes its own buffer, the access times are
+ * written using ZADD GT (requires Redis 6.2), such that a newer access time is never overwritten by an older one.
+ * Users which did not log out (e.g. because their session expired) are removed by score.
+ */
 @Component
 @ConditionalOnProperty(name = "spring.session.store-type", havingValue = "redis")
 public class RedisSessionService extends AbstractSessionService {
 
     private static final Pattern SESSION_ID_PATTERN = Pattern.compile("^.*sessions:([a-z0-9-]*)$");
     private static final int CACHE_UPDATE_INTERVAL = 20 * 1000; // update cache every minutes
+    private static final int PRESENCE_FLUSH_INTERVAL = 5 * 1000;
+    private static final Duration ACTIVE_TIME = Duration.ofSeconds(60);
 
     private final Log logger = LogFactory.getLog(RedisSessionService.class);
 
+    // authName -> last access time, not yet written to Redis
+    private final HeartbeatBuffer presenceBuffer = new HeartbeatBuffer();
+    // sessionId -> last access time, of sessions for which the authName is not known (i.e. when using no authentication)
+    private final HeartbeatBuffer sessionPresenceBuffer = new HeartbeatBuffer();
+
     @Inject
     private RedisIndexedSessionRepository redisIndexedSessionRepository;
 
     @Inject
     private RedisSessionConfig redisSessionConfig;
 
+    @Inject
+    private RedisConnectionFactory redisConnectionFactory;
+
+    @Inject
+    private ILeaderService leaderService;
+
+    @Inject
+    private Environment environment;
+
     private String keyPattern;
+    private String sessionCookieName;
+    private String presenceKey;
+    private String presenceInitializedKey;
+    private Duration sessionTimeout;
     private RedisTemplate<String, Object> redisTemplate;
+    private ZSetOperations<String, String> presenceOps;
+    private StringRedisTemplate stringRedisTemplate;
+    private volatile boolean presenceInitialized = false;
 
     private Integer cachedUsersLoggedInCount = null; // default value;
     private Integer cachedActiveUsersCount = null; // default value;
@@ -69,7 +127,19 @@ public class RedisSessionService extends AbstractSessionService {
     @PostConstruct
     public void init() {
         keyPattern = redisSessionConfig.getRedisNamespace() + ":sessions:*";
+        sessionCookieName = environment.getProperty("server.servlet.session.cookie.name", "SESSION");
+        presenceKey = redisSessionConfig.getRedisNamespace() + ":user_presence";
+        presenceInitializedKey = presenceKey + "_initialized";
         redisTemplate = (RedisTemplate<String, Object>) redisIndexedSessionRepository.getSessionRedisOperations();
+        stringRedisTemplate = new StringRedisTemplate(redisConnectionFactory);
+        presenceOps = stringRedisTemplate.opsForZSet();
+        sessionTimeout = environment.getProperty("spring.session.timeout", Duration.class,
+            environment.getProperty("server.servlet.session.timeout", Duration.class, Duration.ofMinutes(30)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushPresence();
     }
 
     @Override
@@ -87,6 +157,7 @@ public class RedisSessionService extends AbstractSessionService {
         Session session = redisIndexedSessionRepository.findById(sessionId);
         if (session != null) {
             session.setLastAccessedTime(Instant.now());
+            recordPresence(extractAuthName(session), session.getLastAccessedTime().toEpochMilli());
         }
     }
 
@@ -97,54 +168,183 @@ public class RedisSessionService extends AbstractSessionService {
         return session.getId();
     }
 
+    @Override
+    public String extractSessionIdFromCookie(HttpServerExchange exchange) {
+        Cookie cookie = exchange.getRequestCookie(sessionCookieName);
+        if (cookie == null || cookie.getValue() == null) {
+            return null;
+        }
+        try {
+            // same encoding as the DefaultCookieSerializer of Spring Session
+            return new String(Base64.getDecoder().decode(cookie.getValue()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isSessionValid(String sessionId) {
+        // findById does not return expired sessions
+        return redisIndexedSessionRepository.findById(sessionId) != null;
+    }
+
+    @EventListener
+    public void onUserLoginEvent(UserLoginEvent event) {
+        recordPresence(event.getUserId(), event.getTimestamp());
+    }
+
+    @EventListener
+    public void onUserLogoutEvent(UserLogoutEvent event) {
+        if (event.getUserId() == null) {
+            return;
+        }
+        if (hasOtherSessions(event.getUserId())) {
+            // the user is still logged in using another session (e.g. in another browser)
+            return;
+        }
+        presenceBuffer.remove(event.getUserId());
+        presenceOps.remove(presenceKey, event.getUserId());
+    }
+
+    /**
+     * @return whether the user has a session, other than the session of the current request (i.e. the session which
+     * is being logged out)
+     */
+    private boolean hasOtherSessions(String authName) {
+        String currentSessionId = getCurrentSessionId();
+        return redisIndexedSessionRepository.findByPrincipalName(authName).keySet().stream()
+            .anyMatch(sessionId -> !sessionId.equals(currentSessionId));
+    }
+
+    private String getCurrentSessionId() {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            HttpSession session = attributes.getRequest().getSession(false);
+            if (session != null) {
+                return session.getId();
+            }
+        }
+        return null;
+    }
+
+    @EventListener
+    public void onServletRequestHandledEvent(ServletRequestHandledEvent event) {
+        if (event.getUserName() != null) {
+            recordPresence(event.getUserName(), event.getTimestamp());
+        } else if (event.getSessionId() != null && authBackend.getName().equals(NoAuthenticationBackend.NAME)) {
+            // the userId is stored in the session, resolve it when flushing (at most once per interval)
+            sessionPresenceBuffer.add(event.getSessionId(), event.getTimestamp());
+        }
+    }
+
+    private void recordPresence(String authName, long timestamp) {
+        if (authName != null) {
+            presenceBuffer.add(authName, timestamp);
+        }
+    }
+
+    /**
+     * Writes the buffered access times to Redis using a single ZADD GT.
+     */
+    @Scheduled(fixedDelay = PRESENCE_FLUSH_INTERVAL)
+    public void flushPresence() {
+        sessionPresenceBuffer.drain().forEach((sessionId, timestamp) -> {
+            Session session = redisIndexedSessionRepository.findById(sessionId);
+            if (session != null) {
+                recordPresence(extractAuthName(session), timestamp);
+            }
+        });
+
+        Map<String, Long> presence = presenceBuffer.drain();
+        if (presence.isEmpty()) {
+            return;
+        }
+        try {
+            RedisSerializer<String> serializer = RedisSerializer.string();
+            Set<Tuple> tuples = presence.entrySet().stream()
+                .map(e -> Tuple.of(serializer.serialize(e.getKey()), e.getValue().doubleValue()))
+                .collect(Collectors.toSet());
+            stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.zSetCommands().zAdd(serializer.serialize(presenceKey), tuples, RedisZSetCommands.ZAddArgs.empty().gt()));
+            presenceBuffer.flushed(presence.size());
+        } catch (Exception ex) {
+            presenceBuffer.restore(presence);
+            logger.warn("Error while writing user presence", ex);
+        }
+    }
+
     /**
      * Updates the cached count of users.
-     * We only update this value every CACHE_UPDATE_INTERVAL because this is a relative heavy computation to do.
-     * Therefore we don't want that this calculation is performed every time
-     * {@link RedisSessionService#getLoggedInUsersCount()} is called. Especially since this function could be called
-     * using an HTTP request.
-     * See the warning at https://redis.io/commands/keys .
+     * The counts are computed using the sorted set of users, which makes it cheap to compute them. Users which did
+     * not access ShinyProxy within the session timeout are removed from this set by the leader.
      */
     @Scheduled(fixedDelay = CACHE_UPDATE_INTERVAL)
     private void updateCachedUsersLoggedInCount() {
-        Set<String> keys = redisTemplate.keys(keyPattern);
+        if (!presenceInitialized) {
+            initializePresence();
+        }
 
-        if (keys == null) {
-            return;
+        long now = System.currentTimeMillis();
+        long loggedInSince = now - sessionTimeout.toMillis();
+        if (leaderService.isLeader()) {
+            presenceOps.removeRangeByScore(presenceKey, Double.NEGATIVE_INFINITY, loggedInSince);
         }
 
-        // users are only counted as active, if they are active after this time.
-        Instant minimumInstantTime = Instant.now().minusSeconds(60);
+        Long loggedInUsers = presenceOps.count(presenceKey, loggedInSince, Double.POSITIVE_INFINITY);
+        Long activeUsers = presenceOps.count(presenceKey, now - ACTIVE_TIME.toMillis(), Double.POSITIVE_INFINITY);
 
-        Set<String> authenticatedUsers = new HashSet<>();
-        Set<String> activeUsers = new HashSet<>();
+        logger.debug(String.format("Logged in users count %s", loggedInUsers));
+        cachedUsersLoggedInCount = loggedInUsers != null ? loggedInUsers.intValue() : null;
+        logger.debug(String.format("Active users count %s", activeUsers));
+        cachedActiveUsersCount = activeUsers != null ? activeUsers.intValue() : null;
+    }
 
-        for (Object keyId : keys) {
-            String sessionId = extractSessionId(keyId);
-            if (sessionId == null) continue;
+    /**
+     * Fills the sorted set of users using the existing sessions, in case the set was not yet created (e.g. after
+     * an upgrade). Uses SCAN instead of KEYS, see the warning at https://redis.io/commands/keys .
+     * The set is filled by the leader, the marker is only set after all sessions were processed, such that the
+     * initialization is retried when it fails (or the leader stops) halfway.
+     */
+    private void initializePresence() {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(presenceInitializedKey))) {
+            // already initialized by this or another server
+            presenceInitialized = true;
+            return;
+        }
+        if (!leaderService.isLeader()) {
+            return;
+        }
 
+        Map<String, Long> lastAccess = new HashMap<>();
+        Set<String> sessionIds = new HashSet<>();
+        try (Cursor<String> cursor = redisTemplate.scan(ScanOptions.scanOptions().match(keyPattern).count(1000).build())) {
+            while (cursor.hasNext()) {
+                String sessionId = extractSessionId(cursor.next());
+                if (sessionId != null) {
+                    sessionIds.add(sessionId);
+                }
+            }
+        }
+        for (String sessionId : sessionIds) {
             Session session = redisIndexedSessionRepository.findById(sessionId);
             if (session == null) continue;
 
-            String authenticationName;
-            if (authBackend.getName().equals(NoAuthenticationBackend.NAME)) {
-                authenticationName = NoAuthenticationBackend.extractUserId(session);
-            } else {
-                authenticationName = extractAuthName(extractAuthenticationIfAuthenticated(session));
-            }
+            String authenticationName = extractAuthName(session);
             if (authenticationName == null) continue;
 
-            authenticatedUsers.add(authenticationName);
-
-            if (session.getLastAccessedTime().isAfter(minimumInstantTime)) {
-                activeUsers.add(authenticationName);
-            }
+            lastAccess.merge(authenticationName, session.getLastAccessedTime().toEpochMilli(), Math::max);
         }
+        lastAccess.forEach(presenceBuffer::add);
+        flushPresence();
+        stringRedisTemplate.opsForValue().set(presenceInitializedKey, "1");
+        presenceInitialized = true;
+        logger.info(String.format("Initialized user presence using %s existing sessions", sessionIds.size()));
+    }
 
-        logger.debug(String.format("Logged in users count %s, all users: %s ", authenticatedUsers.size(), authenticatedUsers));
-        cachedUsersLoggedInCount = authenticatedUsers.size();
-        logger.debug(String.format("Active users count %s, %s ", activeUsers.size(), activeUsers));
-        cachedActiveUsersCount = activeUsers.size();
+    private String extractAuthName(Session session) {
+        if (authBackend.getName().equals(NoAuthenticationBackend.NAME)) {
+            return NoAuthenticationBackend.extractUserId(session);
+        }
+        return extractAuthName(extractAuthenticationIfAuthenticated(session));
     }
 
     /**
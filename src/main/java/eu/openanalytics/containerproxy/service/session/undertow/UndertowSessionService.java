@@ -23,6 +23,7 @@ package eu.openanalytics.containerproxy.service.session.undertow;
 import eu.openanalytics.containerproxy.auth.impl.NoAuthenticationBackend;
 import eu.openanalytics.containerproxy.service.session.AbstractSessionService;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.Cookie;
 import io.undertow.server.session.InMemorySessionManager;
 import io.undertow.server.session.Session;
 import io.undertow.servlet.handlers.ServletRequestContext;
@@ -30,11 +31,13 @@ import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.time.Instant;
 import java.util.HashSet;
@@ -51,11 +54,21 @@ public class UndertowSessionService extends AbstractSessionService {
     @Inject
     private CustomSessionManagerFactory customInMemorySessionManagerFactory;
 
+    @Inject
+    private Environment environment;
+
+    private String sessionCookieName;
+
     // default value, note we cannot use 0 or -1 here as that would cause a dip when restarting ShinyProxy
     private Integer cachedUsersLoggedInCount = null;
 
     private Integer cachedActiveUsersCount = null;
 
+    @PostConstruct
+    public void init() {
+        sessionCookieName = environment.getProperty("server.servlet.session.cookie.name", "JSESSIONID");
+    }
+
     @Override
     public Integer getLoggedInUsersCount() {
         return cachedUsersLoggedInCount;
@@ -89,6 +102,21 @@ public class UndertowSessionService extends AbstractSessionService {
         return attachment.getSession().getId();
     }
 
+    @Override
+    public String extractSessionIdFromCookie(HttpServerExchange exchange) {
+        Cookie cookie = exchange.getRequestCookie(sessionCookieName);
+        if (cookie == null) {
+            return null;
+        }
+        return cookie.getValue();
+    }
+
+    @Override
+    public boolean isSessionValid(String sessionId) {
+        InMemorySessionManager instance = customInMemorySessionManagerFactory.getInstance();
+        return instance != null && instance.getSession(sessionId) != null;
+    }
+
     /**
      * Updates the cached count of users.
      * We only update this value every CACHE_UPDATE_INTERVAL because this is a relative heavy computation to do.
@@ -22,6 +22,8 @@ package eu.openanalytics.containerproxy.spec.expression;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.base.Throwables;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.ApplicationContext;
@@ -33,10 +35,13 @@ import org.springframework.context.expression.EnvironmentAccessor;
 import org.springframework.context.expression.MapAccessor;
 import org.springframework.context.expression.StandardBeanExpressionResolver;
 import org.springframework.core.convert.ConversionService;
+import org.springframework.core.env.Environment;
 import org.springframework.expression.Expression;
 import org.springframework.expression.ExpressionException;
 import org.springframework.expression.ExpressionParser;
 import org.springframework.expression.ParserContext;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.expression.spel.support.StandardTypeConverter;
@@ -45,8 +50,6 @@ import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -56,9 +59,18 @@ import java.util.stream.StreamSupport;
 @Component
 public class SpecExpressionResolver {
 
+    public static final String PROP_EXPRESSION_CACHE_SIZE = "proxy.spel.expression-cache-size";
+    public static final String PROP_CONTEXT_CACHE_SIZE = "proxy.spel.context-cache-size";
+    public static final String PROP_COMPILER_MODE = "proxy.spel.compiler-mode";
+
     private final ApplicationContext appContext;
     private final ExpressionParser expressionParser;
-    private final Map<SpecExpressionContext, StandardEvaluationContext> evaluationCache = new ConcurrentHashMap<>(8);
+    // the same expressions (from the spec configuration) are evaluated over and over, therefore the parsed expressions are cached
+    private final Cache<String, Expression> expressionCache;
+    // a context is created for every user/proxy, therefore this cache must be bounded
+    // the keys are compared by identity (weakKeys): equal contexts may contain objects with different state (e.g. the
+    // equals method of a user only compares the username), these may not use the evaluation context of another context
+    private final Cache<SpecExpressionContext, StandardEvaluationContext> evaluationCache;
 
     private final ParserContext beanExpressionParserContext = new ParserContext() {
         @Override
@@ -79,7 +91,16 @@ public class SpecExpressionResolver {
 
     public SpecExpressionResolver(ApplicationContext appContext) {
         this.appContext = appContext;
-        this.expressionParser = new SpelExpressionParser();
+        Environment environment = appContext.getEnvironment();
+        SpelCompilerMode compilerMode = environment.getProperty(PROP_COMPILER_MODE, SpelCompilerMode.class, SpelCompilerMode.OFF);
+        this.expressionParser = new SpelExpressionParser(new SpelParserConfiguration(compilerMode, appContext.getClassLoader()));
+        this.expressionCache = Caffeine.newBuilder()
+            .maximumSize(environment.getProperty(PROP_EXPRESSION_CACHE_SIZE, Long.class, 1000L))
+            .build();
+        this.evaluationCache = Caffeine.newBuilder()
+            .weakKeys()
+            .maximumSize(environment.getProperty(PROP_CONTEXT_CACHE_SIZE, Long.class, 1000L))
+            .build();
     }
 
     public <T> T evaluate(String expression, SpecExpressionContext context, Class<T> resType) {
@@ -87,25 +108,8 @@ public class SpecExpressionResolver {
         if (expression.isEmpty()) return null;
 
         try {
-            Expression expr = this.expressionParser.parseExpression(expression, this.beanExpressionParserContext);
-
-            ConfigurableBeanFactory beanFactory = ((ConfigurableApplicationContext) appContext).getBeanFactory();
-
-            StandardEvaluationContext sec = evaluationCache.get(context);
-            if (sec == null) {
-                sec = new StandardEvaluationContext();
-                sec.setRootObject(context);
-                sec.addPropertyAccessor(new BeanExpressionContextAccessor());
-                sec.addPropertyAccessor(new BeanFactoryAccessor());
-                sec.addPropertyAccessor(new MapAccessor());
-                sec.addPropertyAccessor(new EnvironmentAccessor());
-                sec.setBeanResolver(new BeanFactoryResolver(appContext));
-                sec.setTypeLocator(new StandardTypeLocator(beanFactory.getBeanClassLoader()));
-                ConversionService conversionService = beanFactory.getConversionService();
-                if (conversionService != null) sec.setTypeConverter(new StandardTypeConverter(conversionService));
-                evaluationCache.put(context, sec);
-            }
-
+            Expression expr = expressionCache.get(expression, (e) -> expressionParser.parseExpression(e, beanExpressionParserContext));
+            StandardEvaluationContext sec = evaluationCache.get(context, this::createEvaluationContext);
             return expr.getValue(sec, resType);
         } catch (ExpressionException ex) {
             throw new SpelException(ex, expression);
@@ -114,6 +118,22 @@ public class SpecExpressionResolver {
         }
     }
 
+    private StandardEvaluationContext createEvaluationContext(SpecExpressionContext context) {
+        ConfigurableBeanFactory beanFactory = ((ConfigurableApplicationContext) appContext).getBeanFactory();
+
+        StandardEvaluationContext sec = new StandardEvaluationContext();
+        sec.setRootObject(context);
+        sec.addPropertyAccessor(new BeanExpressionContextAccessor());
+        sec.addPropertyAccessor(new BeanFactoryAccessor());
+        sec.addPropertyAccessor(new MapAccessor());
+        sec.addPropertyAccessor(new EnvironmentAccessor());
+        sec.setBeanResolver(new BeanFactoryResolver(appContext));
+        sec.setTypeLocator(new StandardTypeLocator(beanFactory.getBeanClassLoader()));
+        ConversionService conversionService = beanFactory.getConversionService();
+        if (conversionService != null) sec.setTypeConverter(new StandardTypeConverter(conversionService));
+        return sec;
+    }
+
     public String evaluateToString(String expression, SpecExpressionContext context) {
         // use the toString() method and not the conversionService in order to maintain behaviour of ShinyProxy 2.6.1 and earlier
         Object res = evaluate(expression, context, Object.class);
@@ -30,7 +30,9 @@ import org.springframework.stereotype.Component;
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Component
 @ConfigurationProperties(prefix = "proxy")
@@ -41,22 +43,36 @@ public class DefaultSpecProvider implements IProxySpecProvider {
 
     private List<ProxySpec> specs = new ArrayList<>();
 
+    private Map<String, ProxySpec> specsById = new HashMap<>();
+
     public List<ProxySpec> getSpecs() {
         return new ArrayList<>(specs);
     }
 
     public void setSpecs(List<ProxySpec> specs) {
         this.specs = specs;
+        indexSpecs();
     }
 
     public ProxySpec getSpec(String id) {
         if (id == null || id.isEmpty()) return null;
-        return specs.stream().filter(s -> id.equals(s.getId())).findAny().orElse(null);
+        return specsById.get(id);
+    }
+
+    private void indexSpecs() {
+        Map<String, ProxySpec> index = new HashMap<>();
+        for (ProxySpec spec : specs) {
+            if (spec.getId() != null) {
+                index.putIfAbsent(spec.getId(), spec);
+            }
+        }
+        specsById = index;
     }
 
     @PostConstruct
     public void init() {
         specs.forEach(ProxySpec::setContainerIndex);
+        indexSpecs();
         for (ISpecExtensionProvider<?> specExtensionProvider : specExtensionProviders) {
             if (specExtensionProvider.getSpecs() != null) {
                 for (ISpecExtension specExtension : specExtensionProvider.getSpecs()) {
@@ -27,46 +27,209 @@ import eu.openanalytics.containerproxy.event.ProxyStopEvent;
 import eu.openanalytics.containerproxy.event.UserLoginEvent;
 import eu.openanalytics.containerproxy.event.UserLogoutEvent;
 import eu.openanalytics.containerproxy.stat.IStatCollector;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Base class for collectors which store usage statistics in a database.
+ * Events are not written in the thread handling the Spring event (e.g. a login or proxy start), instead they are put
+ * in a bounded queue and written in batches by a background thread. When the queue is full, the event listener waits
+ * at most {@link #PROP_OFFER_TIMEOUT} milliseconds (by default it does not wait) after which the event is dropped.
+ * A batch which cannot be written is retried with an exponential backoff.
+ */
 public abstract class AbstractDbCollector implements IStatCollector {
 
+    public static final String PROP_QUEUE_SIZE = "proxy.usage-stats-buffer.queue-size";
+    public static final String PROP_BATCH_SIZE = "proxy.usage-stats-buffer.batch-size";
+    public static final String PROP_OFFER_TIMEOUT = "proxy.usage-stats-buffer.offer-timeout";
+    public static final String PROP_MAX_RETRIES = "proxy.usage-stats-buffer.max-retries";
+    public static final String PROP_INITIAL_BACKOFF = "proxy.usage-stats-buffer.initial-backoff";
+
+    private static final long MAX_BACKOFF = 60_000L;
+    private static final AtomicInteger instanceCounter = new AtomicInteger();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    protected Environment environment;
+    @Inject
+    private MeterRegistry registry;
+
+    private ArrayBlockingQueue<UsageStatEvent> queue;
+    private int batchSize;
+    private long offerTimeout;
+    private int maxRetries;
+    private long initialBackoff;
+    private Thread writer;
+    private volatile boolean running;
+
+    private Counter droppedCounter;
+    private Counter failedCounter;
+    private Timer writeTimer;
+
+    @PostConstruct
+    public void startWriter() {
+        queue = new ArrayBlockingQueue<>(environment.getProperty(PROP_QUEUE_SIZE, Integer.class, 10_000));
+        batchSize = environment.getProperty(PROP_BATCH_SIZE, Integer.class, 100);
+        offerTimeout = environment.getProperty(PROP_OFFER_TIMEOUT, Long.class, 0L);
+        maxRetries = environment.getProperty(PROP_MAX_RETRIES, Integer.class, 5);
+        initialBackoff = environment.getProperty(PROP_INITIAL_BACKOFF, Long.class, 1_000L);
+
+        String name = getClass().getSimpleName() + "-" + instanceCounter.getAndIncrement();
+        Tags tags = Tags.of("collector", name);
+        Gauge.builder("usage_stats_queue_depth", queue, ArrayBlockingQueue::size).tags(tags).register(registry);
+        droppedCounter = registry.counter("usage_stats_dropped", tags);
+        failedCounter = registry.counter("usage_stats_write_failures", tags);
+        writeTimer = registry.timer("usage_stats_write", tags);
+
+        running = true;
+        writer = new Thread(this::processQueue, "UsageStatsWriter-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stopWriter() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // write the remaining events, without retrying
+        List<UsageStatEvent> batch = new ArrayList<>();
+        while (queue.drainTo(batch, batchSize) > 0) {
+            try {
+                writeBatch(batch);
+            } catch (IOException ex) {
+                log.warn("Error while writing usage statistics during shutdown, dropping {} events", batch.size(), ex);
+                droppedCounter.increment(batch.size());
+            }
+            batch.clear();
+        }
+    }
+
     @EventListener
-    public void onUserLogoutEvent(UserLogoutEvent event) throws IOException {
-        writeToDb(event.getTimestamp(), event.getUserId(), "Logout", null);
+    public void onUserLogoutEvent(UserLogoutEvent event) {
+        enqueue(new UsageStatEvent(event.getTimestamp(), event.getUserId(), "Logout", null));
     }
 
     @EventListener
-    public void onUserLoginEvent(UserLoginEvent event) throws IOException {
-        writeToDb(event.getTimestamp(), event.getUserId(), "Login", null);
+    public void onUserLoginEvent(UserLoginEvent event) {
+        enqueue(new UsageStatEvent(event.getTimestamp(), event.getUserId(), "Login", null));
     }
 
     @EventListener
-    public void onProxyStartEvent(ProxyStartEvent event) throws IOException {
+    public void onProxyStartEvent(ProxyStartEvent event) {
         if (event.isLocalEvent()) {
-            writeToDb(event.getTimestamp(), event.getUserId(), "ProxyStart", event.getSpecId());
+            enqueue(new UsageStatEvent(event.getTimestamp(), event.getUserId(), "ProxyStart", event.getSpecId()));
         }
     }
 
     @EventListener
-    public void onProxyStopEvent(ProxyStopEvent event) throws IOException {
+    public void onProxyStopEvent(ProxyStopEvent event) {
         if (event.isLocalEvent()) {
-            writeToDb(event.getTimestamp(), event.getUserId(), "ProxyStop", event.getSpecId());
+            enqueue(new UsageStatEvent(event.getTimestamp(), event.getUserId(), "ProxyStop", event.getSpecId()));
         }
     }
 
     @EventListener
     public void onProxyStartFailedEvent(ProxyStartFailedEvent event) {
-        // TODO
+        if (event.isLocalEvent()) {
+            enqueue(new UsageStatEvent(event.getTimestamp(), event.getUserId(), "ProxyStartFailed", event.getSpecId()));
+        }
     }
 
     @EventListener
     public void onAuthFailedEvent(AuthFailedEvent event) {
-        // TODO
+        enqueue(new UsageStatEvent(event.getTimestamp(), event.getUserId(), "AuthFailed", null));
+    }
+
+    private void enqueue(UsageStatEvent event) {
+        boolean added;
+        try {
+            added = queue.offer(event, offerTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            added = false;
+        }
+        if (!added) {
+            droppedCounter.increment();
+            log.warn("Usage statistics queue is full, dropping {} event of user {}", event.type(), event.userId());
+        }
+    }
+
+    private void processQueue() {
+        List<UsageStatEvent> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                writeWithRetry(batch);
+            } catch (InterruptedException e) {
+                if (!batch.isEmpty()) {
+                    // put the events back, such that they are written by stopWriter
+                    batch.forEach(queue::offer);
+                }
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
     }
 
-    protected abstract void writeToDb(long timestamp, String userId, String type, String data) throws IOException;
+    private void writeWithRetry(List<UsageStatEvent> batch) throws InterruptedException {
+        long backoff = initialBackoff;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                writeBatch(batch);
+                return;
+            } catch (Exception ex) {
+                failedCounter.increment();
+                if (attempt >= maxRetries) {
+                    log.error("Error while writing usage statistics, dropping {} events after {} attempts", batch.size(), attempt + 1, ex);
+                    droppedCounter.increment(batch.size());
+                    return;
+                }
+                log.warn("Error while writing usage statistics, retrying in {}ms", backoff, ex);
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+        }
+    }
+
+    private void writeBatch(List<UsageStatEvent> batch) throws IOException {
+        long start = System.nanoTime();
+        writeToDb(batch);
+        writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Writes a batch of events to the database. Implementations should write the whole batch in a single request
+     * or transaction, the batch is retried when an exception is thrown.
+     */
+    protected abstract void writeToDb(List<UsageStatEvent> events) throws IOException;
+
+    protected record UsageStatEvent(long timestamp, String userId, String type, String data) {
+
+    }
 
 }
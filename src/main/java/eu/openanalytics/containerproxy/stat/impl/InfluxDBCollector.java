@@ -28,7 +28,10 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 
 /**
@@ -44,11 +47,15 @@ public class InfluxDBCollector extends AbstractDbCollector {
     }
 
     @Override
-    protected void writeToDb(long timestamp, String userId, String type, String data) throws IOException {
-        String body = String.format("event,username=%s,type=%s data=\"%s\"",
-            userId.replace(" ", "\\ "),
-            type.replace(" ", "\\ "),
-            Optional.ofNullable(data).orElse(""));
+    protected void writeToDb(List<UsageStatEvent> events) throws IOException {
+        // write all events in a single request, using one line per event
+        String body = events.stream()
+            .map(event -> String.format("event,username=%s,type=%s data=\"%s\" %d",
+                event.userId().replace(" ", "\\ "),
+                event.type().replace(" ", "\\ "),
+                Optional.ofNullable(event.data()).orElse(""),
+                TimeUnit.MILLISECONDS.toNanos(event.timestamp())))
+            .collect(Collectors.joining("\n"));
 
         HttpURLConnection conn = (HttpURLConnection) new URL(destination).openConnection();
         conn.setRequestMethod("POST");
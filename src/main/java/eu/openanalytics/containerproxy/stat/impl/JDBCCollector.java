@@ -21,16 +21,15 @@
 package eu.openanalytics.containerproxy.stat.impl;
 
 import com.zaxxer.hikari.HikariDataSource;
-import org.springframework.core.env.Environment;
 
 import javax.annotation.PostConstruct;
-import javax.inject.Inject;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.List;
 
 /**
  * # MonetDB, Postgresql, MySQL/MariaDB usage-stats-url:
@@ -59,8 +58,6 @@ public class JDBCCollector extends AbstractDbCollector {
     private final String password;
     private final String tableName;
     private HikariDataSource ds;
-    @Inject
-    private Environment environment;
 
     public JDBCCollector(String url, String username, String password, String tableNam) {
         this.url = url;
@@ -126,15 +123,26 @@ public class JDBCCollector extends AbstractDbCollector {
     }
 
     @Override
-    protected void writeToDb(long timestamp, String userId, String type, String data) throws IOException {
+    protected void writeToDb(List<UsageStatEvent> events) throws IOException {
         String sql = "INSERT INTO " + tableName + "(event_time, username, type, data) VALUES (?,?,?,?)";
         try (Connection con = ds.getConnection()) {
+            boolean autoCommit = con.getAutoCommit();
+            con.setAutoCommit(false);
             try (PreparedStatement stmt = con.prepareStatement(sql)) {
-                stmt.setTimestamp(1, new Timestamp(timestamp));
-                stmt.setString(2, userId);
-                stmt.setString(3, type);
-                stmt.setString(4, data);
-                stmt.executeUpdate();
+                for (UsageStatEvent event : events) {
+                    stmt.setTimestamp(1, new Timestamp(event.timestamp()));
+                    stmt.setString(2, event.userId());
+                    stmt.setString(3, event.type());
+                    stmt.setString(4, event.data());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(autoCommit);
             }
         } catch (SQLException e) {
             throw new IOException("Exception while logging stats", e);
@@ -21,48 +21,70 @@
 package eu.openanalytics.containerproxy.stat.impl;
 
 import eu.openanalytics.containerproxy.event.AuthFailedEvent;
+import eu.openanalytics.containerproxy.event.ProxyPauseEvent;
+import eu.openanalytics.containerproxy.event.ProxyRecoveredEvent;
+import eu.openanalytics.containerproxy.event.ProxyResumeEvent;
+import eu.openanalytics.containerproxy.event.ProxyResumingEvent;
 import eu.openanalytics.containerproxy.event.ProxyStartEvent;
 import eu.openanalytics.containerproxy.event.ProxyStartFailedEvent;
+import eu.openanalytics.containerproxy.event.ProxyStartingEvent;
 import eu.openanalytics.containerproxy.event.ProxyStopEvent;
 import eu.openanalytics.containerproxy.event.UserLoginEvent;
 import eu.openanalytics.containerproxy.event.UserLogoutEvent;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.runtime.ProxyStartupLog;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
 import eu.openanalytics.containerproxy.model.runtime.ProxyStopReason;
 import eu.openanalytics.containerproxy.model.spec.ContainerSpec;
 import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 import eu.openanalytics.containerproxy.service.ProxyService;
+import eu.openanalytics.containerproxy.service.hearbeat.ActiveProxiesService;
+import eu.openanalytics.containerproxy.service.hearbeat.HeartbeatBuffer;
+import eu.openanalytics.containerproxy.service.hearbeat.SessionReActivatorService;
+import eu.openanalytics.containerproxy.service.leader.ILeaderService;
 import eu.openanalytics.containerproxy.service.session.ISessionService;
 import eu.openanalytics.containerproxy.spec.IProxySpecProvider;
 import eu.openanalytics.containerproxy.stat.IStatCollector;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
-import io.micrometer.core.instrument.search.MeterNotFoundException;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.context.event.EventListener;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
-import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.ToDoubleFunction;
 
 public class Micrometer implements IStatCollector {
 
-    private static final int CACHE_UPDATE_INTERVAL = 20 * 1000; // update cache every 20 seconds
+    private static final int RECONCILE_INTERVAL = 60 * 1000; // reconcile the proxy counts with the proxy store every 60 seconds
     private final Logger logger = LogManager.getLogger(getClass());
-    // keeps track of the number of proxies per spec id
-    private final ConcurrentHashMap<String, Integer> proxyCountCache = new ConcurrentHashMap<>();
-    // need to store a reference to the proxyCounters as the Micrometer library only stores weak references
-    @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-    private final List<ProxyCounter> proxyCounters = new ArrayList<>();
+    // the meters of every spec, this also keeps a strong reference to the state of the gauges (Micrometer only stores weak references)
+    private final ConcurrentHashMap<String, SpecMeters> specMeters = new ConcurrentHashMap<>();
+    // last known spec and status of every proxy, guarded by this
+    private final Map<String, ProxyState> proxyStates = new HashMap<>();
+    // incremented on every change of proxyStates, guarded by this
+    private long proxyStatesVersion = 0;
+    // the value of proxyStatesVersion at the last change of every proxy (including removed proxies) since the last reconcile, guarded by this
+    private final Map<String, Long> proxyStateVersions = new HashMap<>();
+    private volatile boolean proxyStatesInitialized = false;
+    private final ScheduledExecutorService reconcileExecutor = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+        .namingPattern("MicrometerReconcile-%d")
+        .daemon(true)
+        .build());
     @Inject
     private MeterRegistry registry;
     @Inject
@@ -71,6 +93,12 @@ public class Micrometer implements IStatCollector {
     private ISessionService sessionService;
     @Inject
     private IProxySpecProvider specProvider;
+    @Inject
+    private ActiveProxiesService activeProxiesService;
+    @Inject
+    private SessionReActivatorService sessionReActivatorService;
+    @Inject
+    private ILeaderService leaderService;
 
     private Counter authFailedCounter;
 
@@ -101,31 +129,33 @@ public class Micrometer implements IStatCollector {
         authFailedCounter = registry.counter("authFailed");
         registry.gauge("absolute_users_logged_in", Tags.empty(), sessionService, wrapHandleNull(ISessionService::getLoggedInUsersCount));
         registry.gauge("absolute_users_active", Tags.empty(), sessionService, wrapHandleNull(ISessionService::getActiveUsersCount));
+        registerHeartbeatCounters("proxy", activeProxiesService.getHeartbeatBuffer());
+        registerHeartbeatCounters("session", sessionReActivatorService.getHeartbeatBuffer());
 
         for (ProxySpec spec : specProvider.getSpecs()) {
-            registry.counter("appStarts", "spec.id", spec.getId());
-            registry.counter("appStops", "spec.id", spec.getId());
-            registry.counter("appCrashes", "spec.id", spec.getId());
-            registry.counter("startFailed", "spec.id", spec.getId());
-            ProxyCounter proxyCounter = new ProxyCounter(spec.getId());
-            proxyCounters.add(proxyCounter);
-            registry.gauge("absolute_apps_running", Tags.of("spec.id", spec.getId()), proxyCounter, wrapHandleNull(ProxyCounter::getProxyCount));
-            registry.timer("startupTime", "spec.id", spec.getId());
-            registry.timer("applicationStartupTime", "spec.id", spec.getId());
+            SpecMeters meters = getSpecMeters(spec.getId());
             for (ContainerSpec containerSpec : spec.getContainerSpecs()) {
-                registry.timer("imagePullTime", "spec.id", spec.getId(), "container.idx", containerSpec.getIndex().toString());
-                registry.timer("containerScheduleTime", "spec.id", spec.getId(), "container.idx", containerSpec.getIndex().toString());
-                registry.timer("containerStartupTime", "spec.id", spec.getId(), "container.idx", containerSpec.getIndex().toString());
+                meters.getImagePullTime(containerSpec.getIndex());
+                meters.getContainerScheduleTime(containerSpec.getIndex());
+                meters.getContainerStartupTime(containerSpec.getIndex());
             }
-            registry.timer("usageTime", "spec.id", spec.getId());
         }
 
-        new Timer().schedule(new TimerTask() {
-            @Override
-            public void run() {
-                updateCachedProxyCount();
-            }
-        }, 0, CACHE_UPDATE_INTERVAL);
+        reconcileExecutor.scheduleWithFixedDelay(this::reconcileProxyStates, 0, RECONCILE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reconcileExecutor.shutdownNow();
+    }
+
+    private void registerHeartbeatCounters(String type, HeartbeatBuffer heartbeatBuffer) {
+        FunctionCounter.builder("heartbeats_coalesced", heartbeatBuffer, HeartbeatBuffer::getCoalescedCount)
+            .tag("type", type)
+            .register(registry);
+        FunctionCounter.builder("heartbeats_flushed", heartbeatBuffer, HeartbeatBuffer::getFlushedCount)
+            .tag("type", type)
+            .register(registry);
     }
 
     @EventListener
@@ -140,64 +170,84 @@ public class Micrometer implements IStatCollector {
         userLogins.increment();
     }
 
+    @EventListener
+    public void onProxyStartingEvent(ProxyStartingEvent event) {
+        updateProxyState(event.getProxyId(), event.getSpecId(), ProxyStatus.New);
+    }
+
     @EventListener
     public void onProxyStartEvent(ProxyStartEvent event) {
+        updateProxyState(event.getProxyId(), event.getSpecId(), ProxyStatus.Up);
         if (!event.isLocalEvent()) {
             return;
         }
         logger.debug("ProxyStartEvent [user: {}]", event.getUserId());
-        registry.counter("appStarts", "spec.id", event.getSpecId()).increment();
+        SpecMeters meters = getSpecMeters(event.getSpecId());
+        meters.appStarts.increment();
 
         ProxyStartupLog startupLog = event.getProxyStartupLog();
-        startupLog.getCreateProxy().getStepDuration().ifPresent((d) -> {
-            registry.timer("startupTime", "spec.id", event.getSpecId()).record(d);
-        });
+        startupLog.getCreateProxy().getStepDuration().ifPresent(meters.startupTime::record);
 
         startupLog.getPullImage().forEach((idx, step) -> {
-            step.getStepDuration().ifPresent((d) -> {
-                registry.timer("imagePullTime", "spec.id", event.getSpecId(), "container.idx", idx.toString()).record(d);
-            });
+            step.getStepDuration().ifPresent((d) -> meters.getImagePullTime(idx).record(d));
         });
 
         startupLog.getScheduleContainer().forEach((idx, step) -> {
-            step.getStepDuration().ifPresent((d) -> {
-                registry.timer("containerScheduleTime", "spec.id", event.getSpecId(), "container.idx", idx.toString()).record(d);
-            });
+            step.getStepDuration().ifPresent((d) -> meters.getContainerScheduleTime(idx).record(d));
         });
 
         startupLog.getStartContainer().forEach((idx, step) -> {
-            step.getStepDuration().ifPresent((d) -> {
-                registry.timer("containerStartupTime", "spec.id", event.getSpecId(), "container.idx", idx.toString()).record(d);
-            });
+            step.getStepDuration().ifPresent((d) -> meters.getContainerStartupTime(idx).record(d));
         });
 
-        startupLog.getStartApplication().getStepDuration().ifPresent((d) -> {
-            registry.timer("applicationStartupTime", "spec.id", event.getSpecId()).record(d);
-        });
+        startupLog.getStartApplication().getStepDuration().ifPresent(meters.applicationStartupTime::record);
+    }
+
+    @EventListener
+    public void onProxyPauseEvent(ProxyPauseEvent event) {
+        updateProxyState(event.getProxyId(), event.getSpecId(), ProxyStatus.Paused);
+    }
+
+    @EventListener
+    public void onProxyResumeEvent(ProxyResumeEvent event) {
+        updateProxyState(event.getProxyId(), event.getSpecId(), ProxyStatus.Up);
+    }
+
+    @EventListener
+    public void onProxyResumingEvent(ProxyResumingEvent event) {
+        updateProxyState(event.getProxyId(), event.getSpecId(), ProxyStatus.Resuming);
+    }
+
+    @EventListener
+    public void onProxyRecoveredEvent(ProxyRecoveredEvent event) {
+        updateProxyState(event.getProxyId(), event.getSpecId(), event.getStatus());
     }
 
     @EventListener
     public void onProxyStopEvent(ProxyStopEvent event) {
+        updateProxyState(event.getProxyId(), event.getSpecId(), null);
         if (!event.isLocalEvent()) {
             return;
         }
         logger.debug("ProxyStopEvent [user: {}, usageTime: {}]", event.getUserId(), event.getUsageTime());
-        registry.counter("appStops", "spec.id", event.getSpecId()).increment();
+        SpecMeters meters = getSpecMeters(event.getSpecId());
+        meters.appStops.increment();
         if (event.getUsageTime() != null) {
-            registry.timer("usageTime", "spec.id", event.getSpecId()).record(event.getUsageTime());
+            meters.usageTime.record(event.getUsageTime());
         }
         if (event.getProxyStopReason() == ProxyStopReason.Crashed) {
-            registry.counter("appCrashes", "spec.id", event.getSpecId()).increment();
+            meters.appCrashes.increment();
         }
     }
 
     @EventListener
     public void onProxyStartFailedEvent(ProxyStartFailedEvent event) {
+        updateProxyState(event.getProxyId(), event.getSpecId(), null);
         if (!event.isLocalEvent()) {
             return;
         }
         logger.debug("ProxyStartFailedEvent [user: {}, specId: {}]", event.getUserId(), event.getSpecId());
-        registry.counter("startFailed", "spec.id", event.getSpecId()).increment();
+        getSpecMeters(event.getSpecId()).startFailed.increment();
     }
 
     @EventListener
@@ -207,42 +257,99 @@ public class Micrometer implements IStatCollector {
     }
 
     /**
-     * Updates the cache containing the number of proxies running for each spec id.
-     * We only update this value every CACHE_UPDATE_INTERVAL because this is a relative heavy computation to do.
-     * Therefore, we don't want that this calculation is performed every time the gauge is updated.
-     * Especially since this could be called using an HTTP request.
+     * Returns the meters of the given spec, registering them when the spec is not part of our application.yml
+     * (e.g. app recovery, operator).
      */
-    private void updateCachedProxyCount() {
-        Map<String, Integer> intermediate = new HashMap<>();
-        // for all specs, reset to zero
-        for (String specId : proxyCountCache.keySet()) {
-            intermediate.put(specId, 0);
+    private SpecMeters getSpecMeters(String specId) {
+        return specMeters.computeIfAbsent(specId, SpecMeters::new);
+    }
+
+    /**
+     * Applies a status change of a single proxy to the per-spec counts.
+     * Events of other replicas are included, so that every replica reports the same counts.
+     *
+     * @param status the new status of the proxy or null if the proxy was removed
+     */
+    private synchronized void updateProxyState(String proxyId, String specId, ProxyStatus status) {
+        if (proxyId == null || specId == null) {
+            return;
         }
-        // count number of running apps
-        for (Proxy proxy : proxyService.getAllUpProxies()) {
-            intermediate.put(proxy.getSpecId(), intermediate.getOrDefault(proxy.getSpecId(), 0) + 1);
+        proxyStatesVersion++;
+        proxyStateVersions.put(proxyId, proxyStatesVersion);
+        ProxyState previous;
+        if (status == null) {
+            previous = proxyStates.remove(proxyId);
+        } else {
+            previous = proxyStates.put(proxyId, new ProxyState(specId, status));
         }
-
-        for (Map.Entry<String, Integer> entry : intermediate.entrySet()) {
-            createMetersForExistingProxySpec(entry.getKey());
-            proxyCountCache.put(entry.getKey(), entry.getValue());
-            logger.debug(String.format("Running proxies count for spec %s: %s ", entry.getKey(), entry.getValue()));
+        if (previous != null) {
+            getSpecMeters(previous.specId()).getCount(previous.status()).decrementAndGet();
+        }
+        if (status != null) {
+            getSpecMeters(specId).getCount(status).incrementAndGet();
         }
     }
 
     /**
-     * Creates the meters for a given proxy spec in case this proxy is not part of our application.yml
-     * (e.g. app recovery, operator)
+     * Recomputes the counts from the proxy store. This is done once at startup by every replica; afterward the
+     * counts are kept up-to-date using events and the (relatively heavy) full reconcile only runs on the leader as a
+     * safety net, e.g. for missed events.
+     * The state of a proxy that changed while reading the store is kept, since the event is more recent than the
+     * result of the store, the result is applied to all other proxies.
      */
-    private void createMetersForExistingProxySpec(String specId) {
+    private void reconcileProxyStates() {
         try {
-            registry.get("absolute_apps_running").tag("spec.id", specId).gauge();
-        } catch (MeterNotFoundException e) {
-            registry.counter("appStops", "spec.id", specId);
-            ProxyCounter proxyCounter = new ProxyCounter(specId);
-            proxyCounters.add(proxyCounter);
-            registry.gauge("absolute_apps_running", Tags.of("spec.id", specId), proxyCounter, wrapHandleNull(ProxyCounter::getProxyCount));
-            registry.timer("usageTime", "spec.id", specId);
+            if (proxyStatesInitialized && !leaderService.isLeader()) {
+                return;
+            }
+            long version;
+            synchronized (this) {
+                version = proxyStatesVersion;
+            }
+
+            Map<String, ProxyState> actualStates = new HashMap<>();
+            for (Proxy proxy : proxyService.getAllProxies()) {
+                actualStates.put(proxy.getId(), new ProxyState(proxy.getSpecId(), proxy.getStatus()));
+            }
+
+            synchronized (this) {
+                for (Map.Entry<String, Long> entry : proxyStateVersions.entrySet()) {
+                    if (entry.getValue() <= version) {
+                        continue;
+                    }
+                    // the proxy changed while reading the store -> keep the state of the event
+                    ProxyState current = proxyStates.get(entry.getKey());
+                    if (current == null) {
+                        actualStates.remove(entry.getKey());
+                    } else {
+                        actualStates.put(entry.getKey(), current);
+                    }
+                }
+                proxyStateVersions.clear();
+
+                Map<String, EnumMap<ProxyStatus, Integer>> actualCounts = new HashMap<>();
+                for (ProxyState state : actualStates.values()) {
+                    actualCounts.computeIfAbsent(state.specId(), (k) -> new EnumMap<>(ProxyStatus.class))
+                        .merge(state.status(), 1, Integer::sum);
+                }
+                for (String specId : actualCounts.keySet()) {
+                    getSpecMeters(specId);
+                }
+                for (SpecMeters meters : specMeters.values()) {
+                    EnumMap<ProxyStatus, Integer> counts = actualCounts.get(meters.specId);
+                    for (ProxyStatus status : ProxyStatus.values()) {
+                        int count = counts == null ? 0 : counts.getOrDefault(status, 0);
+                        if (meters.getCount(status).getAndSet(count) != count) {
+                            logger.debug("Corrected number of {} proxies for spec {} to {}", status, meters.specId, count);
+                        }
+                    }
+                }
+                proxyStates.clear();
+                proxyStates.putAll(actualStates);
+                proxyStatesInitialized = true;
+            }
+        } catch (Throwable t) {
+            logger.warn("Error while reconciling proxy counts", t);
         }
     }
 
@@ -251,16 +358,59 @@ public class Micrometer implements IStatCollector {
         Integer applyAsDouble(T var1);
     }
 
-    private class ProxyCounter {
+    private record ProxyState(String specId, ProxyStatus status) {
+    }
 
-        private final String specId;
+    /**
+     * The meters of a single spec, such that events don't have to look up the meters in the registry.
+     */
+    private class SpecMeters {
 
-        public ProxyCounter(String specId) {
+        private final String specId;
+        private final Counter appStarts;
+        private final Counter appStops;
+        private final Counter appCrashes;
+        private final Counter startFailed;
+        private final Timer startupTime;
+        private final Timer applicationStartupTime;
+        private final Timer usageTime;
+        private final Map<Integer, Timer> imagePullTime = new ConcurrentHashMap<>();
+        private final Map<Integer, Timer> containerScheduleTime = new ConcurrentHashMap<>();
+        private final Map<Integer, Timer> containerStartupTime = new ConcurrentHashMap<>();
+        private final EnumMap<ProxyStatus, AtomicInteger> counts = new EnumMap<>(ProxyStatus.class);
+
+        private SpecMeters(String specId) {
             this.specId = specId;
+            for (ProxyStatus status : ProxyStatus.values()) {
+                counts.put(status, new AtomicInteger());
+            }
+            appStarts = registry.counter("appStarts", "spec.id", specId);
+            appStops = registry.counter("appStops", "spec.id", specId);
+            appCrashes = registry.counter("appCrashes", "spec.id", specId);
+            startFailed = registry.counter("startFailed", "spec.id", specId);
+            startupTime = registry.timer("startupTime", "spec.id", specId);
+            applicationStartupTime = registry.timer("applicationStartupTime", "spec.id", specId);
+            usageTime = registry.timer("usageTime", "spec.id", specId);
+            Tags tags = Tags.of("spec.id", specId);
+            registry.gauge("absolute_apps_running", tags, this, (m) -> m.getCount(ProxyStatus.Up).get());
+            registry.gauge("absolute_apps_paused", tags, this, (m) -> m.getCount(ProxyStatus.Paused).get());
+            registry.gauge("absolute_apps_starting", tags, this, (m) -> m.getCount(ProxyStatus.New).get() + m.getCount(ProxyStatus.Resuming).get());
+        }
+
+        private AtomicInteger getCount(ProxyStatus status) {
+            return counts.get(status);
+        }
+
+        private Timer getImagePullTime(Integer idx) {
+            return imagePullTime.computeIfAbsent(idx, (i) -> registry.timer("imagePullTime", "spec.id", specId, "container.idx", i.toString()));
+        }
+
+        private Timer getContainerScheduleTime(Integer idx) {
+            return containerScheduleTime.computeIfAbsent(idx, (i) -> registry.timer("containerScheduleTime", "spec.id", specId, "container.idx", i.toString()));
         }
 
-        public Integer getProxyCount() {
-            return proxyCountCache.getOrDefault(specId, null);
+        private Timer getContainerStartupTime(Integer idx) {
+            return containerStartupTime.computeIfAbsent(idx, (i) -> registry.timer("containerStartupTime", "spec.id", specId, "container.idx", i.toString()));
         }
 
     }
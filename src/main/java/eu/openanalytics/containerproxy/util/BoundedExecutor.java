@@ -0,0 +1,81 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Executor that runs at most {@code maxConcurrency} tasks at the same time on the given (shared) executor.
+ * Additional tasks are queued and submitted once a running task finished.
+ * Can be used to limit the parallelism of a single operation, without limiting the shared executor.
+ */
+public class BoundedExecutor implements Executor {
+
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final Queue<Runnable> queue = new ArrayDeque<>();
+    private int running = 0;
+
+    public BoundedExecutor(Executor executor, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        synchronized (this) {
+            if (running >= maxConcurrency) {
+                queue.add(command);
+                return;
+            }
+            running++;
+        }
+        submit(command);
+    }
+
+    private void submit(Runnable command) {
+        executor.execute(() -> {
+            try {
+                command.run();
+            } finally {
+                next();
+            }
+        });
+    }
+
+    private void next() {
+        Runnable command;
+        synchronized (this) {
+            command = queue.poll();
+            if (command == null) {
+                running--;
+                return;
+            }
+        }
+        submit(command);
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.util;
+
+import eu.openanalytics.containerproxy.service.ProxyActionRegistry;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists the proxy actions (start, stop, pause, resume) in progress on this server.
+ */
+@Component
+@WebEndpoint(id = "proxyactions")
+public class ProxyActionsEndpoint {
+
+    @Inject
+    private ProxyActionRegistry proxyActionRegistry;
+
+    @ReadOperation
+    public Map<String, Object> actions() {
+        Instant now = Instant.now();
+        List<Map<String, Object>> actions = new ArrayList<>();
+        proxyActionRegistry.getActions().stream()
+            .sorted(Comparator.comparing(ProxyActionRegistry.Action::getStartTime))
+            .forEach(action -> {
+                Map<String, Object> details = new LinkedHashMap<>();
+                details.put("proxyId", action.getProxyId());
+                details.put("action", action.getType());
+                details.put("phase", action.getPhase());
+                details.put("startTime", action.getStartTime().toString());
+                details.put("durationMs", Duration.between(action.getStartTime(), now).toMillis());
+                actions.add(details);
+            });
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("busy", proxyActionRegistry.isBusy());
+        result.put("actions", actions);
+        return result;
+    }
+
+}
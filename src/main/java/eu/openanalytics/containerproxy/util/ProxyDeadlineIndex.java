@@ -0,0 +1,126 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Index of proxies ordered by their next deadline (e.g. the time at which a proxy times out), such that a periodic
+ * cleanup only has to process the proxies which are actually due, instead of all proxies.
+ * Every proxy has at most one deadline, updating or removing a proxy does not remove its old entry from the queue,
+ * instead the old entry is ignored when it's polled (lazy deletion). Polling costs O(expired * log n).
+ * In order to bound the memory used by these stale entries, the queue is rebuilt from the deadlines as soon as it
+ * contains more than twice as many entries as there are proxies (amortized O(1) per update or removal).
+ */
+public class ProxyDeadlineIndex {
+
+    private static final int MIN_COMPACT_SIZE = 16;
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private final Map<String, Long> deadlines = new HashMap<>();
+
+    /**
+     * Sets (or replaces) the deadline of a proxy.
+     */
+    public synchronized void update(String proxyId, long deadline) {
+        Long existing = deadlines.put(proxyId, deadline);
+        if (existing == null || existing != deadline) {
+            queue.add(new Entry(proxyId, deadline));
+            compactIfNeeded();
+        }
+    }
+
+    public synchronized void remove(String proxyId) {
+        if (deadlines.remove(proxyId) != null) {
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Removes and returns all proxies of which the deadline is before or equal to the given timestamp.
+     * The caller should re-add a proxy (using {@link #update(String, long)}) if it's not yet expired.
+     *
+     * @param now the current timestamp
+     * @return the ids of the proxies that are due
+     */
+    public synchronized List<String> pollExpired(long now) {
+        List<String> res = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().deadline <= now) {
+            Entry entry = queue.poll();
+            if (!isStale(entry)) {
+                deadlines.remove(entry.proxyId);
+                res.add(entry.proxyId);
+            }
+        }
+        // purge stale entries which are not yet due, such that they don't have to be skipped during the next poll
+        while (!queue.isEmpty() && isStale(queue.peek())) {
+            queue.poll();
+        }
+        return res;
+    }
+
+    public synchronized void clear() {
+        deadlines.clear();
+        queue.clear();
+    }
+
+    public synchronized int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * @return the number of entries in the queue, including stale entries (for testing)
+     */
+    public synchronized int queueSize() {
+        return queue.size();
+    }
+
+    private boolean isStale(Entry entry) {
+        Long deadline = deadlines.get(entry.proxyId);
+        return deadline == null || deadline != entry.deadline;
+    }
+
+    private void compactIfNeeded() {
+        if (deadlines.isEmpty()) {
+            queue.clear();
+            return;
+        }
+        if (queue.size() <= MIN_COMPACT_SIZE || queue.size() <= 2 * deadlines.size()) {
+            return;
+        }
+        queue.clear();
+        deadlines.forEach((proxyId, deadline) -> queue.add(new Entry(proxyId, deadline)));
+    }
+
+    private record Entry(String proxyId, long deadline) implements Comparable<Entry> {
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(deadline, other.deadline);
+        }
+
+    }
+
+}
@@ -23,7 +23,6 @@ package eu.openanalytics.containerproxy.util;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
 import eu.openanalytics.containerproxy.model.runtime.ProxyStopReason;
-import eu.openanalytics.containerproxy.model.runtime.runtimevalues.HttpHeaders;
 import eu.openanalytics.containerproxy.model.runtime.runtimevalues.HttpHeadersKey;
 import eu.openanalytics.containerproxy.service.AsyncProxyService;
 import eu.openanalytics.containerproxy.service.ProxyCacheHeadersService;
@@ -31,10 +30,10 @@ import eu.openanalytics.containerproxy.service.ProxyService;
 import eu.openanalytics.containerproxy.service.StructuredLogger;
 import eu.openanalytics.containerproxy.service.hearbeat.HeartbeatService;
 import io.undertow.io.Sender;
+import io.undertow.server.ConduitWrapper;
 import io.undertow.server.DefaultResponseListener;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
-import io.undertow.server.handlers.PathHandler;
 import io.undertow.server.handlers.ResponseCodeHandler;
 import io.undertow.server.handlers.proxy.ProxyCallback;
 import io.undertow.server.handlers.proxy.ProxyConnection;
@@ -42,8 +41,10 @@ import io.undertow.server.handlers.proxy.ProxyHandler;
 import io.undertow.server.handlers.proxy.SimpleProxyClientProvider;
 import io.undertow.servlet.handlers.ServletRequestContext;
 import io.undertow.util.AttachmentKey;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
-import io.undertow.util.PathMatcher;
+import io.undertow.util.HttpString;
 import io.undertow.util.StatusCodes;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -55,16 +56,17 @@ import org.springframework.context.annotation.Lazy;
 import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
+import org.xnio.conduits.StreamSinkConduit;
 
 import javax.inject.Inject;
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -75,16 +77,17 @@ import java.util.function.Consumer;
 @Component
 public class ProxyMappingManager {
 
-    private static final String PROXY_INTERNAL_ENDPOINT = "/proxy_endpoint";
     private static final AttachmentKey<ProxyMappingManager> ATTACHMENT_KEY_DISPATCHER = AttachmentKey.create(ProxyMappingManager.class);
     private static final AttachmentKey<ProxyIdAttachment> ATTACHMENT_KEY_PROXY_ID = AttachmentKey.create(ProxyIdAttachment.class);
     private static final AttachmentKey<OriginalUrlAttachmentKey> ATTACHMENT_ORIGINAL_URL = AttachmentKey.create(OriginalUrlAttachmentKey.class);
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final StructuredLogger slogger = new StructuredLogger(logger);
-    // the current set of prefixPaths registered in the pathHandler
-    private final Map<String, List<String>> prefixPaths = new HashMap<>();
-    private PathHandler pathHandler;
+    // the routes of all proxies, read by the pathHandler without locking
+    private final ProxyRouteTable routeTable = new ProxyRouteTable();
+    // the request headers and response wrapper of every proxy, computed once when the mappings are added
+    private final ConcurrentHashMap<String, ProxyDecoration> decorations = new ConcurrentHashMap<>();
+    private volatile ProxyPathHandler pathHandler;
     private volatile boolean isShuttingDown = false;
 
     @Inject
@@ -144,31 +147,30 @@ public class ProxyMappingManager {
 
     public synchronized HttpHandler createHttpHandler(HttpHandler defaultHandler) {
         if (pathHandler == null) {
-            pathHandler = new ProxyPathHandler(defaultHandler);
+            pathHandler = new ProxyPathHandler(defaultHandler, routeTable);
         }
         return pathHandler;
     }
 
-    public synchronized void addMappings(Proxy proxy) {
+    public void addMappings(Proxy proxy) {
         if (pathHandler == null) throw new IllegalStateException("Cannot change mappings: web server is not yet running.");
 
-        if (proxy.getTargets().isEmpty() || prefixPaths.containsKey(proxy.getId())) {
+        if (proxy.getTargets().isEmpty() || routeTable.containsRoutes(proxy.getId())) {
             return;
         }
 
-
-        List<String> newPrefixPaths = new ArrayList<>();
-
+        Map<String, HttpHandler> handlers = new HashMap<>();
         for (Map.Entry<String, URI> target : proxy.getTargets().entrySet()) {
-            newPrefixPaths.add(addMapping(proxy, target.getKey(), target.getValue()));
+            handlers.put(target.getKey(), createProxyHandler(proxy, target.getValue()));
         }
 
-        prefixPaths.put(proxy.getId(), newPrefixPaths);
+        decorations.put(proxy.getId(), createDecoration(proxy));
+        // if another thread added the mappings concurrently, the handlers of that thread are kept
+        routeTable.addRoutes(proxy.getId(), handlers);
     }
 
     @SuppressWarnings("deprecation")
-    private synchronized String addMapping(Proxy proxy, String mapping, URI target) {
-        String prefixPath = getPrefixPath(proxy.getId(), mapping);
+    private HttpHandler createProxyHandler(Proxy proxy, URI target) {
         SimpleProxyClientProvider proxyClient = new SimpleProxyClientProvider(target) {
             @Override
             public void getConnection(ProxyTarget target, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, long timeout, TimeUnit timeUnit) {
@@ -181,25 +183,17 @@ public class ProxyMappingManager {
             }
         };
 
-        ProxyHandler proxyHandler = ProxyHandler.builder()
+        return ProxyHandler.builder()
             .setProxyClient(proxyClient)
             .setNext(ResponseCodeHandler.HANDLE_404)
             .setMaxConnectionRetries(2)
             .build();
-
-        pathHandler.addPrefixPath(prefixPath, proxyHandler);
-        return prefixPath;
     }
 
-    public synchronized void removeMappings(String proxyId) {
+    public void removeMappings(String proxyId) {
         if (pathHandler == null) throw new IllegalStateException("Cannot change mappings: web server is not yet running.");
-        List<String> prefixPathsOfProxy = prefixPaths.remove(proxyId);
-        if (prefixPathsOfProxy == null) {
-            return;
-        }
-        for (String prefixPath : prefixPathsOfProxy) {
-            pathHandler.removePrefixPath(prefixPath);
-        }
+        routeTable.removeRoutes(proxyId);
+        decorations.remove(proxyId);
     }
 
     /**
@@ -224,12 +218,47 @@ public class ProxyMappingManager {
 
     public void dispatchAsync(Proxy proxy, String mapping, HttpServletRequest request, HttpServletResponse response, Consumer<HttpServerExchange> exchangeCustomizer) throws IOException, ServletException {
         HttpServerExchange exchange = ServletRequestContext.current().getExchange();
-        exchange.putAttachment(ATTACHMENT_KEY_DISPATCHER, this);
-        exchange.putAttachment(ATTACHMENT_KEY_PROXY_ID, new ProxyIdAttachment(proxy.getId()));
 
         String queryString = request.getQueryString();
         queryString = (queryString == null) ? "" : "?" + queryString;
-        String targetPath = getPrefixPath(proxy.getId(), mapping) + queryString;
+        String targetPath = ProxyRouteTable.getPrefixPath(proxy.getId(), mapping) + queryString;
+
+        prepareExchange(proxy, exchange, request.getRequestURL().toString(), exchangeCustomizer);
+
+        request.startAsync();
+        request.getRequestDispatcher(targetPath).forward(request, response);
+    }
+
+    /**
+     * Dispatch a request directly to the proxy handler of a target proxy mapping, without the servlet forward
+     * used by {@link #dispatchAsync(Proxy, String, HttpServletRequest, HttpServletResponse)}.
+     *
+     * The caller must have authorized the request for this proxy, see {@link ProxyRouteFastPath}.
+     *
+     * @param proxy    The proxy
+     * @param mapping  The target mapping to dispatch to.
+     * @param exchange The exchange to dispatch.
+     * @return false if the proxy has no (matching) route (anymore), in which case the exchange is not changed
+     * @throws Exception If the proxy handler fails.
+     */
+    boolean dispatchDirect(Proxy proxy, String mapping, HttpServerExchange exchange) throws Exception {
+        ProxyRouteTable.Match match = routeTable.match(ProxyRouteTable.getPrefixPath(proxy.getId(), mapping));
+        if (match == null) {
+            return false;
+        }
+
+        prepareExchange(proxy, exchange, exchange.getRequestURL(), null);
+
+        // same as ProxyPathHandler
+        exchange.setRelativePath(match.remaining());
+        exchange.setResolvedPath(exchange.getResolvedPath() + match.matched());
+        match.handler().handleRequest(exchange);
+        return true;
+    }
+
+    private void prepareExchange(Proxy proxy, HttpServerExchange exchange, String originalUrl, Consumer<HttpServerExchange> exchangeCustomizer) {
+        exchange.putAttachment(ATTACHMENT_KEY_DISPATCHER, this);
+        exchange.putAttachment(ATTACHMENT_KEY_PROXY_ID, new ProxyIdAttachment(proxy.getId()));
 
         if (exchangeCustomizer != null) {
             exchangeCustomizer.accept(exchange);
@@ -243,33 +272,36 @@ public class ProxyMappingManager {
         exchange.getRequestHeaders().put(Headers.X_FORWARDED_HOST, exchange.getHostAndPort());
         exchange.addDefaultResponseListener(defaultResponseListener);
 
-        exchange.putAttachment(ATTACHMENT_ORIGINAL_URL, new OriginalUrlAttachmentKey(request.getRequestURL().toString()));
+        exchange.putAttachment(ATTACHMENT_ORIGINAL_URL, new OriginalUrlAttachmentKey(originalUrl));
 
-        // add headers
-        HttpHeaders headers = proxy.getRuntimeObject(HttpHeadersKey.inst);
-        exchange.getRequestHeaders().putAll(headers.getUndertowHeaderMap());
+        ProxyDecoration decoration = decorations.get(proxy.getId());
+        if (decoration == null) {
+            // mappings not (yet) added by this server
+            decoration = createDecoration(proxy);
+        }
 
-        exchange.addResponseWrapper((f, exchange1) -> {
-            proxyCacheHeadersService.addAppCacheHeaders(proxy, exchange1);
-            return f.create();
-        });
+        // add headers
+        HttpString[] headerNames = decoration.headerNames();
+        String[] headerValues = decoration.headerValues();
+        for (int i = 0; i < headerNames.length; i++) {
+            exchange.getRequestHeaders().put(headerNames[i], headerValues[i]);
+        }
 
-        request.startAsync();
-        request.getRequestDispatcher(targetPath).forward(request, response);
+        if (decoration.responseWrapper() != null) {
+            exchange.addResponseWrapper(decoration.responseWrapper());
+        }
     }
 
-    /**
-     * Get the internal endpoint (path) used inside the undertow container.
-     * This endpoint proxies to the corresponding target URI of the proxy.
-     * The mapping can be an empty string or a string NOT starting with a "/";
-     *
-     * @param proxyId
-     * @param mapping the mapping (a sub-path)
-     * @return
-     */
-    private String getPrefixPath(String proxyId, String mapping) {
-        // note: this is the real proxyId note the targetId!
-        return PROXY_INTERNAL_ENDPOINT + "/" + proxyId + "/" + mapping;
+    private ProxyDecoration createDecoration(Proxy proxy) {
+        HeaderMap headerMap = proxy.getRuntimeObject(HttpHeadersKey.inst).getUndertowHeaderMap();
+        List<HttpString> headerNames = new ArrayList<>();
+        List<String> headerValues = new ArrayList<>();
+        for (HeaderValues header : headerMap) {
+            headerNames.add(header.getHeaderName());
+            headerValues.add(header.getFirst());
+        }
+        return new ProxyDecoration(headerNames.toArray(new HttpString[0]), headerValues.toArray(new String[0]),
+            proxyCacheHeadersService.getResponseWrapper(proxy));
     }
 
     @EventListener(ContextClosedEvent.class)
@@ -302,31 +334,48 @@ public class ProxyMappingManager {
         return proxy.getTargets().get("");
     }
 
-    private static class ProxyPathHandler extends PathHandler {
+    private static class ProxyPathHandler implements HttpHandler {
+
+        private final HttpHandler defaultHandler;
+        private final ProxyRouteTable routeTable;
 
-        public ProxyPathHandler(HttpHandler defaultHandler) {
-            super(defaultHandler);
+        public ProxyPathHandler(HttpHandler defaultHandler, ProxyRouteTable routeTable) {
+            this.defaultHandler = defaultHandler;
+            this.routeTable = routeTable;
         }
 
-        @SuppressWarnings("unchecked")
         @Override
         public void handleRequest(HttpServerExchange exchange) throws Exception {
-            Field field = PathHandler.class.getDeclaredField("pathMatcher");
-            field.setAccessible(true);
-            PathMatcher<HttpHandler> pathMatcher = (PathMatcher<HttpHandler>) field.get(this);
-            PathMatcher.PathMatch<HttpHandler> match = pathMatcher.match(exchange.getRelativePath());
+            ProxyRouteTable.Match match = routeTable.match(exchange.getRelativePath());
+            if (match == null) {
+                defaultHandler.handleRequest(exchange);
+                return;
+            }
 
             // Note: this handler may never be accessed directly (because it bypasses Spring security).
             // Only allowed if the request was dispatched via this class.
-            if (match.getValue() instanceof ProxyHandler && exchange.getAttachment(ATTACHMENT_KEY_DISPATCHER) == null) {
+            if (exchange.getAttachment(ATTACHMENT_KEY_DISPATCHER) == null) {
                 exchange.setStatusCode(403);
                 exchange.getResponseChannel().write(ByteBuffer.wrap("Not authorized to access this proxy".getBytes()));
+                return;
+            }
+
+            // same as PathHandler
+            exchange.setRelativePath(match.remaining());
+            if (exchange.getResolvedPath().isEmpty()) {
+                exchange.setResolvedPath(match.matched());
             } else {
-                super.handleRequest(exchange);
+                exchange.setResolvedPath(exchange.getResolvedPath() + match.matched());
             }
+            match.handler().handleRequest(exchange);
         }
     }
 
+    private record ProxyDecoration(HttpString[] headerNames, String[] headerValues,
+                                   ConduitWrapper<StreamSinkConduit> responseWrapper) {
+
+    }
+
     private static class ProxyIdAttachment {
         final String proxyId;
 
@@ -0,0 +1,189 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import eu.openanalytics.containerproxy.backend.strategy.impl.DefaultTargetMappingStrategy;
+import eu.openanalytics.containerproxy.event.ProxyPauseEvent;
+import eu.openanalytics.containerproxy.event.ProxyStopEvent;
+import eu.openanalytics.containerproxy.event.UserLogoutEvent;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.service.UserAndTargetIdProxyIndex;
+import eu.openanalytics.containerproxy.service.session.ISessionService;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.security.web.session.HttpSessionDestroyedEvent;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Fast path for requests to /api/route/{targetId}/**, which avoids the Spring Security filter chain, Spring MVC and
+ * the servlet forward for requests that were recently authorized by {@link eu.openanalytics.containerproxy.api.ProxyRouteController}.
+ *
+ * Every time the controller authorizes a request, the sessionId of the request and the targetId are cached
+ * for a short time ({@code proxy.route-fast-path.ttl}). Subsequent requests with a session cookie of the same session
+ * and the same targetId are dispatched directly to the proxy handler, by a handler in front of the servlet filter chain.
+ * On every hit, the session is checked to still be valid and the proxy is looked up again (in the same way as the
+ * controller), such that a logout, an expired session or a stopped proxy (also on other replicas) is never missed.
+ * Entries are additionally removed when the session is destroyed or the proxy is stopped or paused.
+ * Any other request (cache miss, websocket upgrade, proxy without routes ...) falls back to the servlet path.
+ * Since an entry expires after the TTL, the session of the user is still regularly accessed (and therefore kept alive)
+ * by the servlet path.
+ *
+ * The fast path is disabled by default, since the proxied responses don't pass through the Spring Security filter chain
+ * (e.g. the security headers are not added).
+ */
+@Component
+public class ProxyRouteFastPath {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ProxyMappingManager mappingManager;
+    private final UserAndTargetIdProxyIndex userAndTargetIdProxyIndex;
+    private final ISessionService sessionService;
+    private final boolean enabled;
+    private final String baseUrl;
+    private final int baseUrlLength;
+    private final Cache<RouteKey, AuthorizedRoute> authorizedRoutes;
+
+    // Note: lazy to prevent an early initialization of the proxy store and session service, since this class is
+    // already used when creating the web server
+    public ProxyRouteFastPath(ProxyMappingManager mappingManager, ContextPathHelper contextPathHelper, Environment environment,
+                              @Lazy UserAndTargetIdProxyIndex userAndTargetIdProxyIndex, @Lazy ISessionService sessionService) {
+        this.mappingManager = mappingManager;
+        this.userAndTargetIdProxyIndex = userAndTargetIdProxyIndex;
+        this.sessionService = sessionService;
+        enabled = environment.getProperty("proxy.route-fast-path.enabled", Boolean.class, false);
+        baseUrl = contextPathHelper.withEndingSlash() + "api/route/";
+        baseUrlLength = baseUrl.length() + DefaultTargetMappingStrategy.TARGET_ID_LENGTH + 1;
+        authorizedRoutes = Caffeine.newBuilder()
+            .expireAfterWrite(environment.getProperty("proxy.route-fast-path.ttl", Duration.class, Duration.ofSeconds(5)))
+            .maximumSize(environment.getProperty("proxy.route-fast-path.max-size", Long.class, 10_000L))
+            .build();
+        if (enabled) {
+            logger.info("Fast path for /api/route/ requests enabled");
+        }
+    }
+
+    public HttpHandler createHttpHandler(HttpHandler next) {
+        if (!enabled) {
+            return next;
+        }
+        return exchange -> {
+            if (!tryDispatch(exchange)) {
+                next.handleRequest(exchange);
+            }
+        };
+    }
+
+    /**
+     * Registers that the current request (which must have been authorized by the servlet path) may access the given proxy.
+     *
+     * @param request  the request
+     * @param targetId the targetId used in the request
+     * @param proxy    the proxy the request was authorized for
+     */
+    public void authorized(HttpServletRequest request, String targetId, Proxy proxy) {
+        if (!enabled || !request.isRequestedSessionIdValid() || !request.isRequestedSessionIdFromCookie()) {
+            // only cache requests of which the cookie corresponds to the current (and valid) session of the user
+            return;
+        }
+        authorizedRoutes.put(new RouteKey(request.getRequestedSessionId(), targetId), new AuthorizedRoute(proxy.getUserId(), proxy.getId()));
+    }
+
+    @EventListener
+    public void onUserLogoutEvent(UserLogoutEvent event) {
+        authorizedRoutes.asMap().values().removeIf(route -> route.userId().equals(event.getUserId()));
+    }
+
+    @EventListener
+    public void onSessionDestroyedEvent(HttpSessionDestroyedEvent event) {
+        // when using Redis sessions, this event is published on every replica
+        authorizedRoutes.asMap().keySet().removeIf(key -> key.sessionId().equals(event.getId()));
+    }
+
+    @EventListener
+    public void onProxyStopEvent(ProxyStopEvent event) {
+        removeProxy(event.getProxyId());
+    }
+
+    @EventListener
+    public void onProxyPauseEvent(ProxyPauseEvent event) {
+        removeProxy(event.getProxyId());
+    }
+
+    private void removeProxy(String proxyId) {
+        authorizedRoutes.asMap().values().removeIf(route -> route.proxyId().equals(proxyId));
+    }
+
+    private boolean tryDispatch(HttpServerExchange exchange) throws Exception {
+        String requestURI = exchange.getRequestURI();
+        if (requestURI.length() < baseUrlLength
+            || !requestURI.startsWith(baseUrl)
+            || requestURI.charAt(baseUrlLength - 1) != '/'
+            || exchange.getRequestHeaders().contains(Headers.UPGRADE)) {
+            // websocket connections are long-living, therefore they always use the servlet path (which also provides the session id for heartbeats)
+            return false;
+        }
+        String sessionId = sessionService.extractSessionIdFromCookie(exchange);
+        if (sessionId == null) {
+            return false;
+        }
+        RouteKey key = new RouteKey(sessionId, requestURI.substring(baseUrl.length(), baseUrlLength - 1));
+        AuthorizedRoute route = authorizedRoutes.getIfPresent(key);
+        if (route == null) {
+            return false;
+        }
+        if (!sessionService.isSessionValid(sessionId)) {
+            // the user logged out or the session expired
+            authorizedRoutes.invalidate(key);
+            return false;
+        }
+        // same lookup as ProxyRouteController, the proxy may have been stopped or updated in the meantime
+        Proxy proxy = userAndTargetIdProxyIndex.getProxy(route.userId(), key.targetId());
+        if (proxy == null || !proxy.getId().equals(route.proxyId())) {
+            authorizedRoutes.invalidate(key);
+            return false;
+        }
+        if (!mappingManager.dispatchDirect(proxy, requestURI.substring(baseUrlLength), exchange)) {
+            // the proxy has been stopped (or is being stopped)
+            authorizedRoutes.invalidate(key);
+            return false;
+        }
+        return true;
+    }
+
+    private record RouteKey(String sessionId, String targetId) {
+    }
+
+    private record AuthorizedRoute(String userId, String proxyId) {
+    }
+
+}
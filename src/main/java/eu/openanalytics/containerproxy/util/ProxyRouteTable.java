@@ -0,0 +1,153 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.util;
+
+import io.undertow.server.HttpHandler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Route table containing the internal proxy endpoints (i.e. /proxy_endpoint/{proxyId}/{mapping}) of every proxy.
+ * The table is keyed by proxyId, so that a request can be matched without locking and without scanning all registered
+ * prefixes. The routes of a single proxy are immutable, adding or removing a proxy only touches the entry of that proxy.
+ */
+public class ProxyRouteTable {
+
+    public static final String PROXY_INTERNAL_ENDPOINT = "/proxy_endpoint";
+    private static final String PREFIX = PROXY_INTERNAL_ENDPOINT + "/";
+
+    private final ConcurrentHashMap<String, Routes> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Get the internal endpoint (path) used inside the undertow container.
+     * This endpoint proxies to the corresponding target URI of the proxy.
+     * The mapping can be an empty string or a string NOT starting with a "/";
+     *
+     * @param proxyId the id of the proxy
+     * @param mapping the mapping (a sub-path)
+     * @return the path
+     */
+    public static String getPrefixPath(String proxyId, String mapping) {
+        // note: this is the real proxyId note the targetId!
+        return PREFIX + proxyId + "/" + mapping;
+    }
+
+    /**
+     * Adds the routes of a proxy.
+     *
+     * @param proxyId  the id of the proxy
+     * @param handlers the handler for every mapping of the proxy
+     * @return false if the proxy already had routes, in which case nothing is changed
+     */
+    public boolean addRoutes(String proxyId, Map<String, HttpHandler> handlers) {
+        return routes.putIfAbsent(proxyId, new Routes(handlers)) == null;
+    }
+
+    /**
+     * Removes the routes of a proxy.
+     *
+     * @param proxyId the id of the proxy
+     * @return false if no routes were registered for this proxy
+     */
+    public boolean removeRoutes(String proxyId) {
+        return routes.remove(proxyId) != null;
+    }
+
+    public boolean containsRoutes(String proxyId) {
+        return routes.containsKey(proxyId);
+    }
+
+    /**
+     * Matches the given path against the route table.
+     * The semantics are the same as a prefix match of {@link io.undertow.util.PathMatcher}: the mapping with the
+     * longest prefix wins and the remaining part of the path is returned.
+     *
+     * @param path the (relative) path of the request
+     * @return the match or null if no route matches
+     */
+    public Match match(String path) {
+        if (!path.startsWith(PREFIX)) {
+            return null;
+        }
+        int endOfProxyId = path.indexOf('/', PREFIX.length());
+        String proxyId;
+        if (endOfProxyId < 0) {
+            proxyId = path.substring(PREFIX.length());
+        } else {
+            proxyId = path.substring(PREFIX.length(), endOfProxyId);
+        }
+        Routes proxyRoutes = routes.get(proxyId);
+        if (proxyRoutes == null) {
+            return null;
+        }
+        // position of the first character after "/proxy_endpoint/{proxyId}"
+        int base = PREFIX.length() + proxyId.length();
+        for (Route route : proxyRoutes.routes) {
+            if (route.mapping.isEmpty()) {
+                // the default mapping, equivalent to the prefix "/proxy_endpoint/{proxyId}"
+                return new Match(path.substring(0, base), path.substring(base), route.handler);
+            }
+            int end = base + 1 + route.mapping.length();
+            // the mapping must be followed by a '/' or the end of the path (same as Undertow's PathMatcher)
+            if (path.startsWith(route.mapping, base + 1) && (end == path.length() || path.charAt(end) == '/')) {
+                return new Match(path.substring(0, end), path.substring(end), route.handler);
+            }
+        }
+        return null;
+    }
+
+    public record Match(String matched, String remaining, HttpHandler handler) {
+
+    }
+
+    private record Route(String mapping, HttpHandler handler) {
+
+    }
+
+    private static class Routes {
+
+        // sorted by length of the mapping (descending), such that the longest prefix is matched first
+        private final Route[] routes;
+
+        private Routes(Map<String, HttpHandler> handlers) {
+            List<Route> res = new ArrayList<>();
+            for (Map.Entry<String, HttpHandler> handler : handlers.entrySet()) {
+                res.add(new Route(normalizeMapping(handler.getKey()), handler.getValue()));
+            }
+            res.sort(Comparator.comparingInt((Route r) -> r.mapping.length()).reversed());
+            routes = res.toArray(new Route[0]);
+        }
+
+        private static String normalizeMapping(String mapping) {
+            // PathMatcher strips the trailing slash of prefixes
+            if (mapping.endsWith("/")) {
+                return mapping.substring(0, mapping.length() - 1);
+            }
+            return mapping;
+        }
+
+    }
+
+}
@@ -35,9 +35,12 @@ import org.springframework.context.support.GenericApplicationContext;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -206,6 +209,74 @@ public class AccessControlServiceTest {
         Assertions.assertTrue(accessControlService.canAccess(auth2, createProxySpec(proxyAccessControl)));
     }
 
+    @Test
+    public void accessibleSpecsTest() {
+        when(authBackend.hasAuthorization()).thenReturn(true);
+        // 400 specs, alternating between no access control, group access, user access and an access-expression
+        List<ProxySpec> specs = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            AccessControl proxyAccessControl = new AccessControl();
+            switch (i % 4) {
+                case 1 -> proxyAccessControl.setGroups(new String[]{"group" + (i % 10)});
+                case 2 -> proxyAccessControl.setUsers(new String[]{"user" + (i % 10)});
+                case 3 -> proxyAccessControl.setExpression("#{groups.contains('DEV')}");
+                default -> {
+                }
+            }
+            specs.add(ProxySpec.builder().id("spec" + i).accessControl(proxyAccessControl).build());
+        }
+        when(specProvider.getSpecs()).thenReturn(specs);
+
+        Authentication auth = mock(Authentication.class);
+        when(auth.getName()).thenReturn("user6");
+        when(auth.getAuthorities()).thenReturn((Collection) List.of(new SimpleGrantedAuthority("ROLE_GROUP3"), new SimpleGrantedAuthority("ROLE_DEV")));
+        when(userService.isMember(auth, "group3")).thenReturn(true);
+
+        List<ProxySpec> accessibleSpecs = accessControlService.getAccessibleSpecs(auth);
+        // 100 without access control, 20 of group3, 20 of user6 and 100 using the expression
+        Assertions.assertEquals(240, accessibleSpecs.size());
+        Assertions.assertEquals(specs.stream().filter(spec -> accessControlService.canAccess(auth, spec)).toList(), accessibleSpecs);
+
+        // user without groups -> only specs without access control and of the user
+        Authentication auth2 = mock(Authentication.class);
+        when(auth2.getName()).thenReturn("user2");
+        Assertions.assertEquals(120, accessControlService.getAccessibleSpecs(auth2).size());
+    }
+
+    @Test
+    public void accessibleSpecsIndexReusedForCopiesTest() {
+        when(authBackend.hasAuthorization()).thenReturn(true);
+        when(specProvider.getSpecs()).thenAnswer(invocation -> List.of(
+            createProxySpec("spec1", new String[]{"group1"}),
+            createProxySpec("spec2", new String[]{"group2"})));
+
+        Authentication auth = mock(Authentication.class);
+        when(auth.getName()).thenReturn("user1");
+        when(auth.getAuthorities()).thenReturn((Collection) List.of(new SimpleGrantedAuthority("ROLE_GROUP1")));
+
+        Assertions.assertEquals(1, accessControlService.getAccessibleSpecs(auth).size());
+        Object index = ReflectionTestUtils.getField(accessControlService, "specAccessIndex");
+        // the provider returns copies of the same specs -> the index is re-used
+        Assertions.assertEquals(1, accessControlService.getAccessibleSpecs(auth).size());
+        Assertions.assertSame(index, ReflectionTestUtils.getField(accessControlService, "specAccessIndex"));
+
+        // the access control of a spec changed -> the index is rebuilt
+        when(specProvider.getSpecs()).thenAnswer(invocation -> List.of(
+            createProxySpec("spec1", new String[]{"group1"}),
+            createProxySpec("spec2", new String[]{"group1"})));
+        Assertions.assertEquals(2, accessControlService.getAccessibleSpecs(auth).size());
+        Assertions.assertNotSame(index, ReflectionTestUtils.getField(accessControlService, "specAccessIndex"));
+    }
+
+    private ProxySpec createProxySpec(String id, String[] groups) {
+        AccessControl proxyAccessControl = new AccessControl();
+        proxyAccessControl.setGroups(groups);
+        return ProxySpec.builder()
+            .id(id)
+            .accessControl(proxyAccessControl)
+            .build();
+    }
+
     private ProxySpec createProxySpec(AccessControl proxyAccessControl) {
         return ProxySpec.builder()
             .id("myId")
@@ -34,9 +34,12 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.springframework.data.redis.core.RedisTemplate;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -64,7 +67,10 @@ public class TestIntegrationPortAllocator {
 
     @BeforeEach
     public void beforeTest() {
-        portTemplate.delete("shinyproxy_" + identifierService.realmId + "__ports");
+        portTemplate.delete(List.of(
+            "shinyproxy_" + identifierService.realmId + "__ports",
+            "shinyproxy_" + identifierService.realmId + "__ports_bitmap",
+            "shinyproxy_" + identifierService.realmId + "__ports_owners"));
     }
 
     @ParameterizedTest
@@ -101,6 +107,36 @@ public class TestIntegrationPortAllocator {
         Assertions.assertEquals(expectedPorts, allAllocatedPorts);
     }
 
+    @ParameterizedTest
+    @MethodSource("parameters")
+    public void testManyConcurrentAllocators(IPortAllocator portAllocator) throws InterruptedException {
+        int numThreads = 20;
+        int numPorts = 50;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            String owner = "owner" + t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < numPorts; i++) {
+                    portAllocator.allocate(100, 2000, owner);
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        List<Integer> allAllocatedPorts = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            Set<Integer> ports = portAllocator.getOwnedPorts("owner" + t);
+            Assertions.assertEquals(numPorts, ports.size());
+            allAllocatedPorts.addAll(ports);
+        }
+        Collections.sort(allAllocatedPorts);
+        Assertions.assertEquals(IntStream.range(100, 100 + numThreads * numPorts).boxed().toList(), allAllocatedPorts);
+    }
+
     @ParameterizedTest
     @MethodSource("parameters")
     public void testRelease(IPortAllocator portAllocator) {
@@ -0,0 +1,142 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.event.UserLoginEvent;
+import eu.openanalytics.containerproxy.stat.impl.AbstractDbCollector;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+public class TestAbstractDbCollector {
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Timeout while waiting for condition");
+            Thread.sleep(10);
+        }
+    }
+
+    private TestCollector createCollector(MockEnvironment environment, SimpleMeterRegistry registry) {
+        TestCollector collector = new TestCollector();
+        ReflectionTestUtils.setField(collector, AbstractDbCollector.class, "environment", environment, null);
+        ReflectionTestUtils.setField(collector, AbstractDbCollector.class, "registry", registry, null);
+        collector.startWriter();
+        return collector;
+    }
+
+    @Test
+    public void testEventsAreWrittenInBatches() throws InterruptedException {
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty(AbstractDbCollector.PROP_BATCH_SIZE, "10");
+        TestCollector collector = createCollector(environment, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 25; i++) {
+            collector.onUserLoginEvent(new UserLoginEvent(this, "user-" + i));
+        }
+        waitFor(() -> collector.getNumberOfWrittenEvents() == 25);
+
+        Assertions.assertTrue(collector.batchSizes.stream().allMatch(size -> size > 0 && size <= 10));
+        collector.stopWriter();
+        Assertions.assertEquals(25, collector.getNumberOfWrittenEvents());
+    }
+
+    @Test
+    public void testStopWriterWritesBatchInProgress() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty(AbstractDbCollector.PROP_BATCH_SIZE, "10")
+            .withProperty(AbstractDbCollector.PROP_INITIAL_BACKOFF, "60000");
+        TestCollector collector = createCollector(environment, registry);
+        collector.failing = true;
+
+        for (int i = 0; i < 5; i++) {
+            collector.onUserLoginEvent(new UserLoginEvent(this, "user-" + i));
+        }
+        // the writer took the batch from the queue and is waiting to retry
+        waitFor(() -> registry.get("usage_stats_write_failures").counter().count() == 1);
+        Assertions.assertEquals(0, collector.getNumberOfWrittenEvents());
+
+        collector.failing = false;
+        collector.stopWriter();
+        Assertions.assertEquals(5, collector.getNumberOfWrittenEvents());
+        Assertions.assertEquals(0, registry.get("usage_stats_dropped").counter().count());
+    }
+
+    @Test
+    public void testStopWriterWritesQueuedEvents() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty(AbstractDbCollector.PROP_BATCH_SIZE, "10");
+        TestCollector collector = createCollector(environment, registry);
+        // block the writer, such that the events stay in the queue
+        collector.stopWriterThread();
+
+        for (int i = 0; i < 25; i++) {
+            collector.onUserLoginEvent(new UserLoginEvent(this, "user-" + i));
+        }
+        collector.stopWriter();
+
+        Assertions.assertEquals(25, collector.getNumberOfWrittenEvents());
+        Assertions.assertEquals(List.of(10, 10, 5), collector.batchSizes);
+    }
+
+    private static class TestCollector extends AbstractDbCollector {
+
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        private final List<String> users = new CopyOnWriteArrayList<>();
+        private volatile boolean failing = false;
+
+        @Override
+        protected void writeToDb(List<UsageStatEvent> events) throws IOException {
+            if (failing) {
+                throw new IOException("Database unreachable");
+            }
+            batchSizes.add(events.size());
+            events.forEach(e -> users.add(e.userId()));
+        }
+
+        private int getNumberOfWrittenEvents() {
+            return users.size();
+        }
+
+        private void stopWriterThread() {
+            Thread writer = (Thread) ReflectionTestUtils.getField(this, AbstractDbCollector.class, "writer");
+            ReflectionTestUtils.setField(this, AbstractDbCollector.class, "running", false, boolean.class);
+            writer.interrupt();
+            try {
+                writer.join(5_000);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+}
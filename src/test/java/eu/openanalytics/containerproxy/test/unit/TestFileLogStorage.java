@@ -0,0 +1,162 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.log.FileLogStorage;
+import eu.openanalytics.containerproxy.log.LogPaths;
+import eu.openanalytics.containerproxy.log.LogStreams;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+public class TestFileLogStorage {
+
+    @TempDir
+    private Path logDir;
+
+    private FileLogStorage createStorage(MockEnvironment environment, SimpleMeterRegistry registry) throws IOException {
+        environment.setProperty("proxy.container-log-path", logDir.toString());
+        FileLogStorage storage = new FileLogStorage();
+        ReflectionTestUtils.setField(storage, "environment", environment);
+        ReflectionTestUtils.setField(storage, "meterRegistry", registry);
+        storage.initialize();
+        return storage;
+    }
+
+    private Proxy createProxy(String id) {
+        return Proxy.builder().id(id).targetId(id).specId("myspec").build();
+    }
+
+    @Test
+    public void testLogsAreWrittenOnClose() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty("proxy.container-log-buffer-size", "16")
+            // do not flush during the test
+            .withProperty("proxy.container-log-flush-interval", "600000");
+        FileLogStorage storage = createStorage(environment, registry);
+
+        Proxy proxy = createProxy("proxy1");
+        LogStreams streams = storage.createOutputStreams(proxy);
+        streams.getStdout().write("hello\n".getBytes(StandardCharsets.UTF_8));
+        streams.getStdout().flush();
+        LogPaths paths = storage.getLogs(proxy);
+        // still buffered
+        Assertions.assertEquals(0, Files.size(paths.getStdout()));
+
+        // larger than the buffer -> written by the producer
+        streams.getStdout().write("this line is longer than the buffer\n".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertTrue(Files.size(paths.getStdout()) > 0);
+        Assertions.assertTrue(registry.get("container_log_buffer_full").counter().count() > 0);
+
+        streams.getStdout().close();
+        streams.getStderr().close();
+        Assertions.assertEquals("hello\nthis line is longer than the buffer\n", Files.readString(paths.getStdout()));
+        Assertions.assertEquals(0, registry.get("container_log_streams").gauge().value());
+    }
+
+    @Test
+    public void testRotateOnSize() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty("proxy.container-log-buffer-size", "10")
+            .withProperty("proxy.container-log-max-file-size", "20")
+            .withProperty("proxy.container-log-flush-interval", "600000");
+        FileLogStorage storage = createStorage(environment, registry);
+
+        Proxy proxy = createProxy("proxy2");
+        LogStreams streams = storage.createOutputStreams(proxy);
+        for (int i = 0; i < 5; i++) {
+            streams.getStdout().write("123456789\n".getBytes(StandardCharsets.UTF_8));
+        }
+        streams.getStdout().close();
+        streams.getStderr().close();
+
+        Path stdout = storage.getLogs(proxy).getStdout();
+        try (Stream<Path> files = Files.list(logDir)) {
+            List<Path> rotated = files.filter(p -> p.getFileName().toString().startsWith(stdout.getFileName() + ".")).toList();
+            Assertions.assertFalse(rotated.isEmpty());
+            long totalSize = Files.size(stdout);
+            for (Path path : rotated) {
+                Assertions.assertTrue(Files.size(path) <= 20);
+                totalSize += Files.size(path);
+            }
+            Assertions.assertEquals(50, totalSize);
+        }
+    }
+
+    @Test
+    public void testRotatedFilesAreCompressed() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty("proxy.container-log-buffer-size", "10")
+            .withProperty("proxy.container-log-max-file-size", "20")
+            .withProperty("proxy.container-log-compress-rotated-files", "true")
+            .withProperty("proxy.container-log-flush-interval", "600000");
+        FileLogStorage storage = createStorage(environment, registry);
+
+        Proxy proxy = createProxy("proxy3");
+        LogStreams streams = storage.createOutputStreams(proxy);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            String line = String.format("line %04d\n", i);
+            expected.append(line);
+            streams.getStdout().write(line.getBytes(StandardCharsets.UTF_8));
+        }
+        // waits for the compression
+        storage.shutdown();
+        streams.getStdout().close();
+        streams.getStderr().close();
+
+        Path stdout = storage.getLogs(proxy).getStdout();
+        try (Stream<Path> files = Files.list(logDir)) {
+            List<Path> rotated = files
+                .filter(p -> p.getFileName().toString().startsWith(stdout.getFileName() + "."))
+                .sorted()
+                .toList();
+            Assertions.assertFalse(rotated.isEmpty());
+            StringBuilder content = new StringBuilder();
+            for (Path path : rotated) {
+                // the uncompressed files are removed
+                Assertions.assertTrue(path.getFileName().toString().endsWith(".gz"));
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+                    content.append(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+            content.append(Files.readString(stdout));
+            Assertions.assertEquals(expected.toString(), content.toString());
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.service.leader.GlobalEventLoopService;
+import eu.openanalytics.containerproxy.service.leader.ILeaderService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestGlobalEventLoopService {
+
+    private ILeaderService leaderService;
+    private SimpleMeterRegistry registry;
+    private GlobalEventLoopService eventLoop;
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Timeout while waiting for condition");
+            Thread.sleep(10);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS), "Timeout while waiting for latch");
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @BeforeEach
+    public void init() {
+        leaderService = mock(ILeaderService.class);
+        when(leaderService.isLeader()).thenReturn(true);
+        registry = new SimpleMeterRegistry();
+        eventLoop = new GlobalEventLoopService(leaderService, registry, new MockEnvironment());
+    }
+
+    private Map<?, ?> getQueues() {
+        return (Map<?, ?>) ReflectionTestUtils.getField(eventLoop, "queues");
+    }
+
+    @Test
+    public void testTasksOfSameKeyRunInOrder() {
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 100; i++) {
+            int task = i;
+            eventLoop.schedule("spec-1", () -> executed.add(task));
+        }
+        eventLoop.schedule("spec-1", done::countDown);
+        await(done);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(i);
+        }
+        Assertions.assertEquals(expected, executed);
+    }
+
+    @Test
+    public void testDifferentKeysRunInParallel() {
+        CountDownLatch spec2Started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        // the task of spec-1 can only finish when the task of spec-2 runs while it is blocked
+        eventLoop.schedule("spec-1", () -> {
+            await(spec2Started);
+            done.countDown();
+        });
+        eventLoop.schedule("spec-2", spec2Started::countDown);
+        await(done);
+    }
+
+    @Test
+    public void testScheduleDeduplicated() {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> executed = Collections.synchronizedList(new ArrayList<>());
+        eventLoop.schedule("spec-1", () -> await(blocked));
+
+        eventLoop.scheduleDeduplicated("spec-1", "reconcile", () -> executed.add("reconcile"));
+        eventLoop.schedule("spec-1", () -> executed.add("other"));
+        eventLoop.scheduleDeduplicated("spec-1", "reconcile", () -> executed.add("reconcile"));
+        eventLoop.scheduleDeduplicated("spec-1", "reconcile", () -> executed.add("reconcile"));
+        // the same name using a different key is not deduplicated
+        eventLoop.scheduleDeduplicated("spec-2", "reconcile", () -> executed.add("reconcile-spec-2"));
+        eventLoop.schedule("spec-1", done::countDown);
+
+        blocked.countDown();
+        await(done);
+        // the pending task is moved to the end of the queue, such that it runs after the other task
+        Assertions.assertEquals(List.of("other", "reconcile"), executed.stream().filter(s -> !s.equals("reconcile-spec-2")).toList());
+        Assertions.assertTrue(executed.contains("reconcile-spec-2"));
+    }
+
+    @Test
+    public void testOnlyIfLeader() {
+        when(leaderService.isLeader()).thenReturn(false);
+        AtomicInteger executed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(2);
+
+        eventLoop.schedule("spec-1", executed::incrementAndGet);
+        eventLoop.schedule(executed::incrementAndGet);
+        eventLoop.scheduleDeduplicated("spec-1", "reconcile", executed::incrementAndGet);
+        eventLoop.schedule("spec-1", done::countDown, false);
+        eventLoop.schedule(done::countDown, false);
+        await(done);
+        Assertions.assertEquals(0, executed.get());
+
+        when(leaderService.isLeader()).thenReturn(true);
+        CountDownLatch done2 = new CountDownLatch(1);
+        eventLoop.schedule("spec-1", executed::incrementAndGet);
+        eventLoop.schedule("spec-1", done2::countDown);
+        await(done2);
+        Assertions.assertEquals(1, executed.get());
+    }
+
+    @Test
+    public void testQueueIsRemovedWhenDrained() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        eventLoop.schedule("spec-1", () -> {
+            started.countDown();
+            await(blocked);
+        });
+        eventLoop.schedule("spec-1", () -> {
+        });
+        await(started);
+
+        Assertions.assertEquals(1, getQueues().size());
+        Assertions.assertNotNull(registry.find("global_event_loop_queue_depth").tag("key", "spec-1").gauge());
+        Assertions.assertNotNull(registry.find("global_event_loop_task_latency").tag("key", "spec-1").timer());
+        Assertions.assertEquals(1, registry.get("global_event_loop_queue_depth").tag("key", "spec-1").gauge().value());
+
+        blocked.countDown();
+        waitFor(() -> getQueues().isEmpty());
+        Assertions.assertNull(registry.find("global_event_loop_queue_depth").tag("key", "spec-1").gauge());
+        Assertions.assertNull(registry.find("global_event_loop_task_latency").tag("key", "spec-1").timer());
+
+        // the key can be used again
+        CountDownLatch done = new CountDownLatch(1);
+        eventLoop.schedule("spec-1", done::countDown);
+        await(done);
+        waitFor(() -> getQueues().isEmpty());
+    }
+
+    @Test
+    public void testScheduleAfterAll() {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> executed = Collections.synchronizedList(new ArrayList<>());
+        eventLoop.schedule("spec-1", () -> await(blocked));
+        eventLoop.schedule("spec-1", () -> executed.add("spec-1"), false);
+        eventLoop.schedule("spec-2", () -> executed.add("spec-2"), false);
+
+        // the task is executed even if this server is no longer the leader
+        when(leaderService.isLeader()).thenReturn(false);
+        eventLoop.scheduleAfterAll(GlobalEventLoopService.LEADERSHIP_KEY, () -> {
+            executed.add("release");
+            done.countDown();
+        });
+
+        blocked.countDown();
+        await(done);
+        Assertions.assertEquals("release", executed.get(executed.size() - 1));
+        Assertions.assertTrue(executed.containsAll(List.of("spec-1", "spec-2")));
+    }
+
+}
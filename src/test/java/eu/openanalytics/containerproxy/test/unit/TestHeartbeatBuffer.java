@@ -0,0 +1,64 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.service.hearbeat.HeartbeatBuffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+public class TestHeartbeatBuffer {
+
+    @Test
+    public void testCoalesce() {
+        HeartbeatBuffer buffer = new HeartbeatBuffer();
+        buffer.add("a", 10);
+        buffer.add("a", 30);
+        buffer.add("a", 20);
+        buffer.add("b", 5);
+
+        Assertions.assertEquals(30, buffer.get("a"));
+        Assertions.assertEquals(2, buffer.getCoalescedCount());
+
+        Map<String, Long> drained = buffer.drain();
+        Assertions.assertEquals(Map.of("a", 30L, "b", 5L), drained);
+        // only counted once processed
+        Assertions.assertEquals(0, buffer.getFlushedCount());
+        buffer.flushed(drained.size());
+        Assertions.assertEquals(2, buffer.getFlushedCount());
+        Assertions.assertNull(buffer.get("a"));
+        Assertions.assertTrue(buffer.drain().isEmpty());
+    }
+
+    @Test
+    public void testRestore() {
+        HeartbeatBuffer buffer = new HeartbeatBuffer();
+        buffer.add("a", 10);
+        Map<String, Long> drained = buffer.drain();
+        buffer.add("a", 5);
+        buffer.restore(drained);
+
+        Assertions.assertEquals(0, buffer.getFlushedCount());
+        Assertions.assertEquals(Map.of("a", 10L), buffer.drain());
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.service.hearbeat.HeartbeatTimerWheel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestHeartbeatTimerWheel {
+
+    @Test
+    public void testExpireAfterDelay() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // small wheel, such that some timeouts need multiple rounds
+        HeartbeatTimerWheel wheel = new HeartbeatTimerWheel("TestWheel", 10, 8, registry);
+        try {
+            CountDownLatch latch = new CountDownLatch(100);
+            List<TestTimeout> timeouts = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                TestTimeout timeout = new TestTimeout(latch, 0);
+                timeouts.add(timeout);
+                timeout.scheduledAt = System.nanoTime();
+                timeout.delay = (i % 10) * 50L;
+                wheel.schedule(timeout, timeout.delay);
+            }
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            for (TestTimeout timeout : timeouts) {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(timeout.expiredAt - timeout.scheduledAt);
+                // a timeout may expire at most one tick too early (since the deadline is rounded to a tick)
+                Assertions.assertTrue(elapsed >= timeout.delay - 10, "expired after " + elapsed + "ms, expected " + timeout.delay + "ms");
+            }
+            Assertions.assertEquals(100, registry.get("heartbeat_wheel_timeouts_per_tick").summary().totalAmount());
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    @Test
+    public void testReschedule() throws InterruptedException {
+        HeartbeatTimerWheel wheel = new HeartbeatTimerWheel("TestWheel", 10, 8, new SimpleMeterRegistry());
+        try {
+            CountDownLatch latch = new CountDownLatch(5);
+            TestTimeout timeout = new TestTimeout(latch, 4) {
+                @Override
+                protected void reschedule() {
+                    wheel.schedule(this, 20);
+                }
+            };
+            wheel.schedule(timeout, 20);
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            Assertions.assertEquals(5, timeout.expired);
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    private static class TestTimeout extends HeartbeatTimerWheel.Timeout {
+
+        private final CountDownLatch latch;
+        private int reschedules;
+        private volatile long scheduledAt;
+        private volatile long delay;
+        private volatile long expiredAt;
+        private volatile int expired = 0;
+
+        private TestTimeout(CountDownLatch latch, int reschedules) {
+            this.latch = latch;
+            this.reschedules = reschedules;
+        }
+
+        @Override
+        protected void expire() {
+            expiredAt = System.nanoTime();
+            expired++;
+            latch.countDown();
+            if (reschedules-- > 0) {
+                reschedule();
+            }
+        }
+
+        protected void reschedule() {
+        }
+
+    }
+
+}
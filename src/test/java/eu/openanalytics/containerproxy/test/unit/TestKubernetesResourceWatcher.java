@@ -0,0 +1,136 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.ContainerProxyException;
+import eu.openanalytics.containerproxy.backend.kubernetes.KubernetesResourceWatcher;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.readiness.Readiness;
+import io.fabric8.kubernetes.client.server.mock.EnableKubernetesMockClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+@EnableKubernetesMockClient(crud = true)
+public class TestKubernetesResourceWatcher {
+
+    private static final String NAMESPACE = "test";
+
+    static KubernetesClient client;
+
+    private KubernetesResourceWatcher<Pod> podWatcher;
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Timeout while waiting for condition");
+            Thread.sleep(10);
+        }
+    }
+
+    private static Pod createPod(String name) {
+        return client.pods().inNamespace(NAMESPACE).resource(new PodBuilder()
+            .withNewMetadata()
+            .withName(name)
+            .withNamespace(NAMESPACE)
+            .endMetadata()
+            .withNewSpec()
+            .addNewContainer()
+            .withName("app")
+            .withImage("openanalytics/shinyproxy-demo")
+            .endContainer()
+            .endSpec()
+            .build()).create();
+    }
+
+    @BeforeEach
+    public void init() {
+        podWatcher = new KubernetesResourceWatcher<>("pods", List.of(NAMESPACE),
+            (namespace, handler) -> client.pods().inNamespace(namespace).inform(handler, 0),
+            Readiness.getInstance()::isReady);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        podWatcher.close();
+    }
+
+    private CompletableFuture<Pod> waitUntilReadyAsync(String name, long timeoutMs) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return podWatcher.waitUntilReady(NAMESPACE, name, timeoutMs);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private boolean isWaiting() {
+        Map<?, ?> waiting = (Map<?, ?>) ReflectionTestUtils.getField(podWatcher, "waiting");
+        return waiting != null && !waiting.isEmpty();
+    }
+
+    @Test
+    public void testDeleteFailsWaitImmediately() throws Exception {
+        Assertions.assertTrue(podWatcher.isWatching(NAMESPACE));
+        createPod("pod-1");
+        waitFor(() -> podWatcher.get(NAMESPACE, "pod-1") != null);
+
+        CompletableFuture<Pod> result = waitUntilReadyAsync("pod-1", 60_000);
+        waitFor(this::isWaiting);
+
+        long start = System.currentTimeMillis();
+        client.pods().inNamespace(NAMESPACE).withName("pod-1").delete();
+
+        ExecutionException ex = Assertions.assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        // does not wait until the timeout
+        Assertions.assertTrue(System.currentTimeMillis() - start < 10_000);
+        Assertions.assertInstanceOf(ContainerProxyException.class, ex.getCause());
+        Assertions.assertEquals("Kubernetes pods test/pod-1 was deleted while waiting for it to become ready", ex.getCause().getMessage());
+        Assertions.assertFalse(isWaiting());
+    }
+
+    @Test
+    public void testDeleteOfOtherPodDoesNotFailWait() throws Exception {
+        createPod("pod-1");
+        createPod("pod-2");
+        waitFor(() -> podWatcher.list(NAMESPACE).size() == 2);
+
+        CompletableFuture<Pod> result = waitUntilReadyAsync("pod-1", 2_000);
+        waitFor(this::isWaiting);
+        client.pods().inNamespace(NAMESPACE).withName("pod-2").delete();
+
+        // pod-1 never becomes ready -> times out
+        Assertions.assertNull(result.get(10, TimeUnit.SECONDS));
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
+import eu.openanalytics.containerproxy.model.store.memory.MemoryProxyStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class TestMemoryProxyStore {
+
+    private static Proxy proxy(String id, String userId, String specId, String targetId, ProxyStatus status) {
+        return Proxy.builder().id(id).userId(userId).specId(specId).targetId(targetId).status(status).build();
+    }
+
+    @Test
+    public void testIndexesFollowUpdates() {
+        MemoryProxyStore proxyStore = new MemoryProxyStore();
+        proxyStore.addProxy(proxy("a", "jack", "01_hello", null, ProxyStatus.New));
+        proxyStore.addProxy(proxy("b", "jack", "02_hello", null, ProxyStatus.New));
+        proxyStore.addProxy(proxy("c", "jeff", "01_hello", null, ProxyStatus.New));
+
+        Assertions.assertEquals(2, proxyStore.getNumberOfProxiesBySpecId("01_hello"));
+        Assertions.assertEquals(1, proxyStore.getNumberOfProxiesBySpecId("02_hello"));
+        Assertions.assertEquals(0, proxyStore.getNumberOfProxiesBySpecId("03_hello"));
+        Assertions.assertEquals(3, proxyStore.getProxiesByStatus(ProxyStatus.New).size());
+        Assertions.assertTrue(proxyStore.getProxiesByStatus(ProxyStatus.Up).isEmpty());
+
+        // targetId is set once the proxy is started
+        proxyStore.updateProxy(proxy("a", "jack", "01_hello", "a-target", ProxyStatus.Up));
+        Assertions.assertEquals(List.of("a"), proxyStore.getProxiesByStatus(ProxyStatus.Up).stream().map(Proxy::getId).toList());
+        Assertions.assertEquals(2, proxyStore.getProxiesByStatus(ProxyStatus.New).size());
+        Assertions.assertEquals("a", proxyStore.getUserProxyByTargetId("jack", "a-target").getId());
+        Assertions.assertNull(proxyStore.getUserProxyByTargetId("jeff", "a-target"));
+        Assertions.assertEquals(List.of("a"), proxyStore.getUserProxiesBySpecId("jack", "01_hello").stream().map(Proxy::getId).toList());
+
+        proxyStore.updateProxy(proxy("a", "jack", "01_hello", "a-target", ProxyStatus.Stopping));
+        Assertions.assertTrue(proxyStore.getProxiesByStatus(ProxyStatus.Up).isEmpty());
+        Assertions.assertEquals(1, proxyStore.getProxiesByStatus(ProxyStatus.Stopping).size());
+
+        proxyStore.removeProxy(proxy("a", "jack", "01_hello", "a-target", ProxyStatus.Stopped));
+        Assertions.assertEquals(1, proxyStore.getNumberOfProxiesBySpecId("01_hello"));
+        Assertions.assertTrue(proxyStore.getProxiesByStatus(ProxyStatus.Stopping).isEmpty());
+        Assertions.assertNull(proxyStore.getUserProxyByTargetId("jack", "a-target"));
+        Assertions.assertTrue(proxyStore.getUserProxiesBySpecId("jack", "01_hello").isEmpty());
+    }
+
+    @Test
+    public void testRemoveUsesStoredVersion() {
+        MemoryProxyStore proxyStore = new MemoryProxyStore();
+        proxyStore.addProxy(proxy("a", "jack", "01_hello", "a-target", ProxyStatus.Up));
+
+        // the proxy passed to removeProxy may be outdated, the indexes are updated using the stored version
+        proxyStore.removeProxy(proxy("a", "jack", "01_hello", null, ProxyStatus.New));
+        Assertions.assertTrue(proxyStore.getProxiesByStatus(ProxyStatus.Up).isEmpty());
+        Assertions.assertNull(proxyStore.getUserProxyByTargetId("jack", "a-target"));
+        Assertions.assertEquals(0, proxyStore.getNumberOfProxiesBySpecId("01_hello"));
+    }
+
+}
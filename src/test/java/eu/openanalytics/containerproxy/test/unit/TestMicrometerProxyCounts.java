@@ -0,0 +1,197 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.event.ProxyPauseEvent;
+import eu.openanalytics.containerproxy.event.ProxyRecoveredEvent;
+import eu.openanalytics.containerproxy.event.ProxyResumeEvent;
+import eu.openanalytics.containerproxy.event.ProxyResumingEvent;
+import eu.openanalytics.containerproxy.event.ProxyStartEvent;
+import eu.openanalytics.containerproxy.event.ProxyStartFailedEvent;
+import eu.openanalytics.containerproxy.event.ProxyStartingEvent;
+import eu.openanalytics.containerproxy.event.ProxyStopEvent;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStopReason;
+import eu.openanalytics.containerproxy.service.ProxyService;
+import eu.openanalytics.containerproxy.service.leader.ILeaderService;
+import eu.openanalytics.containerproxy.stat.impl.Micrometer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestMicrometerProxyCounts {
+
+    private static final String SPEC_ID = "01_hello";
+    // events of another replica
+    private static final String SOURCE = "other-replica";
+
+    private SimpleMeterRegistry registry;
+    private ProxyService proxyService;
+    private ILeaderService leaderService;
+    private Micrometer micrometer;
+
+    private static Proxy createProxy(String id, ProxyStatus status) {
+        return Proxy.builder()
+            .id(id)
+            .targetId(id)
+            .status(status)
+            .userId("jack")
+            .specId(SPEC_ID)
+            .build();
+    }
+
+    @BeforeEach
+    public void init() {
+        registry = new SimpleMeterRegistry();
+        proxyService = mock(ProxyService.class);
+        leaderService = mock(ILeaderService.class);
+        when(leaderService.isLeader()).thenReturn(true);
+        micrometer = new Micrometer();
+        ReflectionTestUtils.setField(micrometer, "registry", registry);
+        ReflectionTestUtils.setField(micrometer, "proxyService", proxyService);
+        ReflectionTestUtils.setField(micrometer, "leaderService", leaderService);
+    }
+
+    private double gauge(String name) {
+        return registry.get(name).tag("spec.id", SPEC_ID).gauge().value();
+    }
+
+    private void assertCounts(int starting, int running, int paused) {
+        Assertions.assertEquals(starting, gauge("absolute_apps_starting"));
+        Assertions.assertEquals(running, gauge("absolute_apps_running"));
+        Assertions.assertEquals(paused, gauge("absolute_apps_paused"));
+    }
+
+    @Test
+    public void testEventTransitions() {
+        micrometer.onProxyStartingEvent(new ProxyStartingEvent(SOURCE, "proxy-1", "jack", SPEC_ID));
+        micrometer.onProxyStartingEvent(new ProxyStartingEvent(SOURCE, "proxy-2", "jack", SPEC_ID));
+        assertCounts(2, 0, 0);
+
+        micrometer.onProxyStartEvent(new ProxyStartEvent(SOURCE, "proxy-1", "jack", SPEC_ID, null));
+        assertCounts(1, 1, 0);
+
+        micrometer.onProxyStartFailedEvent(new ProxyStartFailedEvent(SOURCE, "proxy-2", "jack", SPEC_ID));
+        assertCounts(0, 1, 0);
+
+        micrometer.onProxyPauseEvent(new ProxyPauseEvent(SOURCE, "proxy-1", "jack", SPEC_ID, Duration.ofMinutes(1)));
+        assertCounts(0, 0, 1);
+
+        micrometer.onProxyResumeEvent(new ProxyResumeEvent(SOURCE, "proxy-1", "jack", SPEC_ID));
+        assertCounts(0, 1, 0);
+
+        micrometer.onProxyStopEvent(new ProxyStopEvent(SOURCE, "proxy-1", "jack", SPEC_ID, ProxyStopReason.Unknown, Duration.ofMinutes(2)));
+        assertCounts(0, 0, 0);
+    }
+
+    @Test
+    public void testDuplicateEventsAreCountedOnce() {
+        micrometer.onProxyStartEvent(new ProxyStartEvent(SOURCE, "proxy-1", "jack", SPEC_ID, null));
+        micrometer.onProxyStartEvent(new ProxyStartEvent(SOURCE, "proxy-1", "jack", SPEC_ID, null));
+        assertCounts(0, 1, 0);
+
+        micrometer.onProxyStopEvent(new ProxyStopEvent(SOURCE, "proxy-1", "jack", SPEC_ID, ProxyStopReason.Unknown, null));
+        micrometer.onProxyStopEvent(new ProxyStopEvent(SOURCE, "proxy-1", "jack", SPEC_ID, ProxyStopReason.Unknown, null));
+        assertCounts(0, 0, 0);
+    }
+
+    @Test
+    public void testResumingAndRecoveredEvents() {
+        micrometer.onProxyPauseEvent(new ProxyPauseEvent(SOURCE, "proxy-1", "jack", SPEC_ID, null));
+        assertCounts(0, 0, 1);
+
+        micrometer.onProxyResumingEvent(new ProxyResumingEvent(SOURCE, "proxy-1", "jack", SPEC_ID));
+        assertCounts(1, 0, 0);
+
+        micrometer.onProxyResumeEvent(new ProxyResumeEvent(SOURCE, "proxy-1", "jack", SPEC_ID));
+        assertCounts(0, 1, 0);
+
+        micrometer.onProxyRecoveredEvent(new ProxyRecoveredEvent(SOURCE, "proxy-2", "jack", SPEC_ID, ProxyStatus.Up));
+        micrometer.onProxyRecoveredEvent(new ProxyRecoveredEvent(SOURCE, "proxy-3", "jack", SPEC_ID, ProxyStatus.Paused));
+        assertCounts(0, 2, 1);
+    }
+
+    @Test
+    public void testReconcileCorrectsCounts() {
+        micrometer.onProxyStartEvent(new ProxyStartEvent(SOURCE, "proxy-1", "jack", SPEC_ID, null));
+        micrometer.onProxyStartEvent(new ProxyStartEvent(SOURCE, "proxy-2", "jack", SPEC_ID, null));
+
+        // the stop event of proxy-2 was missed and proxy-3 was added without event
+        when(proxyService.getAllProxies()).thenReturn(List.of(
+            createProxy("proxy-1", ProxyStatus.Up),
+            createProxy("proxy-3", ProxyStatus.Paused)));
+        ReflectionTestUtils.invokeMethod(micrometer, "reconcileProxyStates");
+        assertCounts(0, 1, 1);
+
+        // the reconciled state is used for the next events
+        micrometer.onProxyStopEvent(new ProxyStopEvent(SOURCE, "proxy-3", "jack", SPEC_ID, ProxyStopReason.Unknown, null));
+        assertCounts(0, 1, 0);
+    }
+
+    @Test
+    public void testReconcileKeepsProxiesChangedDuringReconcile() {
+        micrometer.onProxyStartEvent(new ProxyStartEvent(SOURCE, "proxy-1", "jack", SPEC_ID, null));
+        micrometer.onProxyStartEvent(new ProxyStartEvent(SOURCE, "proxy-2", "jack", SPEC_ID, null));
+
+        when(proxyService.getAllProxies()).thenAnswer((invocation) -> {
+            // proxy-1 is stopped while reading the store, the result still contains it
+            micrometer.onProxyStopEvent(new ProxyStopEvent(SOURCE, "proxy-1", "jack", SPEC_ID, ProxyStopReason.Unknown, null));
+            return List.of(
+                createProxy("proxy-1", ProxyStatus.Up),
+                createProxy("proxy-3", ProxyStatus.Paused));
+        });
+        ReflectionTestUtils.invokeMethod(micrometer, "reconcileProxyStates");
+        // proxy-1 keeps the state of the event, the result is applied to proxy-2 and proxy-3
+        assertCounts(0, 0, 1);
+
+        // the next reconcile applies the result to all proxies
+        when(proxyService.getAllProxies()).thenReturn(List.of(createProxy("proxy-3", ProxyStatus.Up)));
+        ReflectionTestUtils.invokeMethod(micrometer, "reconcileProxyStates");
+        assertCounts(0, 1, 0);
+    }
+
+    @Test
+    public void testOnlyLeaderReconcilesAfterStartup() {
+        when(leaderService.isLeader()).thenReturn(false);
+        when(proxyService.getAllProxies()).thenReturn(List.of(createProxy("proxy-1", ProxyStatus.Up)));
+        // the initial reconcile is done by every replica
+        ReflectionTestUtils.invokeMethod(micrometer, "reconcileProxyStates");
+        assertCounts(0, 1, 0);
+
+        when(proxyService.getAllProxies()).thenReturn(List.of());
+        ReflectionTestUtils.invokeMethod(micrometer, "reconcileProxyStates");
+        assertCounts(0, 1, 0);
+
+        when(leaderService.isLeader()).thenReturn(true);
+        ReflectionTestUtils.invokeMethod(micrometer, "reconcileProxyStates");
+        assertCounts(0, 0, 0);
+    }
+
+}
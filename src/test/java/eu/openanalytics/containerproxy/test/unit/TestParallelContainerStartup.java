@@ -0,0 +1,240 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.ContainerFailedToStartException;
+import eu.openanalytics.containerproxy.ProxyFailedToStartException;
+import eu.openanalytics.containerproxy.backend.AbstractContainerBackend;
+import eu.openanalytics.containerproxy.model.runtime.Container;
+import eu.openanalytics.containerproxy.model.runtime.ExistingContainerInfo;
+import eu.openanalytics.containerproxy.model.runtime.PortMappings;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStartupLog;
+import eu.openanalytics.containerproxy.model.spec.ContainerSpec;
+import eu.openanalytics.containerproxy.model.spec.ProxySpec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.security.core.Authentication;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestParallelContainerStartup {
+
+    private TestBackend createBackend(int maxContainersPerProxy) {
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty("proxy.parallel-container-startup.enabled", "true")
+            .withProperty("proxy.parallel-container-startup.max-containers-per-proxy", String.valueOf(maxContainersPerProxy));
+        TestBackend backend = new TestBackend();
+        ReflectionTestUtils.setField(backend, "environment", environment);
+        backend.initialize();
+        return backend;
+    }
+
+    private ProxySpec createSpec(List<List<Integer>> dependsOn) {
+        List<ContainerSpec> containerSpecs = new ArrayList<>();
+        for (List<Integer> dependencies : dependsOn) {
+            containerSpecs.add(ContainerSpec.builder().dependsOn(dependencies).build());
+        }
+        ProxySpec proxySpec = ProxySpec.builder().id("01_hello").containerSpecs(containerSpecs).build();
+        proxySpec.setContainerIndex();
+        return proxySpec;
+    }
+
+    private Proxy createProxy(ProxySpec proxySpec) {
+        Proxy.ProxyBuilder proxy = Proxy.builder().id("proxy-1").specId(proxySpec.getId());
+        for (ContainerSpec containerSpec : proxySpec.getContainerSpecs()) {
+            proxy.addContainer(Container.builder().index(containerSpec.getIndex()).build());
+        }
+        return proxy.build();
+    }
+
+    @Test
+    public void testDependsOnOrdering() {
+        TestBackend backend = createBackend(4);
+        // container 1 depends on container 0, container 2 has no dependencies
+        ProxySpec proxySpec = createSpec(List.of(List.of(), List.of(0), List.of()));
+        CountDownLatch container2Started = new CountDownLatch(1);
+        backend.onStart = (index, proxy) -> {
+            if (index == 0) {
+                // container 2 is started concurrently with container 0
+                await(container2Started);
+            } else if (index == 1) {
+                // container 1 is started with the result of container 0
+                Assertions.assertEquals("container-0", proxy.getContainer(0).getId());
+                Assertions.assertTrue(backend.finished.contains(0));
+            } else if (index == 2) {
+                container2Started.countDown();
+            }
+        };
+
+        Proxy result = backend.startProxy(null, createProxy(proxySpec), proxySpec, new ProxyStartupLog.ProxyStartupLogBuilder());
+
+        Assertions.assertTrue(backend.started.indexOf(2) < backend.started.indexOf(1));
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals("container-" + i, result.getContainer(i).getId());
+            Assertions.assertEquals(URI.create("http://container-" + i), result.getTargets().get("target-" + i));
+        }
+    }
+
+    @Test
+    public void testCleanupAfterPartialFailure() {
+        TestBackend backend = createBackend(4);
+        // container 2 depends on container 1, which fails to start
+        ProxySpec proxySpec = createSpec(List.of(List.of(), List.of(), List.of(1)));
+        backend.onStart = (index, proxy) -> {
+            if (index == 1) {
+                throw new ContainerFailedToStartException("Container failed to start", new RuntimeException(),
+                    proxy.getContainer(1).toBuilder().id("container-1").build());
+            }
+        };
+
+        ProxyFailedToStartException exception = Assertions.assertThrows(ProxyFailedToStartException.class,
+            () -> backend.startProxy(null, createProxy(proxySpec), proxySpec, new ProxyStartupLog.ProxyStartupLogBuilder()));
+
+        Assertions.assertEquals("Container with index 1 failed to start", exception.getMessage());
+        Assertions.assertFalse(backend.started.contains(2));
+        // the proxy in the exception contains every created container
+        Proxy failedProxy = exception.getProxy();
+        Assertions.assertEquals("container-0", failedProxy.getContainer(0).getId());
+        Assertions.assertEquals("container-1", failedProxy.getContainer(1).getId());
+        Assertions.assertNull(failedProxy.getContainer(2).getId());
+
+        backend.stopProxy(failedProxy);
+        Assertions.assertEquals(Set.of("container-0", "container-1"), backend.removed);
+    }
+
+    @Test
+    public void testParallelismIsBoundedPerProxy() {
+        TestBackend backend = createBackend(2);
+        ProxySpec proxySpec = createSpec(List.of(List.of(), List.of(), List.of(), List.of(), List.of()));
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        backend.onStart = (index, proxy) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sleep();
+            running.decrementAndGet();
+        };
+
+        Proxy result = backend.startProxy(null, createProxy(proxySpec), proxySpec, new ProxyStartupLog.ProxyStartupLogBuilder());
+        Assertions.assertEquals(5, backend.started.size());
+        Assertions.assertTrue(maxRunning.get() <= 2);
+
+        backend.onStop = container -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sleep();
+            running.decrementAndGet();
+        };
+        maxRunning.set(0);
+        backend.stopProxy(result);
+        Assertions.assertEquals(5, backend.removed.size());
+        Assertions.assertTrue(maxRunning.get() <= 2);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private interface StartListener {
+        void onStart(int index, Proxy proxy);
+    }
+
+    private interface StopListener {
+        void onStop(Container container);
+    }
+
+    private static class TestBackend extends AbstractContainerBackend {
+
+        private final List<Integer> started = new CopyOnWriteArrayList<>();
+        private final List<Integer> finished = new CopyOnWriteArrayList<>();
+        private final Set<String> removed = ConcurrentHashMap.newKeySet();
+        private StartListener onStart = (index, proxy) -> {
+        };
+        private StopListener onStop = container -> {
+        };
+
+        @Override
+        public Proxy startContainer(Authentication user, Container container, ContainerSpec spec, Proxy proxy, ProxySpec proxySpec, ProxyStartupLog.ProxyStartupLogBuilder proxyStartupLogBuilder) {
+            started.add(container.getIndex());
+            onStart.onStart(container.getIndex(), proxy);
+            finished.add(container.getIndex());
+            String id = "container-" + container.getIndex();
+            return proxy.toBuilder()
+                .updateContainer(container.toBuilder().id(id).build())
+                .addTarget("target-" + container.getIndex(), URI.create("http://" + id))
+                .build();
+        }
+
+        @Override
+        protected void doStopProxy(Proxy proxy) throws Exception {
+            forEachContainer(proxy, container -> {
+                if (container.getId() != null) {
+                    onStop.onStop(container);
+                    removed.add(container.getId());
+                }
+            });
+        }
+
+        @Override
+        protected String getPropertyPrefix() {
+            return "proxy.test.";
+        }
+
+        @Override
+        protected URI calculateTarget(Container container, PortMappings.PortMappingEntry portMapping, Integer hostPort) {
+            return null;
+        }
+
+        @Override
+        public List<ExistingContainerInfo> scanExistingContainers() {
+            return List.of();
+        }
+
+        @Override
+        public Map<String, URI> setupPortMappingExistingProxy(Proxy proxy, Container container, Map<Integer, Integer> portBindings) {
+            return Map.of();
+        }
+
+    }
+
+}
@@ -20,10 +20,13 @@
  */
 package eu.openanalytics.containerproxy.test.unit;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.openanalytics.containerproxy.ContainerProxyApplication;
 import eu.openanalytics.containerproxy.model.runtime.AllowedParametersForUser;
 import eu.openanalytics.containerproxy.model.runtime.ParameterNames;
 import eu.openanalytics.containerproxy.model.runtime.ParameterValues;
+import eu.openanalytics.containerproxy.model.spec.Parameters;
 import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 import eu.openanalytics.containerproxy.service.InvalidParametersException;
 import eu.openanalytics.containerproxy.service.ParametersService;
@@ -36,11 +39,14 @@ import org.springframework.data.util.Pair;
 import org.springframework.security.core.Authentication;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -325,4 +331,97 @@ public class TestParametersService {
             "Missing value for parameter parameter1");
     }
 
+    @Test
+    public void testAllowedValueSets() {
+        ProxySpec spec = proxySpecProvider.getSpec("big-parameters");
+        AllowedParametersForUser allowedParametersForUser = parametersService.calculateAllowedParametersForUser(auth, spec, null);
+
+        // one entry per value-set, containing the sorted indexes of the allowed values of every parameter
+        Assertions.assertEquals(spec.getParameters().getValueSets().size(), allowedParametersForUser.getAllowedValueSets().size());
+        for (int[][] valueSet : allowedParametersForUser.getAllowedValueSets()) {
+            Assertions.assertEquals(4, valueSet.length);
+            for (int[] values : valueSet) {
+                int[] sorted = values.clone();
+                Arrays.sort(sorted);
+                Assertions.assertArrayEquals(sorted, values);
+                // values are 1-indexed
+                Assertions.assertTrue(Arrays.stream(values).allMatch(v -> v > 0));
+            }
+        }
+
+        // the compact form allows exactly the expanded combinations
+        for (List<Integer> combination : allowedParametersForUser.getAllowedCombinations()) {
+            Assertions.assertTrue(allowedParametersForUser.getAllowedValueSets().stream()
+                .anyMatch(valueSet -> AllowedParametersForUser.containsCombination(valueSet, combination)));
+        }
+        Assertions.assertTrue(allowedParametersForUser.getAllowedValueSets().stream()
+            .noneMatch(valueSet -> AllowedParametersForUser.containsCombination(valueSet, Arrays.asList(1, 1, 7, 1))));
+
+        // both forms are included in the JSON representation
+        JsonNode json = new ObjectMapper().valueToTree(allowedParametersForUser);
+        Assertions.assertEquals(spec.getParameters().getValueSets().size(), json.get("allowedValueSets").size());
+        Assertions.assertEquals(5200, json.get("allowedCombinations").size());
+    }
+
+    @Test
+    public void testAllowedValuesCannotBeModified() {
+        ProxySpec spec = proxySpecProvider.getSpec("big-parameters");
+        AllowedParametersForUser allowedParametersForUser = parametersService.calculateAllowedParametersForUser(auth, spec, null);
+
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> allowedParametersForUser.getValues().get("parameter1").add("Z"));
+        int original = allowedParametersForUser.getAllowedValueSets().get(0)[0][0];
+        allowedParametersForUser.getAllowedValueSets().get(0)[0][0] = 999;
+
+        // the values of other users are not affected
+        AllowedParametersForUser allowedParametersForUser2 = parametersService.calculateAllowedParametersForUser(auth, spec, null);
+        Assertions.assertEquals(original, allowedParametersForUser2.getAllowedValueSets().get(0)[0][0]);
+    }
+
+    @Test
+    public void testCopyOfSpecUsesCompiledParameters() throws InvalidParametersException {
+        ProxySpec spec = proxySpecProvider.getSpec("big-parameters");
+        parametersService.calculateAllowedParametersForUser(auth, spec, null);
+        Map<?, ?> compiledParameters = (Map<?, ?>) ReflectionTestUtils.getField(parametersService, "compiledParameters");
+        Object compiled = compiledParameters.get("big-parameters");
+        Assertions.assertNotNull(compiled);
+
+        // a copy with the same parameters (e.g. a spec created for a specific user) re-uses the compiled parameters
+        ProxySpec copy = spec.toBuilder().parameters(copyParameters(spec.getParameters())).build();
+        Pair<ParameterNames, ParameterValues> res = testAllowedValue(copy, "The letter A", "The number 1", "Foo", "YES");
+        Assertions.assertEquals("the-first-value-set", res.getSecond().getValueSetName());
+        Assertions.assertSame(compiled, compiledParameters.get("big-parameters"));
+
+        // a copy with different values is compiled again
+        Parameters changed = copyParameters(spec.getParameters());
+        Map<String, List<String>> values = new HashMap<>();
+        for (String parameterId : changed.getIds()) {
+            values.put(parameterId, changed.getValueSets().get(0).getParameterValues(parameterId));
+        }
+        values.put("parameter4", List.of("no"));
+        changed.getValueSets().get(0).setValues(values);
+        ProxySpec changedSpec = spec.toBuilder().parameters(changed).build();
+        testNotAllowedValue(changedSpec, "The letter A", "2", "Foo", "YES");
+        Assertions.assertNotSame(compiled, compiledParameters.get("big-parameters"));
+    }
+
+    private Parameters copyParameters(Parameters parameters) {
+        Parameters copy = new Parameters();
+        copy.setDefinitions(new ArrayList<>(parameters.getDefinitions()));
+        List<Parameters.ValueSet> valueSets = new ArrayList<>();
+        for (Parameters.ValueSet valueSet : parameters.getValueSets()) {
+            Parameters.ValueSet valueSetCopy = new Parameters.ValueSet();
+            Map<String, List<String>> values = new HashMap<>();
+            for (String parameterId : valueSet.getParameterIds()) {
+                values.put(parameterId, new ArrayList<>(valueSet.getParameterValues(parameterId)));
+            }
+            valueSetCopy.setValues(values);
+            valueSetCopy.setName(valueSet.getName());
+            valueSetCopy.setAccessControl(valueSet.getAccessControl());
+            valueSets.add(valueSetCopy);
+        }
+        copy.setValueSets(valueSets);
+        copy.setTemplate(parameters.getTemplate());
+        return copy;
+    }
+
 }
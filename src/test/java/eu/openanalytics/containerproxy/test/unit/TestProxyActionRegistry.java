@@ -0,0 +1,66 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.ProxyActionConflictException;
+import eu.openanalytics.containerproxy.service.ProxyActionRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestProxyActionRegistry {
+
+    @Test
+    public void testConflicts() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ProxyActionRegistry registry = new ProxyActionRegistry(meterRegistry);
+        Assertions.assertFalse(registry.isBusy());
+
+        ProxyActionRegistry.Action start = registry.started("a", ProxyActionRegistry.ActionType.Start);
+        Assertions.assertTrue(registry.isBusy());
+        Assertions.assertThrows(ProxyActionConflictException.class, () -> registry.started("a", ProxyActionRegistry.ActionType.Pause));
+
+        // other proxies are not affected
+        ProxyActionRegistry.Action other = registry.started("b", ProxyActionRegistry.ActionType.Pause);
+
+        // a proxy can be stopped while it's starting, but only once
+        ProxyActionRegistry.Action stop = registry.started("a", ProxyActionRegistry.ActionType.Stop);
+        Assertions.assertThrows(ProxyActionConflictException.class, () -> registry.started("a", ProxyActionRegistry.ActionType.Stop));
+        Assertions.assertEquals(2, registry.getActions("a").size());
+        Assertions.assertEquals(3, registry.getActions().size());
+
+        start.queued();
+        start.running();
+        Assertions.assertEquals(ProxyActionRegistry.Phase.Async, start.getPhase());
+        registry.finished(start, false);
+        registry.finished(stop, true);
+        registry.finished(other, true);
+        Assertions.assertTrue(registry.getActions().isEmpty());
+
+        // an action finished recently
+        Assertions.assertTrue(registry.isBusy());
+        Assertions.assertEquals(1, meterRegistry.get("proxy_action_rejected").tag("action", "Stop").counter().count());
+        Assertions.assertEquals(1, meterRegistry.get("proxy_action_duration").tag("action", "Start").tag("result", "failure").timer().count());
+        Assertions.assertEquals(1, meterRegistry.get("proxy_action_queue_time").tag("action", "Start").timer().count());
+        Assertions.assertEquals(0, meterRegistry.get("proxy_actions_in_progress").gauge().value());
+    }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.CacheHeadersMode;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.CacheHeadersModeKey;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.HttpHeaders;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.HttpHeadersKey;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.RuntimeValue;
+import eu.openanalytics.containerproxy.service.ProxyCacheHeadersService;
+import eu.openanalytics.containerproxy.util.ProxyMappingManager;
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ConduitFactory;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.xnio.conduits.StreamSinkConduit;
+
+import java.net.URI;
+import java.util.Map;
+
+public class TestProxyCacheHeadersService {
+
+    private static final ConduitFactory<StreamSinkConduit> CONDUIT_FACTORY = () -> null;
+
+    private ProxyCacheHeadersService cacheHeadersService;
+
+    private static Proxy createProxy(String id, CacheHeadersMode mode) {
+        return Proxy.builder()
+            .id(id)
+            .targetId(id)
+            .userId("jack")
+            .specId("01_hello")
+            .addTarget("", URI.create("http://localhost:3838"))
+            .addRuntimeValue(new RuntimeValue(CacheHeadersModeKey.inst, mode), false)
+            .addRuntimeValue(new RuntimeValue(HttpHeadersKey.inst, new HttpHeaders(Map.of("X-Test", "value"))), false)
+            .build();
+    }
+
+    private static HttpServerExchange createExchange(HttpString method, String contentType) {
+        HttpServerExchange exchange = new HttpServerExchange(null);
+        exchange.setRequestMethod(method);
+        if (contentType != null) {
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, contentType);
+        }
+        // headers added by the app
+        exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "no-cache");
+        exchange.getResponseHeaders().put(Headers.PRAGMA, "no-cache");
+        return exchange;
+    }
+
+    private static void assertCached(HttpServerExchange exchange) {
+        Assertions.assertEquals("max-age=86400", exchange.getResponseHeaders().getFirst(Headers.CACHE_CONTROL));
+        Assertions.assertNull(exchange.getResponseHeaders().getFirst(Headers.PRAGMA));
+        Assertions.assertNull(exchange.getResponseHeaders().getFirst(Headers.EXPIRES));
+    }
+
+    private static void assertNotCached(HttpServerExchange exchange) {
+        Assertions.assertEquals("no-cache, no-store, max-age=0, must-revalidate", exchange.getResponseHeaders().getFirst(Headers.CACHE_CONTROL));
+        Assertions.assertEquals("no-cache", exchange.getResponseHeaders().getFirst(Headers.PRAGMA));
+        Assertions.assertEquals("0", exchange.getResponseHeaders().getFirst(Headers.EXPIRES));
+    }
+
+    @BeforeEach
+    public void init() {
+        cacheHeadersService = new ProxyCacheHeadersService();
+    }
+
+    private HttpServerExchange wrap(Proxy proxy, HttpString method, String contentType) {
+        HttpServerExchange exchange = createExchange(method, contentType);
+        ConduitWrapper<StreamSinkConduit> wrapper = cacheHeadersService.getResponseWrapper(proxy);
+        Assertions.assertNotNull(wrapper);
+        wrapper.wrap(CONDUIT_FACTORY, exchange);
+        return exchange;
+    }
+
+    @Test
+    public void testEnforceNoCache() {
+        Proxy proxy = createProxy("proxy-1", CacheHeadersMode.EnforceNoCache);
+        assertNotCached(wrap(proxy, Methods.GET, "text/css"));
+        assertNotCached(wrap(proxy, Methods.GET, "text/html"));
+
+        HttpServerExchange exchange = createExchange(Methods.GET, "text/css");
+        cacheHeadersService.addAppCacheHeaders(proxy, exchange);
+        assertNotCached(exchange);
+    }
+
+    @Test
+    public void testEnforceCacheAssets() {
+        Proxy proxy = createProxy("proxy-1", CacheHeadersMode.EnforceCacheAssets);
+        assertCached(wrap(proxy, Methods.GET, "text/css"));
+        assertCached(wrap(proxy, Methods.GET, "application/javascript; charset=utf-8"));
+        assertCached(wrap(proxy, Methods.GET, "font/woff2"));
+        assertNotCached(wrap(proxy, Methods.GET, "text/html"));
+        assertNotCached(wrap(proxy, Methods.GET, null));
+        // only GET requests are cached
+        assertNotCached(wrap(proxy, Methods.POST, "text/css"));
+
+        HttpServerExchange exchange = createExchange(Methods.GET, "text/css");
+        cacheHeadersService.addAppCacheHeaders(proxy, exchange);
+        assertCached(exchange);
+    }
+
+    @Test
+    public void testPassthrough() {
+        Proxy proxy = createProxy("proxy-1", CacheHeadersMode.Passthrough);
+        Assertions.assertNull(cacheHeadersService.getResponseWrapper(proxy));
+
+        HttpServerExchange exchange = createExchange(Methods.GET, "text/css");
+        cacheHeadersService.addAppCacheHeaders(proxy, exchange);
+        Assertions.assertEquals("no-cache", exchange.getResponseHeaders().getFirst(Headers.CACHE_CONTROL));
+        Assertions.assertEquals("no-cache", exchange.getResponseHeaders().getFirst(Headers.PRAGMA));
+    }
+
+    @Test
+    public void testWrappersAreShared() {
+        Assertions.assertSame(
+            cacheHeadersService.getResponseWrapper(createProxy("proxy-1", CacheHeadersMode.EnforceCacheAssets)),
+            cacheHeadersService.getResponseWrapper(createProxy("proxy-2", CacheHeadersMode.EnforceCacheAssets)));
+        Assertions.assertSame(
+            cacheHeadersService.getResponseWrapper(createProxy("proxy-1", CacheHeadersMode.EnforceNoCache)),
+            cacheHeadersService.getResponseWrapper(createProxy("proxy-2", CacheHeadersMode.EnforceNoCache)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testContentTypesAreCached() {
+        Cache<String, Boolean> cache = (Cache<String, Boolean>) ReflectionTestUtils.getField(cacheHeadersService, "isAssetContentType");
+        Assertions.assertNotNull(cache);
+        Proxy proxy = createProxy("proxy-1", CacheHeadersMode.EnforceCacheAssets);
+
+        wrap(proxy, Methods.GET, "text/css; charset=utf-8");
+        wrap(proxy, Methods.GET, "text/css; charset=utf-8");
+        wrap(proxy, Methods.GET, "text/html");
+
+        Assertions.assertEquals(Boolean.TRUE, cache.getIfPresent("text/css; charset=utf-8"));
+        Assertions.assertEquals(Boolean.FALSE, cache.getIfPresent("text/html"));
+        Assertions.assertEquals(2, cache.asMap().size());
+
+        // the result of the cache is used
+        cache.put("text/html", true);
+        assertCached(wrap(proxy, Methods.GET, "text/html"));
+    }
+
+    @Test
+    public void testDecorationIsRemovedWhenProxyIsStopped() {
+        ProxyMappingManager mappingManager = new ProxyMappingManager();
+        ReflectionTestUtils.setField(mappingManager, "proxyCacheHeadersService", cacheHeadersService);
+        mappingManager.createHttpHandler(exchange -> {
+        });
+        Map<?, ?> decorations = (Map<?, ?>) ReflectionTestUtils.getField(mappingManager, "decorations");
+        Assertions.assertNotNull(decorations);
+
+        Proxy proxy = createProxy("proxy-1", CacheHeadersMode.EnforceCacheAssets);
+        mappingManager.addMappings(proxy);
+        Assertions.assertTrue(decorations.containsKey("proxy-1"));
+
+        mappingManager.removeMappings("proxy-1");
+        Assertions.assertFalse(decorations.containsKey("proxy-1"));
+    }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.ProxyActionConflictException;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.HeartbeatTimeoutKey;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.MaxLifetimeKey;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.RuntimeValue;
+import eu.openanalytics.containerproxy.model.store.IHeartbeatStore;
+import eu.openanalytics.containerproxy.service.IProxyReleaseStrategy;
+import eu.openanalytics.containerproxy.service.ProxyMaxLifetimeService;
+import eu.openanalytics.containerproxy.service.ProxyService;
+import eu.openanalytics.containerproxy.service.hearbeat.ActiveProxiesService;
+import eu.openanalytics.containerproxy.util.ProxyDeadlineIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that the heartbeat and max-lifetime cleanup keep checking the remaining proxies when releasing a proxy fails
+ * and that proxies which could not be released (or checked) are kept in the index.
+ */
+public class TestProxyCleanupRetries {
+
+    private static final long HOUR = 3_600_000L;
+
+    private static Proxy createProxy(String id, ProxyStatus status) {
+        return Proxy.builder()
+            .id(id)
+            .targetId(id)
+            .status(status)
+            .startupTimestamp(System.currentTimeMillis() - 2 * HOUR)
+            .createdTimestamp(System.currentTimeMillis() - 2 * HOUR)
+            .userId("jack")
+            .specId("01_hello")
+            .addRuntimeValue(new RuntimeValue(HeartbeatTimeoutKey.inst, 60_000L), false)
+            .addRuntimeValue(new RuntimeValue(MaxLifetimeKey.inst, 60L), false)
+            .build();
+    }
+
+    private static List<Proxy> createProxies() {
+        return List.of(
+            createProxy("proxy-1", ProxyStatus.Up),
+            createProxy("proxy-2", ProxyStatus.Up),
+            createProxy("proxy-3", ProxyStatus.Up),
+            createProxy("proxy-4", ProxyStatus.Paused));
+    }
+
+    private static IProxyReleaseStrategy createConflictingReleaseStrategy() {
+        IProxyReleaseStrategy releaseStrategy = mock(IProxyReleaseStrategy.class);
+        doAnswer(invocation -> {
+            Proxy proxy = invocation.getArgument(0);
+            if (proxy.getId().equals("proxy-2")) {
+                throw new ProxyActionConflictException("Stop already in progress");
+            }
+            return null;
+        }).when(releaseStrategy).releaseProxy(any());
+        return releaseStrategy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Long> getDeadlines(Object service, String indexField) {
+        ProxyDeadlineIndex index = (ProxyDeadlineIndex) ReflectionTestUtils.getField(service, indexField);
+        return (Map<String, Long>) ReflectionTestUtils.getField(index, "deadlines");
+    }
+
+    @Test
+    public void testHeartbeatCleanupContinuesAfterConflict() {
+        List<Proxy> proxies = createProxies();
+        ProxyService proxyService = mock(ProxyService.class);
+        when(proxyService.getAllProxies()).thenReturn(proxies);
+        IProxyReleaseStrategy releaseStrategy = createConflictingReleaseStrategy();
+
+        ActiveProxiesService activeProxiesService = new ActiveProxiesService();
+        ReflectionTestUtils.setField(activeProxiesService, "proxyService", proxyService);
+        ReflectionTestUtils.setField(activeProxiesService, "heartbeatStore", mock(IHeartbeatStore.class));
+        ReflectionTestUtils.setField(activeProxiesService, "releaseStrategy", releaseStrategy);
+        ReflectionTestUtils.setField(activeProxiesService, "fullScanInterval", HOUR);
+        ReflectionTestUtils.setField(activeProxiesService, "cleanupInterval", 20_000L);
+
+        long start = System.currentTimeMillis();
+        ReflectionTestUtils.invokeMethod(activeProxiesService, "performCleanup");
+
+        // all running proxies are released, even though releasing proxy-2 failed
+        verify(releaseStrategy, times(3)).releaseProxy(any());
+        verify(releaseStrategy).releaseProxy(proxies.get(2));
+
+        // proxy-2 (conflict) and proxy-4 (paused) are checked again during the next cleanup
+        Map<String, Long> deadlines = getDeadlines(activeProxiesService, "timeoutIndex");
+        Assertions.assertEquals(4, deadlines.size());
+        Assertions.assertTrue(deadlines.get("proxy-2") <= System.currentTimeMillis() + 20_000L);
+        Assertions.assertTrue(deadlines.get("proxy-2") >= start + 20_000L);
+        Assertions.assertTrue(deadlines.get("proxy-4") <= System.currentTimeMillis() + 20_000L);
+    }
+
+    @Test
+    public void testMaxLifetimeCleanupContinuesAfterConflict() {
+        List<Proxy> proxies = createProxies();
+        ProxyService proxyService = mock(ProxyService.class);
+        when(proxyService.getAllProxies()).thenReturn(proxies);
+        IProxyReleaseStrategy releaseStrategy = createConflictingReleaseStrategy();
+
+        ProxyMaxLifetimeService maxLifetimeService = new ProxyMaxLifetimeService();
+        ReflectionTestUtils.setField(maxLifetimeService, "proxyService", proxyService);
+        ReflectionTestUtils.setField(maxLifetimeService, "releaseStrategy", releaseStrategy);
+        ReflectionTestUtils.setField(maxLifetimeService, "fullScanInterval", HOUR);
+
+        long start = System.currentTimeMillis();
+        ReflectionTestUtils.invokeMethod(maxLifetimeService, "performCleanup");
+
+        verify(releaseStrategy, times(3)).releaseProxy(any());
+        verify(releaseStrategy).releaseProxy(proxies.get(2));
+
+        Map<String, Long> deadlines = getDeadlines(maxLifetimeService, "maxLifetimeIndex");
+        Assertions.assertEquals(4, deadlines.size());
+        Assertions.assertTrue(deadlines.get("proxy-2") >= start + 60_000L);
+        Assertions.assertTrue(deadlines.get("proxy-2") <= System.currentTimeMillis() + 60_000L);
+        Assertions.assertTrue(deadlines.get("proxy-4") <= System.currentTimeMillis() + 60_000L);
+    }
+
+    @Test
+    public void testConflictingProxyIsRetried() {
+        List<Proxy> proxies = createProxies();
+        ProxyService proxyService = mock(ProxyService.class);
+        when(proxyService.getAllProxies()).thenReturn(proxies);
+        when(proxyService.getProxy("proxy-2")).thenReturn(proxies.get(1));
+        IProxyReleaseStrategy releaseStrategy = createConflictingReleaseStrategy();
+
+        ProxyMaxLifetimeService maxLifetimeService = new ProxyMaxLifetimeService();
+        ReflectionTestUtils.setField(maxLifetimeService, "proxyService", proxyService);
+        ReflectionTestUtils.setField(maxLifetimeService, "releaseStrategy", releaseStrategy);
+        ReflectionTestUtils.setField(maxLifetimeService, "fullScanInterval", HOUR);
+        ReflectionTestUtils.invokeMethod(maxLifetimeService, "performCleanup");
+
+        // make proxy-2 due, the next cleanup (not a full scan) must retry releasing it
+        ProxyDeadlineIndex index = (ProxyDeadlineIndex) ReflectionTestUtils.getField(maxLifetimeService, "maxLifetimeIndex");
+        index.update("proxy-2", 0);
+        ReflectionTestUtils.invokeMethod(maxLifetimeService, "performCleanup");
+
+        verify(releaseStrategy, times(2)).releaseProxy(proxies.get(1));
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.util.ProxyDeadlineIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class TestProxyDeadlineIndex {
+
+    @Test
+    public void testPollExpired() {
+        ProxyDeadlineIndex index = new ProxyDeadlineIndex();
+        index.update("a", 30);
+        index.update("b", 10);
+        index.update("c", 20);
+
+        Assertions.assertEquals(List.of(), index.pollExpired(5));
+        Assertions.assertEquals(List.of("b", "c"), index.pollExpired(20));
+        Assertions.assertEquals(1, index.size());
+        Assertions.assertEquals(List.of(), index.pollExpired(20));
+        Assertions.assertEquals(List.of("a"), index.pollExpired(100));
+        Assertions.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testUpdateAndRemove() {
+        ProxyDeadlineIndex index = new ProxyDeadlineIndex();
+        index.update("a", 10);
+        index.update("b", 10);
+        index.update("c", 10);
+        // postpone the deadline, the old entry must be ignored
+        index.update("a", 50);
+        index.remove("b");
+
+        Assertions.assertEquals(List.of("c"), index.pollExpired(20));
+        Assertions.assertEquals(List.of("a"), index.pollExpired(50));
+
+        // re-adding a polled proxy
+        index.update("c", 60);
+        Assertions.assertEquals(List.of("c"), index.pollExpired(60));
+        Assertions.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testStaleEntriesAreCompacted() {
+        ProxyDeadlineIndex index = new ProxyDeadlineIndex();
+        for (int i = 0; i < 100; i++) {
+            index.update("proxy-" + i, 1000 + i);
+        }
+        // removed proxies with a deadline far in the future are never polled
+        for (int i = 0; i < 90; i++) {
+            index.remove("proxy-" + i);
+        }
+        Assertions.assertEquals(10, index.size());
+        Assertions.assertTrue(index.queueSize() <= 2 * index.size(), "queue size: " + index.queueSize());
+
+        // repeatedly postponing a deadline does not grow the queue either
+        for (int i = 0; i < 100; i++) {
+            index.update("proxy-95", 2000 + i);
+        }
+        Assertions.assertTrue(index.queueSize() <= 2 * index.size(), "queue size: " + index.queueSize());
+
+        Assertions.assertEquals(List.of("proxy-90", "proxy-91", "proxy-92", "proxy-93", "proxy-94", "proxy-96", "proxy-97", "proxy-98", "proxy-99"), index.pollExpired(1999));
+        Assertions.assertEquals(List.of("proxy-95"), index.pollExpired(2099));
+        Assertions.assertEquals(0, index.queueSize());
+    }
+
+    @Test
+    public void testPollPurgesStaleHeads() {
+        ProxyDeadlineIndex index = new ProxyDeadlineIndex();
+        index.update("a", 10);
+        index.update("b", 20);
+        index.update("c", 30);
+        index.remove("b");
+
+        Assertions.assertEquals(List.of("a"), index.pollExpired(15));
+        // the entry of b is removed although its deadline is not yet reached
+        Assertions.assertEquals(1, index.queueSize());
+        Assertions.assertEquals(List.of("c"), index.pollExpired(30));
+    }
+
+}
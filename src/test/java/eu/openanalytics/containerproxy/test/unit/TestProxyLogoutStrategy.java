@@ -0,0 +1,82 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.backend.strategy.impl.DefaultProxyLogoutStrategy;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.service.AsyncProxyService;
+import eu.openanalytics.containerproxy.service.ProxyActionRegistry;
+import eu.openanalytics.containerproxy.service.ProxyService;
+import eu.openanalytics.containerproxy.spec.IProxySpecProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestProxyLogoutStrategy {
+
+    @Test
+    public void testLogoutWhileProxyIsBeingStopped() {
+        ProxyActionRegistry registry = new ProxyActionRegistry(new SimpleMeterRegistry());
+        Proxy proxy1 = Proxy.builder().id("proxy-1").userId("jack").specId("01_hello").build();
+        Proxy proxy2 = Proxy.builder().id("proxy-2").userId("jack").specId("01_hello").build();
+        Proxy proxy3 = Proxy.builder().id("proxy-3").userId("jack").specId("01_hello").build();
+
+        ProxyService proxyService = mock(ProxyService.class);
+        when(proxyService.getUserProxies("jack")).thenReturn(List.of(proxy1, proxy2, proxy3));
+        // registers the stop action, just like ProxyService#stopProxy
+        List<String> stopped = new CopyOnWriteArrayList<>();
+        AsyncProxyService asyncProxyService = mock(AsyncProxyService.class);
+        doAnswer(invocation -> {
+            Proxy proxy = invocation.getArgument(0);
+            registry.started(proxy.getId(), ProxyActionRegistry.ActionType.Stop);
+            stopped.add(proxy.getId());
+            return null;
+        }).when(asyncProxyService).stopProxy(any(Proxy.class), eq(true));
+
+        DefaultProxyLogoutStrategy logoutStrategy = new DefaultProxyLogoutStrategy();
+        ReflectionTestUtils.setField(logoutStrategy, "proxyService", proxyService);
+        ReflectionTestUtils.setField(logoutStrategy, "asyncProxyService", asyncProxyService);
+        ReflectionTestUtils.setField(logoutStrategy, "specProvider", mock(IProxySpecProvider.class));
+        ReflectionTestUtils.setField(logoutStrategy, "environment", new MockEnvironment());
+        logoutStrategy.init();
+
+        // the user stopped proxy-2 just before logging out
+        registry.started("proxy-2", ProxyActionRegistry.ActionType.Stop);
+
+        logoutStrategy.onLogout("jack");
+
+        // the other proxies are still stopped
+        Assertions.assertEquals(List.of("proxy-1", "proxy-3"), stopped);
+        Assertions.assertEquals(1, registry.getActions("proxy-2").size());
+    }
+
+}
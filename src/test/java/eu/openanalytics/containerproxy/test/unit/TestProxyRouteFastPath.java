@@ -0,0 +1,192 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.event.ProxyStopEvent;
+import eu.openanalytics.containerproxy.event.UserLogoutEvent;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStopReason;
+import eu.openanalytics.containerproxy.service.UserAndTargetIdProxyIndex;
+import eu.openanalytics.containerproxy.service.session.ISessionService;
+import eu.openanalytics.containerproxy.util.ContextPathHelper;
+import eu.openanalytics.containerproxy.util.ProxyMappingManager;
+import eu.openanalytics.containerproxy.util.ProxyRouteFastPath;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.mockito.Mockito;
+import org.mockito.invocation.Invocation;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.web.session.HttpSessionDestroyedEvent;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestProxyRouteFastPath {
+
+    private static final String TARGET_ID = "0d5e1f0e-4c2a-4c0b-9a8e-3e1f2b3c4d5e";
+    private static final String SESSION_ID = "session-1";
+
+    private final AtomicInteger fallbacks = new AtomicInteger();
+    private ProxyMappingManager mappingManager;
+    private UserAndTargetIdProxyIndex userAndTargetIdProxyIndex;
+    private ISessionService sessionService;
+    private ProxyRouteFastPath fastPath;
+    private HttpHandler handler;
+    private Proxy proxy;
+
+    @BeforeEach
+    public void init() {
+        MockEnvironment environment = new MockEnvironment().withProperty("proxy.route-fast-path.enabled", "true");
+        ContextPathHelper contextPathHelper = new ContextPathHelper();
+        contextPathHelper.setEnvironment(environment);
+        // dispatchDirect is not accessible from the test, therefore it is stubbed using the default answer
+        mappingManager = mock(ProxyMappingManager.class, invocation -> {
+            if (invocation.getMethod().getName().equals("dispatchDirect")) {
+                return true;
+            }
+            return Answers.RETURNS_DEFAULTS.answer(invocation);
+        });
+        userAndTargetIdProxyIndex = mock(UserAndTargetIdProxyIndex.class);
+        sessionService = mock(ISessionService.class);
+        when(sessionService.extractSessionIdFromCookie(any())).thenReturn(SESSION_ID);
+        when(sessionService.isSessionValid(SESSION_ID)).thenReturn(true);
+
+        proxy = Proxy.builder().id("proxy-1").userId("jack").specId("01_hello").targetId(TARGET_ID).build();
+        when(userAndTargetIdProxyIndex.getProxy("jack", TARGET_ID)).thenReturn(proxy);
+
+        fastPath = new ProxyRouteFastPath(mappingManager, contextPathHelper, environment, userAndTargetIdProxyIndex, sessionService);
+        handler = fastPath.createHttpHandler(exchange -> fallbacks.incrementAndGet());
+    }
+
+    private void authorize() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRequestedSessionId(SESSION_ID);
+        request.setRequestedSessionIdValid(true);
+        request.setRequestedSessionIdFromCookie(true);
+        fastPath.authorized(request, TARGET_ID, proxy);
+    }
+
+    private void request() throws Exception {
+        HttpServerExchange exchange = new HttpServerExchange(null);
+        exchange.setRequestURI("/api/route/" + TARGET_ID + "/index.html");
+        handler.handleRequest(exchange);
+    }
+
+    private List<Invocation> getDispatches() {
+        return Mockito.mockingDetails(mappingManager).getInvocations().stream()
+            .filter(invocation -> invocation.getMethod().getName().equals("dispatchDirect"))
+            .toList();
+    }
+
+    @Test
+    public void testAuthorizedRequestUsesFastPath() throws Exception {
+        request();
+        Assertions.assertEquals(1, fallbacks.get());
+        Assertions.assertEquals(0, getDispatches().size());
+
+        authorize();
+        request();
+        Assertions.assertEquals(1, fallbacks.get());
+        Assertions.assertEquals(1, getDispatches().size());
+
+        // other session -> servlet path
+        when(sessionService.extractSessionIdFromCookie(any())).thenReturn("session-2");
+        request();
+        Assertions.assertEquals(2, fallbacks.get());
+        Assertions.assertEquals(1, getDispatches().size());
+    }
+
+    @Test
+    public void testLogout() throws Exception {
+        authorize();
+        // e.g. logout on another replica -> session no longer exists
+        when(sessionService.isSessionValid(SESSION_ID)).thenReturn(false);
+        request();
+        Assertions.assertEquals(1, fallbacks.get());
+        Assertions.assertEquals(0, getDispatches().size());
+
+        authorize();
+        when(sessionService.isSessionValid(SESSION_ID)).thenReturn(true);
+        fastPath.onUserLogoutEvent(new UserLogoutEvent(this, "jack", false));
+        request();
+        Assertions.assertEquals(2, fallbacks.get());
+        Assertions.assertEquals(0, getDispatches().size());
+    }
+
+    @Test
+    public void testSessionExpired() throws Exception {
+        authorize();
+        fastPath.onSessionDestroyedEvent(new HttpSessionDestroyedEvent(new MockHttpSession(null, SESSION_ID)));
+        request();
+        Assertions.assertEquals(1, fallbacks.get());
+        Assertions.assertEquals(0, getDispatches().size());
+
+        // other sessions are not affected
+        authorize();
+        fastPath.onSessionDestroyedEvent(new HttpSessionDestroyedEvent(new MockHttpSession(null, "session-2")));
+        request();
+        Assertions.assertEquals(1, fallbacks.get());
+        Assertions.assertEquals(1, getDispatches().size());
+    }
+
+    @Test
+    public void testProxyStopped() throws Exception {
+        authorize();
+        fastPath.onProxyStopEvent(new ProxyStopEvent("other-server", "proxy-1", "jack", "01_hello", ProxyStopReason.Unknown, null));
+        request();
+        Assertions.assertEquals(1, fallbacks.get());
+        Assertions.assertEquals(0, getDispatches().size());
+
+        // proxy removed without receiving the event
+        authorize();
+        when(userAndTargetIdProxyIndex.getProxy("jack", TARGET_ID)).thenReturn(null);
+        request();
+        Assertions.assertEquals(2, fallbacks.get());
+        Assertions.assertEquals(0, getDispatches().size());
+    }
+
+    @Test
+    public void testLatestProxyIsUsed() throws Exception {
+        authorize();
+        Proxy updatedProxy = proxy.toBuilder().displayName("updated").build();
+        when(userAndTargetIdProxyIndex.getProxy("jack", TARGET_ID)).thenReturn(updatedProxy);
+        request();
+        Assertions.assertEquals(1, getDispatches().size());
+        Assertions.assertSame(updatedProxy, getDispatches().get(0).getArgument(0));
+
+        // targetId now points to another proxy
+        when(userAndTargetIdProxyIndex.getProxy("jack", TARGET_ID)).thenReturn(proxy.toBuilder().id("proxy-2").build());
+        request();
+        Assertions.assertEquals(1, fallbacks.get());
+        Assertions.assertEquals(1, getDispatches().size());
+    }
+
+}
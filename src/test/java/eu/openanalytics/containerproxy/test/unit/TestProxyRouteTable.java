@@ -0,0 +1,89 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.util.ProxyRouteTable;
+import io.undertow.server.HttpHandler;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+public class TestProxyRouteTable {
+
+    private final HttpHandler defaultTarget = exchange -> {
+    };
+    private final HttpHandler namedTarget = exchange -> {
+    };
+
+    @Test
+    public void testMatch() {
+        ProxyRouteTable routeTable = new ProxyRouteTable();
+        Assertions.assertTrue(routeTable.addRoutes("abc", Map.of("", defaultTarget, "port1", namedTarget)));
+
+        ProxyRouteTable.Match match = routeTable.match("/proxy_endpoint/abc/index.html");
+        Assertions.assertNotNull(match);
+        Assertions.assertSame(defaultTarget, match.handler());
+        Assertions.assertEquals("/proxy_endpoint/abc", match.matched());
+        Assertions.assertEquals("/index.html", match.remaining());
+
+        match = routeTable.match("/proxy_endpoint/abc/");
+        Assertions.assertNotNull(match);
+        Assertions.assertSame(defaultTarget, match.handler());
+        Assertions.assertEquals("/", match.remaining());
+
+        match = routeTable.match("/proxy_endpoint/abc/port1/index.html");
+        Assertions.assertNotNull(match);
+        Assertions.assertSame(namedTarget, match.handler());
+        Assertions.assertEquals("/proxy_endpoint/abc/port1", match.matched());
+        Assertions.assertEquals("/index.html", match.remaining());
+
+        match = routeTable.match("/proxy_endpoint/abc/port1");
+        Assertions.assertNotNull(match);
+        Assertions.assertSame(namedTarget, match.handler());
+        Assertions.assertEquals("", match.remaining());
+
+        // the mapping must end at a segment boundary
+        match = routeTable.match("/proxy_endpoint/abc/port1x/y");
+        Assertions.assertNotNull(match);
+        Assertions.assertSame(defaultTarget, match.handler());
+        Assertions.assertEquals("/proxy_endpoint/abc", match.matched());
+        Assertions.assertEquals("/port1x/y", match.remaining());
+
+        Assertions.assertNull(routeTable.match("/proxy_endpoint/def/index.html"));
+        Assertions.assertNull(routeTable.match("/api/proxy"));
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        ProxyRouteTable routeTable = new ProxyRouteTable();
+        Assertions.assertTrue(routeTable.addRoutes("abc", Map.of("", defaultTarget)));
+        // existing routes are not replaced
+        Assertions.assertFalse(routeTable.addRoutes("abc", Map.of("", namedTarget)));
+        Assertions.assertSame(defaultTarget, routeTable.match(ProxyRouteTable.getPrefixPath("abc", "")).handler());
+
+        Assertions.assertTrue(routeTable.removeRoutes("abc"));
+        Assertions.assertFalse(routeTable.containsRoutes("abc"));
+        Assertions.assertNull(routeTable.match("/proxy_endpoint/abc/"));
+        Assertions.assertFalse(routeTable.removeRoutes("abc"));
+    }
+
+}
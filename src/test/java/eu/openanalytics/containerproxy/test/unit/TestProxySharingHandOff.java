@@ -0,0 +1,142 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.backend.dispatcher.proxysharing.ProxySharingScaler;
+import eu.openanalytics.containerproxy.backend.dispatcher.proxysharing.ProxySharingSpecExtension;
+import eu.openanalytics.containerproxy.backend.dispatcher.proxysharing.Seat;
+import eu.openanalytics.containerproxy.backend.dispatcher.proxysharing.store.memory.MemoryDelegateProxyStore;
+import eu.openanalytics.containerproxy.backend.dispatcher.proxysharing.store.memory.MemorySeatStore;
+import eu.openanalytics.containerproxy.event.PendingProxyEvent;
+import eu.openanalytics.containerproxy.event.ProxyStopEvent;
+import eu.openanalytics.containerproxy.event.SeatAvailableEvent;
+import eu.openanalytics.containerproxy.event.SeatClaimedEvent;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStopReason;
+import eu.openanalytics.containerproxy.model.spec.ProxySpec;
+import eu.openanalytics.containerproxy.service.leader.GlobalEventLoopService;
+import eu.openanalytics.containerproxy.service.leader.ILeaderService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that seats handed off to a pending proxy are known by the next leader.
+ */
+public class TestProxySharingHandOff {
+
+    private static final String SPEC_ID = "01_hello";
+
+    private MemorySeatStore seatStore;
+    private MemoryDelegateProxyStore delegateProxyStore;
+    private ProxySpec proxySpec;
+    private List<SeatAvailableEvent> seatAvailableEvents;
+
+    @BeforeEach
+    public void init() {
+        seatStore = new MemorySeatStore();
+        delegateProxyStore = new MemoryDelegateProxyStore();
+        proxySpec = ProxySpec.builder().id(SPEC_ID).build();
+        proxySpec.addSpecExtension(ProxySharingSpecExtension.builder().minimumSeatsAvailable(1).build());
+        seatAvailableEvents = new CopyOnWriteArrayList<>();
+        seatStore.addSeat(new Seat("delegate-proxy-1"));
+        seatStore.addSeat(new Seat("delegate-proxy-2"));
+    }
+
+    /**
+     * Creates the scaler of a (leader) server, events are handled immediately and only the hand-off is executed
+     * (i.e. no scaling).
+     */
+    private ProxySharingScaler createScaler() {
+        ProxySharingScaler scaler = new ProxySharingScaler(seatStore, proxySpec, delegateProxyStore);
+        ILeaderService leaderService = mock(ILeaderService.class);
+        when(leaderService.isLeader()).thenReturn(true);
+        GlobalEventLoopService globalEventLoop = mock(GlobalEventLoopService.class);
+        doAnswer(invocation -> {
+            if (invocation.getArgument(1).equals("handOffSeats")) {
+                ((Runnable) invocation.getArgument(2)).run();
+            }
+            return null;
+        }).when(globalEventLoop).scheduleDeduplicated(eq(SPEC_ID), anyString(), any(Runnable.class));
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(1)).run();
+            return null;
+        }).when(globalEventLoop).schedule(eq(SPEC_ID), any(Runnable.class));
+        ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+        doAnswer(invocation -> {
+            if (invocation.getArgument(0) instanceof SeatAvailableEvent event) {
+                seatAvailableEvents.add(event);
+            }
+            return null;
+        }).when(publisher).publishEvent(any(Object.class));
+        ReflectionTestUtils.setField(scaler, "leaderService", leaderService);
+        ReflectionTestUtils.setField(scaler, "globalEventLoop", globalEventLoop);
+        ReflectionTestUtils.setField(scaler, "applicationEventPublisher", publisher);
+        return scaler;
+    }
+
+    @Test
+    public void testHandOffIsKnownByNextLeader() {
+        ProxySharingScaler leader1 = createScaler();
+        leader1.onPendingProxyEvent(new PendingProxyEvent(SPEC_ID, "proxy-1"));
+        Assertions.assertEquals(1, seatAvailableEvents.size());
+        String seatId = seatAvailableEvents.get(0).getSeatId();
+        Assertions.assertEquals(1, seatStore.getNumUnclaimedSeats());
+
+        // leader changes before the proxy confirmed the seat, the proxy announces itself again to the new leader
+        ProxySharingScaler leader2 = createScaler();
+        leader2.onPendingProxyEvent(new PendingProxyEvent(SPEC_ID, "proxy-1"));
+
+        // the same seat is handed off again, no second seat is claimed
+        Assertions.assertEquals(2, seatAvailableEvents.size());
+        Assertions.assertEquals(seatId, seatAvailableEvents.get(1).getSeatId());
+        Assertions.assertEquals(1, seatStore.getNumUnclaimedSeats());
+
+        leader2.onSeatClaimedEvent(new SeatClaimedEvent(SPEC_ID, "proxy-1"));
+        Assertions.assertNull(seatStore.getHandedOffSeat("proxy-1"));
+    }
+
+    @Test
+    public void testHandedOffSeatIsReturnedByNextLeader() {
+        ProxySharingScaler leader1 = createScaler();
+        leader1.onPendingProxyEvent(new PendingProxyEvent(SPEC_ID, "proxy-1"));
+        Assertions.assertEquals(1, seatStore.getNumUnclaimedSeats());
+
+        // leader changes and the proxy is stopped before it used the seat -> the new leader returns the seat
+        ProxySharingScaler leader2 = createScaler();
+        leader2.onProxyStopEvent(new ProxyStopEvent("other-server", "proxy-1", "jack", SPEC_ID, ProxyStopReason.Unknown, null));
+
+        Assertions.assertEquals(2, seatStore.getNumUnclaimedSeats());
+        Assertions.assertNull(seatStore.getHandedOffSeat("proxy-1"));
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.backend.dispatcher.proxysharing.ProxySharingScaler;
+import eu.openanalytics.containerproxy.backend.dispatcher.proxysharing.ProxySharingSpecExtension;
+import eu.openanalytics.containerproxy.backend.dispatcher.proxysharing.store.memory.MemoryDelegateProxyStore;
+import eu.openanalytics.containerproxy.backend.dispatcher.proxysharing.store.memory.MemorySeatStore;
+import eu.openanalytics.containerproxy.event.SeatClaimedEvent;
+import eu.openanalytics.containerproxy.model.spec.ProxySpec;
+import eu.openanalytics.containerproxy.service.leader.GlobalEventLoopService;
+import eu.openanalytics.containerproxy.service.leader.ILeaderService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the demand-driven number of seats kept available by the {@link ProxySharingScaler}.
+ */
+public class TestProxySharingTargetSeats {
+
+    private static final String SPEC_ID = "01_hello";
+
+    private final AtomicLong now = new AtomicLong(1_700_000_000_000L);
+    private int claims = 0;
+
+    @BeforeEach
+    public void init() {
+        claims = 0;
+    }
+
+    private ProxySharingScaler createScaler(ProxySharingSpecExtension specExtension) {
+        ProxySpec proxySpec = ProxySpec.builder().id(SPEC_ID).build();
+        proxySpec.addSpecExtension(specExtension);
+        ProxySharingScaler scaler = new ProxySharingScaler(new MemorySeatStore(), proxySpec, new MemoryDelegateProxyStore());
+        ILeaderService leaderService = mock(ILeaderService.class);
+        when(leaderService.isLeader()).thenReturn(true);
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenAnswer(invocation -> now.get());
+        ReflectionTestUtils.setField(scaler, "leaderService", leaderService);
+        ReflectionTestUtils.setField(scaler, "globalEventLoop", mock(GlobalEventLoopService.class));
+        ReflectionTestUtils.setField(scaler, "clock", clock);
+        return scaler;
+    }
+
+    private void claim(ProxySharingScaler scaler, int count) {
+        for (int i = 0; i < count; i++) {
+            scaler.onSeatClaimedEvent(new SeatClaimedEvent(SPEC_ID, "proxy-" + claims++));
+        }
+    }
+
+    private long getTarget(ProxySharingScaler scaler) {
+        Long target = ReflectionTestUtils.invokeMethod(scaler, "getTargetSeatsAvailable");
+        Assertions.assertNotNull(target);
+        return target;
+    }
+
+    private void advanceSeconds(int seconds) {
+        now.addAndGet(seconds * 1000L);
+    }
+
+    @Test
+    public void testTargetFollowsClaimRate() {
+        ProxySharingScaler scaler = createScaler(ProxySharingSpecExtension.builder()
+            .minimumSeatsAvailable(1)
+            .maximumSeatsAvailable(5)
+            .demandWindow(60)
+            .build());
+
+        // no demand -> minimum
+        Assertions.assertEquals(1, getTarget(scaler));
+
+        claim(scaler, 3);
+        Assertions.assertEquals(3, getTarget(scaler));
+
+        advanceSeconds(30);
+        claim(scaler, 1);
+        Assertions.assertEquals(4, getTarget(scaler));
+
+        // the first claims expired, a single claim remains
+        advanceSeconds(31);
+        Assertions.assertEquals(1, getTarget(scaler));
+
+        claim(scaler, 2);
+        Assertions.assertEquals(3, getTarget(scaler));
+
+        // all claims expired
+        advanceSeconds(61);
+        Assertions.assertEquals(1, getTarget(scaler));
+    }
+
+    @Test
+    public void testTargetIsBoundedByMaximum() {
+        ProxySharingScaler scaler = createScaler(ProxySharingSpecExtension.builder()
+            .minimumSeatsAvailable(2)
+            .maximumSeatsAvailable(5)
+            .demandWindow(60)
+            .build());
+
+        claim(scaler, 1);
+        // below the minimum
+        Assertions.assertEquals(2, getTarget(scaler));
+
+        claim(scaler, 10);
+        Assertions.assertEquals(5, getTarget(scaler));
+
+        advanceSeconds(59);
+        Assertions.assertEquals(5, getTarget(scaler));
+
+        advanceSeconds(2);
+        Assertions.assertEquals(2, getTarget(scaler));
+    }
+
+    @Test
+    public void testWithoutMaximumTargetIsMinimum() {
+        ProxySharingScaler scaler = createScaler(ProxySharingSpecExtension.builder()
+            .minimumSeatsAvailable(2)
+            .demandWindow(60)
+            .build());
+
+        claim(scaler, 10);
+        Assertions.assertEquals(2, getTarget(scaler));
+    }
+
+}
@@ -0,0 +1,311 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.event.ProxyStoreUpdatedEvent;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
+import eu.openanalytics.containerproxy.model.store.redis.RedisProxyStore;
+import eu.openanalytics.containerproxy.service.IdentifierService;
+import eu.openanalytics.containerproxy.service.leader.ILeaderService;
+import eu.openanalytics.containerproxy.util.ProxyMappingManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisHashCommands;
+import org.springframework.data.redis.connection.RedisSetCommands;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestRedisProxyStore {
+
+    private static final String KEY = "shinyproxy_realm__active_proxies";
+    private static final String USER_KEY = "shinyproxy_realm_user_proxies_jack";
+    private static final String SPEC_KEY = "shinyproxy_realm__spec_proxies_01_hello";
+    private static final String STATUS_KEY = "shinyproxy_realm__status_proxies_";
+    private static final String INDEX_VERSION_KEY = "shinyproxy_realm__proxy_indexes_version";
+
+    private HashOperations<String, String, Proxy> hashOperations;
+    private SetOperations<String, String> setOperations;
+    private ValueOperations<String, String> valueOperations;
+    private RedisConnection connection;
+    private RedisHashCommands hashCommands;
+    private RedisSetCommands setCommands;
+    private RedisTemplate<String, Proxy> redisTemplate;
+    private RedisTemplate<String, String> userProxyTemplate;
+    private RedisSerializer<Proxy> proxySerializer;
+
+    private static Proxy proxy(String id, ProxyStatus status) {
+        return Proxy.builder().id(id).userId("jack").specId("01_hello").status(status).build();
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void storeProxy(Proxy proxy) {
+        byte[] rawProxy = raw("stored-" + proxy.getId());
+        when(hashCommands.hGet(eq(raw(KEY)), eq(raw(proxy.getId())))).thenReturn(rawProxy);
+        when(proxySerializer.deserialize(eq(rawProxy))).thenReturn(proxy);
+    }
+
+    @BeforeEach
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setup() {
+        redisTemplate = mock(RedisTemplate.class);
+        hashOperations = mock(HashOperations.class);
+        when(redisTemplate.<String, Proxy>opsForHash()).thenReturn(hashOperations);
+        proxySerializer = mock(RedisSerializer.class);
+        when(proxySerializer.serialize(any())).thenReturn(new byte[]{1});
+        when(redisTemplate.getHashValueSerializer()).thenReturn((RedisSerializer) proxySerializer);
+
+        userProxyTemplate = mock(RedisTemplate.class);
+        setOperations = mock(SetOperations.class);
+        when(userProxyTemplate.opsForSet()).thenReturn(setOperations);
+        valueOperations = mock(ValueOperations.class);
+        when(valueOperations.get(anyString())).thenReturn("1");
+        when(userProxyTemplate.opsForValue()).thenReturn(valueOperations);
+
+        connection = mock(RedisConnection.class);
+        hashCommands = mock(RedisHashCommands.class);
+        setCommands = mock(RedisSetCommands.class);
+        when(connection.hashCommands()).thenReturn(hashCommands);
+        when(connection.setCommands()).thenReturn(setCommands);
+        when(connection.exec()).thenReturn(List.of(true));
+        when(userProxyTemplate.execute(any(RedisCallback.class))).thenAnswer(invocation -> ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+    }
+
+    private RedisProxyStore createProxyStore() {
+        IdentifierService identifierService = mock(IdentifierService.class);
+        identifierService.realmId = "realm";
+
+        RedisProxyStore proxyStore = new RedisProxyStore();
+        ReflectionTestUtils.setField(proxyStore, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(proxyStore, "userProxyTemplate", userProxyTemplate);
+        ReflectionTestUtils.setField(proxyStore, "mappingManager", mock(ProxyMappingManager.class));
+        ReflectionTestUtils.setField(proxyStore, "identifierService", identifierService);
+        ReflectionTestUtils.setField(proxyStore, "environment", new MockEnvironment());
+        ReflectionTestUtils.setField(proxyStore, "applicationEventPublisher", mock(ApplicationEventPublisher.class));
+        ReflectionTestUtils.setField(proxyStore, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(proxyStore, "leaderService", mock(ILeaderService.class));
+        proxyStore.init();
+        return proxyStore;
+    }
+
+    @Test
+    public void testProxyIsCached() {
+        RedisProxyStore proxyStore = createProxyStore();
+        when(hashOperations.get(KEY, "a")).thenReturn(proxy("a", ProxyStatus.Up));
+
+        Assertions.assertEquals(ProxyStatus.Up, proxyStore.getProxy("a").getStatus());
+        Assertions.assertEquals(ProxyStatus.Up, proxyStore.getProxy("a").getStatus());
+        verify(hashOperations, times(1)).get(KEY, "a");
+    }
+
+    @Test
+    public void testRemoteUpdateInvalidatesCache() {
+        RedisProxyStore proxyStore = createProxyStore();
+        when(hashOperations.get(KEY, "a")).thenReturn(proxy("a", ProxyStatus.Up));
+        Assertions.assertEquals(ProxyStatus.Up, proxyStore.getProxy("a").getStatus());
+
+        // updated by another replica
+        when(hashOperations.get(KEY, "a")).thenReturn(proxy("a", ProxyStatus.Stopping));
+        Assertions.assertEquals(ProxyStatus.Up, proxyStore.getProxy("a").getStatus());
+
+        proxyStore.onProxyStoreUpdated(new ProxyStoreUpdatedEvent("other-replica", "a"));
+        Assertions.assertEquals(ProxyStatus.Stopping, proxyStore.getProxy("a").getStatus());
+    }
+
+    @Test
+    public void testLocalEventDoesNotInvalidateCache() {
+        RedisProxyStore proxyStore = createProxyStore();
+        when(hashOperations.get(KEY, "a")).thenReturn(proxy("a", ProxyStatus.Up));
+        proxyStore.getProxy("a");
+
+        // the cache of this replica is invalidated when the store is updated, not by its own events
+        proxyStore.onProxyStoreUpdated(new ProxyStoreUpdatedEvent("a"));
+        proxyStore.getProxy("a");
+        verify(hashOperations, times(1)).get(KEY, "a");
+    }
+
+    @Test
+    public void testGetLatestProxyBypassesCache() {
+        RedisProxyStore proxyStore = createProxyStore();
+        when(hashOperations.get(KEY, "a")).thenReturn(proxy("a", ProxyStatus.Up));
+        Assertions.assertEquals(ProxyStatus.Up, proxyStore.getProxy("a").getStatus());
+
+        // stopped by another replica, invalidation event not (yet) received
+        when(hashOperations.get(KEY, "a")).thenReturn(null);
+        Assertions.assertNull(proxyStore.getLatestProxy("a"));
+        // the cache is updated as well
+        Assertions.assertNull(proxyStore.getProxy("a"));
+    }
+
+    @Test
+    public void testAddProxyUpdatesIndexesInTransaction() {
+        RedisProxyStore proxyStore = createProxyStore();
+        proxyStore.addProxy(proxy("a", ProxyStatus.New));
+
+        InOrder inOrder = inOrder(connection, hashCommands, setCommands);
+        inOrder.verify(connection).multi();
+        inOrder.verify(hashCommands).hSet(eq(raw(KEY)), eq(raw("a")), any());
+        inOrder.verify(setCommands).sAdd(eq(raw(USER_KEY)), eq(raw("a")));
+        inOrder.verify(setCommands).sAdd(eq(raw(SPEC_KEY)), eq(raw("a")));
+        inOrder.verify(setCommands).sAdd(eq(raw(STATUS_KEY + "New")), eq(raw("a")));
+        inOrder.verify(connection).exec();
+    }
+
+    @Test
+    public void testUpdateProxyMovesStatusIndex() {
+        RedisProxyStore proxyStore = createProxyStore();
+        storeProxy(proxy("a", ProxyStatus.New));
+        proxyStore.updateProxy(proxy("a", ProxyStatus.Up));
+
+        InOrder inOrder = inOrder(connection, hashCommands, setCommands);
+        inOrder.verify(connection).watch(eq(raw(KEY)));
+        inOrder.verify(hashCommands).hGet(eq(raw(KEY)), eq(raw("a")));
+        inOrder.verify(connection).multi();
+        inOrder.verify(hashCommands).hSet(eq(raw(KEY)), eq(raw("a")), any());
+        inOrder.verify(setCommands).sRem(eq(raw(STATUS_KEY + "New")), eq(raw("a")));
+        inOrder.verify(setCommands).sAdd(eq(raw(STATUS_KEY + "Up")), eq(raw("a")));
+        inOrder.verify(connection).exec();
+        verify(setCommands, never()).sRem(eq(raw(SPEC_KEY)), any());
+    }
+
+    @Test
+    public void testRemoveProxyRemovesIndexes() {
+        RedisProxyStore proxyStore = createProxyStore();
+        storeProxy(proxy("a", ProxyStatus.Up));
+        proxyStore.removeProxy(proxy("a", ProxyStatus.Stopped));
+
+        InOrder inOrder = inOrder(connection, hashCommands, setCommands);
+        inOrder.verify(connection).watch(eq(raw(KEY)));
+        inOrder.verify(hashCommands).hGet(eq(raw(KEY)), eq(raw("a")));
+        inOrder.verify(connection).multi();
+        inOrder.verify(hashCommands).hDel(eq(raw(KEY)), eq(raw("a")));
+        inOrder.verify(setCommands).sRem(eq(raw(USER_KEY)), eq(raw("a")));
+        inOrder.verify(setCommands).sRem(eq(raw(SPEC_KEY)), eq(raw("a")));
+        inOrder.verify(setCommands).sRem(eq(raw(STATUS_KEY + "Up")), eq(raw("a")));
+        inOrder.verify(connection).exec();
+        verify(setCommands, never()).sAdd(any(), any());
+    }
+
+    @Test
+    public void testUpdateProxyIsRetriedWhenTransactionIsAborted() {
+        RedisProxyStore proxyStore = createProxyStore();
+        // another server updates the proxy between the WATCH and the EXEC of the first attempt
+        when(hashCommands.hGet(eq(raw(KEY)), eq(raw("a")))).thenReturn(raw("new"), raw("resuming"));
+        when(proxySerializer.deserialize(eq(raw("new")))).thenReturn(proxy("a", ProxyStatus.New));
+        when(proxySerializer.deserialize(eq(raw("resuming")))).thenReturn(proxy("a", ProxyStatus.Resuming));
+        when(connection.exec()).thenReturn(List.of(), List.of(true));
+
+        proxyStore.updateProxy(proxy("a", ProxyStatus.Up));
+
+        verify(connection, times(2)).watch(eq(raw(KEY)));
+        verify(connection, times(2)).exec();
+        verify(hashCommands, times(2)).hSet(eq(raw(KEY)), eq(raw("a")), any());
+        // the second attempt removes the index entry of the concurrent update
+        verify(setCommands).sRem(eq(raw(STATUS_KEY + "New")), eq(raw("a")));
+        verify(setCommands).sRem(eq(raw(STATUS_KEY + "Resuming")), eq(raw("a")));
+    }
+
+    @Test
+    public void testUpdateProxyIsWrittenWithoutWatchAfterMaxAttempts() {
+        RedisProxyStore proxyStore = createProxyStore();
+        storeProxy(proxy("a", ProxyStatus.New));
+        when(connection.exec()).thenReturn(List.of());
+
+        proxyStore.updateProxy(proxy("a", ProxyStatus.Up));
+
+        verify(connection, times(10)).watch(eq(raw(KEY)));
+        verify(connection, times(11)).exec();
+    }
+
+    @Test
+    public void testDanglingIdsAreNotCountedAndPruned() {
+        RedisProxyStore proxyStore = createProxyStore();
+        Map<String, Proxy> proxies = Map.of("a", proxy("a", ProxyStatus.Up));
+        when(setOperations.members(SPEC_KEY)).thenReturn(Set.of("a", "b"));
+        when(setOperations.members(STATUS_KEY + "Up")).thenReturn(Set.of("a", "c"));
+        when(hashOperations.multiGet(eq(KEY), anyList())).thenAnswer(invocation -> {
+            List<String> ids = invocation.getArgument(1);
+            return ids.stream().map(proxies::get).toList();
+        });
+
+        Assertions.assertEquals(1, proxyStore.getNumberOfProxiesBySpecId("01_hello"));
+        verify(setOperations).remove(SPEC_KEY, "b");
+
+        Assertions.assertEquals(List.of(proxies.get("a")), proxyStore.getProxiesByStatus(ProxyStatus.Up));
+        verify(setOperations).remove(STATUS_KEY + "Up", "c");
+    }
+
+    @Test
+    public void testIndexMarkerIsSetAfterBackfill() {
+        when(valueOperations.get(INDEX_VERSION_KEY)).thenReturn(null);
+        when(hashOperations.values(KEY)).thenReturn(List.of(proxy("a", ProxyStatus.Up)));
+
+        createProxyStore();
+
+        InOrder inOrder = inOrder(setCommands, connection, valueOperations);
+        inOrder.verify(setCommands).sAdd(eq(raw(STATUS_KEY + "Up")), eq(raw("a")));
+        inOrder.verify(connection).exec();
+        inOrder.verify(valueOperations).set(INDEX_VERSION_KEY, "1");
+        // only the indexes are written
+        verify(hashCommands, never()).hSet(eq(raw(KEY)), any(), any());
+    }
+
+    @Test
+    public void testIndexMarkerIsNotSetWhenBackfillFails() {
+        when(valueOperations.get(INDEX_VERSION_KEY)).thenReturn(null);
+        when(hashOperations.values(KEY)).thenReturn(List.of(proxy("a", ProxyStatus.Up)));
+        when(connection.exec()).thenThrow(new IllegalStateException("connection lost"));
+
+        Assertions.assertThrows(IllegalStateException.class, this::createProxyStore);
+        verify(valueOperations, never()).set(anyString(), anyString());
+    }
+
+}
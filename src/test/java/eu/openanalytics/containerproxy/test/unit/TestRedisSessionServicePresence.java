@@ -0,0 +1,188 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.event.UserLogoutEvent;
+import eu.openanalytics.containerproxy.service.hearbeat.HeartbeatBuffer;
+import eu.openanalytics.containerproxy.service.leader.ILeaderService;
+import eu.openanalytics.containerproxy.service.session.redis.RedisSessionService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.zset.Tuple;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.session.data.redis.RedisIndexedSessionRepository;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestRedisSessionServicePresence {
+
+    private static final String PRESENCE_KEY = "shinyproxy:user_presence";
+    private static final String PRESENCE_INITIALIZED_KEY = PRESENCE_KEY + "_initialized";
+
+    private RedisSessionService sessionService;
+    private RedisIndexedSessionRepository sessionRepository;
+    private ZSetOperations<String, String> presenceOps;
+    private StringRedisTemplate stringRedisTemplate;
+    private ValueOperations<String, String> valueOps;
+    private RedisTemplate<String, Object> redisTemplate;
+    private ILeaderService leaderService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void init() {
+        sessionService = new RedisSessionService();
+        sessionRepository = mock(RedisIndexedSessionRepository.class);
+        presenceOps = mock(ZSetOperations.class);
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        valueOps = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOps);
+        redisTemplate = mock(RedisTemplate.class);
+        leaderService = mock(ILeaderService.class);
+
+        ReflectionTestUtils.setField(sessionService, "redisIndexedSessionRepository", sessionRepository);
+        ReflectionTestUtils.setField(sessionService, "presenceOps", presenceOps);
+        ReflectionTestUtils.setField(sessionService, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(sessionService, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(sessionService, "leaderService", leaderService);
+        ReflectionTestUtils.setField(sessionService, "presenceKey", PRESENCE_KEY);
+        ReflectionTestUtils.setField(sessionService, "presenceInitializedKey", PRESENCE_INITIALIZED_KEY);
+        ReflectionTestUtils.setField(sessionService, "keyPattern", "shinyproxy:sessions:*");
+        ReflectionTestUtils.setField(sessionService, "sessionTimeout", Duration.ofMinutes(30));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPresenceIsWrittenUsingZAddGt() {
+        RedisConnection connection = mock(RedisConnection.class);
+        RedisZSetCommands zSetCommands = mock(RedisZSetCommands.class);
+        when(connection.zSetCommands()).thenReturn(zSetCommands);
+        when(stringRedisTemplate.execute(any(RedisCallback.class))).thenAnswer(invocation -> ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+        HeartbeatBuffer presenceBuffer = (HeartbeatBuffer) ReflectionTestUtils.getField(sessionService, "presenceBuffer");
+        presenceBuffer.add("jack", 20L);
+
+        sessionService.flushPresence();
+
+        ArgumentCaptor<Set<Tuple>> tuples = ArgumentCaptor.forClass(Set.class);
+        ArgumentCaptor<RedisZSetCommands.ZAddArgs> args = ArgumentCaptor.forClass(RedisZSetCommands.ZAddArgs.class);
+        verify(zSetCommands).zAdd(eq(PRESENCE_KEY.getBytes(StandardCharsets.UTF_8)), tuples.capture(), args.capture());
+        Assertions.assertEquals(Set.of(Tuple.of("jack".getBytes(StandardCharsets.UTF_8), 20.0)), tuples.getValue());
+        Assertions.assertTrue(args.getValue().contains(RedisZSetCommands.ZAddArgs.Flag.GT));
+        Assertions.assertNull(presenceBuffer.get("jack"));
+    }
+
+    @Test
+    public void testExpiredUsersAreTrimmedByLeader() {
+        ReflectionTestUtils.setField(sessionService, "presenceInitialized", true);
+        when(leaderService.isLeader()).thenReturn(true);
+        long before = System.currentTimeMillis() - Duration.ofMinutes(30).toMillis();
+
+        ReflectionTestUtils.invokeMethod(sessionService, "updateCachedUsersLoggedInCount");
+
+        ArgumentCaptor<Double> max = ArgumentCaptor.forClass(Double.class);
+        verify(presenceOps).removeRangeByScore(eq(PRESENCE_KEY), eq(Double.NEGATIVE_INFINITY), max.capture());
+        Assertions.assertTrue(max.getValue() >= before && max.getValue() <= System.currentTimeMillis() - Duration.ofMinutes(30).toMillis());
+    }
+
+    @Test
+    public void testExpiredUsersAreNotTrimmedByFollower() {
+        ReflectionTestUtils.setField(sessionService, "presenceInitialized", true);
+        when(leaderService.isLeader()).thenReturn(false);
+
+        ReflectionTestUtils.invokeMethod(sessionService, "updateCachedUsersLoggedInCount");
+
+        verify(presenceOps, never()).removeRangeByScore(anyString(), anyDouble(), anyDouble());
+    }
+
+    @Test
+    public void testLogoutRemovesUserWithoutOtherSessions() {
+        when(sessionRepository.findByPrincipalName("jack")).thenReturn(Map.of());
+
+        sessionService.onUserLogoutEvent(new UserLogoutEvent(this, "jack", false));
+
+        verify(presenceOps).remove(PRESENCE_KEY, "jack");
+    }
+
+    @Test
+    public void testLogoutKeepsUserWithOtherSessions() {
+        Map<String, RedisIndexedSessionRepository.RedisSession> sessions = new HashMap<>();
+        sessions.put("other-session", null);
+        when(sessionRepository.findByPrincipalName("jack")).thenReturn(sessions);
+
+        sessionService.onUserLogoutEvent(new UserLogoutEvent(this, "jack", true));
+
+        verify(presenceOps, never()).remove(anyString(), any());
+    }
+
+    @Test
+    public void testPresenceIsNotInitializedByFollower() {
+        when(stringRedisTemplate.hasKey(PRESENCE_INITIALIZED_KEY)).thenReturn(false);
+        when(leaderService.isLeader()).thenReturn(false);
+
+        ReflectionTestUtils.invokeMethod(sessionService, "initializePresence");
+
+        verify(redisTemplate, never()).scan(any(ScanOptions.class));
+        verify(valueOps, never()).set(anyString(), anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPresenceMarkerIsSetAfterScan() {
+        when(stringRedisTemplate.hasKey(PRESENCE_INITIALIZED_KEY)).thenReturn(false);
+        when(leaderService.isLeader()).thenReturn(true);
+        Cursor<String> cursor = mock(Cursor.class);
+        when(cursor.hasNext()).thenReturn(false);
+        when(redisTemplate.scan(any(ScanOptions.class))).thenReturn(cursor);
+
+        ReflectionTestUtils.invokeMethod(sessionService, "initializePresence");
+
+        InOrder inOrder = inOrder(redisTemplate, cursor, valueOps);
+        inOrder.verify(redisTemplate).scan(any(ScanOptions.class));
+        inOrder.verify(cursor).close();
+        inOrder.verify(valueOps).set(PRESENCE_INITIALIZED_KEY, "1");
+    }
+
+}
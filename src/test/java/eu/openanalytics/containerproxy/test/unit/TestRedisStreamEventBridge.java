@@ -0,0 +1,128 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.event.ProxyStoreUpdatedEvent;
+import eu.openanalytics.containerproxy.service.RedisStreamEventBridge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestRedisStreamEventBridge {
+
+    private static final int BATCH_SIZE = 10;
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Timeout while waiting for condition");
+            Thread.sleep(10);
+        }
+    }
+
+    private RedisStreamEventBridge createBridge(SimpleMeterRegistry registry, StringRedisTemplate redisTemplate) {
+        RedisStreamEventBridge bridge = new RedisStreamEventBridge(mock(RedisConnectionFactory.class), "stream",
+            mock(ApplicationEventPublisher.class), mock(AbstractApplicationContext.class), registry, 1000, BATCH_SIZE, 1000);
+        ReflectionTestUtils.setField(bridge, "redisTemplate", redisTemplate);
+        // only start the writer, the reader is not part of this test
+        ReflectionTestUtils.invokeMethod(bridge, "startWriter");
+        return bridge;
+    }
+
+    /**
+     * Mocks the template, such that the number of entries added by every pipeline are recorded.
+     */
+    private StringRedisTemplate mockTemplate(List<Integer> batches, AtomicBoolean writerFails) {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        when(redisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            if (writerFails.get() && Thread.currentThread().getName().startsWith("RedisStreamEventBridge-Writer")) {
+                throw new IllegalStateException("Redis unreachable");
+            }
+            AtomicInteger entries = new AtomicInteger();
+            StringRedisConnection connection = mock(StringRedisConnection.class);
+            when(connection.xAdd(any(StringRecord.class), any(RedisStreamCommands.XAddOptions.class))).thenAnswer(i -> {
+                entries.incrementAndGet();
+                return null;
+            });
+            ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+            batches.add(entries.get());
+            return List.of();
+        });
+        return redisTemplate;
+    }
+
+    @Test
+    public void testEventsAreWrittenInBatches() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        List<Integer> batches = new CopyOnWriteArrayList<>();
+        RedisStreamEventBridge bridge = createBridge(registry, mockTemplate(batches, new AtomicBoolean(false)));
+
+        for (int i = 0; i < 25; i++) {
+            bridge.onGenerateEvent(new ProxyStoreUpdatedEvent("proxy-" + i));
+        }
+        waitFor(() -> registry.get("event_bridge_published").counter().count() == 25);
+
+        Assertions.assertEquals(25, batches.stream().mapToInt(Integer::intValue).sum());
+        Assertions.assertTrue(batches.stream().allMatch(size -> size > 0 && size <= BATCH_SIZE));
+        bridge.shutdown();
+    }
+
+    @Test
+    public void testShutdownWritesBatchInProgress() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        List<Integer> batches = new CopyOnWriteArrayList<>();
+        AtomicBoolean writerFails = new AtomicBoolean(true);
+        StringRedisTemplate redisTemplate = mockTemplate(batches, writerFails);
+        RedisStreamEventBridge bridge = createBridge(registry, redisTemplate);
+
+        for (int i = 0; i < 5; i++) {
+            bridge.onGenerateEvent(new ProxyStoreUpdatedEvent("proxy-" + i));
+        }
+        // wait until the writer took the events from the queue and failed to write them
+        waitFor(() -> registry.get("event_bridge_queue_depth").gauge().value() == 0);
+        Assertions.assertTrue(batches.isEmpty());
+
+        // the writer is interrupted (while waiting to retry), the batch must be written by shutdown
+        bridge.shutdown();
+        Assertions.assertEquals(5, registry.get("event_bridge_published").counter().count());
+        Assertions.assertEquals(5, batches.stream().mapToInt(Integer::intValue).sum());
+    }
+
+}
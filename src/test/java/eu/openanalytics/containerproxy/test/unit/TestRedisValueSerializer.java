@@ -0,0 +1,109 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.model.Views;
+import eu.openanalytics.containerproxy.model.runtime.Container;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.ContainerIndexKey;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.DisplayNameKey;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.HttpHeaders;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.HttpHeadersKey;
+import eu.openanalytics.containerproxy.model.runtime.runtimevalues.RuntimeValue;
+import eu.openanalytics.containerproxy.model.store.redis.RedisValueSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+public class TestRedisValueSerializer {
+
+    private final RedisValueSerializer<Proxy> jsonSerializer = createSerializer(RedisValueSerializer.Format.Json);
+    private final RedisValueSerializer<Proxy> smileSerializer = createSerializer(RedisValueSerializer.Format.Smile);
+
+    private static RedisValueSerializer<Proxy> createSerializer(RedisValueSerializer.Format format) {
+        return new RedisValueSerializer<>(Proxy.class, format,
+            om -> om.setConfig(om.getSerializationConfig().withView(Views.Internal.class)));
+    }
+
+    private static Proxy createProxy() {
+        Proxy.ProxyBuilder builder = Proxy.builder()
+            .id("2d5b3f5c-6b0a-4a44-8a2c-2d5e2b9b4a51")
+            .targetId("2d5b3f5c-6b0a-4a44-8a2c-2d5e2b9b4a51")
+            .status(ProxyStatus.Up)
+            .startupTimestamp(1700000000000L)
+            .createdTimestamp(1699999990000L)
+            .userId("jack")
+            .specId("01_hello")
+            .displayName("Hello Application")
+            .addTarget("", URI.create("http://10.0.0.1:3838"))
+            .addRuntimeValue(new RuntimeValue(DisplayNameKey.inst, "Hello Application"), false)
+            .addRuntimeValue(new RuntimeValue(HttpHeadersKey.inst, new HttpHeaders(Map.of("X-Test", "value"))), false);
+        for (int i = 0; i < 3; i++) {
+            builder.addContainer(Container.builder()
+                .index(i)
+                .id("container-" + i)
+                .addRuntimeValue(new RuntimeValue(ContainerIndexKey.inst, i), false)
+                .build());
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Proxy proxy = createProxy();
+        byte[] json = jsonSerializer.serialize(proxy);
+        byte[] smile = smileSerializer.serialize(proxy);
+
+        Assertions.assertFalse(RedisValueSerializer.isSmile(json));
+        Assertions.assertTrue(RedisValueSerializer.isSmile(smile));
+        Assertions.assertTrue(smile.length < json.length, "smile: " + smile.length + " bytes, json: " + json.length + " bytes");
+
+        // both formats result in the same proxy
+        Assertions.assertEquals(new String(json, StandardCharsets.UTF_8),
+            new String(jsonSerializer.serialize(smileSerializer.deserialize(smile)), StandardCharsets.UTF_8));
+        Assertions.assertEquals(new String(json, StandardCharsets.UTF_8),
+            new String(jsonSerializer.serialize(jsonSerializer.deserialize(json)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadOtherFormat() {
+        Proxy proxy = createProxy();
+        byte[] json = jsonSerializer.serialize(proxy);
+        byte[] smile = smileSerializer.serialize(proxy);
+
+        // existing JSON values can be read after switching to Smile (and the other way around)
+        Assertions.assertEquals(proxy.getId(), smileSerializer.deserialize(json).getId());
+        Assertions.assertEquals(proxy.getId(), jsonSerializer.deserialize(smile).getId());
+        Assertions.assertEquals(3, smileSerializer.deserialize(json).getContainers().size());
+    }
+
+    @Test
+    public void testNull() {
+        Assertions.assertEquals(0, smileSerializer.serialize(null).length);
+        Assertions.assertNull(smileSerializer.deserialize(null));
+        Assertions.assertNull(smileSerializer.deserialize(new byte[0]));
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import eu.openanalytics.containerproxy.log.LogPaths;
+import eu.openanalytics.containerproxy.log.LogStreams;
+import eu.openanalytics.containerproxy.log.S3LogStorage;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link S3LogStorage} using an in-memory stand-in for S3.
+ */
+public class TestS3LogStorage {
+
+    // key -> content of the objects in the bucket
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private S3Client s3Client;
+    private S3LogStorage storage;
+
+    @BeforeEach
+    public void init() {
+        s3Client = mock(S3Client.class);
+        when(s3Client.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = invocation.getArgument(0);
+            RequestBody body = invocation.getArgument(1);
+            Assertions.assertEquals("bucket", request.bucket());
+            try (InputStream inputStream = body.contentStreamProvider().newStream()) {
+                objects.put(request.key(), inputStream.readAllBytes());
+            }
+            return PutObjectResponse.builder().build();
+        });
+        when(s3Client.getObjectAsBytes(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            GetObjectRequest request = invocation.getArgument(0);
+            byte[] content = objects.get(request.key());
+            if (content == null) {
+                throw NoSuchKeyException.builder().build();
+            }
+            return ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), content);
+        });
+
+        storage = new S3LogStorage();
+        ReflectionTestUtils.setField(storage, "containerLogPath", "s3://bucket/logs");
+        ReflectionTestUtils.setField(storage, "bucketName", "bucket");
+        ReflectionTestUtils.setField(storage, "bucketPath", "logs/");
+        ReflectionTestUtils.setField(storage, "s3Client", s3Client);
+    }
+
+    private void flush() {
+        ReflectionTestUtils.invokeMethod(storage, "flushAllStreams");
+    }
+
+    private String read(LogPaths paths) throws IOException {
+        return new String(storage.readLog(paths.getStdout()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testAppendFlushAndRead() throws IOException {
+        Proxy proxy = Proxy.builder().id("proxy1").targetId("proxy1").specId("myspec").build();
+        LogStreams streams = storage.createOutputStreams(proxy);
+        LogPaths paths = storage.getLogs(proxy);
+        String key = "logs/" + paths.getStdout().getFileName().toString();
+
+        // external flushes are ignored
+        streams.getStdout().write("hello\n".getBytes(StandardCharsets.UTF_8));
+        streams.getStdout().flush();
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        Assertions.assertEquals("", read(paths));
+
+        flush();
+        Assertions.assertEquals("hello\n", new String(objects.get(key + ".000001"), StandardCharsets.UTF_8));
+        Assertions.assertEquals("1", new String(objects.get(key + ".manifest"), StandardCharsets.UTF_8));
+        Assertions.assertEquals("hello\n", read(paths));
+
+        // every flush only uploads the new bytes
+        streams.getStdout().write("world\n".getBytes(StandardCharsets.UTF_8));
+        flush();
+        Assertions.assertEquals("world\n", new String(objects.get(key + ".000002"), StandardCharsets.UTF_8));
+        Assertions.assertEquals("hello\nworld\n", read(paths));
+
+        // nothing written -> no new segment
+        flush();
+        Assertions.assertFalse(objects.containsKey(key + ".000003"));
+
+        // e.g. the app was resumed -> the existing log is appended
+        streams = storage.createOutputStreams(proxy);
+        streams.getStdout().write("again\n".getBytes(StandardCharsets.UTF_8));
+        flush();
+        Assertions.assertEquals("3", new String(objects.get(key + ".manifest"), StandardCharsets.UTF_8));
+        Assertions.assertEquals("hello\nworld\nagain\n", read(paths));
+    }
+
+    @Test
+    public void testReadLogWithoutSegments() throws IOException {
+        Proxy proxy = Proxy.builder().id("proxy1").targetId("proxy1").specId("myspec").build();
+        LogPaths paths = storage.getLogs(proxy);
+        Assertions.assertEquals("", read(paths));
+
+        // log written as a single object
+        objects.put("logs/" + paths.getStdout().getFileName().toString(), "old\n".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("old\n", read(paths));
+    }
+
+}
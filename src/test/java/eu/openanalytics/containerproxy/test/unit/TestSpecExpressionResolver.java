@@ -0,0 +1,117 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2024 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.unit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import eu.openanalytics.containerproxy.auth.impl.WebServiceAuthenticationBackend;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.spec.ProxySpec;
+import eu.openanalytics.containerproxy.spec.expression.SpecExpressionContext;
+import eu.openanalytics.containerproxy.spec.expression.SpecExpressionResolver;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.expression.Expression;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+public class TestSpecExpressionResolver {
+
+    private SpecExpressionResolver resolver;
+
+    private static Proxy createProxy(String id) {
+        return Proxy.builder().id(id).targetId(id).userId("jack").specId("01_hello").build();
+    }
+
+    @BeforeEach
+    public void init() {
+        resolver = new SpecExpressionResolver(new StaticApplicationContext());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cache<String, Expression> getExpressionCache() {
+        return (Cache<String, Expression>) ReflectionTestUtils.getField(resolver, "expressionCache");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cache<SpecExpressionContext, Object> getEvaluationCache() {
+        return (Cache<SpecExpressionContext, Object>) ReflectionTestUtils.getField(resolver, "evaluationCache");
+    }
+
+    @Test
+    public void testCachedResultsAreReused() {
+        SpecExpressionContext context = SpecExpressionContext.create(createProxy("proxy-1"));
+        Assertions.assertEquals("proxy-1", resolver.evaluateToString("#{proxy.id}", context));
+        Expression expression = getExpressionCache().getIfPresent("#{proxy.id}");
+        Object evaluationContext = getEvaluationCache().getIfPresent(context);
+        Assertions.assertNotNull(expression);
+        Assertions.assertNotNull(evaluationContext);
+
+        Assertions.assertEquals("proxy-1", resolver.evaluateToString("#{proxy.id}", context));
+        Assertions.assertEquals("jack", resolver.evaluateToString("#{proxy.userId}", context));
+        Assertions.assertSame(expression, getExpressionCache().getIfPresent("#{proxy.id}"));
+        Assertions.assertSame(evaluationContext, getEvaluationCache().getIfPresent(context));
+        Assertions.assertEquals(2, getExpressionCache().asMap().size());
+        Assertions.assertEquals(1, getEvaluationCache().asMap().size());
+    }
+
+    @Test
+    public void testContextsAndSpecsDoNotShareEntries() {
+        SpecExpressionContext context1 = SpecExpressionContext.create(createProxy("proxy-1"), ProxySpec.builder().id("spec-1").build());
+        SpecExpressionContext context2 = SpecExpressionContext.create(createProxy("proxy-2"), ProxySpec.builder().id("spec-2").build());
+
+        Assertions.assertEquals("proxy-1", resolver.evaluateToString("#{proxy.id}", context1));
+        Assertions.assertEquals("proxy-2", resolver.evaluateToString("#{proxy.id}", context2));
+        Assertions.assertEquals("spec-1", resolver.evaluateToString("#{proxySpec.id}", context1));
+        Assertions.assertEquals("spec-2", resolver.evaluateToString("#{proxySpec.id}", context2));
+        Assertions.assertEquals(List.of("proxy-1", "spec-1"), resolver.evaluateToList(List.of("#{proxy.id}", "#{proxySpec.id}"), context1));
+
+        Assertions.assertNotSame(getEvaluationCache().getIfPresent(context1), getEvaluationCache().getIfPresent(context2));
+    }
+
+    @Test
+    public void testEqualContextsWithDifferentStateAreNotStale() {
+        // the equals method of the user only compares the username, e.g. the same user logging in again
+        SpecExpressionContext context1 = SpecExpressionContext.create(new WebServiceAuthenticationBackend.WebServiceUser("jack", "first-response", null, List.of()));
+        SpecExpressionContext context2 = SpecExpressionContext.create(new WebServiceAuthenticationBackend.WebServiceUser("jack", "second-response", null, List.of()));
+        Assertions.assertEquals(context1, context2);
+
+        Assertions.assertEquals("first-response", resolver.evaluateToString("#{webServiceUser.response}", context1));
+        Assertions.assertEquals("second-response", resolver.evaluateToString("#{webServiceUser.response}", context2));
+    }
+
+    @Test
+    public void testMutableContextValuesAreNotStale() {
+        ObjectNode json = new ObjectMapper().createObjectNode();
+        json.put("value", "a");
+        SpecExpressionContext context = SpecExpressionContext.create(json);
+        Assertions.assertEquals("a", resolver.evaluateToString("#{json.get('value').asText()}", context));
+
+        json.put("value", "b");
+        Assertions.assertEquals("b", resolver.evaluateToString("#{json.get('value').asText()}", context));
+        Assertions.assertEquals(1, getEvaluationCache().asMap().size());
+    }
+
+}